@@ -49,6 +49,17 @@ public class API
         return new Aggregate_Partial(inputOperator, rowType, inputsIndex, aggregatorFactories, aggregatorTypes, options);
     }
 
+    public static Operator aggregate_Hashed(Operator inputOperator,
+                                            RowType rowType,
+                                            int inputsIndex,
+                                            List<? extends TAggregator> aggregatorFactories,
+                                            List<? extends TInstance> aggregatorTypes,
+                                            List<Object> options
+                                            )
+    {
+        return new Aggregate_Hashed(inputOperator, rowType, inputsIndex, aggregatorFactories, aggregatorTypes, options);
+    }
+
     // Project
 
     public static Operator project_DefaultTest(Operator inputOperator,
@@ -134,6 +145,11 @@ public class API
         return new GroupScan_Default(new GroupScan_Default.FullGroupCursorCreator(group));
     }
 
+    public static Operator groupScan_Default(Group group, int parallelism)
+    {
+        return new GroupScan_Default(new GroupScan_Default.FullGroupCursorCreator(group, parallelism));
+    }
+
     public static Operator groupScan_Default(Group group,
                                              int hKeyBindingPosition,
                                              boolean deep,
@@ -411,6 +427,25 @@ public class API
         return new IndexScan_Default(indexType, indexKeyRange, ordering, indexScanSelector, lookaheadQuantum);
     }
 
+    public static Operator indexScan_MultiRange(IndexRowType indexType,
+                                                List<IndexKeyRange> indexKeyRanges,
+                                                Ordering ordering,
+                                                IndexScanSelector indexScanSelector,
+                                                int lookaheadQuantum)
+    {
+        return new IndexScan_MultiRange(indexType, indexKeyRanges, ordering, indexScanSelector, lookaheadQuantum, null);
+    }
+
+    public static Operator indexScan_MultiRange(IndexRowType indexType,
+                                                List<IndexKeyRange> indexKeyRanges,
+                                                Ordering ordering,
+                                                IndexScanSelector indexScanSelector,
+                                                int lookaheadQuantum,
+                                                boolean[] mergeAscending)
+    {
+        return new IndexScan_MultiRange(indexType, indexKeyRanges, ordering, indexScanSelector, lookaheadQuantum, mergeAscending);
+    }
+
     // Select
 
     public static Operator select_HKeyOrdered(Operator inputOperator,
@@ -493,6 +528,15 @@ public class API
         return new Sort_InsertionLimited(inputOperator, sortType, ordering, sortOption, limit);
     }
 
+    public static Operator sort_TopN(Operator inputOperator,
+                                     RowType sortType,
+                                     Ordering ordering,
+                                     int offset,
+                                     int limit)
+    {
+        return new Sort_TopN(inputOperator, sortType, ordering, offset, limit);
+    }
+
     public static Operator sort_General(Operator inputOperator,
                                         RowType sortType,
                                         Ordering ordering,
@@ -827,7 +871,43 @@ public class API
                                            List<TComparison> tComparisons,
                                            List<AkCollator> collators)
     {
-        return new Using_HashTable(hashInput, hashedRowType, comparisonFields, hashTableBindingPosition, joinedInput, tComparisons, collators);
+        return using_HashTable(hashInput, hashedRowType, comparisonFields, hashTableBindingPosition, joinedInput, tComparisons, collators, false, null);
+    }
+
+    /** As above, with <code>packedKeys</code> true if the keys on both
+     * sides can go in a {@link com.foundationdb.qp.util.LongKeyHashTable}.
+     * @see com.foundationdb.qp.util.LongKeyHashTable#canPack
+     */
+    public static Operator using_HashTable(Operator hashInput,
+                                           RowType hashedRowType,
+                                           List<TPreparedExpression> comparisonFields,
+                                           int hashTableBindingPosition,
+                                           Operator joinedInput,
+                                           List<TComparison> tComparisons,
+                                           List<AkCollator> collators,
+                                           boolean packedKeys)
+    {
+        return using_HashTable(hashInput, hashedRowType, comparisonFields, hashTableBindingPosition, joinedInput, tComparisons, collators, packedKeys, null);
+    }
+
+    /** As above, with the <code>probeFields</code> of the
+     * <code>hashTableLookup_Default</code> inside <code>joinedInput</code>
+     * if its rows may be reordered, so that a spilled hash table is
+     * probed one partition at a time. <code>joinedInput</code> must
+     * then be a <code>map_NestedLoops</code> whose inner side only
+     * depends on its outer rows' values.
+     */
+    public static Operator using_HashTable(Operator hashInput,
+                                           RowType hashedRowType,
+                                           List<TPreparedExpression> comparisonFields,
+                                           int hashTableBindingPosition,
+                                           Operator joinedInput,
+                                           List<TComparison> tComparisons,
+                                           List<AkCollator> collators,
+                                           boolean packedKeys,
+                                           List<TPreparedExpression> probeFields)
+    {
+        return new Using_HashTable(hashInput, hashedRowType, comparisonFields, hashTableBindingPosition, joinedInput, tComparisons, collators, packedKeys, probeFields);
     }
 
     // EmitBoundRow_Nested
@@ -0,0 +1,532 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.operator;
+
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.row.ValuesHolderRow;
+import com.foundationdb.qp.rowtype.AggregatedRowType;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.util.RowSpillFile;
+import com.foundationdb.server.collation.AkCollator;
+import com.foundationdb.server.explain.*;
+import com.foundationdb.server.service.config.ConfigurationService;
+import com.foundationdb.server.types.TAggregator;
+import com.foundationdb.server.types.TClass;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.common.types.TString;
+import com.foundationdb.server.types.mcompat.aggr.MCount;
+import com.foundationdb.server.types.value.*;
+import com.foundationdb.util.ArgumentValidation;
+import com.foundationdb.util.tap.InOutTap;
+import com.foundationdb.util.tap.PointTap;
+import com.foundationdb.util.tap.Tap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.*;
+
+/**
+
+ <h1>Overview</h1>
+
+ Aggregate_Hashed applies a complete aggregation to rows in any
+ order, by keeping the aggregation state of every group in a hash
+ table keyed on the GROUP BY columns. It is an alternative to sorting
+ the input and then using Aggregate_Partial, when there are not many
+ groups.
+
+ <h1>Arguments</h1>
+
+ The same as Aggregate_Partial.
+
+ <h1>Behavior</h1>
+
+ Input rows are interpreted as in Aggregate_Partial: a GROUP BY
+ section followed by one input per aggregator. Each input row is added
+ to the state of its group, creating it if necessary, using
+ the <i>TAggregator</i>s the same way as Aggregate_Partial does. Once
+ the input is exhausted, one row is output for each group.
+
+ With no aggregators, this is a DISTINCT on all the columns.
+
+ <h1>Output</h1>
+
+ One row per group, in no particular order. Rows from the input
+ operator with a type other than <i>input.rowType()</i> are passed
+ through unchanged, before any of the output rows. If there are no
+ input rows and no GROUP BY, a single row of empty aggregates is
+ output, as by Aggregate_Partial.
+
+ <h1>Assumptions</h1>
+
+ None.
+
+ <h1>Performance</h1>
+
+ One hash probe per input row. When the estimated size of the groups
+ exceeds <code>fdbsql.hash_table.memory</code>, groups already in
+ memory continue to be aggregated there, but input rows belonging to
+ new groups are written to one of a fixed number of partition files
+ under <code>fdbsql.tmp_dir</code>. After the groups in memory are
+ output, each partition is aggregated in turn in the same way. Spills
+ are counted by taps.
+
+ <h1>Memory requirements</h1>
+
+ The keys and aggregation states of the groups, up to the memory
+ limit.
+
+ */
+
+final class Aggregate_Hashed extends Operator
+{
+
+    // Operator interface
+
+    @Override
+    protected Cursor cursor(QueryContext context, QueryBindingsCursor bindingsCursor) {
+        return new Execution(context, inputOperator.cursor(context, bindingsCursor));
+    }
+
+    @Override
+    public void findDerivedTypes(Set<RowType> derivedTypes) {
+        inputOperator.findDerivedTypes(derivedTypes);
+        derivedTypes.add(outputType);
+    }
+
+    @Override
+    public List<Operator> getInputOperators() {
+        return Collections.singletonList(inputOperator);
+    }
+
+    @Override
+    public RowType rowType() {
+        return outputType;
+    }
+
+    // Aggregate_Hashed interface
+
+    public Aggregate_Hashed(Operator inputOperator,
+                            RowType inputRowType,
+                            int inputsIndex,
+                            List<? extends TAggregator> aggregatorFactories,
+                            List<? extends TInstance> pAggrTypes,
+                            List<Object> options) {
+        this.inputOperator = inputOperator;
+        this.inputRowType = inputRowType;
+        this.inputsIndex = inputsIndex;
+        this.outputType = inputRowType.schema().newAggregateType(inputRowType, inputsIndex, pAggrTypes);
+        this.pAggrs = aggregatorFactories;
+        this.pAggrTypes = pAggrTypes;
+        this.options = options;
+        validate();
+        this.keyCollators = new AkCollator[inputsIndex];
+        for (int i = 0; i < inputsIndex; i++) {
+            TInstance type = inputRowType.typeAt(i);
+            if ((type != null) && (type.typeClass() instanceof TString)) {
+                keyCollators[i] = TString.getCollator(type);
+            }
+        }
+    }
+
+    // Object interface
+
+    @Override
+    public String toString() {
+        if (inputsIndex == 1) {
+            return String.format("HashAggregation(GROUP BY 1 field, then: %s)", aggrsToString());
+        }
+        return String.format("HashAggregation(GROUP BY %d fields, then: %s)", inputsIndex, aggrsToString());
+    }
+
+    private String aggrsToString() {
+        int pAggersLen = pAggrs.size();
+        StringBuilder sb = new StringBuilder(pAggersLen * 6);
+        sb.append('[');
+        for (int i = 0; i < pAggersLen; ++i) {
+            TAggregator aggregator = pAggrs.get(i);
+            sb.append(aggregator);
+            if (! (aggregator instanceof MCount)) {
+                sb.append(rowType().typeAt(i + inputsIndex).typeClass().name().unqualifiedName());
+            }
+            if ( (i+1) < pAggersLen)
+                sb.append(", ");
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    // private methods
+
+    private void validate() {
+        if (inputOperator == null || inputRowType == null || outputType == null)
+            throw new NullPointerException();
+        ArgumentValidation.isBetween("inputsIndex", 0, inputsIndex, inputRowType.nFields()+1);
+        if (pAggrTypes.size() != pAggrs.size())
+            throw new IllegalArgumentException("aggregators and aggregator types mismatch in size");
+        if (inputsIndex + pAggrs.size() != inputRowType.nFields()) {
+            throw new IllegalArgumentException(
+                    String.format("inputsIndex(=%d) + aggregatorNames.size(=%d) != inputRowType.nFields(=%d)",
+                            inputsIndex, pAggrs.size(), inputRowType.nFields()
+            ));
+        }
+    }
+
+    // class state
+
+    private static final InOutTap TAP_OPEN = OPERATOR_TAP.createSubsidiaryTap("operator: Aggregate_Hashed open");
+    private static final InOutTap TAP_NEXT = OPERATOR_TAP.createSubsidiaryTap("operator: Aggregate_Hashed next");
+    private static final PointTap SPILL_COUNT = Tap.createCount("operator: Aggregate_Hashed spill");
+    private static final PointTap SPILL_ROW_COUNT = Tap.createCount("operator: Aggregate_Hashed spill row");
+    private static final Logger LOG = LoggerFactory.getLogger(Aggregate_Hashed.class);
+    private static final String MEMORY_PROPERTY = "fdbsql.hash_table.memory";
+    private static final String TMP_DIR_PROPERTY = "fdbsql.tmp_dir";
+    private static final int PARTITIONS = 32;
+    // After this many rounds of spilling the same keys, give up on the limit.
+    private static final int MAX_SPILL_LEVEL = 8;
+    // Rough per-group overhead of the hash table entry and key.
+    private static final int GROUP_OVERHEAD = 64;
+
+    // object state
+
+    private final Operator inputOperator;
+    private final RowType inputRowType;
+    private final AggregatedRowType outputType;
+    private final int inputsIndex;
+    private final List<? extends TInstance> pAggrTypes;
+    private final List<? extends TAggregator> pAggrs;
+    private final List<Object> options;
+    private final AkCollator[] keyCollators;
+
+    @Override
+    public CompoundExplainer getExplainer(ExplainContext context)
+    {
+        Attributes atts = new Attributes();
+        atts.put(Label.NAME, PrimitiveExplainer.getInstance(getName()));
+        for (TAggregator agg : pAggrs)
+            atts.put(Label.AGGREGATORS, PrimitiveExplainer.getInstance(agg.displayName().toUpperCase()));
+        atts.put(Label.GROUPING_OPTION, PrimitiveExplainer.getInstance(inputsIndex));
+        atts.put(Label.INPUT_OPERATOR, inputOperator.getExplainer(context));
+        atts.put(Label.INPUT_TYPE, inputRowType.getExplainer(context));
+        atts.put(Label.OUTPUT_TYPE, outputType.getExplainer(context));
+        return new CompoundExplainer(Type.AGGREGATE, atts);
+    }
+
+    // nested classes
+
+    private class Execution extends ChainedCursor
+    {
+
+        // Cursor interface
+
+        @Override
+        public void open() {
+            TAP_OPEN.in();
+            try {
+                super.open();
+                ConfigurationService config = context.getServiceManager().getConfigurationService();
+                memoryLimit = Long.parseLong(config.getProperty(MEMORY_PROPERTY));
+                groups = new HashMap<>();
+                groupsBytes = 0;
+                level = 0;
+                outputs = null;
+            } finally {
+                TAP_OPEN.out();
+            }
+        }
+
+        @Override
+        public Row next() {
+            if (TAP_NEXT_ENABLED) {
+                TAP_NEXT.in();
+            }
+            try {
+                checkQueryCancelation();
+                if (CURSOR_LIFECYCLE_ENABLED) {
+                    CursorLifecycle.checkIdleOrActive(this);
+                }
+                if (isIdle()) {
+                    if (LOG_EXECUTION) {
+                        LOG.debug("Aggregate_Hashed: null");
+                    }
+                    return null;
+                }
+                Row output;
+                while (true) {
+                    if (outputs == null) {
+                        Row row = input.next();
+                        if (row == null) {
+                            endPass();
+                        }
+                        else if (row.rowType() != inputRowType) {
+                            output = row; // pass through
+                            break;
+                        }
+                        else {
+                            add(row);
+                        }
+                    }
+                    else if (outputs.hasNext()) {
+                        Map.Entry<GroupKey,Value[]> entry = outputs.next();
+                        outputs.remove();
+                        output = createOutput(entry.getKey(), entry.getValue());
+                        break;
+                    }
+                    else if (!pending.isEmpty()) {
+                        loadPartition(pending.removeFirst());
+                    }
+                    else {
+                        setIdle();
+                        output = null;
+                        break;
+                    }
+                }
+                if (LOG_EXECUTION) {
+                    LOG.debug("Aggregate_Hashed: yield {}", output);
+                }
+                return output;
+            } finally {
+                if (TAP_NEXT_ENABLED) {
+                    TAP_NEXT.out();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                groups = null;
+                outputs = null;
+                deleteSpilled();
+            } finally {
+                super.close();
+            }
+        }
+
+        // for use in this class
+
+        private void add(Row input) {
+            probe.fill(input);
+            Value[] states = groups.get(probe);
+            if (states == null) {
+                if (spilling != null) {
+                    spill(input, probe.hash);
+                    return;
+                }
+                long size = RowSpillFile.estimateSize(inputRowType, input) + GROUP_OVERHEAD;
+                if ((memoryLimit > 0) && (groupsBytes + size > memoryLimit) &&
+                    !groups.isEmpty() && (level < MAX_SPILL_LEVEL)) {
+                    startSpilling();
+                    spill(input, probe.hash);
+                    return;
+                }
+                groupsBytes += size;
+                states = newStates();
+                groups.put(probe.copy(), states);
+            }
+            aggregate(input, states);
+        }
+
+        private void aggregate(Row input, Value[] states) {
+            for (int i = 0; i < states.length; ++i) {
+                int inputIndex = i + inputsIndex;
+                TInstance inputType = input.rowType().typeAt(inputIndex);
+                ValueSource inputSource = input.value(inputIndex);
+                pAggrs.get(i).input(inputType, inputSource, pAggrTypes.get(i), states[i], options.get(i));
+            }
+        }
+
+        private Value[] newStates() {
+            Value[] states = new Value[pAggrs.size()];
+            for (int i = 0; i < states.length; i++) {
+                states[i] = new Value(pAggrTypes.get(i));
+            }
+            return states;
+        }
+
+        private Row createOutput(GroupKey key, Value[] states) {
+            ValuesHolderRow outputRow = new ValuesHolderRow(outputType);
+            for (int i = 0; i < inputsIndex; ++i) {
+                ValueTargets.copyFrom(key.keys[i], outputRow.valueAt(i));
+            }
+            for (int i = 0; i < states.length; ++i) {
+                Value value = outputRow.valueAt(i + inputsIndex);
+                if (states[i].hasAnyValue())
+                    ValueTargets.copyFrom(states[i], value);
+                else
+                    pAggrs.get(i).emptyValue(value);
+            }
+            return outputRow;
+        }
+
+        /** All the rows for this pass have been added: start outputting its groups. */
+        private void endPass() {
+            if ((inputsIndex == 0) && (level == 0) && groups.isEmpty()) {
+                // No input at all, which still gets one row of empty aggregates.
+                groups.put(new GroupKey(), newStates());
+            }
+            if (spilling != null) {
+                for (RowSpillFile file : spilling) {
+                    if (file != null) {
+                        file.finishWriting();
+                        pending.addLast(new Partition(file, level + 1));
+                    }
+                }
+                spilling = null;
+            }
+            outputs = groups.entrySet().iterator();
+        }
+
+        private void loadPartition(Partition partition) {
+            checkQueryCancelation();
+            groups = new HashMap<>();
+            groupsBytes = 0;
+            level = partition.level;
+            try (RowSpillFile.Reader reader = partition.file.read()) {
+                Row row;
+                while ((row = reader.next()) != null) {
+                    add(row);
+                }
+            }
+            finally {
+                partition.file.delete();
+            }
+            endPass();
+        }
+
+        private void startSpilling() {
+            SPILL_COUNT.hit();
+            ConfigurationService config = context.getServiceManager().getConfigurationService();
+            directory = new File(config.getProperty(TMP_DIR_PROPERTY));
+            spilling = new RowSpillFile[PARTITIONS];
+            LOG.debug("Aggregation of {} exceeded {} bytes, spilling to {}",
+                      new Object[] { inputRowType, memoryLimit, directory });
+        }
+
+        private void spill(Row input, int hash) {
+            // Mix in the level, so that rows spilled together get split up when spilled again.
+            int h = hash ^ (level * 0x9e3779b9);
+            h ^= (h >>> 16);
+            h *= 0x85ebca6b;
+            h ^= (h >>> 13);
+            h *= 0xc2b2ae35;
+            h ^= (h >>> 16);
+            int partition = (h & Integer.MAX_VALUE) % PARTITIONS;
+            RowSpillFile file = spilling[partition];
+            if (file == null) {
+                file = new RowSpillFile(inputRowType, directory, "aggregate-" + context.getSessionId() + "-");
+                spilling[partition] = file;
+            }
+            file.write(input);
+            SPILL_ROW_COUNT.hit();
+        }
+
+        private void deleteSpilled() {
+            if (spilling != null) {
+                for (RowSpillFile file : spilling) {
+                    if (file != null) {
+                        file.delete();
+                    }
+                }
+                spilling = null;
+            }
+            while (!pending.isEmpty()) {
+                pending.removeFirst().file.delete();
+            }
+        }
+
+        // Execution interface
+
+        private Execution(QueryContext context, Cursor input) {
+            super(context, input);
+        }
+
+        // object state
+
+        private final GroupKey probe = new GroupKey();
+        private final Deque<Partition> pending = new ArrayDeque<>();
+        private Map<GroupKey,Value[]> groups;
+        private Iterator<Map.Entry<GroupKey,Value[]>> outputs;
+        private long memoryLimit;
+        private long groupsBytes;
+        private int level;
+        private File directory;
+        private RowSpillFile[] spilling;
+    }
+
+    /** The GROUP BY columns of a row. The probe refers to the input
+     * row's own values; keys stored in the table are copies. */
+    private class GroupKey
+    {
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof GroupKey))
+                return false;
+            GroupKey other = (GroupKey)obj;
+            if (hash != other.hash)
+                return false;
+            for (int i = 0; i < inputsIndex; i++) {
+                TInstance type = inputRowType.typeAt(i);
+                if (TClass.compare(type, keys[i], type, other.keys[i]) != 0)
+                    return false;
+            }
+            return true;
+        }
+
+        public void fill(Row row) {
+            hash = 0;
+            for (int i = 0; i < inputsIndex; i++) {
+                ValueSource value = row.value(i);
+                keys[i] = value;
+                hash = hash * 31 + ValueSources.hash(value, keyCollators[i]);
+            }
+        }
+
+        public GroupKey copy() {
+            GroupKey copy = new GroupKey();
+            for (int i = 0; i < inputsIndex; i++) {
+                Value value = new Value(inputRowType.typeAt(i));
+                ValueTargets.copyFrom(keys[i], value);
+                copy.keys[i] = value;
+            }
+            copy.hash = hash;
+            return copy;
+        }
+
+        final ValueSource[] keys = new ValueSource[inputsIndex];
+        int hash;
+    }
+
+    private static class Partition
+    {
+        final RowSpillFile file;
+        final int level;
+
+        Partition(RowSpillFile file, int level) {
+            this.file = file;
+            this.level = level;
+        }
+    }
+}
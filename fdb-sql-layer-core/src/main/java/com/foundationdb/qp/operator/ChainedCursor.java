@@ -35,6 +35,7 @@ import com.foundationdb.server.api.dml.ColumnSelector;
  * @see MultiChainedCursor
  *
  * Used by:
+ * @see Aggregate_Hashed
  * @see Aggregate_Partial
  * @see BranchLookup_Default
  * @see Buffer_Default
@@ -573,7 +573,16 @@ class GroupLookup_Default extends Operator
                         cursorIndex++;
                     }
                     else {
-                        outputRow = inputs[currentIndex].cursors[cursorIndex].next();
+                        if (inputs[currentIndex].lookahead) {
+                            // First wait on this row's lookups.
+                            long start = System.nanoTime();
+                            outputRow = inputs[currentIndex].cursors[cursorIndex].next();
+                            window.firstRow(System.nanoTime() - start);
+                            inputs[currentIndex].lookahead = false;
+                        }
+                        else {
+                            outputRow = inputs[currentIndex].cursors[cursorIndex].next();
+                        }
                         if (cursorIndex == branchCursorIndex) {
                             // Get all matching rows from branch.
                             if (outputRow == null) {
@@ -702,6 +711,9 @@ class GroupLookup_Default extends Operator
             }
             // Convert from number of cursors to number of input rows, rounding up.
             quantum = (quantum + ncursors - 1) / ncursors;
+            this.window = LookaheadWindow.create(context, quantum);
+            // Room for the window to grow.
+            quantum = window.max();
             this.quantum = quantum;
             this.ncursors = nindex;
             this.inputs = new InputState[quantum];
@@ -725,7 +737,8 @@ class GroupLookup_Default extends Operator
         private void fillPipeline() {
             // Get some more input rows, crossing bindings boundaries as
             // necessary, and open cursors for them.
-            while (!bindingsExhausted && inputs[nextIndex].inputRow == null) {
+            while (!bindingsExhausted && inputs[nextIndex].inputRow == null &&
+                   (filled() < window.size())) {
                 if (nextBindings == null) {
                     if (newBindings) {
                         nextBindings = currentBindings;
@@ -751,6 +764,8 @@ class GroupLookup_Default extends Operator
                 }
                 else {
                     InputState inputState = inputs[nextIndex];
+                    // Opened before it is needed, unless the pipeline is empty.
+                    inputState.lookahead = (filled() > 0);
                     inputState.inputRow = row;
                     if (LOG_EXECUTION) {
                         LOG.debug("GroupLookup: new input {}", row);
@@ -769,6 +784,9 @@ class GroupLookup_Default extends Operator
                         else {
                             inputState.lookupHKeys[i] = row.ancestorHKey(ancestors.get(i));
                         }
+                        if (inputState.cursors[i] == null) {
+                            inputState.cursors[i] = adapter().newGroupCursor(group);
+                        }
                         inputState.cursors[i].rebind(inputState.lookupHKeys[i], deep);
                         inputState.cursors[i].open();
                     }
@@ -777,12 +795,24 @@ class GroupLookup_Default extends Operator
             }
         }
 
+        /** Number of slots in use, which are always contiguous from <code>currentIndex</code>. */
+        private int filled() {
+            if (nextIndex != currentIndex) {
+                return (nextIndex - currentIndex + quantum) % quantum;
+            }
+            return (inputs[currentIndex].inputRow == null) ? 0 : quantum;
+        }
+
         private class InputState 
         {
             public Row inputRow;
             public QueryBindings queryBindings;
+            // Cursors are made the first time the slot is used, since
+            // the window may never grow to reach it.
             public final GroupCursor[] cursors;
             public final HKey[] lookupHKeys;
+            // Lookups opened ahead and not yet waited for.
+            public boolean lookahead;
             //public final GroupCursor keepIndexCursor;
             
             public InputState (int slots, int keepInputCursorIndex, int branchCursorIndex) {
@@ -791,8 +821,6 @@ class GroupLookup_Default extends Operator
                 cursors = new GroupCursor[slots];
                 lookupHKeys = new HKey[slots];
                 for (int i = 0; i < slots; i++) {
-                    if (i != keepInputCursorIndex)
-                        this.cursors[i] = adapter().newGroupCursor(group);
                     if (i == branchCursorIndex)
                         this.lookupHKeys[i] = adapter().getKeyCreator().newHKey(inputRowType.hKey());
                 }
@@ -801,9 +829,10 @@ class GroupLookup_Default extends Operator
             public void clearState() {
                 inputRow = null;
                 queryBindings = null;
+                lookahead = false;
                 for (int i = 0; i < cursors.length; i++) {
                     if (i == keepInputCursorIndex) continue;
-                    if (!cursors[i].isClosed()) { cursors[i].close();}
+                    if ((cursors[i] != null) && !cursors[i].isClosed()) { cursors[i].close();}
                     lookupHKeys[i] = null;
                 }
             }
@@ -814,6 +843,7 @@ class GroupLookup_Default extends Operator
         private final Cursor input;
         private final Queue<QueryBindings> pendingBindings;
         private final int quantum;
+        private final LookaheadWindow window;
         private final InputState[] inputs;
         
         
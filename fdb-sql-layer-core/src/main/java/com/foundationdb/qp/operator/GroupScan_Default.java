@@ -268,14 +268,21 @@ class GroupScan_Default extends Operator
         @Override
         public GroupCursor cursor(QueryContext context)
         {
-            return context.getStore(group().getRoot()).newGroupCursor(group());
+            return context.getStore(group().getRoot()).newGroupCursor(group(), parallelism);
         }
 
         // FullGroupCursorCreator interface
 
         public FullGroupCursorCreator(Group group)
+        {
+            this(group, 1);
+        }
+
+        public FullGroupCursorCreator(Group group, int parallelism)
         {
             super(group);
+            ArgumentValidation.isGTE("parallelism", parallelism, 1);
+            this.parallelism = parallelism;
         }
 
         // AbstractGroupCursorCreator interface
@@ -285,6 +292,10 @@ class GroupScan_Default extends Operator
         {
             return "full scan";
         }
+
+        // object state
+
+        private final int parallelism;
     }
 
     static class PositionalGroupCursorCreator extends AbstractGroupCursorCreator
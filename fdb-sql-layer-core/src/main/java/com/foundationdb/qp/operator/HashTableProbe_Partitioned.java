@@ -0,0 +1,251 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.operator;
+
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.util.HashTable;
+import com.foundationdb.qp.util.SpillableHashTable;
+import com.foundationdb.server.explain.*;
+import com.foundationdb.server.types.texpressions.TEvaluatableExpression;
+import com.foundationdb.server.types.texpressions.TPreparedExpression;
+import com.foundationdb.util.ArgumentValidation;
+import com.foundationdb.util.tap.InOutTap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+
+ <h1>Overview</h1>
+
+ HashTableProbe_Partitioned partitions the outer rows of a hash join
+ whose hash table has spilled, so that each spilled partition is read
+ back once rather than once per probe that needs it.
+
+ <h1>Arguments</h1>
+
+ <ul>
+ <li><b>Operator inputOperator:</b> The outer input of the joining Map_NestedLoops.
+ <li><b>int hashTableBindingPosition:</b> Where Using_HashTable binds the hash table.
+ <li><b>List&lt;TPreparedExpression&gt; probeFields:</b> The probe key, as given to HashTableLookup_Default.
+ <li><b>int rowBindingPosition:</b> Where Map_NestedLoops binds each row, which <code>probeFields</code> refer to.
+ </ul>
+
+ <h1>Behavior</h1>
+
+ While the hash table is in memory, rows are passed through. Once it
+ has spilled, a row whose probe key is in a spilled partition is written
+ to a probe file for that partition instead, by
+ {@link SpillableHashTable#deferProbe}. When the input is done, those
+ rows follow, one partition at a time.
+
+ <h1>Output</h1>
+
+ The input rows, in a different order if the hash table spilled.
+
+ <h1>Assumptions</h1>
+
+ Nothing downstream depends on the order of the input or on more of an
+ input row than its values, since a deferred row is read back from a file.
+ Each row is probed before the next one is requested.
+
+ <h1>Performance</h1>
+
+ A deferred row is written and read once.
+
+ <h1>Memory Requirements</h1>
+
+ A spilled partition and the in-memory part of the hash table.
+
+ */
+
+class HashTableProbe_Partitioned extends Operator
+{
+    // Object interface
+
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName();
+    }
+
+    // Operator interface
+
+    @Override
+    protected Cursor cursor(QueryContext context, QueryBindingsCursor bindingsCursor)
+    {
+        return new Execution(context, inputOperator.cursor(context, bindingsCursor));
+    }
+
+    @Override
+    public void findDerivedTypes(Set<RowType> derivedTypes)
+    {
+        inputOperator.findDerivedTypes(derivedTypes);
+    }
+
+    @Override
+    public List<Operator> getInputOperators()
+    {
+        return Collections.singletonList(inputOperator);
+    }
+
+    @Override
+    public String describePlan()
+    {
+        return describePlan(inputOperator);
+    }
+
+    // HashTableProbe_Partitioned interface
+
+    public HashTableProbe_Partitioned(Operator inputOperator,
+                                      int hashTableBindingPosition,
+                                      List<TPreparedExpression> probeFields,
+                                      int rowBindingPosition)
+    {
+        ArgumentValidation.notNull("inputOperator", inputOperator);
+        ArgumentValidation.notNull("probeFields", probeFields);
+        ArgumentValidation.isGTE("rowBindingPosition", rowBindingPosition, 0);
+        this.inputOperator = inputOperator;
+        this.hashTableBindingPosition = hashTableBindingPosition;
+        this.probeFields = probeFields;
+        this.rowBindingPosition = rowBindingPosition;
+    }
+
+    // Class state
+
+    private static final InOutTap TAP_OPEN = OPERATOR_TAP.createSubsidiaryTap("operator: HashTableProbe_Partitioned open");
+    private static final InOutTap TAP_NEXT = OPERATOR_TAP.createSubsidiaryTap("operator: HashTableProbe_Partitioned next");
+    private static final Logger LOG = LoggerFactory.getLogger(HashTableProbe_Partitioned.class);
+
+    // Object state
+
+    private final Operator inputOperator;
+    private final int hashTableBindingPosition;
+    private final List<TPreparedExpression> probeFields;
+    private final int rowBindingPosition;
+
+    @Override
+    public CompoundExplainer getExplainer(ExplainContext context)
+    {
+        Attributes atts = new Attributes();
+        atts.put(Label.NAME, PrimitiveExplainer.getInstance(getName()));
+        atts.put(Label.BINDING_POSITION, PrimitiveExplainer.getInstance(hashTableBindingPosition));
+        atts.put(Label.INPUT_OPERATOR, inputOperator.getExplainer(context));
+        for (TPreparedExpression field : probeFields) {
+            atts.put(Label.EXPRESSIONS, field.getExplainer(context));
+        }
+        return new CompoundExplainer(Type.HASH_JOIN, atts);
+    }
+
+    // Inner classes
+
+    private class Execution extends ChainedCursor
+    {
+        // Cursor interface
+
+        @Override
+        public void open()
+        {
+            TAP_OPEN.in();
+            try {
+                super.open();
+                HashTable hashTable = bindings.getHashTable(hashTableBindingPosition);
+                spillable = (hashTable instanceof SpillableHashTable) ? (SpillableHashTable)hashTable : null;
+                probeBindings = bindings.createBindings();
+                inputDone = false;
+            } finally {
+                TAP_OPEN.out();
+            }
+        }
+
+        @Override
+        public Row next()
+        {
+            if (TAP_NEXT_ENABLED) {
+                TAP_NEXT.in();
+            }
+            try {
+                if (CURSOR_LIFECYCLE_ENABLED) {
+                    CursorLifecycle.checkIdleOrActive(this);
+                }
+                checkQueryCancelation();
+                Row row = null;
+                while (!inputDone) {
+                    row = input.next();
+                    if (row == null) {
+                        inputDone = true;
+                    }
+                    else if ((spillable == null) || !spillable.isSpilled()) {
+                        break;
+                    }
+                    else {
+                        probeBindings.setRow(rowBindingPosition, row);
+                        if (!spillable.deferProbe(row, evaluatableProbeFields, probeBindings)) {
+                            break;
+                        }
+                        row = null;
+                    }
+                }
+                if ((row == null) && (spillable != null)) {
+                    row = spillable.nextDeferredProbe();
+                }
+                if (row == null) {
+                    setIdle();
+                }
+                if (LOG_EXECUTION) {
+                    LOG.debug("HashTableProbe_Partitioned: yield {}", row);
+                }
+                return row;
+            } finally {
+                if (TAP_NEXT_ENABLED) {
+                    TAP_NEXT.out();
+                }
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            spillable = null;
+            probeBindings = null;
+            super.close();
+        }
+
+        // Execution interface
+
+        Execution(QueryContext context, Cursor input)
+        {
+            super(context, input);
+            for (TPreparedExpression probeField : probeFields) {
+                evaluatableProbeFields.add(probeField.build());
+            }
+        }
+
+        // Object state
+
+        private final List<TEvaluatableExpression> evaluatableProbeFields = new ArrayList<>();
+        private SpillableHashTable spillable;
+        private QueryBindings probeBindings;
+        private boolean inputDone;
+    }
+}
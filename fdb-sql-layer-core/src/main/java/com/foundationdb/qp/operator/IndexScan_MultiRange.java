@@ -0,0 +1,458 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.operator;
+
+import com.foundationdb.ais.model.Column;
+import com.foundationdb.ais.model.Index;
+import com.foundationdb.ais.model.IndexColumn;
+import com.foundationdb.qp.expression.IndexKeyRange;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.IndexRowType;
+import com.foundationdb.server.explain.*;
+import com.foundationdb.util.ArgumentValidation;
+import com.foundationdb.util.tap.InOutTap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static java.lang.Math.abs;
+
+/**
+
+ <h1>Overview</h1>
+
+ IndexScan_MultiRange scans an index for the keys inside any of
+ several ranges, such as the ranges made from an <tt>IN</tt> list.
+ It replaces a chain of {@link IndexScan_Default}s combined by
+ {@link UnionAll_Default} or {@link Union_Ordered}.
+
+ <h1>Arguments</h1>
+
+ <ul>
+
+ <li><b>IndexRowType indexType:</b> The index's type.
+
+ <li><b>List&lt;IndexKeyRange&gt; indexKeyRanges:</b> The ranges of keys
+ to be visited, in index order and not overlapping.
+
+ <li><b>API.Ordering ordering:</b> Indicates whether keys should be visited
+  in ascending order or descending order.
+
+ <li><b>IndexScanSelector scanSelector:</b> On a group index, specify which
+  tables must be present for OUTER JOIN semantics.
+
+ <li><b>int lookaheadQuantum:</b> Number of ranges to start reading ahead of
+  the one being read.
+
+ <li><b>boolean[] mergeAscending:</b> If non-null, the ranges are merged on
+  this many trailing fields of the index row, as by {@link Union_Ordered}.
+  <tt>mergeAscending[i]</tt> is true if the ith such field is ascending.
+
+ </ul>
+
+ <h1>Behavior</h1>
+
+ Without merging, the ranges are output one after the other, in the
+ order given. Up to <tt>lookaheadQuantum</tt> of them are opened at
+ once, which starts their reads, so that each one after the first is
+ usually ready by the time it is needed.
+
+ With merging, the first row of every range is read before any row is
+ output, and then their rows are merged so that the output is ordered by
+ the merge fields. Ranges are opened in order, up to <tt>lookaheadQuantum</tt>
+ ahead of the one whose first row is being waited for.
+
+ <h1>Output</h1>
+
+ Output contains index rows, as from {@link IndexScan_Default}.
+
+ <h1>Assumptions</h1>
+
+ No two ranges contain the same key. When merging, each range is ordered
+ by the merge fields, which is true when it is a single point on all the
+ index columns before them.
+
+ <h1>Performance</h1>
+
+ IndexScan_MultiRange does one random access per range, but they are
+ overlapped, so the number of round trips is about the number of ranges
+ divided by <tt>lookaheadQuantum</tt> rather than the number of ranges.
+
+ <h1>Memory Requirements</h1>
+
+ One index cursor per open range. When merging, every range that has not
+ ended stays open, with one row each.
+
+ */
+
+class IndexScan_MultiRange extends Operator
+{
+    // Object interface
+
+    @Override
+    public String toString()
+    {
+        StringBuilder str = new StringBuilder(getClass().getSimpleName());
+        str.append("(").append(index);
+        for (IndexKeyRange indexKeyRange : indexKeyRanges) {
+            str.append(" ").append(indexKeyRange);
+        }
+        if (!ordering.allAscending()) {
+            str.append(" ").append(ordering);
+        }
+        if (mergeAscending != null) {
+            str.append(" merge ").append(mergeAscending.length);
+        }
+        str.append(scanSelector.describe());
+        str.append(")");
+        return str.toString();
+    }
+
+    // Operator interface
+
+    @Override
+    protected Cursor cursor(QueryContext context, QueryBindingsCursor bindingsCursor)
+    {
+        if (mergeAscending == null) {
+            return new Execution(context, bindingsCursor);
+        }
+        else {
+            return new MergeExecution(context, bindingsCursor);
+        }
+    }
+
+    // IndexScan_MultiRange interface
+
+    public IndexScan_MultiRange(IndexRowType indexType,
+                                List<IndexKeyRange> indexKeyRanges,
+                                API.Ordering ordering,
+                                IndexScanSelector scanSelector,
+                                int lookaheadQuantum,
+                                boolean[] mergeAscending)
+    {
+        ArgumentValidation.notNull("indexType", indexType);
+        ArgumentValidation.notEmpty("indexKeyRanges", indexKeyRanges);
+        ArgumentValidation.isGTE("lookaheadQuantum", lookaheadQuantum, 1);
+        if (mergeAscending != null) {
+            ArgumentValidation.isLTE("mergeAscending.length", mergeAscending.length, indexType.nFields());
+        }
+        this.indexType = indexType;
+        this.index = indexType.index();
+        this.indexKeyRanges = new ArrayList<>(indexKeyRanges);
+        this.ordering = ordering;
+        this.scanSelector = scanSelector;
+        this.lookaheadQuantum = lookaheadQuantum;
+        this.mergeAscending = (mergeAscending == null) ? null : Arrays.copyOf(mergeAscending, mergeAscending.length);
+    }
+
+    // For use by this class
+
+    private RowCursor newRangeCursor(QueryContext context, StoreAdapter adapter, int range)
+    {
+        return adapter.newIndexCursor(context, indexType, indexKeyRanges.get(range),
+                                      ordering, scanSelector, false);
+    }
+
+    private static void openRangeCursor(RowCursor cursor, QueryBindings bindings)
+    {
+        if (cursor instanceof BindingsAwareCursor) {
+            ((BindingsAwareCursor)cursor).rebind(bindings);
+        }
+        cursor.open();
+    }
+
+    // Class state
+
+    private static final InOutTap TAP_OPEN = OPERATOR_TAP.createSubsidiaryTap("operator: IndexScan_MultiRange open");
+    private static final InOutTap TAP_NEXT = OPERATOR_TAP.createSubsidiaryTap("operator: IndexScan_MultiRange next");
+    private static final Logger LOG = LoggerFactory.getLogger(IndexScan_MultiRange.class);
+
+    // Object state
+
+    private final IndexRowType indexType;
+    private final Index index;
+    private final List<IndexKeyRange> indexKeyRanges;
+    private final API.Ordering ordering;
+    private final IndexScanSelector scanSelector;
+    private final int lookaheadQuantum;
+    private final boolean[] mergeAscending;
+
+    @Override
+    public CompoundExplainer getExplainer(ExplainContext context)
+    {
+        Attributes atts = new Attributes();
+        atts.put(Label.NAME, PrimitiveExplainer.getInstance(getName()));
+        atts.put(Label.INDEX, indexType.getExplainer(context));
+        for (IndexColumn indexColumn : index.getAllColumns()) {
+            Column column = indexColumn.getColumn();
+            atts.put(Label.TABLE_SCHEMA, PrimitiveExplainer.getInstance(column.getTable().getName().getSchemaName()));
+            atts.put(Label.TABLE_NAME, PrimitiveExplainer.getInstance(column.getTable().getName().getTableName()));
+            atts.put(Label.COLUMN_NAME, PrimitiveExplainer.getInstance(column.getName()));
+        }
+        if (index.isGroupIndex())
+            atts.put(Label.INDEX_KIND, PrimitiveExplainer.getInstance("GROUP"));
+        for (IndexKeyRange indexKeyRange : indexKeyRanges) {
+            atts.put(Label.EXPRESSIONS, PrimitiveExplainer.getInstance(indexKeyRange.toString()));
+        }
+        for (int i = 0; i < ordering.sortColumns(); i++) {
+            atts.put(Label.ORDERING, PrimitiveExplainer.getInstance(ordering.ascending(i) ? "ASC" : "DESC"));
+        }
+        if (mergeAscending != null)
+            atts.put(Label.NUM_COMPARE, PrimitiveExplainer.getInstance(mergeAscending.length));
+        atts.put(Label.PIPELINE, PrimitiveExplainer.getInstance(lookaheadQuantum));
+        if (context.hasExtraInfo(this))
+            atts.putAll(context.getExtraInfo(this).get());
+        return new CompoundExplainer(Type.SCAN_OPERATOR, atts);
+    }
+
+    // Inner classes
+
+    /** Output each range in turn, keeping the next few open. */
+    private class Execution extends LeafCursor
+    {
+        // Cursor interface
+
+        @Override
+        public void open()
+        {
+            TAP_OPEN.in();
+            try {
+                super.open();
+                currentRange = nextRange = 0;
+                while ((nextRange < nranges) && (nextRange - currentRange < lookaheadQuantum)) {
+                    openNextRange();
+                }
+            } finally {
+                TAP_OPEN.out();
+            }
+        }
+
+        @Override
+        public Row next()
+        {
+            if (TAP_NEXT_ENABLED) {
+                TAP_NEXT.in();
+            }
+            try {
+                if (CURSOR_LIFECYCLE_ENABLED) {
+                    CursorLifecycle.checkIdleOrActive(this);
+                }
+                checkQueryCancelation();
+                Row row = null;
+                while (currentRange < nranges) {
+                    RowCursor cursor = cursors[currentRange];
+                    row = cursor.next();
+                    if (row != null) {
+                        break;
+                    }
+                    cursor.close();
+                    currentRange++;
+                    if (nextRange < nranges) {
+                        openNextRange();
+                    }
+                }
+                if (row == null) {
+                    setIdle();
+                }
+                if (LOG_EXECUTION) {
+                    LOG.debug("IndexScan_MultiRange$Execution: yield {}", row);
+                }
+                return row;
+            } finally {
+                if (TAP_NEXT_ENABLED) {
+                    TAP_NEXT.out();
+                }
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            try {
+                while (currentRange < nextRange) {
+                    cursors[currentRange++].close();
+                }
+            } finally {
+                super.close();
+            }
+        }
+
+        // Execution interface
+
+        Execution(QueryContext context, QueryBindingsCursor bindingsCursor)
+        {
+            super(context, bindingsCursor);
+            this.nranges = indexKeyRanges.size();
+            this.cursors = new RowCursor[nranges];
+        }
+
+        // For use by this class
+
+        private void openNextRange()
+        {
+            if (cursors[nextRange] == null) {
+                cursors[nextRange] = newRangeCursor(context, adapter(index.rootMostTable()), nextRange);
+            }
+            openRangeCursor(cursors[nextRange], bindings);
+            nextRange++;
+        }
+
+        // Object state
+
+        private final int nranges;
+        private final RowCursor[] cursors;
+        // Ranges [currentRange, nextRange) are open.
+        private int currentRange, nextRange;
+    }
+
+    /** Merge all the ranges on the trailing fields. */
+    private class MergeExecution extends LeafCursor
+    {
+        // Cursor interface
+
+        @Override
+        public void open()
+        {
+            TAP_OPEN.in();
+            try {
+                super.open();
+                // Keep a window of reads started ahead of the one being
+                // waited for, rather than starting all of them at once.
+                int opened = 0;
+                for (int i = 0; i < nranges; i++) {
+                    while ((opened < nranges) && (opened - i < lookaheadQuantum)) {
+                        if (cursors[opened] == null) {
+                            cursors[opened] = newRangeCursor(context, adapter(index.rootMostTable()), opened);
+                        }
+                        openRangeCursor(cursors[opened], bindings);
+                        opened++;
+                    }
+                    advance(i);
+                }
+                lastRange = -1;
+            } finally {
+                TAP_OPEN.out();
+            }
+        }
+
+        @Override
+        public Row next()
+        {
+            if (TAP_NEXT_ENABLED) {
+                TAP_NEXT.in();
+            }
+            try {
+                if (CURSOR_LIFECYCLE_ENABLED) {
+                    CursorLifecycle.checkIdleOrActive(this);
+                }
+                checkQueryCancelation();
+                if (lastRange >= 0) {
+                    // Only read from the range whose row was output
+                    // once that row has been consumed.
+                    advance(lastRange);
+                    lastRange = -1;
+                }
+                Row row = null;
+                Integer range = heads.poll();
+                if (range != null) {
+                    row = rows[range];
+                    rows[range] = null;
+                    lastRange = range;
+                }
+                else {
+                    setIdle();
+                }
+                if (LOG_EXECUTION) {
+                    LOG.debug("IndexScan_MultiRange$MergeExecution: yield {}", row);
+                }
+                return row;
+            } finally {
+                if (TAP_NEXT_ENABLED) {
+                    TAP_NEXT.out();
+                }
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            try {
+                heads.clear();
+                lastRange = -1;
+                for (int i = 0; i < nranges; i++) {
+                    rows[i] = null;
+                    if ((cursors[i] != null) && !cursors[i].isClosed()) {
+                        cursors[i].close();
+                    }
+                }
+            } finally {
+                super.close();
+            }
+        }
+
+        // MergeExecution interface
+
+        MergeExecution(QueryContext context, QueryBindingsCursor bindingsCursor)
+        {
+            super(context, bindingsCursor);
+            this.nranges = indexKeyRanges.size();
+            this.cursors = new RowCursor[nranges];
+            this.rows = new Row[nranges];
+            this.fixedFields = indexType.nFields() - mergeAscending.length;
+            this.heads = new PriorityQueue<>(nranges, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer r1, Integer r2) {
+                        int c = rows[r1].compareTo(rows[r2], fixedFields, fixedFields, mergeAscending.length);
+                        if (c == 0) {
+                            return r1.compareTo(r2);
+                        }
+                        return mergeAscending[abs(c) - 1] ? c : -c;
+                    }
+                });
+        }
+
+        // For use by this class
+
+        private void advance(int range)
+        {
+            Row row = cursors[range].next();
+            if (row == null) {
+                cursors[range].close();
+            }
+            else {
+                rows[range] = row;
+                heads.add(range);
+            }
+        }
+
+        // Object state
+
+        private final int nranges;
+        private final RowCursor[] cursors;
+        private final Row[] rows;
+        private final int fixedFields;
+        private final PriorityQueue<Integer> heads;
+        private int lastRange;
+    }
+}
@@ -25,6 +25,8 @@ import java.util.Queue;
 
 /** An {@link OperatorCursor} that opens a single {@link BindingsAwareCursor}
 * for each {@link QueryBindings} with lookahead.
+* The number of cursors kept open adapts to how long their first rows take
+* (see {@link LookaheadWindow}).
 */
 public abstract class LookaheadLeafCursor<C extends BindingsAwareCursor> extends OperatorCursor
 {
@@ -33,18 +35,20 @@ public abstract class LookaheadLeafCursor<C extends BindingsAwareCursor> extends
     @Override
     public void open() {
         super.open();
+        firstRow = false;
         if (currentCursor != null) {
             currentCursor.open();
         }
         else if (pendingCursor != null) {
             currentCursor = pendingCursor;
             pendingCursor = null;
+            firstRow = true;
         }
         else {
             // At the very beginning, the pipeline isn't started.
             currentCursor = openACursor(currentBindings, false);
         }
-        while (!cursorPool.isEmpty() && !bindingsExhausted) {
+        while ((ncursors - cursorPool.size() < window.size()) && !bindingsExhausted) {
             QueryBindings bindings = bindingsCursor.nextBindings();
             if (bindings == null) {
                 bindingsExhausted = true;
@@ -64,7 +68,16 @@ public abstract class LookaheadLeafCursor<C extends BindingsAwareCursor> extends
             CursorLifecycle.checkIdleOrActive(this);
         }
         checkQueryCancelation();
-        Row row = currentCursor.next();
+        Row row;
+        if (firstRow) {
+            long start = System.nanoTime();
+            row = currentCursor.next();
+            window.firstRow(System.nanoTime() - start);
+            firstRow = false;
+        }
+        else {
+            row = currentCursor.next();
+        }
         if (row == null) {
             currentCursor.setIdle();
         }
@@ -166,12 +179,15 @@ public abstract class LookaheadLeafCursor<C extends BindingsAwareCursor> extends
                         StoreAdapter adapter, int quantum) {
         super(context);
         this.bindingsCursor = bindingsCursor;
+        this.cursorAdapter = adapter;
+        this.window = LookaheadWindow.create(context, quantum);
         this.pendingBindings = new ArrayDeque<>(quantum+1);
         this.cursorPool = new ArrayDeque<>(quantum);
         for (int i = 0; i < quantum; i++) {
             C cursor = newCursor(context, adapter);
             cursorPool.add(cursor);
         }
+        this.ncursors = quantum;
     }
 
     // Implemented by subclass
@@ -230,7 +246,12 @@ public abstract class LookaheadLeafCursor<C extends BindingsAwareCursor> extends
     }
 
     protected C openACursor(QueryBindings bindings, boolean lookahead) {
-        C cursor = cursorPool.remove();
+        C cursor = cursorPool.poll();
+        if (cursor == null) {
+            // Window has grown past the cursors made so far.
+            cursor = newCursor(context, cursorAdapter);
+            ncursors++;
+        }
         cursor.rebind(bindings);
         cursor.open();
         return cursor;
@@ -244,4 +265,8 @@ public abstract class LookaheadLeafCursor<C extends BindingsAwareCursor> extends
     protected QueryBindings currentBindings;
     protected C pendingCursor, currentCursor;
     protected boolean bindingsExhausted;// destroyed;
+    private final StoreAdapter cursorAdapter;
+    private final LookaheadWindow window;
+    private int ncursors;
+    private boolean firstRow;
 }
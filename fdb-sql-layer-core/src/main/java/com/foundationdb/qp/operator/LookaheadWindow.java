@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.foundationdb.qp.operator;
+
+import com.foundationdb.server.service.config.ConfigurationService;
+import com.foundationdb.server.service.config.PropertyNotDefinedException;
+
+/** How many lookups a lookahead cursor keeps outstanding.
+ *
+ * Starts at the configured quantum. Each time the first row of the
+ * oldest lookup takes longer than <code>fdbsql.pipeline.lookahead.waitedMicros</code>,
+ * the store is slower than the operator consuming it, so the window
+ * doubles, up to <code>fdbsql.pipeline.lookahead.maxGrowth</code> times
+ * the quantum. Each time it is already there, the window shrinks back by
+ * one toward the quantum.
+ */
+class LookaheadWindow
+{
+    public static final String MAX_GROWTH_PROPERTY = "fdbsql.pipeline.lookahead.maxGrowth";
+    public static final String WAITED_MICROS_PROPERTY = "fdbsql.pipeline.lookahead.waitedMicros";
+    public static final int DEFAULT_MAX_GROWTH = 4;
+    /** Longer than decoding a row, shorter than any round trip. */
+    public static final long DEFAULT_WAITED_MICROS = 200;
+
+    private final int quantum, max;
+    private final long waitedNanos;
+    private int size;
+
+    public LookaheadWindow(int quantum, int maxGrowth, long waitedNanos) {
+        this.quantum = quantum;
+        this.max = quantum * Math.max(1, maxGrowth);
+        this.waitedNanos = waitedNanos;
+        this.size = quantum;
+    }
+
+    /** A window with the growth settings from the configuration. */
+    public static LookaheadWindow create(QueryContext context, int quantum) {
+        ConfigurationService config = context.getServiceManager().getConfigurationService();
+        int maxGrowth;
+        long waitedMicros;
+        try {
+            maxGrowth = Integer.parseInt(config.getProperty(MAX_GROWTH_PROPERTY));
+            waitedMicros = Long.parseLong(config.getProperty(WAITED_MICROS_PROPERTY));
+        }
+        catch (PropertyNotDefinedException ex) {
+            maxGrowth = DEFAULT_MAX_GROWTH;
+            waitedMicros = DEFAULT_WAITED_MICROS;
+        }
+        return new LookaheadWindow(quantum, maxGrowth, waitedMicros * 1000);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int max() {
+        return max;
+    }
+
+    /** Record how long getting the first row of the oldest lookup took. */
+    public void firstRow(long nanos) {
+        if (nanos > waitedNanos) {
+            size = Math.min(max, size * 2);
+        }
+        else if (size > quantum) {
+            size--;
+        }
+    }
+}
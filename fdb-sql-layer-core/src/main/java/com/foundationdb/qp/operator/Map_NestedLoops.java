@@ -143,6 +143,22 @@ class Map_NestedLoops extends Operator
         this.depth = depth;
     }
 
+    /** The same, but with another outer input. */
+    Map_NestedLoops withOuterInput(Operator outerInputOperator)
+    {
+        return new Map_NestedLoops(outerInputOperator, innerInputOperator, inputBindingPosition, pipeline, depth);
+    }
+
+    Operator outerInputOperator()
+    {
+        return outerInputOperator;
+    }
+
+    int inputBindingPosition()
+    {
+        return inputBindingPosition;
+    }
+
     // Class state
 
     private static final InOutTap TAP_OPEN = OPERATOR_TAP.createSubsidiaryTap("operator: Map_NestedLoops open");
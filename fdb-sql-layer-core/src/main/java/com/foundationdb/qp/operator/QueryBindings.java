@@ -20,7 +20,7 @@ package com.foundationdb.qp.operator;
 import com.foundationdb.qp.row.HKey;
 import com.foundationdb.qp.row.Row;
 import com.foundationdb.server.types.value.ValueSource;
-import com.foundationdb.util.BloomFilter;
+import com.foundationdb.util.BlockedBloomFilter;
 import com.foundationdb.qp.util.HashTable;
 
 /** The bindings associated with the execution of a query.
@@ -70,14 +70,14 @@ public interface QueryBindings
      * @return the bloom filter at that index
      * @throws BindingNotSetException if the given index wasn't set
      */
-    public BloomFilter getBloomFilter(int index);
+    public BlockedBloomFilter getBloomFilter(int index);
 
     /**
      * Bind a bloom filter to the given index.
      * @param index the index to set
      * @param filter the bloom filter to assign
      */
-    public void setBloomFilter(int index, BloomFilter filter);
+    public void setBloomFilter(int index, BlockedBloomFilter filter);
 
     /**
      * Gets the hash join table bound to the given index.
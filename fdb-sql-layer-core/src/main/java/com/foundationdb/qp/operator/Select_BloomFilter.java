@@ -25,8 +25,10 @@ import com.foundationdb.server.types.value.ValueSources;
 import com.foundationdb.server.types.texpressions.TEvaluatableExpression;
 import com.foundationdb.server.types.texpressions.TPreparedExpression;
 import com.foundationdb.util.ArgumentValidation;
-import com.foundationdb.util.BloomFilter;
+import com.foundationdb.util.BlockedBloomFilter;
 import com.foundationdb.util.tap.InOutTap;
+import com.foundationdb.util.tap.PointTap;
+import com.foundationdb.util.tap.Tap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -75,6 +77,9 @@ import java.util.*;
  * <h1>Performance</h1>
  * <p/>
  * This operator should generate very little IO activity, although bloom filters are probabilistic.
+ * Each probe touches one cache line of the filter. The taps "operator: Select_BloomFilter probe" and
+ * "operator: Select_BloomFilter false positive" count probes and rows that passed the filter but were not found by
+ * onPositive, giving the observed false positive rate.
  * <p/>
  * <h1>Memory Requirements</h1>
  * <p/>
@@ -166,6 +171,8 @@ class Select_BloomFilter extends Operator
     private static final InOutTap TAP_OPEN = OPERATOR_TAP.createSubsidiaryTap("operator: Select_BloomFilter open");
     private static final InOutTap TAP_NEXT = OPERATOR_TAP.createSubsidiaryTap("operator: Select_BloomFilter next");
     private static final InOutTap TAP_CHECK = OPERATOR_TAP.createSubsidiaryTap("operator: Select_BloomFilter check");
+    private static final PointTap PROBE_COUNT = Tap.createCount("operator: Select_BloomFilter probe");
+    private static final PointTap FALSE_POSITIVE_COUNT = Tap.createCount("operator: Select_BloomFilter false positive");
     private static final Logger LOG = LoggerFactory.getLogger(Select_BloomFilter.class);
 
     // Object state
@@ -195,7 +202,7 @@ class Select_BloomFilter extends Operator
 
     private interface ExpressionAdapter<EXPR,EVAL> {
         EVAL evaluate(EXPR expression, QueryContext contex);
-        int hash(StoreAdapter adapter, EVAL evaluation, Row row, AkCollator collator);
+        long hash(StoreAdapter adapter, EVAL evaluation, Row row, AkCollator collator);
     }
 
     private static ExpressionAdapter<TPreparedExpression, TEvaluatableExpression> newExpressionsAdapter
@@ -208,10 +215,10 @@ class Select_BloomFilter extends Operator
         }
 
         @Override
-        public int hash(StoreAdapter adapter, TEvaluatableExpression evaluation, Row row, AkCollator collator) {
+        public long hash(StoreAdapter adapter, TEvaluatableExpression evaluation, Row row, AkCollator collator) {
             evaluation.with(row);
             evaluation.evaluate();
-            return ValueSources.hash(evaluation.resultValue(), collator);
+            return ValueSources.hash64(evaluation.resultValue(), collator);
         }
     };
 
@@ -227,6 +234,8 @@ class Select_BloomFilter extends Operator
                 super.open();
                 filter = bindings.getBloomFilter(bindingPosition);
                 bindings.setBloomFilter(bindingPosition, null);
+                probes = 0;
+                falsePositives = 0;
             } finally {
                 TAP_OPEN.out();
             }
@@ -247,7 +256,11 @@ class Select_BloomFilter extends Operator
                     row = input.next();
                     if (row == null) {
                         setIdle();
-                    } else if (!filter.maybePresent(hashProjectedRow(row)) || !rowReallyHasMatch(row)) {
+                    } else if (!filter.maybePresent(hashProjectedRow(row))) {
+                        row = null;
+                    } else if (!rowReallyHasMatch(row)) {
+                        FALSE_POSITIVE_COUNT.hit();
+                        falsePositives++;
                         row = null;
                     }
                 } while (isActive() && row == null);
@@ -262,6 +275,15 @@ class Select_BloomFilter extends Operator
             }
         }
 
+        @Override
+        public void close()
+        {
+            if (LOG.isDebugEnabled() && (filter != null) && (probes > 0)) {
+                LOG.debug("Select_BloomFilter: {} false positives in {} probes, expected rate {}",
+                          new Object[] { falsePositives, probes, filter.expectedFalsePositiveRate() });
+            }
+            super.close();
+        }
 
         // Execution interface
 
@@ -280,12 +302,14 @@ class Select_BloomFilter extends Operator
 
         // For use by this class
 
-        private int hashProjectedRow(Row row)
+        private long hashProjectedRow(Row row)
         {
-            int hash = 0;
+            PROBE_COUNT.hit();
+            probes++;
+            long hash = 0;
             for (int f = 0; f < fieldEvals.size(); f++) {
                 E fieldEval = fieldEvals.get(f);
-                hash = hash ^ adapter.hash(adapter(), fieldEval, row, collator(f));
+                hash = BlockedBloomFilter.combine(hash, adapter.hash(adapter(), fieldEval, row, collator(f)));
             }
             return hash;
         }
@@ -321,7 +345,8 @@ class Select_BloomFilter extends Operator
 
         private final Cursor onPositiveCursor;
         private final SingletonQueryBindingsCursor onPositiveBindingsCursor;
-        private BloomFilter filter;
+        private BlockedBloomFilter filter;
+        private long probes, falsePositives;
         private final List<E> fieldEvals = new ArrayList<>();
         private final ExpressionAdapter<?, E> adapter;
     }
@@ -347,7 +372,7 @@ class Select_BloomFilter extends Operator
 
         @Override
         protected Row nextInputRow() {
-            BloomFilter filter = baseBindings.getBloomFilter(bindingPosition);
+            BlockedBloomFilter filter = baseBindings.getBloomFilter(bindingPosition);
             while (true) {
                 Row row = input.next();
                 if (row == null) {
@@ -362,12 +387,13 @@ class Select_BloomFilter extends Operator
             }
         }
 
-        private int hashProjectedRow(Row row)
+        private long hashProjectedRow(Row row)
         {
-            int hash = 0;
+            PROBE_COUNT.hit();
+            long hash = 0;
             for (int f = 0; f < fieldEvals.size(); f++) {
                 TEvaluatableExpression fieldEval = fieldEvals.get(f);
-                hash = hash ^ expressionAdapter.hash(storeAdapter, fieldEval, row, collator(f));
+                hash = BlockedBloomFilter.combine(hash, expressionAdapter.hash(storeAdapter, fieldEval, row, collator(f)));
             }
             return hash;
         }
@@ -419,6 +445,7 @@ class Select_BloomFilter extends Operator
                         row = bindings.getRow(bindingPosition);
                         break;
                     }
+                    FALSE_POSITIVE_COUNT.hit();
                 }
                 if (LOG_EXECUTION) {
                     LOG.debug("Select_BloomFilter: yield {}", row);
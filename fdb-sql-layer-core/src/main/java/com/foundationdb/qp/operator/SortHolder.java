@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.operator;
+
+import com.foundationdb.qp.row.ImmutableRow;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.server.types.texpressions.TEvaluatableExpression;
+import com.foundationdb.server.types.value.ValueSource;
+import com.foundationdb.server.types.value.ValueSources;
+import com.foundationdb.util.WrappingByteSource;
+
+import java.util.List;
+
+/**
+ * Sortable row holder for the in-memory sorts, {@link Sort_InsertionLimited}
+ * and {@link Sort_TopN}.
+ *
+ * Rows that sort the same are ordered by the index they were given, so
+ * two holders only compare as 0 if they have the same index. A
+ * <code>SortedSet</code> keeps rows with different indexes and drops
+ * those with the same one, which is how duplicates are suppressed. For
+ * the same reason, we do not need to overload equals().
+ */
+class SortHolder implements Comparable<SortHolder> {
+    private final API.Ordering ordering;
+    private final Comparable[] values;
+    private long index;
+    private Row row;
+
+    public SortHolder(API.Ordering ordering) {
+        this.ordering = ordering;
+        this.values = new Comparable[ordering.sortColumns()];
+    }
+
+    public SortHolder(API.Ordering ordering, long index, Row arow, List<TEvaluatableExpression> evaluations) {
+        this(ordering);
+        fill(index, arow, evaluations);
+    }
+
+    /** Hold another row, so that a holder that was not kept can be reused. */
+    public void fill(long index, Row arow, List<TEvaluatableExpression> evaluations) {
+        this.index = index;
+        this.row = arow;
+        for (int i = 0; i < values.length; i++) {
+            TEvaluatableExpression evaluation = evaluations.get(i);
+            evaluation.with(arow);
+            evaluation.evaluate();
+            values[i] = toObject(evaluation.resultValue());
+        }
+    }
+
+    public Row empty() {
+        Row result = row;
+        row = null;
+        return result;
+    }
+
+    // Make sure the Row we save doesn't depend on bindings that may change.
+    public void freeze() {
+        if (row.isBindingsSensitive()) {
+            row = ImmutableRow.buildImmutableRow(row);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int compareTo(SortHolder other) {
+        for (int i = 0; i < values.length; i++) {
+            Comparable v1 = values[i];
+            Comparable v2 = other.values[i];
+            int less, greater;
+            if (ordering.ascending(i)) {
+                less = -1;
+                greater = +1;
+            }
+            else {
+                less = +1;
+                greater = -1;
+            }
+            if (v1 == null) {
+                if (v2 == null) {
+                    continue;
+                }
+                else {
+                    return less;
+                }
+            }
+            else if (v2 == null) {
+                return greater;
+            }
+            int comp;
+            if (ordering.collator(i) == null) {
+                comp = v1.compareTo(v2);
+            }
+            else {
+                comp = ordering.collator(i).compare(v1.toString(), v2.toString());
+            }
+            if (comp != 0) {
+                if (comp < 0)
+                    return less;
+                else
+                    return greater;
+            }
+        }
+        return Long.compare(index, other.index);
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(row);
+    }
+
+    private static Comparable toObject(ValueSource valueSource) {
+        if (valueSource.isNull())
+            return null;
+        switch (ValueSources.underlyingType(valueSource)) {
+        case BOOL:
+            return valueSource.getBoolean();
+        case INT_8:
+            return valueSource.getInt8();
+        case INT_16:
+            return valueSource.getInt16();
+        case UINT_16:
+            return valueSource.getUInt16();
+        case INT_32:
+            return valueSource.getInt32();
+        case INT_64:
+            return valueSource.getInt64();
+        case FLOAT:
+            return valueSource.getFloat();
+        case DOUBLE:
+            return valueSource.getDouble();
+        case BYTES:
+            return new WrappingByteSource(valueSource.getBytes());
+        case STRING:
+            return valueSource.getString();
+        default:
+            throw new AssertionError(valueSource.getType());
+        }
+    }
+}
@@ -17,16 +17,12 @@
 
 package com.foundationdb.qp.operator;
 
-import com.foundationdb.qp.row.ImmutableRow;
 import com.foundationdb.qp.row.Row;
 import com.foundationdb.qp.rowtype.RowType;
 import com.foundationdb.server.explain.*;
 import com.foundationdb.server.explain.std.SortOperatorExplainer;
-import com.foundationdb.server.types.value.ValueSource;
-import com.foundationdb.server.types.value.ValueSources;
 import com.foundationdb.server.types.texpressions.TEvaluatableExpression;
 import com.foundationdb.util.ArgumentValidation;
-import com.foundationdb.util.WrappingByteSource;
 import com.foundationdb.util.tap.InOutTap;
 
 import org.slf4j.Logger;
@@ -211,8 +207,8 @@ class Sort_InsertionLimited extends Operator
                         Row row;
                         while ((row = input.next()) != null) {
                             assert row.rowType() == sortType : row;
-                            Holder holder;
-                            holder = new Holder(label, row, tEvaluations);
+                            SortHolder holder;
+                            holder = new SortHolder(ordering, label, row, tEvaluations);
                             if (preserveDuplicates) {
                                 label++;
                             }
@@ -224,7 +220,7 @@ class Sort_InsertionLimited extends Operator
                             }
                             else {
                                 // Current greatest element.
-                                Holder last = sorted.last();
+                                SortHolder last = sorted.last();
                                 if (last.compareTo(holder) > 0) {
                                     // New row is less, so keep it
                                     // instead unless it's already in
@@ -252,7 +248,7 @@ class Sort_InsertionLimited extends Operator
                 case EMPTYING:
                     Row output;
                     if (iterator.hasNext()) {
-                        Holder holder = iterator.next();
+                        SortHolder holder = iterator.next();
                         output = holder.empty();
                     }
                     else {
@@ -315,120 +311,7 @@ class Sort_InsertionLimited extends Operator
 
         private final List<TEvaluatableExpression> tEvaluations;
         private State sortingState = State.CLOSED;
-        private SortedSet<Holder> sorted;
-        private Iterator<Holder> iterator;
-    }
-
-    // Sortable row holder.
-
-    // Since a SortedSet cannot have two elements that compare as 0,
-    // we never return that, instead ordering things that sort the
-    // same based on their arrival order. For the same reason, we do
-    // not need to overload equals().
-    private class Holder implements Comparable<Holder> {
-        private int index;
-        private Row row;
-        private Comparable[] values;
-
-        public Holder(int index, Row arow, List<TEvaluatableExpression> evaluations) {
-            this.index = index;
-            this.row = arow;
-
-            values = new Comparable[ordering.sortColumns()];
-            for (int i = 0; i < values.length; i++) {
-                TEvaluatableExpression evaluation = evaluations.get(i);
-                evaluation.with(arow);
-                evaluation.evaluate();
-                values[i] = toObject(evaluation.resultValue());
-            }
-        }
-
-        public Row empty() {
-            Row result = row;
-            row = null;
-            return result;
-        }
-
-        // Make sure the Row we save doesn't depend on bindings that may change.
-        public void freeze() {
-            if (row.isBindingsSensitive()) {
-                row = ImmutableRow.buildImmutableRow(row);
-            }
-        }
-
-        @SuppressWarnings("unchecked")
-        public int compareTo(Holder other) {
-            for (int i = 0; i < values.length; i++) {
-                Comparable v1 = values[i];
-                Comparable v2 = other.values[i];
-                int less, greater;
-                if (ordering.ascending(i)) {
-                    less = -1;
-                    greater = +1;
-                }
-                else {
-                    less = +1;
-                    greater = -1;
-                }
-                if (v1 == null) {
-                    if (v2 == null) {
-                        continue;
-                    }
-                    else {
-                        return less;
-                    }
-                }
-                else if (v2 == null) {
-                    return greater;
-                }
-                int comp;
-                if (ordering.collator(i) == null) {
-                    comp = v1.compareTo(v2);
-                }
-                else {
-                    comp = ordering.collator(i).compare(v1.toString(), v2.toString());
-                }
-                if (comp != 0) {
-                    if (comp < 0)
-                        return less;
-                    else
-                        return greater;
-                }
-            }
-            return index - other.index;
-        }
-
-        public String toString() {
-            return row.toString();
-        }
-
-        private Comparable toObject(ValueSource valueSource) {
-            if (valueSource.isNull())
-                return null;
-            switch (ValueSources.underlyingType(valueSource)) {
-            case BOOL:
-                return valueSource.getBoolean();
-            case INT_8:
-                return valueSource.getInt8();
-            case INT_16:
-                return valueSource.getInt16();
-            case UINT_16:
-                return valueSource.getUInt16();
-            case INT_32:
-                return valueSource.getInt32();
-            case INT_64:
-                return valueSource.getInt64();
-            case FLOAT:
-                return valueSource.getFloat();
-            case DOUBLE:
-                return valueSource.getDouble();
-            case BYTES:
-                return new WrappingByteSource(valueSource.getBytes());
-            case STRING:
-                return valueSource.getString();
-            default:
-                throw new AssertionError(valueSource.getType());
-            }
-        }
+        private SortedSet<SortHolder> sorted;
+        private Iterator<SortHolder> iterator;
     }
 }
@@ -0,0 +1,348 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.operator;
+
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.explain.*;
+import com.foundationdb.server.explain.std.SortOperatorExplainer;
+import com.foundationdb.server.types.texpressions.TEvaluatableExpression;
+import com.foundationdb.util.ArgumentValidation;
+import com.foundationdb.util.tap.InOutTap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ <h1>Overview</h1>
+
+ Sort_TopN provides rows offset through offset + limit of an input stream after sorting. Unlike
+ Sort_InsertionLimited, it is meant for limits in the thousands or tens of thousands, such as
+ pagination queries.
+
+ <h1>Arguments</h1>
+
+ <li><b>Operator inputOperator:</b> Operator providing the input stream.
+ <li><b>RowType sortType:</b> Type of rows to be sorted.
+ <li><b>API.Ordering ordering:</b> Specification of ordering, comprising a list of expressions and ascending/descending
+ specifications.
+ <li><b>int offset:</b> Number of sorted rows to skip.
+ <li><b>int limit:</b> Number of rows to output after skipping.
+
+ <h1>Behavior</h1>
+
+ All input rows are examined, and the first offset + limit of them are kept in a bounded binary heap whose root is
+ the greatest row kept. An input row that is not less than the root is discarded without touching the heap; otherwise
+ it replaces the root. Once the input stream has been consumed, the heap is sorted and the rows after the first
+ offset are emitted.
+
+ Rows that sort the same are emitted in their input order.
+
+ <h1>Output</h1>
+
+ Up to limit rows, according to the ordering specification, after skipping offset rows. Duplicates are preserved.
+
+ <h1>Assumptions</h1>
+
+ All input rows are of type sortType.
+
+ offset + limit rows fit in memory.
+
+ <h1>Performance</h1>
+
+ Sort_TopN does no IO. Each input row is compared to the heap root, and a row that is kept takes O(log(offset + limit))
+ comparisons. Sort keys for discarded rows are evaluated into a reused holder, so they do not allocate.
+
+ <h1>Memory Requirements</h1>
+
+ Up to offset + limit rows, with their sort keys.
+
+ */
+
+class Sort_TopN extends Operator
+{
+    // Object interface
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s(%s, %d, %d)", getClass().getSimpleName(), sortType, offset, limit);
+    }
+
+    // Operator interface
+
+    @Override
+    public List<Operator> getInputOperators()
+    {
+        return Collections.singletonList(inputOperator);
+    }
+
+    @Override
+    protected Cursor cursor(QueryContext context, QueryBindingsCursor bindingsCursor)
+    {
+        return new Execution(context, inputOperator.cursor(context, bindingsCursor));
+    }
+
+    @Override
+    public RowType rowType()
+    {
+        return sortType;
+    }
+
+    @Override
+    public void findDerivedTypes(Set<RowType> derivedTypes)
+    {
+        inputOperator.findDerivedTypes(derivedTypes);
+        derivedTypes.add(sortType);
+    }
+
+    @Override
+    public String describePlan()
+    {
+        return describePlan(inputOperator);
+    }
+
+    // Sort_TopN interface
+
+    public Sort_TopN(Operator inputOperator,
+                     RowType sortType,
+                     API.Ordering ordering,
+                     int offset,
+                     int limit)
+    {
+        ArgumentValidation.notNull("sortType", sortType);
+        ArgumentValidation.isGT("ordering.columns()", ordering.sortColumns(), 0);
+        ArgumentValidation.isGTE("offset", offset, 0);
+        ArgumentValidation.isGTE("limit", limit, 0);
+        ArgumentValidation.isTrue("offset + limit fits in an int", (long)offset + limit <= Integer.MAX_VALUE);
+        this.inputOperator = inputOperator;
+        this.sortType = sortType;
+        this.ordering = ordering;
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    // Class state
+
+    private static final InOutTap TAP_OPEN = OPERATOR_TAP.createSubsidiaryTap("operator: Sort_TopN open");
+    private static final InOutTap TAP_NEXT = OPERATOR_TAP.createSubsidiaryTap("operator: Sort_TopN next");
+    private static final Logger LOG = LoggerFactory.getLogger(Sort_TopN.class);
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Object state
+
+    private final Operator inputOperator;
+    private final RowType sortType;
+    private final API.Ordering ordering;
+    private final int offset;
+    private final int limit;
+
+    @Override
+    public CompoundExplainer getExplainer(ExplainContext context)
+    {
+        CompoundExplainer ex = new SortOperatorExplainer(getName(), API.SortOption.PRESERVE_DUPLICATES, sortType, inputOperator, ordering, context);
+        ex.addAttribute(Label.LIMIT, PrimitiveExplainer.getInstance(limit));
+        if (offset > 0) {
+            ex.addAttribute(Label.OFFSET, PrimitiveExplainer.getInstance(offset));
+        }
+        return ex;
+    }
+
+    // Inner classes
+
+    private enum State { CLOSED, FILLING, EMPTYING }
+
+    private class Execution extends ChainedCursor
+    {
+        // Cursor interface
+
+        @Override
+        public void open()
+        {
+            TAP_OPEN.in();
+            try {
+                super.open();
+                sortingState = State.FILLING;
+                for (TEvaluatableExpression eval : tEvaluations) {
+                    eval.with(context);
+                    eval.with(bindings);
+                }
+                heap = new SortHolder[Math.min(capacity, INITIAL_CAPACITY)];
+                size = 0;
+                if (limit <= 0) {
+                    setIdle();
+                    sortingState = State.CLOSED;
+                }
+            } finally {
+                TAP_OPEN.out();
+            }
+        }
+
+        @Override
+        public Row next()
+        {
+            if (TAP_NEXT_ENABLED) {
+                TAP_NEXT.in();
+            }
+            try {
+                if (CURSOR_LIFECYCLE_ENABLED) {
+                    CursorLifecycle.checkIdleOrActive(this);
+                }
+                checkQueryCancelation();
+                switch (sortingState) {
+                case FILLING:
+                    {
+                        long label = 0;
+                        SortHolder spare = null;
+                        Row row;
+                        while ((row = input.next()) != null) {
+                            assert row.rowType() == sortType : row;
+                            if (spare == null) {
+                                spare = new SortHolder(ordering);
+                            }
+                            spare.fill(label++, row, tEvaluations);
+                            if (size < capacity) {
+                                // Still room: add it in.
+                                spare.freeze();
+                                add(spare);
+                                spare = null;
+                            }
+                            else if (heap[0].compareTo(spare) > 0) {
+                                // New row is less than the greatest kept, so keep it instead.
+                                spare.freeze();
+                                SortHolder last = heap[0];
+                                heap[0] = spare;
+                                siftDown(0);
+                                last.empty();
+                                spare = last;
+                            }
+                            else {
+                                // Will not be using new row.
+                                spare.empty();
+                            }
+                        }
+                        Arrays.sort(heap, 0, size);
+                        position = offset;
+                        sortingState = State.EMPTYING;
+                    }
+                    /* falls through */
+                case EMPTYING:
+                    Row output;
+                    if (position < size) {
+                        SortHolder holder = heap[position];
+                        heap[position++] = null;
+                        output = holder.empty();
+                    }
+                    else {
+                        setIdle();
+                        sortingState = State.CLOSED;
+                        output = null;
+                    }
+                    if (LOG_EXECUTION) {
+                        LOG.debug("Sort_TopN: yield {}", output);
+                    }
+                    return output;
+                case CLOSED:
+                default:
+                    if (LOG_EXECUTION) {
+                        LOG.debug("Sort_TopN: yield null");
+                    }
+                    return null;
+                }
+            } finally {
+                if (TAP_NEXT_ENABLED) {
+                    TAP_NEXT.out();
+                }
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            super.close();
+            heap = null;
+            size = 0;
+            sortingState = State.CLOSED;
+        }
+
+        @Override
+        public boolean isActive()
+        {
+            return sortingState == State.FILLING || sortingState == State.EMPTYING;
+        }
+
+        // Execution interface
+
+        Execution(QueryContext context, Cursor input)
+        {
+            super(context, input);
+            int nsort = ordering.sortColumns();
+            tEvaluations = new ArrayList<>(nsort);
+            for (int i = 0; i < nsort; ++i) {
+                TEvaluatableExpression evaluation = ordering.expression(i).build();
+                tEvaluations.add(evaluation);
+            }
+            capacity = offset + limit;
+        }
+
+        // For use by this class
+
+        private void add(SortHolder holder) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, (int)Math.min((long)heap.length * 2, capacity));
+            }
+            int child = size++;
+            // Sift up: parents are never less than their children.
+            while (child > 0) {
+                int parent = (child - 1) / 2;
+                if (heap[parent].compareTo(holder) >= 0)
+                    break;
+                heap[child] = heap[parent];
+                child = parent;
+            }
+            heap[child] = holder;
+        }
+
+        private void siftDown(int parent) {
+            SortHolder holder = heap[parent];
+            while (true) {
+                int child = 2 * parent + 1;
+                if (child >= size)
+                    break;
+                if ((child + 1 < size) && (heap[child + 1].compareTo(heap[child]) > 0))
+                    child++;
+                if (holder.compareTo(heap[child]) >= 0)
+                    break;
+                heap[parent] = heap[child];
+                parent = child;
+            }
+            heap[parent] = holder;
+        }
+
+        // Object state
+
+        private final List<TEvaluatableExpression> tEvaluations;
+        private final int capacity;
+        private State sortingState = State.CLOSED;
+        private SortHolder[] heap;
+        private int size;
+        private int position;
+    }
+}
@@ -22,7 +22,7 @@ import com.foundationdb.qp.row.Row;
 import com.foundationdb.server.types.value.Value;
 import com.foundationdb.server.types.value.ValueSource;
 import com.foundationdb.server.types.value.ValueTargets;
-import com.foundationdb.util.BloomFilter;
+import com.foundationdb.util.BlockedBloomFilter;
 import com.foundationdb.qp.util.HashTable;
 import com.foundationdb.util.SparseArray;
 
@@ -133,9 +133,9 @@ public class SparseArrayQueryBindings implements QueryBindings
     }
 
     @Override
-    public BloomFilter getBloomFilter(int index) {
+    public BlockedBloomFilter getBloomFilter(int index) {
         if (bindings.isDefined(index)) {
-            return (BloomFilter)bindings.get(index);
+            return (BlockedBloomFilter)bindings.get(index);
         }
         else if (parent != null) {
             return parent.getBloomFilter(index);
@@ -146,7 +146,7 @@ public class SparseArrayQueryBindings implements QueryBindings
     }
 
     @Override
-    public void setBloomFilter(int index, BloomFilter filter) {
+    public void setBloomFilter(int index, BlockedBloomFilter filter) {
         bindings.set(index, filter);
     }
 
@@ -44,6 +44,13 @@ public abstract class StoreAdapter
 {
     public abstract GroupCursor newGroupCursor(Group group);
 
+    /** A group cursor whose full scans may be read by up to
+     * <code>parallelism</code> threads, if the store supports it.
+     */
+    public GroupCursor newGroupCursor(Group group, int parallelism) {
+        return newGroupCursor(group);
+    }
+
     public static final int COMMIT_FREQUENCY_PERIODICALLY = -2;
 
     public GroupCursor newDumpGroupCursor(Group group, int commitFrequency) {
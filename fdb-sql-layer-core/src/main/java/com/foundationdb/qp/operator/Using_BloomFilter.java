@@ -24,7 +24,7 @@ import com.foundationdb.server.explain.*;
 import com.foundationdb.server.types.value.ValueSource;
 import com.foundationdb.server.types.value.ValueSources;
 import com.foundationdb.util.ArgumentValidation;
-import com.foundationdb.util.BloomFilter;
+import com.foundationdb.util.BlockedBloomFilter;
 import com.foundationdb.util.tap.InOutTap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -146,7 +146,7 @@ class Using_BloomFilter extends Operator
     private static final InOutTap TAP_OPEN = OPERATOR_TAP.createSubsidiaryTap("operator: Using_BloomFilter open");
     private static final InOutTap TAP_NEXT = OPERATOR_TAP.createSubsidiaryTap("operator: Using_BloomFilter next");
     private static final Logger LOG = LoggerFactory.getLogger(Using_BloomFilter.class);
-    private static final double ERROR_RATE = 0.0001; // Bloom filter will use 19.17 bits per key
+    private static final double ERROR_RATE = 0.0001; // Bloom filter will use about 24.5 bits per key
 
     // Object state
 
@@ -181,7 +181,7 @@ class Using_BloomFilter extends Operator
                 // Usually super.open called first, but needs to be done
                 // opposite order here to allow Select_BloomFilter access
                 // to the filled BloomFilter in the bindings. 
-                BloomFilter filter = loadBloomFilter();
+                BlockedBloomFilter filter = loadBloomFilter();
                 bindings.setBloomFilter(filterBindingPosition, filter);
                 super.open();
             } finally {
@@ -218,19 +218,23 @@ class Using_BloomFilter extends Operator
 
         // For use by this class
 
-        private BloomFilter loadBloomFilter()
+        private BlockedBloomFilter loadBloomFilter()
         {
-            BloomFilter filter = new BloomFilter(estimatedRowCount, ERROR_RATE);
+            BlockedBloomFilter filter = new BlockedBloomFilter(estimatedRowCount, ERROR_RATE);
             long rows = loadBloomFilter(filter);
             if (rows > estimatedRowCount) {
                 // Do it again, but size the filter based on the actual row count
-                filter = new BloomFilter(rows, ERROR_RATE);
+                filter = new BlockedBloomFilter(rows, ERROR_RATE);
                 loadBloomFilter(filter);
             }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Using_BloomFilter: {} rows in {} bytes, expected false positive rate {}",
+                          new Object[] { rows, filter.sizeInBytes(), filter.expectedFalsePositiveRate() });
+            }
             return filter;
         }
 
-        private long loadBloomFilter(BloomFilter filter)
+        private long loadBloomFilter(BlockedBloomFilter filter)
         {
             int fields = filterRowType.nFields();
             int rows = 0;
@@ -239,10 +243,10 @@ class Using_BloomFilter extends Operator
             loadCursor.openTopLevel();
             Row row;
             while ((row = loadCursor.next()) != null) {
-                int h = 0;
+                long h = 0;
                 for (int f = 0; f < fields; f++) {
                     ValueSource valueSource = row.value(f);
-                    h = h ^ ValueSources.hash(valueSource, collator(f));
+                    h = BlockedBloomFilter.combine(h, ValueSources.hash64(valueSource, collator(f)));
                 }
                 filter.add(h);
                 rows++;
@@ -21,15 +21,21 @@ import com.foundationdb.qp.row.Row;
 import com.foundationdb.qp.rowtype.RowType;
 import com.foundationdb.server.collation.AkCollator;
 import com.foundationdb.server.explain.*;
+import com.foundationdb.server.service.config.ConfigurationService;
+import com.foundationdb.server.service.metrics.MetricsService;
 import com.foundationdb.server.types.TComparison;
 import com.foundationdb.server.types.texpressions.TEvaluatableExpression;
 import com.foundationdb.server.types.texpressions.TPreparedExpression;
 import com.foundationdb.util.ArgumentValidation;
 import com.foundationdb.qp.util.HashTable;
+import com.foundationdb.qp.util.LongKeyHashTable;
+import com.foundationdb.qp.util.SpillableHashTable;
+import com.foundationdb.qp.util.ValuesHashTable;
 import com.foundationdb.util.tap.InOutTap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -58,7 +64,8 @@ class Using_HashTable extends Operator
     @Override
     protected Cursor cursor(QueryContext context, QueryBindingsCursor bindingsCursor)
     {
-        return new Execution(context, joinedInput.cursor(context, bindingsCursor));
+        Operator input = (partitionedInput != null) ? partitionedInput : joinedInput;
+        return new Execution(context, input.cursor(context, bindingsCursor));
     }
 
     @Override
@@ -79,7 +86,9 @@ class Using_HashTable extends Operator
                            int tableBindingPosition,
                            Operator joinedInput,
                            List<TComparison> tComparisons,
-                           List<AkCollator> collators)
+                           List<AkCollator> collators,
+                           boolean packedKeys,
+                           List<TPreparedExpression> probeFields)
     {
         ArgumentValidation.notNull("hashInput", hashInput);
         ArgumentValidation.notNull("hashedRowType", hashedRowType);
@@ -95,7 +104,20 @@ class Using_HashTable extends Operator
         this.tComparisons = tComparisons;
         this.collators = collators;
         this.comparisonFields = comparisonFields;
-
+        this.packedKeys = packedKeys;
+        if (probeFields != null) {
+            // Once the table spills, partition the joined rows to match.
+            ArgumentValidation.isTrue("joinedInput is Map_NestedLoops", joinedInput instanceof Map_NestedLoops);
+            Map_NestedLoops map = (Map_NestedLoops)joinedInput;
+            this.partitionedInput =
+                map.withOuterInput(new HashTableProbe_Partitioned(map.outerInputOperator(),
+                                                                  tableBindingPosition,
+                                                                  probeFields,
+                                                                  map.inputBindingPosition()));
+        }
+        else {
+            this.partitionedInput = null;
+        }
     }
 
 
@@ -104,6 +126,8 @@ class Using_HashTable extends Operator
     private static final InOutTap TAP_OPEN = OPERATOR_TAP.createSubsidiaryTap("operator: Using_HashTable open");
     private static final InOutTap TAP_NEXT = OPERATOR_TAP.createSubsidiaryTap("operator: Using_HashTable next");
     private static final Logger LOG = LoggerFactory.getLogger(Using_HashTable.class);
+    private static final String MEMORY_PROPERTY = "fdbsql.hash_table.memory";
+    private static final String TMP_DIR_PROPERTY = "fdbsql.tmp_dir";
 
     // Object state
 
@@ -114,6 +138,8 @@ class Using_HashTable extends Operator
     private final List<AkCollator> collators;
     private final List<TComparison> tComparisons;
     private final List<TPreparedExpression> comparisonFields;
+    private final boolean packedKeys;
+    private final Operator partitionedInput;
 
 
     @Override
@@ -144,7 +170,7 @@ class Using_HashTable extends Operator
                 // Usually super.open called first, but needs to be done
                 // opposite order here to allow Using_HashFilter access
                 // to the filled HashTable in the bindings. 
-                HashTable hashTable = buildHashTable();
+                hashTable = buildHashTable();
                 bindings.setHashTable(tableBindingPosition, hashTable);
                 super.open();
             } finally {
@@ -178,6 +204,10 @@ class Using_HashTable extends Operator
                 if (bindings != null) {
                     bindings.setHashTable(tableBindingPosition, null);
                 }
+                if (hashTable != null) {
+                    hashTable.close();
+                    hashTable = null;
+                }
             } finally {
                 super.close();
             }
@@ -195,12 +225,25 @@ class Using_HashTable extends Operator
 
         // For use by this class
 
+        private HashTable hashTable;
+
         private HashTable  buildHashTable() {
             QueryBindingsCursor bindingsCursor = new SingletonQueryBindingsCursor(bindings);
             Cursor loadCursor = hashInput.cursor(context, bindingsCursor);
             loadCursor.openTopLevel();
             Row row;
-            HashTable hashTable= new HashTable();
+            HashTable hashTable;
+            ConfigurationService config = context.getServiceManager().getConfigurationService();
+            long memoryLimit = Long.parseLong(config.getProperty(MEMORY_PROPERTY));
+            if (memoryLimit > 0)
+                hashTable = new SpillableHashTable(packedKeys, comparisonFields.size(), memoryLimit,
+                                                   new File(config.getProperty(TMP_DIR_PROPERTY)),
+                                                   "hash-" + context.getSessionId() + "-",
+                                                   context.getServiceManager().getServiceByClass(MetricsService.class));
+            else if (packedKeys)
+                hashTable = new LongKeyHashTable(comparisonFields.size());
+            else
+                hashTable = new ValuesHashTable();
             hashTable.setRowType(hashedRowType);
             hashTable.setTComparisons(tComparisons);
             hashTable.setCollators(collators);
@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.row;
+
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.types.value.Value;
+import com.foundationdb.server.types.value.ValueSource;
+
+/**
+ * A row whose values stay in their stored form until asked for, so
+ * that a plan that only looks at a few columns of a wide table only
+ * pays to decode those. Each value is decoded at most once.
+ */
+public abstract class LazyRow extends AbstractRow
+{
+    @Override
+    public RowType rowType() {
+        return rowType;
+    }
+
+    @Override
+    public HKey hKey() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected ValueSource uncheckedValue(int i) {
+        Value value = values[i];
+        if (value == null) {
+            value = decodeValue(i);
+            values[i] = value;
+        }
+        return value;
+    }
+
+    @Override
+    public boolean isBindingsSensitive() {
+        return false;
+    }
+
+    /** Decode the value of field <code>i</code> from the stored form. */
+    protected abstract Value decodeValue(int i);
+
+    protected LazyRow(RowType rowType) {
+        this.rowType = rowType;
+        this.values = new Value[rowType.nFields()];
+    }
+
+    private final RowType rowType;
+    private final Value[] values;
+}
@@ -30,7 +30,7 @@ import com.foundationdb.qp.operator.QueryContext;
 import com.foundationdb.qp.operator.RowCursor;
 import com.foundationdb.qp.operator.StoreAdapter;
 import com.foundationdb.qp.storeadapter.indexcursor.IterationHelper;
-import com.foundationdb.qp.storeadapter.indexcursor.MergeJoinSorter;
+import com.foundationdb.qp.storeadapter.indexcursor.NormalizedKeySorter;
 import com.foundationdb.qp.storeadapter.indexrow.IndexRowPool;
 import com.foundationdb.qp.storeadapter.indexrow.FDBIndexRow;
 import com.foundationdb.qp.row.IndexRow;
@@ -75,6 +75,11 @@ public class FDBAdapter extends StoreAdapter {
         return new FDBGroupCursor(this, group, scanOptions());
     }
 
+    @Override
+    public FDBGroupCursor newGroupCursor(Group group, int parallelism) {
+        return new FDBGroupCursor(this, group, scanOptions(), parallelism);
+    }
+
     /** The transaction scan options for normal operator scans. */
     public FDBScanTransactionOptions scanOptions() {
         if (txnService.isTransactionActive(getSession()))
@@ -152,7 +157,7 @@ public class FDBAdapter extends StoreAdapter {
                                API.Ordering ordering,
                                API.SortOption sortOption,
                                InOutTap loadTap) {
-        return new MergeJoinSorter(context, bindings, input, rowType, ordering, sortOption, loadTap);
+        return new NormalizedKeySorter(context, bindings, input, rowType, ordering, sortOption, loadTap);
     }
 
     @Override
@@ -35,6 +35,7 @@ public class FDBGroupCursor extends RowCursorImpl implements GroupCursor {
     private final FDBStoreData storeData;
     private final Schema schema;
     private final FDBScanTransactionOptions transactionOptions;
+    private final int parallelism;
     private HKey hKey;
     private boolean hKeyDeep;
     private GroupScan groupScan;
@@ -42,11 +43,16 @@ public class FDBGroupCursor extends RowCursorImpl implements GroupCursor {
     private static final PointTap TRAVERSE_COUNT = Tap.createCount("traverse: fdb group cursor");
 
     public FDBGroupCursor(FDBAdapter adapter, Group group, FDBScanTransactionOptions transactionOptions) {
+        this(adapter, group, transactionOptions, 1);
+    }
+
+    public FDBGroupCursor(FDBAdapter adapter, Group group, FDBScanTransactionOptions transactionOptions, int parallelism) {
         this.adapter = adapter;
         this.storeData = adapter.getUnderlyingStore()
             .createStoreData(adapter.getSession(), group);
         this.schema = SchemaCache.globalSchema(group.getAIS());
         this.transactionOptions = transactionOptions;
+        this.parallelism = parallelism;
     }
 
     @Override
@@ -103,7 +109,12 @@ public class FDBGroupCursor extends RowCursorImpl implements GroupCursor {
 
     private class FullScan extends GroupScan {
         public FullScan() {
-            adapter.getUnderlyingStore().groupIterator(adapter.getSession(), storeData, transactionOptions);
+            if (parallelism > 1) {
+                adapter.getUnderlyingStore().parallelGroupIterator(adapter.getSession(), storeData, schema, parallelism, transactionOptions);
+            }
+            else {
+                adapter.getUnderlyingStore().groupIterator(adapter.getSession(), storeData, transactionOptions);
+            }
         }
     }
 
@@ -21,7 +21,7 @@ import com.foundationdb.ais.model.*;
 import com.foundationdb.qp.expression.IndexKeyRange;
 import com.foundationdb.qp.operator.*;
 import com.foundationdb.qp.storeadapter.indexcursor.IterationHelper;
-import com.foundationdb.qp.storeadapter.indexcursor.MergeJoinSorter;
+import com.foundationdb.qp.storeadapter.indexcursor.NormalizedKeySorter;
 import com.foundationdb.qp.storeadapter.indexrow.IndexRowPool;
 import com.foundationdb.qp.storeadapter.indexrow.PersistitGroupIndexRow;
 import com.foundationdb.qp.storeadapter.indexrow.PersistitTableIndexRow;
@@ -96,7 +96,7 @@ public class PersistitAdapter extends StoreAdapter
                                API.SortOption sortOption,
                                InOutTap loadTap)
     {
-        return new MergeJoinSorter(context, bindings, input, rowType, ordering, sortOption, loadTap);
+        return new NormalizedKeySorter(context, bindings, input, rowType, ordering, sortOption, loadTap);
     }
 
 
@@ -182,6 +182,10 @@ public class MergeJoinSorter implements Sorter {
     public KeyReadCursor readCursor() { 
         return new KeyReadCursor(input); 
     }
+
+    public Comparator<SortKey> comparator() {
+        return compare;
+    }
     
     private SortConfig getSortConfig (MergeTempFileProvider tmpFileProvider) {
         long maxMemory = Long.parseLong(context.getServiceManager().getConfigurationService().getProperty("fdbsql.sort.memory"));
@@ -280,7 +284,7 @@ public class MergeJoinSorter implements Sorter {
                 return null;
             }
             byte[] bytes = new byte[size];
-            int bytesRead = is.read(bytes);
+            int bytesRead = readFully(bytes, 0, size);
             
             assert bytesRead == size: "Invalid byte count on key state read";
             
@@ -293,7 +297,7 @@ public class MergeJoinSorter implements Sorter {
             Value value = new Value ((Persistit)null);
             value.setMaximumSize(size);
             value.ensureFit(size);
-            int bytesRead = is.read(value.getEncodedBytes(), 0, size);
+            int bytesRead = readFully(value.getEncodedBytes(), 0, size);
             assert bytesRead == size : "Invalid byte count on value read";
             value.setEncodedSize(size);
             return value;
@@ -301,13 +305,26 @@ public class MergeJoinSorter implements Sorter {
         
         private int readLength() throws IOException {
             length.clear();
-            int bytesRead = is.read(length.array());
-            if (bytesRead == -1) { // EOF marker
+            int bytesRead = readFully(length.array(), 0, 4);
+            if (bytesRead <= 0) { // EOF marker
                 return -1;
             } 
             assert bytesRead == 4 : "Invalid byte count on length read";
             return length.getInt();
         }
+
+        // Compressed and buffered streams can return fewer bytes than asked for.
+        private int readFully(byte[] bytes, int offset, int size) throws IOException {
+            int total = 0;
+            while (total < size) {
+                int bytesRead = is.read(bytes, offset + total, size - total);
+                if (bytesRead == -1) {
+                    break;
+                }
+                total += bytesRead;
+            }
+            return total;
+        }
     }
 
     /*
@@ -0,0 +1,423 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.foundationdb.qp.storeadapter.indexcursor;
+
+import com.foundationdb.qp.operator.API;
+import com.foundationdb.qp.operator.CursorLifecycle;
+import com.foundationdb.qp.operator.QueryBindings;
+import com.foundationdb.qp.operator.QueryContext;
+import com.foundationdb.qp.operator.RowCursor;
+import com.foundationdb.qp.operator.RowCursorImpl;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.row.ValuesHolderRow;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.storeadapter.Sorter;
+import com.foundationdb.server.PersistitValueValueSource;
+import com.foundationdb.server.PersistitValueValueTarget;
+import com.foundationdb.server.error.StorageKeySizeExceededException;
+import com.foundationdb.server.service.config.ConfigurationService;
+import com.foundationdb.server.types.value.ValueSource;
+import com.foundationdb.util.tap.InOutTap;
+import com.persistit.Key;
+import com.persistit.Persistit;
+import com.persistit.Value;
+import com.persistit.exception.ConversionException;
+import com.persistit.exception.KeyTooLongException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <h1>Overview</h1>
+ *
+ * Sort rows by appending their keys and values to contiguous buffers and sorting an array of entry numbers
+ * with an MSD radix sort on the key bytes.
+ *
+ * <h1>Behavior</h1>
+ *
+ * Each row is encoded into a single normalized key: the Persistit key built by {@link ValueSorterAdapter} for
+ * each run of ASC or DESC columns, with the bytes of DESC runs inverted. Every Persistit key segment ends with
+ * a zero byte and contains no others, so a byte-wise comparison of normalized keys gives the requested order.
+ * The row itself is encoded into a Persistit Value and appended to a second buffer.
+ *
+ * If the buffers grow past <code>fdbsql.sort.memory</code>, sorting is handed off to a {@link ParallelMergeSorter}
+ * (or a {@link MergeJoinSorter} if <code>fdbsql.sort.parallelism</code> is 1), which is given the rows loaded so far
+ * followed by the rest of the input.
+ *
+ * <h1>Performance</h1>
+ *
+ * NormalizedKeySorter generates no IO unless it falls back to an external sort. Sorting does no comparisons
+ * except for small ranges of keys that share a prefix.
+ *
+ * <h1>Memory Requirements</h1>
+ *
+ * The encoded keys and rows, plus three ints per row. Rows are decoded again as they are read.
+ */
+public class NormalizedKeySorter implements Sorter
+{
+    private static final int INITIAL_ENTRIES = 1024;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    private final QueryContext context;
+    private final QueryBindings bindings;
+    private final RowCursor input;
+    private final RowType rowType;
+    private final API.Ordering originalOrdering;
+    private final API.Ordering ordering;
+    private final API.SortOption sortOption;
+    private final InOutTap loadTap;
+    private final Key key;
+    private final SorterAdapter<?, ?, ?> sorterAdapter;
+    private final List<Integer> orderChanges;
+    private final boolean[] descending;
+    private final long maxMemory;
+    private final int parallelism;
+
+    private final PersistitValueValueTarget valueTarget = new PersistitValueValueTarget();
+    private final Value rowValue = new Value((Persistit)null);
+    private byte[] keyBuffer = new byte[INITIAL_BUFFER_SIZE];
+    private byte[] rowBuffer = new byte[INITIAL_BUFFER_SIZE];
+    // Entry i has key bytes [keyOffsets[i], keyOffsets[i+1]) and row bytes [rowOffsets[i], rowOffsets[i+1]).
+    private int[] keyOffsets = new int[INITIAL_ENTRIES + 1];
+    private int[] rowOffsets = new int[INITIAL_ENTRIES + 1];
+    private int count;
+    private int[] sorted;
+    private Sorter fallback;
+
+    public NormalizedKeySorter(QueryContext context,
+                               QueryBindings bindings,
+                               RowCursor input,
+                               RowType rowType,
+                               API.Ordering ordering,
+                               API.SortOption sortOption,
+                               InOutTap loadTap)
+    {
+        this.context = context;
+        this.bindings = bindings;
+        this.input = input;
+        this.rowType = rowType;
+        this.originalOrdering = ordering;
+        this.ordering = ordering.copy();
+        this.sortOption = sortOption;
+        this.loadTap = loadTap;
+        this.key = context.getStore().getKeyCreator().createKey();
+        this.sorterAdapter = new ValueSorterAdapter();
+        // Note: init may change this.ordering
+        sorterAdapter.init(rowType, this.ordering, this.key, null, this.context, this.bindings, sortOption);
+        // Explicitly use input ordering to avoid appended field
+        this.orderChanges = new ArrayList<>();
+        List<Boolean> chunkDescending = new ArrayList<>();
+        for(int i = 0; i < ordering.sortColumns(); ++i) {
+            if(i == 0 || ordering.ascending(i-1) != ordering.ascending(i)) {
+                orderChanges.add(i);
+                chunkDescending.add(!ordering.ascending(i));
+            }
+        }
+        this.orderChanges.add(ordering.sortColumns());
+        this.descending = new boolean[chunkDescending.size()];
+        for(int i = 0; i < descending.length; ++i) {
+            descending[i] = chunkDescending.get(i);
+        }
+        ConfigurationService config = context.getServiceManager().getConfigurationService();
+        this.maxMemory = Long.parseLong(config.getProperty("fdbsql.sort.memory"));
+        this.parallelism = ParallelMergeSorter.configuredParallelism(config);
+    }
+
+    @Override
+    public RowCursor sort() {
+        boolean fits = loadBuffers();
+        if(!fits) {
+            if(parallelism > 1) {
+                fallback = new ParallelMergeSorter(context, bindings, new ReplayCursor(), rowType, originalOrdering, sortOption, loadTap, parallelism);
+            } else {
+                fallback = new MergeJoinSorter(context, bindings, new ReplayCursor(), rowType, originalOrdering, sortOption, loadTap);
+            }
+            return fallback.sort();
+        }
+        sorted = new int[count];
+        for(int i = 0; i < count; ++i) {
+            sorted[i] = i;
+        }
+        radixSort(sorted, new int[count], 0, count, 0);
+        return new SortedCursor();
+    }
+
+    @Override
+    public void close() {
+        if(fallback != null) {
+            fallback.close();
+            fallback = null;
+        }
+        releaseBuffers();
+    }
+
+    /** Load rows until input is exhausted, returning <code>false</code> if memory ran out first. */
+    private boolean loadBuffers() {
+        boolean loaded = false;
+        try {
+            loadTap.in();
+            try {
+                Row row;
+                while((row = input.next()) != null) {
+                    context.checkQueryCancelation();
+                    append(row);
+                    if(memoryUsed() > maxMemory) {
+                        loaded = true;
+                        return false;
+                    }
+                    loadTap.out();
+                    loadTap.in();
+                }
+            } finally {
+                loadTap.out();
+            }
+            loaded = true;
+            return true;
+        } finally {
+            if(!loaded) {
+                close();
+            }
+        }
+    }
+
+    private long memoryUsed() {
+        return (long)keyBuffer.length + rowBuffer.length + (keyOffsets.length + rowOffsets.length) * 4L + count * 4L;
+    }
+
+    private void append(Row row) {
+        if(count + 1 >= keyOffsets.length) {
+            keyOffsets = Arrays.copyOf(keyOffsets, keyOffsets.length * 2);
+            rowOffsets = Arrays.copyOf(rowOffsets, rowOffsets.length * 2);
+        }
+        int keyEnd = keyOffsets[count];
+        for(int i = 0; i < descending.length; ++i) {
+            createKey(row, i, count + 1);
+            int size = key.getEncodedSize();
+            keyBuffer = ensureCapacity(keyBuffer, keyEnd + size);
+            byte[] bytes = key.getEncodedBytes();
+            if(descending[i]) {
+                for(int j = 0; j < size; ++j) {
+                    keyBuffer[keyEnd + j] = (byte)~bytes[j];
+                }
+            } else {
+                System.arraycopy(bytes, 0, keyBuffer, keyEnd, size);
+            }
+            keyEnd += size;
+        }
+        keyOffsets[count + 1] = keyEnd;
+        createValue(row);
+        int rowEnd = rowOffsets[count];
+        int size = rowValue.getEncodedSize();
+        rowBuffer = ensureCapacity(rowBuffer, rowEnd + size);
+        System.arraycopy(rowValue.getEncodedBytes(), 0, rowBuffer, rowEnd, size);
+        rowOffsets[count + 1] = rowEnd + size;
+        ++count;
+    }
+
+    private void createKey(Row row, int chunk, int rowCount) {
+        int startOffset = orderChanges.get(chunk);
+        int endOffset = orderChanges.get(chunk + 1);
+        boolean isLast = chunk == descending.length - 1;
+        // Loop for key growth
+        while(true) {
+            try {
+                key.clear();
+                for(int j = startOffset; j < endOffset; ++j) {
+                    sorterAdapter.evaluateToKey(row, j);
+                }
+                if(isLast && sorterAdapter.preserveDuplicates()) {
+                    key.append(rowCount);
+                }
+                break;
+            } catch (KeyTooLongException | StorageKeySizeExceededException e) {
+                if(key.getMaximumSize() == Key.MAX_KEY_LENGTH_UPPER_BOUND) {
+                    throw e;
+                }
+                key.setMaximumSize(Math.min(key.getMaximumSize() * 2, Key.MAX_KEY_LENGTH_UPPER_BOUND));
+            }
+        }
+    }
+
+    private void createValue(Row row) {
+        valueTarget.attach(rowValue);
+        // Loop for value growth
+        while(true) {
+            try {
+                rowValue.clear();
+                rowValue.setStreamMode(true);
+                for(int i = 0; i < rowType.nFields(); ++i) {
+                    ValueSource field = row.value(i);
+                    if(field.isNull()) {
+                        valueTarget.putNull();
+                    } else {
+                        rowType.typeAt(i).writeCanonical(field, valueTarget);
+                    }
+                }
+                break;
+            } catch(ConversionException e) {
+                if(rowValue.getMaximumSize() == Value.MAXIMUM_SIZE) {
+                    throw new KeyTooLongException("Maximum size exceeded=" + Value.MAXIMUM_SIZE);
+                }
+                rowValue.setMaximumSize(Math.min(rowValue.getMaximumSize() * 2, Value.MAXIMUM_SIZE));
+            }
+        }
+    }
+
+    private static byte[] ensureCapacity(byte[] buffer, int size) {
+        if(size <= buffer.length) {
+            return buffer;
+        }
+        return Arrays.copyOf(buffer, Math.max(size, buffer.length * 2));
+    }
+
+    private void releaseBuffers() {
+        keyBuffer = rowBuffer = null;
+        keyOffsets = rowOffsets = sorted = null;
+        count = 0;
+    }
+
+    private Row decodeRow(int entry, PersistitValueValueSource valueSource, Value value) {
+        int start = rowOffsets[entry];
+        int size = rowOffsets[entry + 1] - start;
+        value.clear();
+        if(value.getMaximumSize() < size) {
+            value.setMaximumSize(size);
+        }
+        value.ensureFit(size);
+        System.arraycopy(rowBuffer, start, value.getEncodedBytes(), 0, size);
+        value.setEncodedSize(size);
+        ValuesHolderRow row = new ValuesHolderRow(rowType);
+        valueSource.attach(value);
+        for(int i = 0 ; i < rowType.nFields(); ++i) {
+            valueSource.getReady(rowType.typeAt(i));
+            if(valueSource.isNull()) {
+                row.valueAt(i).putNull();
+            } else {
+                rowType.typeAt(i).writeCanonical(valueSource, row.valueAt(i));
+            }
+        }
+        return row;
+    }
+
+    //
+    // MSD radix sort of entry numbers by key bytes
+    //
+
+    private int byteAt(int entry, int depth) {
+        int position = keyOffsets[entry] + depth;
+        return (position < keyOffsets[entry + 1]) ? (keyBuffer[position] & 0xFF) : -1;
+    }
+
+    private void radixSort(int[] entries, int[] aux, int lo, int hi, int depth) {
+        if(hi - lo <= INSERTION_SORT_THRESHOLD) {
+            insertionSort(entries, lo, hi, depth);
+            return;
+        }
+        // counts[b + 2] for byte b, with b = -1 for end of key.
+        int[] counts = new int[256 + 2];
+        for(int i = lo; i < hi; ++i) {
+            ++counts[byteAt(entries[i], depth) + 2];
+        }
+        for(int b = 0; b < 256 + 1; ++b) {
+            counts[b + 1] += counts[b];
+        }
+        for(int i = lo; i < hi; ++i) {
+            aux[counts[byteAt(entries[i], depth) + 1]++] = entries[i];
+        }
+        System.arraycopy(aux, 0, entries, lo, hi - lo);
+        // Now counts[b] is the start of the bucket for byte b. Keys that ended are all equal.
+        for(int b = 0; b < 256; ++b) {
+            if(counts[b + 1] - counts[b] > 1) {
+                radixSort(entries, aux, lo + counts[b], lo + counts[b + 1], depth + 1);
+            }
+        }
+    }
+
+    private void insertionSort(int[] entries, int lo, int hi, int depth) {
+        for(int i = lo + 1; i < hi; ++i) {
+            int entry = entries[i];
+            int j = i;
+            while((j > lo) && (compareKeys(entry, entries[j - 1], depth) < 0)) {
+                entries[j] = entries[j - 1];
+                --j;
+            }
+            entries[j] = entry;
+        }
+    }
+
+    private int compareKeys(int entry1, int entry2, int depth) {
+        int start1 = keyOffsets[entry1] + depth, end1 = keyOffsets[entry1 + 1];
+        int start2 = keyOffsets[entry2] + depth, end2 = keyOffsets[entry2 + 1];
+        while((start1 < end1) && (start2 < end2)) {
+            int c = (keyBuffer[start1++] & 0xFF) - (keyBuffer[start2++] & 0xFF);
+            if(c != 0) {
+                return c;
+            }
+        }
+        return (end1 - start1) - (end2 - start2);
+    }
+
+    /*
+     * Rows already loaded, in input order, followed by the rest of the input.
+     * Used to hand everything off to the fallback sorter.
+     */
+    private class ReplayCursor extends RowCursorImpl {
+        private final PersistitValueValueSource valueSource = new PersistitValueValueSource();
+        private final Value value = new Value((Persistit)null);
+        private int position;
+
+        @Override
+        public Row next() {
+            if(position < count) {
+                return decodeRow(position++, valueSource, value);
+            }
+            if(keyBuffer != null) {
+                releaseBuffers();
+            }
+            return input.next();
+        }
+    }
+
+    private class SortedCursor extends RowCursorImpl {
+        private final PersistitValueValueSource valueSource = new PersistitValueValueSource();
+        private final Value value = new Value((Persistit)null);
+        private int position;
+
+        @Override
+        public void open() {
+            super.open();
+            position = 0;
+        }
+
+        @Override
+        public Row next() {
+            CursorLifecycle.checkIdleOrActive(this);
+            if((sorted == null) || (position >= count)) {
+                return null;
+            }
+            int entry = sorted[position++];
+            if(sortOption == API.SortOption.SUPPRESS_DUPLICATES) {
+                while((position < count) && (compareKeys(entry, sorted[position], 0) == 0)) {
+                    ++position;
+                }
+            }
+            return decodeRow(entry, valueSource, value);
+        }
+    }
+}
@@ -0,0 +1,544 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.foundationdb.qp.storeadapter.indexcursor;
+
+import com.foundationdb.qp.operator.API;
+import com.foundationdb.qp.operator.QueryBindings;
+import com.foundationdb.qp.operator.QueryContext;
+import com.foundationdb.qp.operator.RowCursor;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.storeadapter.Sorter;
+import com.foundationdb.qp.storeadapter.indexcursor.MergeJoinSorter.KeyReadCursor;
+import com.foundationdb.qp.storeadapter.indexcursor.MergeJoinSorter.KeyReader;
+import com.foundationdb.qp.storeadapter.indexcursor.MergeJoinSorter.KeyWriter;
+import com.foundationdb.qp.storeadapter.indexcursor.MergeJoinSorter.SortKey;
+import com.foundationdb.server.error.MergeSortIOException;
+import com.foundationdb.server.error.QueryCanceledException;
+import com.foundationdb.server.service.config.ConfigurationService;
+import com.foundationdb.util.tap.InOutTap;
+import com.foundationdb.util.tap.Tap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * <h1>Overview</h1>
+ *
+ * Sort rows by cutting the input into runs that are sorted and written to compressed files on a
+ * {@link ForkJoinPool} shared by all sorts, then merging the runs with a loser tree.
+ *
+ * <h1>Behavior</h1>
+ *
+ * Rows are converted to {@link SortKey}s exactly as {@link MergeJoinSorter} does, on the thread reading the input
+ * cursor. Whenever the current batch reaches its share of <code>fdbsql.sort.memory</code>, it is handed to the pool
+ * to be sorted and written while the next batch is read. If the whole input fits in the first batch, it is sorted
+ * in memory and no files are written.
+ *
+ * Once the input is exhausted, runs are merged. If there are more than {@link #MAX_FAN_IN} runs, groups of them are
+ * first merged in parallel into longer runs. The final merge is read directly by the output cursor.
+ *
+ * <h1>Performance</h1>
+ *
+ * Reading the input cursor stays single-threaded. Sorting and compressing runs and intermediate merges are done by the
+ * shared pool, which has <code>fdbsql.sort.parallelism</code> threads (the number of processors if 0), however many
+ * sorts are running. A pool of another size only replaces it once no sort is using it. Each sort keeps at most its
+ * own <code>parallelism</code> runs outstanding. Each row is written and read once per merge pass.
+ *
+ * Closing a sort waits for any of its runs still being written, so that it can delete their files.
+ *
+ * <h1>Memory Requirements</h1>
+ *
+ * The batch being read plus up to one batch per thread that is being sorted; each batch is
+ * <code>fdbsql.sort.memory / (parallelism + 1)</code>. Merges hold one buffered key per run.
+ */
+public class ParallelMergeSorter implements Sorter
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelMergeSorter.class);
+    private static final InOutTap RUN_TAP = Tap.createTimer("sort: parallel run");
+    private static final InOutTap MERGE_TAP = Tap.createTimer("sort: parallel merge");
+
+    public static final int MAX_FAN_IN = 64;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String PARALLELISM_PROPERTY = "fdbsql.sort.parallelism";
+
+    private static ForkJoinPool sharedPool;
+    private static int sharedPoolUsers;
+
+    private final QueryContext context;
+    private final RowType rowType;
+    private final API.SortOption sortOption;
+    private final MergeJoinSorter keySource;
+    private final Comparator<SortKey> compare;
+    private final int parallelism;
+    private final ForkJoinPool pool;
+    private final long batchMemory;
+    private final File directory;
+    private final String prefix;
+
+    // Guarded by files, along with the two after it.
+    private final List<File> files = new ArrayList<>();
+    private int running;
+    private boolean closed;
+    private final Deque<Future<File>> pending = new ArrayDeque<>();
+    private List<RunReader> readers;
+
+    public ParallelMergeSorter(QueryContext context,
+                               QueryBindings bindings,
+                               RowCursor input,
+                               RowType rowType,
+                               API.Ordering ordering,
+                               API.SortOption sortOption,
+                               InOutTap loadTap,
+                               int parallelism)
+    {
+        this.context = context;
+        this.rowType = rowType;
+        this.sortOption = sortOption;
+        this.keySource = new MergeJoinSorter(context, bindings, input, rowType, ordering, sortOption, loadTap);
+        this.compare = keySource.comparator();
+        this.parallelism = parallelism;
+        ConfigurationService config = context.getServiceManager().getConfigurationService();
+        long maxMemory = Long.parseLong(config.getProperty("fdbsql.sort.memory"));
+        this.batchMemory = Math.max(1, maxMemory / (parallelism + 1));
+        this.directory = new File(config.getProperty("fdbsql.tmp_dir"));
+        this.prefix = "sort-" + context.getSessionId() + "-";
+        this.pool = acquirePool(configuredParallelism(config));
+    }
+
+    @Override
+    public RowCursor sort() {
+        boolean sorted = false;
+        try {
+            Iterator<SortKey> iterator = sortKeys();
+            sorted = true;
+            return new MergeJoinSorter.KeyFinalCursor(iterator, rowType, sortOption, compare);
+        } catch (IOException e) {
+            throw new MergeSortIOException(e);
+        } finally {
+            if (!sorted) {
+                close();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (files) {
+            if (closed) {
+                return;
+            }
+            // Tasks not yet started will now do nothing.
+            closed = true;
+        }
+        for (Future<File> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+        if (readers != null) {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+            readers = null;
+        }
+        synchronized (files) {
+            // Those already running may still create a file.
+            boolean interrupted = false;
+            while (running > 0) {
+                try {
+                    files.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            for (File file : files) {
+                if (!file.delete()) {
+                    LOG.debug("Could not delete {}", file);
+                }
+            }
+            files.clear();
+        }
+        releasePool();
+    }
+
+    /** The default number of threads for sorting runs. */
+    public static int defaultParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /** The number of threads for sorting runs from <code>fdbsql.sort.parallelism</code>. */
+    public static int configuredParallelism(ConfigurationService config) {
+        int parallelism = Integer.parseInt(config.getProperty(PARALLELISM_PROPERTY));
+        return (parallelism > 0) ? parallelism : defaultParallelism();
+    }
+
+    // For use by this class
+
+    private static synchronized ForkJoinPool acquirePool(int poolParallelism) {
+        if ((sharedPool != null) && (sharedPool.getParallelism() != poolParallelism) && (sharedPoolUsers == 0)) {
+            // The configuration changed and no sort is using the old one. Until then, they share it.
+            sharedPool.shutdown();
+            sharedPool = null;
+        }
+        if (sharedPool == null) {
+            sharedPool = new ForkJoinPool(poolParallelism);
+        }
+        sharedPoolUsers++;
+        return sharedPool;
+    }
+
+    private static synchronized void releasePool() {
+        // Only ever replaced with no users, so this sort's pool is still the shared one.
+        sharedPoolUsers--;
+    }
+
+    private Iterator<SortKey> sortKeys() throws IOException {
+        KeyReadCursor reader = keySource.readCursor();
+        List<File> runs = new ArrayList<>();
+        List<SortKey> batch = new ArrayList<>();
+        long batchSize = 0;
+        SortKey key;
+        while ((key = reader.readNext()) != null) {
+            batch.add(key);
+            batchSize += key.getSize();
+            if (batchSize >= batchMemory) {
+                if (pending.size() >= parallelism) {
+                    runs.add(await(pending.removeFirst()));
+                }
+                pending.add(pool.submit(new WriteRun(batch)));
+                batch = new ArrayList<>();
+                batchSize = 0;
+            }
+        }
+        if (pending.isEmpty() && runs.isEmpty()) {
+            Collections.sort(batch, compare);
+            return batch.iterator();
+        }
+        if (!batch.isEmpty()) {
+            pending.add(pool.submit(new WriteRun(batch)));
+        }
+        while (!pending.isEmpty()) {
+            runs.add(await(pending.removeFirst()));
+        }
+        LOG.debug("Sorted {} runs of {} rows", runs.size(), reader.rowCount());
+        while (runs.size() > MAX_FAN_IN) {
+            List<Future<File>> merges = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+                List<File> group = runs.subList(i, Math.min(i + MAX_FAN_IN, runs.size()));
+                merges.add(pool.submit(new MergeRuns(new ArrayList<File>(group))));
+            }
+            runs = new ArrayList<>();
+            for (Future<File> merge : merges) {
+                runs.add(await(merge));
+            }
+        }
+        readers = openReaders(runs);
+        return new LoserTree(readers, compare);
+    }
+
+    private File await(Future<File> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new QueryCanceledException(context.getSession());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            throw new MergeSortIOException(String.valueOf(cause));
+        }
+    }
+
+    /** Whether a task should run, which it must not once the sort is closed. */
+    private boolean startTask() {
+        synchronized (files) {
+            if (closed) {
+                return false;
+            }
+            running++;
+            return true;
+        }
+    }
+
+    private void endTask() {
+        synchronized (files) {
+            running--;
+            files.notifyAll();
+        }
+    }
+
+    private File createRunFile() throws IOException {
+        File file = File.createTempFile(prefix, ".tmp", directory);
+        file.deleteOnExit();
+        synchronized (files) {
+            files.add(file);
+        }
+        return file;
+    }
+
+    private void deleteRunFile(File file) {
+        synchronized (files) {
+            files.remove(file);
+        }
+        if (!file.delete()) {
+            LOG.debug("Could not delete {}", file);
+        }
+    }
+
+    private List<RunReader> openReaders(List<File> runs) throws IOException {
+        List<RunReader> result = new ArrayList<>(runs.size());
+        try {
+            for (File run : runs) {
+                result.add(new RunReader(run));
+            }
+        } catch (IOException e) {
+            for (RunReader reader : result) {
+                reader.close();
+            }
+            throw e;
+        }
+        return result;
+    }
+
+    private void writeRun(File file, Iterator<SortKey> keys) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            KeyWriter writer = new KeyWriter(new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE),
+                                                                      deflater, BUFFER_SIZE));
+            try {
+                while (keys.hasNext()) {
+                    writer.writeEntry(keys.next());
+                }
+            } finally {
+                writer.close();
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Sort a batch and write it as a run. */
+    private class WriteRun implements Callable<File> {
+        private final List<SortKey> batch;
+
+        WriteRun(List<SortKey> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public File call() throws IOException {
+            if (!startTask()) {
+                return null;
+            }
+            RUN_TAP.in();
+            try {
+                Collections.sort(batch, compare);
+                File file = createRunFile();
+                writeRun(file, batch.iterator());
+                return file;
+            } finally {
+                RUN_TAP.out();
+                endTask();
+            }
+        }
+    }
+
+    /** Merge several runs into one. */
+    private class MergeRuns implements Callable<File> {
+        private final List<File> runs;
+
+        MergeRuns(List<File> runs) {
+            this.runs = runs;
+        }
+
+        @Override
+        public File call() throws IOException {
+            if (!startTask()) {
+                return null;
+            }
+            MERGE_TAP.in();
+            try {
+                List<RunReader> inputs = openReaders(runs);
+                try {
+                    File file = createRunFile();
+                    writeRun(file, new LoserTree(inputs, compare));
+                    return file;
+                } finally {
+                    for (RunReader reader : inputs) {
+                        reader.close();
+                    }
+                }
+            } finally {
+                for (File run : runs) {
+                    deleteRunFile(run);
+                }
+                MERGE_TAP.out();
+                endTask();
+            }
+        }
+    }
+
+    /** A run file, read one key ahead. */
+    private static class RunReader {
+        private final Inflater inflater = new Inflater();
+        private final KeyReader reader;
+        private SortKey current;
+
+        RunReader(File file) throws IOException {
+            FileInputStream stream = new FileInputStream(file);
+            try {
+                reader = new KeyReader(new BufferedInputStream(new InflaterInputStream(new BufferedInputStream(stream, BUFFER_SIZE),
+                                                                                       inflater, BUFFER_SIZE),
+                                                               BUFFER_SIZE));
+            } catch (RuntimeException e) {
+                stream.close();
+                throw e;
+            }
+            advance();
+        }
+
+        SortKey current() {
+            return current;
+        }
+
+        void advance() {
+            try {
+                current = reader.readNext();
+            } catch (IOException e) {
+                throw new MergeSortIOException(e);
+            }
+            if (current == null) {
+                close();
+            }
+        }
+
+        void close() {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                LOG.debug("Error closing run", e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Tournament tree of losers: <code>tree[0]</code> is the index of the run with the smallest current key
+     * and each internal node holds the loser of the match played there. Replacing the winner takes one
+     * comparison per level.
+     */
+    static class LoserTree implements Iterator<SortKey> {
+        private final RunReader[] runs;
+        private final Comparator<SortKey> compare;
+        private final int[] tree;
+
+        LoserTree(List<RunReader> runs, Comparator<SortKey> compare) {
+            this.runs = runs.toArray(new RunReader[runs.size()]);
+            this.compare = compare;
+            int k = this.runs.length;
+            this.tree = new int[Math.max(k, 1)];
+            // Index k is a sentinel that beats everything, so each adjust below displaces one.
+            Arrays.fill(tree, k);
+            if (k == 0) {
+                tree[0] = -1;
+            }
+            for (int i = k - 1; i >= 0; i--) {
+                adjust(i);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            int winner = tree[0];
+            return (winner >= 0) && (runs[winner].current() != null);
+        }
+
+        @Override
+        public SortKey next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int winner = tree[0];
+            SortKey result = runs[winner].current();
+            runs[winner].advance();
+            adjust(winner);
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void adjust(int run) {
+            int winner = run;
+            for (int node = (run + runs.length) / 2; node > 0; node /= 2) {
+                if (beats(tree[node], winner)) {
+                    int loser = winner;
+                    winner = tree[node];
+                    tree[node] = loser;
+                }
+            }
+            tree[0] = winner;
+        }
+
+        private boolean beats(int a, int b) {
+            if (a == runs.length)
+                return true;
+            if (b == runs.length)
+                return false;
+            SortKey keyA = runs[a].current();
+            SortKey keyB = runs[b].current();
+            if (keyA == null)
+                return false;
+            if (keyB == null)
+                return true;
+            int c = compare.compare(keyA, keyB);
+            // Ties go to the earlier run, which holds earlier input.
+            return (c < 0) || ((c == 0) && (a < b));
+        }
+    }
+}
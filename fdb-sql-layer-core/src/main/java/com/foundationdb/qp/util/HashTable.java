@@ -21,39 +21,29 @@ import com.foundationdb.qp.operator.QueryBindings;
 import com.foundationdb.qp.row.Row;
 import com.foundationdb.qp.rowtype.RowType;
 import com.foundationdb.server.collation.AkCollator;
-import com.foundationdb.server.types.TClass;
 import com.foundationdb.server.types.TComparison;
 import com.foundationdb.server.types.texpressions.TEvaluatableExpression;
-import com.foundationdb.server.types.value.Value;
-import com.foundationdb.server.types.value.ValueSource;
-import com.foundationdb.server.types.value.ValueSources;
-import com.foundationdb.server.types.value.ValueTargets;
-import com.google.common.collect.ArrayListMultimap;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
-public class HashTable {
-    private ArrayListMultimap<KeyWrapper, Row> hashTable = ArrayListMultimap.create();
+/**
+ * Rows of a single type, loaded by <code>Using_HashTable</code> and probed by
+ * <code>HashTableLookup_Default</code>, keyed by evaluating a list of expressions.
+ * @see ValuesHashTable
+ * @see LongKeyHashTable
+ */
+public abstract class HashTable {
+    protected RowType hashedRowType;
+    protected List<TComparison> tComparisons;
+    protected List<AkCollator> collators;
+    protected boolean matchNulls;
 
-    private RowType hashedRowType;
-    private List<TComparison> tComparisons;
-    private List<AkCollator> collators;
-    private boolean matchNulls;
+    public abstract List<Row> getMatchingRows(Row row, List<TEvaluatableExpression> evaluatableComparisonFields, QueryBindings bindings);
 
-    public List<Row> getMatchingRows(Row row, List<TEvaluatableExpression> evaluatableComparisonFields, QueryBindings bindings){
-        KeyWrapper key = new KeyWrapper(row, evaluatableComparisonFields, bindings);
-        if (!matchNulls && key.isNull())
-            return Collections.emptyList();
-        return hashTable.get(key);
-    }
+    public abstract void put(Row row, List<TEvaluatableExpression> evaluatableComparisonFields, QueryBindings bindings);
 
-    public void put(Row row, List<TEvaluatableExpression> evaluatableComparisonFields, QueryBindings bindings){
-        KeyWrapper key = new KeyWrapper(row, evaluatableComparisonFields, bindings);
-        if (matchNulls || !key.isNull()) {
-            hashTable.put(key, row);
-        }
+    /** Release any resources held beyond the rows themselves. */
+    public void close() {
     }
 
     public RowType getRowType() {
@@ -73,63 +63,4 @@ public class HashTable {
     public void setMatchNulls(boolean matchNulls) {
         this.matchNulls = matchNulls;
     }
-
-    public class KeyWrapper implements Comparable<KeyWrapper> {
-        List<ValueSource> values = new ArrayList<>();
-        int hashKey = 0;
-        boolean isNull;
-
-        @Override
-        public int hashCode() {
-            return hashKey;
-        }
-
-        @Override
-        public boolean equals(Object x) {
-            if ( !(x instanceof KeyWrapper) ||  ((KeyWrapper)x).values.size() != values.size() )
-                return false;
-            return (compareTo((KeyWrapper)x) == 0);
-        }
-
-        @Override
-        public int compareTo(KeyWrapper other) {
-            for (int i = 0; i < values.size(); i++) {
-                int compare;
-                if (tComparisons != null && tComparisons.get(i) != null) {
-                    compare = tComparisons.get(i).compare(values.get(i).getType(), values.get(i), other.values.get(i).getType(), other.values.get(i));
-                }
-                else {
-                    compare = TClass.compare(values.get(i).getType(), values.get(i), other.values.get(i).getType(), other.values.get(i));
-                }
-                if (compare != 0) {
-                    return compare;
-                }
-            }
-            return 0;
-        }
-
-        public boolean isNull() {
-            return isNull;
-        }
-
-        public KeyWrapper(Row row, List<TEvaluatableExpression> comparisonExpressions, QueryBindings bindings){
-            int i = 0;
-            for (TEvaluatableExpression expression : comparisonExpressions) {
-                if (row != null)
-                    expression.with(row);
-                if (bindings != null)
-                    expression.with(bindings);
-                expression.evaluate();
-                ValueSource columnValue = expression.resultValue();
-                if (columnValue.isNull())
-                    isNull = true;
-                Value valueCopy = new Value(columnValue.getType());
-                ValueTargets.copyFrom(columnValue, valueCopy);
-                AkCollator collator = (collators != null) ? collators.get(i) : null;
-                hashKey ^= ValueSources.hash(valueCopy, collator);
-                values.add(valueCopy);
-                i++;
-            }
-        }
-    }
 }
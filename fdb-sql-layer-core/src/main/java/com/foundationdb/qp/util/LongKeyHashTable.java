@@ -0,0 +1,305 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.util;
+
+import com.foundationdb.qp.operator.QueryBindings;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.server.types.TComparison;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.texpressions.TEvaluatableExpression;
+import com.foundationdb.server.types.texpressions.TPreparedExpression;
+import com.foundationdb.server.types.value.UnderlyingType;
+import com.foundationdb.server.types.value.ValueSource;
+import com.foundationdb.server.types.value.ValueSources;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link HashTable} for keys whose columns are all fixed-width integer types,
+ * each of which is packed into a <code>long</code>. Open addressing over
+ * primitive arrays, so neither loading nor probing allocates per row.
+ * Equality is on the packed bits, which is only correct when no
+ * {@link TComparison} is needed; see {@link #canPack}.
+ */
+public class LongKeyHashTable extends HashTable {
+    public static final int MAX_KEY_COLUMNS = 64;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int nkeys;
+    private final long[] buildKey, probeKey;
+    // Distinct keys: nkeys longs each, plus which columns are null.
+    private long[] keys;
+    private long[] nullMasks;
+    private int[] hashes;
+    private int[] firstRow, lastRow;
+    private int ndistinct;
+    // Open addressing: index of distinct key + 1, or 0 if empty.
+    private int[] slots;
+    // Rows, chained in load order for each distinct key.
+    private Row[] rows;
+    private int[] nextRow;
+    private int nrows;
+    // Rows regrouped contiguously by key on first probe.
+    private List<Row> groupedRows;
+    private int[] groupStart;
+
+    public LongKeyHashTable(int nkeys) {
+        assert (nkeys > 0) && (nkeys <= MAX_KEY_COLUMNS) : nkeys;
+        this.nkeys = nkeys;
+        this.buildKey = new long[nkeys];
+        this.probeKey = new long[nkeys];
+        this.keys = new long[INITIAL_CAPACITY * nkeys];
+        this.nullMasks = new long[INITIAL_CAPACITY];
+        this.hashes = new int[INITIAL_CAPACITY];
+        this.firstRow = new int[INITIAL_CAPACITY];
+        this.lastRow = new int[INITIAL_CAPACITY];
+        this.slots = new int[INITIAL_CAPACITY * 2];
+        this.rows = new Row[INITIAL_CAPACITY];
+        this.nextRow = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Can keys be packed, given the expressions that load the table, the
+     * expressions that probe it and the comparisons that will be used?
+     * Both sides must pack, since a probe value is packed the same way
+     * as the loaded ones and compared on its bits.
+     */
+    public static boolean canPack(List<? extends TPreparedExpression> comparisonFields,
+                                  List<? extends TPreparedExpression> lookupFields,
+                                  List<TComparison> tComparisons) {
+        if ((comparisonFields.size() > MAX_KEY_COLUMNS) ||
+            (lookupFields.size() != comparisonFields.size()))
+            return false;
+        if (tComparisons != null) {
+            for (TComparison comparison : tComparisons) {
+                if (comparison != null)
+                    return false;
+            }
+        }
+        for (int i = 0; i < comparisonFields.size(); i++) {
+            if (!canPack(comparisonFields.get(i).resultType()) ||
+                !canPack(lookupFields.get(i).resultType()))
+                return false;
+        }
+        return true;
+    }
+
+    public static boolean canPack(TInstance type) {
+        UnderlyingType underlyingType = TInstance.underlyingType(type);
+        if (underlyingType == null)
+            return false;
+        switch (underlyingType) {
+        case BOOL:
+        case INT_8:
+        case INT_16:
+        case UINT_16:
+        case INT_32:
+        case INT_64:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    public static long packKey(ValueSource value) {
+        switch (ValueSources.underlyingType(value)) {
+        case BOOL:
+            return value.getBoolean() ? 1 : 0;
+        case UINT_16:
+            return value.getUInt16();
+        case INT_8:
+        case INT_16:
+        case INT_32:
+        case INT_64:
+            return ValueSources.getLong(value);
+        default:
+            throw new IllegalArgumentException("Cannot pack " + value.getType());
+        }
+    }
+
+    @Override
+    public List<Row> getMatchingRows(Row row, List<TEvaluatableExpression> evaluatableComparisonFields, QueryBindings bindings) {
+        long nullMask = evaluateKey(row, evaluatableComparisonFields, bindings, probeKey);
+        if (!matchNulls && (nullMask != 0))
+            return Collections.emptyList();
+        int index = find(probeKey, nullMask, hash(probeKey, nullMask));
+        if (index < 0)
+            return Collections.emptyList();
+        if (groupedRows == null)
+            groupRows();
+        return groupedRows.subList(groupStart[index], groupStart[index+1]);
+    }
+
+    @Override
+    public void put(Row row, List<TEvaluatableExpression> evaluatableComparisonFields, QueryBindings bindings) {
+        long nullMask = evaluateKey(row, evaluatableComparisonFields, bindings, buildKey);
+        if (!matchNulls && (nullMask != 0))
+            return;
+        int hash = hash(buildKey, nullMask);
+        int index = find(buildKey, nullMask, hash);
+        if (index < 0)
+            index = addKey(buildKey, nullMask, hash);
+        addRow(index, row);
+        groupedRows = null;
+    }
+
+    public int size() {
+        return nrows;
+    }
+
+    public int distinctKeys() {
+        return ndistinct;
+    }
+
+    // For use by this class
+
+    private long evaluateKey(Row row, List<TEvaluatableExpression> comparisonExpressions, QueryBindings bindings,
+                             long[] into) {
+        long nullMask = 0;
+        for (int i = 0; i < nkeys; i++) {
+            TEvaluatableExpression expression = comparisonExpressions.get(i);
+            if (row != null)
+                expression.with(row);
+            if (bindings != null)
+                expression.with(bindings);
+            expression.evaluate();
+            ValueSource columnValue = expression.resultValue();
+            if (columnValue.isNull()) {
+                nullMask |= 1L << i;
+                into[i] = 0;
+            }
+            else {
+                into[i] = packKey(columnValue);
+            }
+        }
+        return nullMask;
+    }
+
+    private int hash(long[] key, long nullMask) {
+        long h = nullMask;
+        for (int i = 0; i < nkeys; i++) {
+            h = h * 31 + key[i];
+        }
+        // Finalization step from MurmurHash3's fmix64, so that sequential
+        // integer keys spread across the table.
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int)h;
+    }
+
+    private int find(long[] key, long nullMask, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (true) {
+            int entry = slots[slot];
+            if (entry == 0)
+                return -1;
+            int index = entry - 1;
+            if ((hashes[index] == hash) && keyEquals(index, key, nullMask))
+                return index;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean keyEquals(int index, long[] key, long nullMask) {
+        if (nullMasks[index] != nullMask)
+            return false;
+        int offset = index * nkeys;
+        for (int i = 0; i < nkeys; i++) {
+            if (keys[offset + i] != key[i])
+                return false;
+        }
+        return true;
+    }
+
+    private int addKey(long[] key, long nullMask, int hash) {
+        int index = ndistinct++;
+        if (index >= hashes.length) {
+            int capacity = hashes.length * 2;
+            keys = Arrays.copyOf(keys, capacity * nkeys);
+            nullMasks = Arrays.copyOf(nullMasks, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            firstRow = Arrays.copyOf(firstRow, capacity);
+            lastRow = Arrays.copyOf(lastRow, capacity);
+        }
+        System.arraycopy(key, 0, keys, index * nkeys, nkeys);
+        nullMasks[index] = nullMask;
+        hashes[index] = hash;
+        firstRow[index] = -1;
+        lastRow[index] = -1;
+        // Keep load factor at most 1/2.
+        if (ndistinct * 2 > slots.length)
+            rehash(slots.length * 2);
+        else
+            insertSlot(slots, index);
+        return index;
+    }
+
+    private void rehash(int nslots) {
+        int[] newSlots = new int[nslots];
+        for (int i = 0; i < ndistinct; i++) {
+            insertSlot(newSlots, i);
+        }
+        slots = newSlots;
+    }
+
+    private void insertSlot(int[] slots, int index) {
+        int mask = slots.length - 1;
+        int slot = hashes[index] & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = index + 1;
+    }
+
+    private void addRow(int index, Row row) {
+        int rowIndex = nrows++;
+        if (rowIndex >= rows.length) {
+            int capacity = rows.length * 2;
+            rows = Arrays.copyOf(rows, capacity);
+            nextRow = Arrays.copyOf(nextRow, capacity);
+        }
+        rows[rowIndex] = row;
+        nextRow[rowIndex] = -1;
+        if (lastRow[index] < 0)
+            firstRow[index] = rowIndex;
+        else
+            nextRow[lastRow[index]] = rowIndex;
+        lastRow[index] = rowIndex;
+    }
+
+    private void groupRows() {
+        Row[] grouped = new Row[nrows];
+        groupStart = new int[ndistinct + 1];
+        int position = 0;
+        for (int i = 0; i < ndistinct; i++) {
+            groupStart[i] = position;
+            for (int r = firstRow[i]; r >= 0; r = nextRow[r]) {
+                grouped[position++] = rows[r];
+            }
+        }
+        groupStart[ndistinct] = position;
+        groupedRows = Arrays.asList(grouped);
+    }
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.util;
+
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.row.ValuesHolderRow;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.PersistitValueValueSource;
+import com.foundationdb.server.PersistitValueValueTarget;
+import com.foundationdb.server.error.HashTableSpillIOException;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.value.ValueSource;
+import com.persistit.Persistit;
+import com.persistit.Value;
+import com.persistit.exception.ConversionException;
+import com.persistit.exception.KeyTooLongException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A temporary file of rows of a single type, written once and then
+ * read back in order, used by hash operators that spill to
+ * <code>fdbsql.tmp_dir</code>. The file is created by the first
+ * {@link #write}.
+ */
+public class RowSpillFile {
+    private static final Logger LOG = LoggerFactory.getLogger(RowSpillFile.class);
+
+    // Rough per-row overhead of the row object and its values.
+    private static final int ROW_OVERHEAD = 64;
+
+    private final RowType rowType;
+    private final File directory;
+    private final String prefix;
+    private final PersistitValueValueTarget valueTarget = new PersistitValueValueTarget();
+    private final PersistitValueValueSource valueSource = new PersistitValueValueSource();
+    private Value value;
+    private File file;
+    private DataOutputStream output;
+    private int rowCount;
+    private long bytes;
+
+    public RowSpillFile(RowType rowType, File directory, String prefix) {
+        this.rowType = rowType;
+        this.directory = directory;
+        this.prefix = prefix;
+    }
+
+    public RowType getRowType() {
+        return rowType;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /** Append a row and return the number of bytes written for it. */
+    public int write(Row row) {
+        try {
+            if (output == null) {
+                assert (file == null) : "Already finished writing " + file;
+                file = File.createTempFile(prefix, ".tmp", directory);
+                file.deleteOnExit();
+                output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+                value = new Value((Persistit)null);
+            }
+            writeValue(row);
+            int size = value.getEncodedSize();
+            output.writeInt(size);
+            output.write(value.getEncodedBytes(), 0, size);
+            bytes += size + 4;
+            rowCount++;
+            return size + 4;
+        }
+        catch (IOException ex) {
+            throw new HashTableSpillIOException(ex);
+        }
+    }
+
+    public void finishWriting() {
+        if (output != null) {
+            try {
+                output.close();
+            }
+            catch (IOException ex) {
+                throw new HashTableSpillIOException(ex);
+            }
+            output = null;
+        }
+    }
+
+    /** Read the rows back. Must have finished writing. */
+    public Reader read() {
+        assert (output == null) : "Still writing " + file;
+        return new Reader();
+    }
+
+    public void delete() {
+        try {
+            finishWriting();
+        }
+        finally {
+            if (file != null) {
+                if (!file.delete()) {
+                    LOG.debug("Could not delete {}", file);
+                }
+                file = null;
+            }
+            value = null;
+        }
+    }
+
+    /** Rough in-memory size of a row, used by callers to decide when to spill. */
+    public static long estimateSize(RowType rowType, Row row) {
+        long size = ROW_OVERHEAD;
+        for (int i = 0; i < rowType.nFields(); i++) {
+            TInstance type = rowType.typeAt(i);
+            if ((type != null) && type.typeClass().hasFixedSerializationSize()) {
+                size += type.typeClass().fixedSerializationSize() + 16;
+            }
+            else {
+                ValueSource field = row.value(i);
+                if (field.isNull()) {
+                    size += 16;
+                }
+                else {
+                    switch (TInstance.underlyingType(field.getType())) {
+                    case STRING:
+                        size += field.getString().length() * 2 + 40;
+                        break;
+                    case BYTES:
+                        size += field.getBytes().length + 16;
+                        break;
+                    default:
+                        size += 16;
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    public class Reader implements AutoCloseable {
+        private final DataInputStream input;
+        private final Value buffer = new Value((Persistit)null);
+        private int remaining = rowCount;
+
+        Reader() {
+            try {
+                input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            }
+            catch (IOException ex) {
+                throw new HashTableSpillIOException(ex);
+            }
+        }
+
+        /** The next row, or <code>null</code> at the end. */
+        public Row next() {
+            if (remaining == 0)
+                return null;
+            try {
+                int size = input.readInt();
+                buffer.clear();
+                buffer.setMaximumSize(Math.max(size, Value.DEFAULT_MAXIMUM_SIZE));
+                buffer.ensureFit(size);
+                input.readFully(buffer.getEncodedBytes(), 0, size);
+                buffer.setEncodedSize(size);
+                remaining--;
+                return readValue(buffer);
+            }
+            catch (EOFException ex) {
+                throw new HashTableSpillIOException("Truncated spill file " + file);
+            }
+            catch (IOException ex) {
+                throw new HashTableSpillIOException(ex);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                input.close();
+            }
+            catch (IOException ex) {
+                throw new HashTableSpillIOException(ex);
+            }
+        }
+    }
+
+    // For use by this class
+
+    private void writeValue(Row row) {
+        valueTarget.attach(value);
+        while (true) {
+            try {
+                value.clear();
+                value.setStreamMode(true);
+                for (int i = 0; i < rowType.nFields(); i++) {
+                    ValueSource field = row.value(i);
+                    if (field.isNull()) {
+                        valueTarget.putNull();
+                    }
+                    else {
+                        rowType.typeAt(i).writeCanonical(field, valueTarget);
+                    }
+                }
+                break;
+            } catch (ConversionException e) {
+                enlargeValue(value);
+            }
+        }
+    }
+
+    private Row readValue(Value value) {
+        ValuesHolderRow row = new ValuesHolderRow(rowType);
+        valueSource.attach(value);
+        for (int i = 0 ; i < rowType.nFields(); ++i) {
+            valueSource.getReady(rowType.typeAt(i));
+            if (valueSource.isNull()) {
+                row.valueAt(i).putNull();
+            }
+            else {
+                rowType.typeAt(i).writeCanonical(valueSource, row.valueAt(i));
+            }
+        }
+        return row;
+    }
+
+    private static void enlargeValue(Value value) {
+        if (value.getMaximumSize() == Value.MAXIMUM_SIZE) {
+            throw new KeyTooLongException("Maximum size exceeded=" + Value.MAXIMUM_SIZE);
+        }
+        value.setMaximumSize(Math.min(value.getMaximumSize() * 2, Value.MAXIMUM_SIZE));
+    }
+}
@@ -0,0 +1,563 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.util;
+
+import com.foundationdb.qp.operator.QueryBindings;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.collation.AkCollator;
+import com.foundationdb.server.service.metrics.LongMetric;
+import com.foundationdb.server.service.metrics.MetricsService;
+import com.foundationdb.server.types.TComparison;
+import com.foundationdb.server.types.texpressions.TEvaluatableExpression;
+import com.foundationdb.server.types.value.ValueSource;
+import com.foundationdb.server.types.value.ValueSources;
+import com.foundationdb.util.tap.InOutTap;
+import com.foundationdb.util.tap.PointTap;
+import com.foundationdb.util.tap.Tap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <h1>Overview</h1>
+ *
+ * A {@link HashTable} with a bound on the memory used by its rows. Rows are
+ * loaded into an in-memory table until half of the budget is used. After
+ * that, each row is written to one of a fixed number of partition files
+ * under the temporary directory, chosen by the hash of its key.
+ *
+ * <h1>Behavior</h1>
+ *
+ * When loading is done, any partition too big to be loaded alongside a
+ * few others in the other half of the budget is split again, with the
+ * level mixed into the hash so that its rows are spread differently,
+ * until it fits or its rows all have the same key.
+ *
+ * A probe always checks the in-memory table. If the probe key's partition
+ * has spilled rows, that partition must be probed as well.
+ *
+ * When the caller can put off the probes that need a spilled partition,
+ * it hands each such probe row to {@link #deferProbe}, which writes it to
+ * a probe file for that partition, as in a hybrid hash join. Once the
+ * probe side is done, {@link #nextDeferredProbe} returns them again one
+ * partition at a time, with that partition read back into its own table
+ * while they are probed. Each spilled partition is then read exactly once.
+ *
+ * Otherwise, the partition is read back when a probe needs it. Loaded
+ * partitions are kept, least recently used first, in the other half of
+ * the budget.
+ *
+ * <h1>Performance</h1>
+ *
+ * Probes that are not deferred and hit many different partitions in turn
+ * will read the same partition more than once. Spills, and the bytes
+ * written to and read back from spill files, are counted by taps. The
+ * number of spills and the bytes written are also kept as metrics.
+ */
+public class SpillableHashTable extends HashTable {
+    private static final Logger LOG = LoggerFactory.getLogger(SpillableHashTable.class);
+
+    private static final PointTap SPILL_COUNT = Tap.createCount("operator: Using_HashTable spill");
+    private static final PointTap SPILL_ROW_COUNT = Tap.createCount("operator: Using_HashTable spill row");
+    private static final PointTap REPARTITION_COUNT = Tap.createCount("operator: Using_HashTable repartition");
+    private static final PointTap PROBE_SPILL_ROW_COUNT = Tap.createCount("operator: Using_HashTable spill probe row");
+    private static final PointTap RELOAD_COUNT = Tap.createCount("operator: Using_HashTable reload partition");
+    private static final PointTap SPILL_BYTE_COUNT = Tap.createCount("operator: Using_HashTable spill bytes");
+    private static final PointTap RELOAD_BYTE_COUNT = Tap.createCount("operator: Using_HashTable reload bytes");
+    private static final InOutTap SPILL_TAP = Tap.createTimer("operator: Using_HashTable spill write");
+    private static final InOutTap RELOAD_TAP = Tap.createTimer("operator: Using_HashTable spill read");
+
+    public static final int PARTITIONS = 32;
+    // After this many rounds of splitting the same keys, give up on the limit.
+    public static final int MAX_SPILL_LEVEL = 8;
+    // How many loaded partitions must fit in the resident half of the budget.
+    public static final int MIN_RESIDENT = 4;
+
+    private final boolean packedKeys;
+    private final int nkeys;
+    private final long memoryLimit;
+    private final File directory;
+    private final String prefix;
+
+    private HashTable inMemory;
+    private long inMemoryBytes;
+    private Partition[] partitions;
+    private boolean loading = true;
+    // The expressions used to load, needed again to rebuild a spilled partition.
+    private List<TEvaluatableExpression> loadComparisonFields;
+    private QueryBindings loadBindings;
+    private final Map<Partition,HashTable> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private long residentBytes;
+    // The partitions that no longer split, in order.
+    private List<Partition> leaves;
+    // Replaying deferred probes: the partition being probed, its table and its probes.
+    private int probingIndex = -1;
+    private Partition probing;
+    private HashTable probingTable;
+    private RowSpillFile.Reader probingReader;
+    // All bytes written to spill files, including repartitioning and probes.
+    private long spilledBytes;
+    private final MetricsService metricsService;
+    private Metrics metrics;
+
+    public SpillableHashTable(boolean packedKeys, int nkeys, long memoryLimit, File directory, String prefix,
+                              MetricsService metricsService) {
+        this.packedKeys = packedKeys;
+        this.nkeys = nkeys;
+        this.memoryLimit = memoryLimit;
+        this.directory = directory;
+        this.prefix = prefix;
+        this.metricsService = metricsService;
+        this.inMemory = newHashTable();
+    }
+
+    @Override
+    public List<Row> getMatchingRows(Row row, List<TEvaluatableExpression> evaluatableComparisonFields, QueryBindings bindings) {
+        if (loading)
+            finishLoading();
+        List<Row> matches = inMemory.getMatchingRows(row, evaluatableComparisonFields, bindings);
+        if (partitions == null)
+            return matches;
+        long hash = keyHash(row, evaluatableComparisonFields, bindings);
+        if (hash < 0)
+            return matches;
+        Partition partition = leaf(hash);
+        if (partition.file == null)
+            return matches;
+        List<Row> spilledMatches = partitionTable(partition).getMatchingRows(row, evaluatableComparisonFields, bindings);
+        if (spilledMatches.isEmpty())
+            return matches;
+        if (matches.isEmpty())
+            return spilledMatches;
+        List<Row> result = new ArrayList<>(matches.size() + spilledMatches.size());
+        result.addAll(matches);
+        result.addAll(spilledMatches);
+        return result;
+    }
+
+    /**
+     * Put off probing with this row if it needs a spilled partition,
+     * writing it to that partition's probe file, and return
+     * <code>true</code>. <code>probeFields</code> are the probe key,
+     * evaluated against <code>bindings</code>, as passed to
+     * {@link #getMatchingRows}.
+     */
+    public boolean deferProbe(Row probeRow, List<TEvaluatableExpression> probeFields, QueryBindings bindings) {
+        if (loading)
+            finishLoading();
+        if ((partitions == null) || (probingIndex >= 0))
+            return false;
+        long hash = keyHash(null, probeFields, bindings);
+        if (hash < 0)
+            return false;
+        Partition partition = leaf(hash);
+        if (partition.file == null)
+            return false;
+        return partition.writeProbe(probeRow);
+    }
+
+    /**
+     * The next deferred probe row, or <code>null</code> when there are no
+     * more. Its partition is loaded and stays loaded until the next call
+     * moves on to the next partition.
+     */
+    public Row nextDeferredProbe() {
+        if (partitions == null)
+            return null;
+        while (true) {
+            if (probingReader != null) {
+                Row row = probingReader.next();
+                if (row != null)
+                    return row;
+                probingReader.close();
+                probingReader = null;
+                // No probe will need this partition again.
+                probingTable = null;
+                probing.delete();
+                probing = null;
+            }
+            if (probingIndex < 0) {
+                // Done with probes that can be answered from memory.
+                resident.clear();
+                residentBytes = 0;
+            }
+            if (++probingIndex >= leaves.size()) {
+                probingIndex = leaves.size();
+                return null;
+            }
+            Partition partition = leaves.get(probingIndex);
+            if ((partition.file == null) || (partition.probeFile == null))
+                continue;
+            partition.probeFile.finishWriting();
+            probing = partition;
+            probingTable = partition.load();
+            probingReader = partition.probeFile.read();
+            RELOAD_BYTE_COUNT.hit(partition.probeFile.getBytes());
+        }
+    }
+
+    @Override
+    public void put(Row row, List<TEvaluatableExpression> evaluatableComparisonFields, QueryBindings bindings) {
+        assert loading;
+        if (partitions == null) {
+            inMemoryBytes += RowSpillFile.estimateSize(hashedRowType, row);
+            if (inMemoryBytes <= memoryLimit / 2) {
+                inMemory.put(row, evaluatableComparisonFields, bindings);
+                return;
+            }
+            startSpilling(evaluatableComparisonFields, bindings);
+        }
+        long hash = keyHash(row, evaluatableComparisonFields, bindings);
+        if (hash >= 0) {
+            partitions[slot(hash, 0)].write(row);
+        }
+    }
+
+    @Override
+    public void setRowType(RowType rowType) {
+        super.setRowType(rowType);
+        inMemory.setRowType(rowType);
+    }
+
+    @Override
+    public void setTComparisons(List<TComparison> tComparisons) {
+        super.setTComparisons(tComparisons);
+        inMemory.setTComparisons(tComparisons);
+    }
+
+    @Override
+    public void setCollators(List<AkCollator> collators) {
+        super.setCollators(collators);
+        inMemory.setCollators(collators);
+    }
+
+    @Override
+    public void setMatchNulls(boolean matchNulls) {
+        super.setMatchNulls(matchNulls);
+        inMemory.setMatchNulls(matchNulls);
+    }
+
+    @Override
+    public void close() {
+        if (probingReader != null) {
+            probingReader.close();
+            probingReader = null;
+        }
+        probingTable = null;
+        probing = null;
+        if (partitions != null) {
+            for (Partition partition : partitions) {
+                partition.delete();
+            }
+            partitions = null;
+        }
+        resident.clear();
+        inMemory = null;
+        if (metrics != null) {
+            metrics.spillBytes.increment(spilledBytes);
+            metrics = null;
+        }
+    }
+
+    public boolean isSpilled() {
+        return (partitions != null);
+    }
+
+    // For use by this class
+
+    private HashTable newHashTable() {
+        HashTable hashTable = packedKeys ? new LongKeyHashTable(nkeys) : new ValuesHashTable();
+        hashTable.setRowType(hashedRowType);
+        hashTable.setTComparisons(tComparisons);
+        hashTable.setCollators(collators);
+        hashTable.setMatchNulls(matchNulls);
+        return hashTable;
+    }
+
+    private void startSpilling(List<TEvaluatableExpression> evaluatableComparisonFields, QueryBindings bindings) {
+        SPILL_COUNT.hit();
+        if (metricsService != null) {
+            metrics = Metrics.forService(metricsService);
+            metrics.spillCount.increment();
+        }
+        loadComparisonFields = evaluatableComparisonFields;
+        loadBindings = bindings;
+        partitions = new Partition[PARTITIONS];
+        for (int i = 0; i < PARTITIONS; i++) {
+            partitions[i] = new Partition(0);
+        }
+        LOG.debug("Hash table of {} exceeded {} bytes, spilling to {}",
+                  new Object[] { hashedRowType, memoryLimit / 2, directory });
+    }
+
+    private void finishLoading() {
+        loading = false;
+        if (partitions != null) {
+            leaves = new ArrayList<>();
+            for (Partition partition : partitions) {
+                partition.finishWriting();
+                partition.addLeaves(leaves);
+            }
+            LOG.debug("Hash table of {} spilled {} bytes", hashedRowType, spilledBytes);
+        }
+    }
+
+    /** The hash of this key, or -1 if the key contains a <code>NULL</code> and nulls do not match. */
+    private long keyHash(Row row, List<TEvaluatableExpression> comparisonExpressions, QueryBindings bindings) {
+        int hash = 0;
+        for (int i = 0; i < comparisonExpressions.size(); i++) {
+            TEvaluatableExpression expression = comparisonExpressions.get(i);
+            if (row != null)
+                expression.with(row);
+            if (bindings != null)
+                expression.with(bindings);
+            expression.evaluate();
+            ValueSource columnValue = expression.resultValue();
+            if (columnValue.isNull() && !matchNulls)
+                return -1;
+            AkCollator collator = (collators != null) ? collators.get(i) : null;
+            hash = hash * 31 + ValueSources.hash(columnValue, collator);
+        }
+        return hash & 0xFFFFFFFFL;
+    }
+
+    /** The partition for a key hash at the given level of splitting. */
+    private static int slot(long hash, int level) {
+        // Mix in the level, so that rows spilled together get split up when split again.
+        // Spread, since the in-memory tables will use the low bits too.
+        int h = (int)hash ^ (level * 0x9e3779b9);
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        h *= 0xc2b2ae35;
+        h ^= (h >>> 16);
+        return (h & Integer.MAX_VALUE) % PARTITIONS;
+    }
+
+    /** The partition that a key hash's rows were finally spilled to. */
+    private Partition leaf(long hash) {
+        Partition partition = partitions[slot(hash, 0)];
+        while (partition.children != null)
+            partition = partition.children[slot(hash, partition.level + 1)];
+        return partition;
+    }
+
+    private HashTable partitionTable(Partition partition) {
+        if (partition == probing)
+            return probingTable;
+        HashTable hashTable = resident.get(partition);
+        if (hashTable == null) {
+            hashTable = partition.load();
+            residentBytes += partition.memoryBytes;
+            Iterator<Map.Entry<Partition,HashTable>> iter = resident.entrySet().iterator();
+            while ((residentBytes > memoryLimit / 2) && iter.hasNext()) {
+                Map.Entry<Partition,HashTable> entry = iter.next();
+                residentBytes -= entry.getKey().memoryBytes;
+                iter.remove();
+            }
+            resident.put(partition, hashTable);
+        }
+        return hashTable;
+    }
+
+    private class Partition {
+        final int level;
+        RowSpillFile file;
+        long memoryBytes;
+        // Probe rows put off until this partition is loaded.
+        RowSpillFile probeFile;
+        // Once split, rows are in these instead.
+        Partition[] children;
+
+        Partition(int level) {
+            this.level = level;
+        }
+
+        void write(Row row) {
+            SPILL_TAP.in();
+            try {
+                if (file == null) {
+                    file = new RowSpillFile(hashedRowType, directory, prefix);
+                }
+                int bytes = file.write(row);
+                memoryBytes += RowSpillFile.estimateSize(hashedRowType, row);
+                spilledBytes += bytes;
+                SPILL_ROW_COUNT.hit();
+                SPILL_BYTE_COUNT.hit(bytes);
+            }
+            finally {
+                SPILL_TAP.out();
+            }
+        }
+
+        boolean writeProbe(Row row) {
+            if (probeFile == null) {
+                probeFile = new RowSpillFile(row.rowType(), directory, prefix);
+            }
+            else if (probeFile.getRowType() != row.rowType()) {
+                // Can only keep one type; probe this one now.
+                return false;
+            }
+            SPILL_TAP.in();
+            try {
+                int bytes = probeFile.write(row);
+                spilledBytes += bytes;
+                PROBE_SPILL_ROW_COUNT.hit();
+                SPILL_BYTE_COUNT.hit(bytes);
+                return true;
+            }
+            finally {
+                SPILL_TAP.out();
+            }
+        }
+
+        void addLeaves(List<Partition> into) {
+            if (children == null) {
+                into.add(this);
+            }
+            else {
+                for (Partition partition : children) {
+                    partition.addLeaves(into);
+                }
+            }
+        }
+
+        void finishWriting() {
+            if (file != null) {
+                file.finishWriting();
+                if ((memoryBytes > memoryLimit / 2 / MIN_RESIDENT) && (level < MAX_SPILL_LEVEL)) {
+                    split();
+                }
+            }
+        }
+
+        /** Split into partitions at the next level. */
+        void split() {
+            REPARTITION_COUNT.hit();
+            Partition[] split = new Partition[PARTITIONS];
+            for (int i = 0; i < PARTITIONS; i++) {
+                split[i] = new Partition(level + 1);
+            }
+            boolean spread = false;
+            try {
+                RELOAD_BYTE_COUNT.hit(file.getBytes());
+                try (RowSpillFile.Reader reader = file.read()) {
+                    Row row;
+                    while ((row = reader.next()) != null) {
+                        long hash = keyHash(row, loadComparisonFields, loadBindings);
+                        split[slot(hash, level + 1)].write(row);
+                    }
+                }
+                spread = true;
+                for (Partition partition : split) {
+                    if (partition.memoryBytes == memoryBytes) {
+                        // All the same key: splitting again will not help.
+                        spread = false;
+                        break;
+                    }
+                }
+            }
+            finally {
+                if (!spread) {
+                    for (Partition partition : split) {
+                        partition.delete();
+                    }
+                }
+            }
+            if (!spread) {
+                return;
+            }
+            file.delete();
+            file = null;
+            children = split;
+            for (Partition partition : children) {
+                partition.finishWriting();
+            }
+        }
+
+        HashTable load() {
+            RELOAD_COUNT.hit();
+            RELOAD_TAP.in();
+            HashTable hashTable = newHashTable();
+            RELOAD_BYTE_COUNT.hit(file.getBytes());
+            try (RowSpillFile.Reader reader = file.read()) {
+                Row row;
+                while ((row = reader.next()) != null) {
+                    hashTable.put(row, loadComparisonFields, loadBindings);
+                }
+            }
+            finally {
+                RELOAD_TAP.out();
+            }
+            return hashTable;
+        }
+
+        void delete() {
+            if (file != null) {
+                file.delete();
+                file = null;
+            }
+            if (probeFile != null) {
+                probeFile.delete();
+                probeFile = null;
+            }
+            if (children != null) {
+                for (Partition partition : children) {
+                    partition.delete();
+                }
+                children = null;
+            }
+        }
+    }
+
+    /** Spill totals in the {@link MetricsService}, which can only be added to it once. */
+    static class Metrics {
+        static final String SPILL_COUNT_METRIC = "SQLLayerHashTableSpills";
+        static final String SPILL_BYTES_METRIC = "SQLLayerHashTableSpillBytes";
+
+        private static Metrics registered;
+
+        final MetricsService service;
+        final LongMetric spillCount, spillBytes;
+
+        private Metrics(MetricsService service) {
+            this.service = service;
+            this.spillCount = service.addLongMetric(SPILL_COUNT_METRIC);
+            this.spillBytes = service.addLongMetric(SPILL_BYTES_METRIC);
+        }
+
+        static synchronized Metrics forService(MetricsService service) {
+            if ((registered == null) || (registered.service != service)) {
+                // A new service comes with a restarted server.
+                if (registered != null) {
+                    registered.service.removeMetric(registered.spillCount);
+                    registered.service.removeMetric(registered.spillBytes);
+                }
+                registered = new Metrics(service);
+            }
+            return registered;
+        }
+    }
+}
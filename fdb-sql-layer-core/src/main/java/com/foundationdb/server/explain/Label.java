@@ -70,6 +70,7 @@ public enum Label
     SORT_OPTION(Category.OPTION),
     SCAN_OPTION(Category.OPTION), // full/deep.shallow, etc
     LIMIT(Category.OPTION),
+    OFFSET(Category.OPTION),
     PROJECT_OPTION(Category.OPTION), // has a table or not
     JOIN_OPTION(Category.OPTION), // INNER, LEFT, etc
     ORDERING(Category.OPTION), // ASC or DESC
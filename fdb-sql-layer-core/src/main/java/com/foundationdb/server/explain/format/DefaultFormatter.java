@@ -331,6 +331,24 @@ public class DefaultFormatter
                 }
             }
         }
+        else if (name.equals("IndexScan_MultiRange")) {
+            append(atts.getAttribute(Label.INDEX));
+            if (levelOfDetail != LevelOfDetail.BRIEF) {
+                for (Explainer range : atts.get(Label.EXPRESSIONS)) {
+                    sb.append(", ");
+                    append(range);
+                }
+                if (atts.containsKey(Label.NUM_COMPARE)) {
+                    sb.append(", merge ");
+                    sb.append(atts.getValue(Label.NUM_COMPARE));
+                }
+            }
+            if ((levelOfDetail == LevelOfDetail.VERBOSE_WITHOUT_COST) ||
+                    (levelOfDetail == LevelOfDetail.VERBOSE)) {
+                sb.append(", Pipelining ");
+                sb.append((long)(atts.getValue(Label.PIPELINE)));
+            }
+        }
         else if (name.equals("ValuesScan_Default")) {
             if (levelOfDetail != LevelOfDetail.BRIEF) {
                 if (atts.containsKey(Label.EXPRESSIONS)) {
@@ -636,6 +654,9 @@ public class DefaultFormatter
             if (atts.containsKey(Label.LIMIT)) {
                 sb.append("LIMIT ").append(atts.getValue(Label.LIMIT)).append(", ");
             }
+            if (atts.containsKey(Label.OFFSET)) {
+                sb.append("OFFSET ").append(atts.getValue(Label.OFFSET)).append(", ");
+            }
             String opt = (String)atts.getValue(Label.SORT_OPTION);
             if (opt.equals("PRESERVE_DUPLICATES"))
                 sb.setLength(sb.length() - 2);
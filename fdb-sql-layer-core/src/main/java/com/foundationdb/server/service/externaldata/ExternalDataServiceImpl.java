@@ -98,7 +98,7 @@ public class ExternalDataServiceImpl implements ExternalDataService, Service {
         return table;
     }
 
-    private StoreAdapter getAdapter(Session session, Table table) {
+    protected StoreAdapter getAdapter(Session session, Table table) {
         if (table.hasMemoryTableFactory())
             return new MemoryAdapter(session, configService);
         return store.createAdapter(session);
@@ -212,6 +212,15 @@ public class ExternalDataServiceImpl implements ExternalDataService, Service {
                                  long commitFrequency, int maxRetries,
                                  QueryContext context) 
             throws IOException {
+        int parallelism = loadParallelism();
+        if ((parallelism > 1) && (commitFrequency != COMMIT_FREQUENCY_NEVER)) {
+            // Without intermediate commits, the load is meant to be atomic.
+            ParallelCsvLoader loader = new ParallelCsvLoader(this, toTable, toColumns, format,
+                                                             context, getTypesTranslator(),
+                                                             commitFrequency, maxRetries,
+                                                             parallelism, loadChunkBytes());
+            return loader.load(inputStream, skipRows);
+        }
         CsvRowReader reader = new CsvRowReader(toTable, toColumns, inputStream, format,
                                                context, getTypesTranslator());
         if (skipRows > 0)
@@ -341,6 +350,16 @@ public class ExternalDataServiceImpl implements ExternalDataService, Service {
         return total;
     }
 
+    protected int loadParallelism() {
+        int parallelism = Integer.parseInt(configService.getProperty("fdbsql.load.parallelism"));
+        if (parallelism <= 0)
+            parallelism = Runtime.getRuntime().availableProcessors();
+        return parallelism;
+    }
+
+    protected int loadChunkBytes() {
+        return ParallelCsvLoader.CHUNK_BYTES;
+    }
     
     // For testing by failure injection.
     protected void retryHook(Session session, int i, int maxRetries,
@@ -0,0 +1,325 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.service.externaldata;
+
+import com.foundationdb.ais.model.Column;
+import com.foundationdb.ais.model.Table;
+import com.foundationdb.qp.operator.QueryContext;
+import com.foundationdb.qp.operator.SimpleQueryContext;
+import com.foundationdb.qp.operator.StoreAdapter;
+import com.foundationdb.server.service.ServiceManager;
+import com.foundationdb.server.service.session.Session;
+import com.foundationdb.server.types.common.types.TypesTranslator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load a CSV file using several threads.
+ *
+ * The calling thread cuts the input into chunks of about {@link #CHUNK_BYTES}, always after a newline that is not
+ * inside a quoted field. Each chunk is then parsed and written by a worker with its own session, committing as
+ * the serial loader does, so that transactions stay within the store's limits and are retried the same way.
+ * Chunks commit independently and in no particular order.
+ */
+class ParallelCsvLoader
+{
+    private static final Logger logger = LoggerFactory.getLogger(ParallelCsvLoader.class);
+    private static final String THREAD_NAME_PREFIX = "CsvLoader-"; // Number is appended
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+
+    static final int CHUNK_BYTES = 4 * 1024 * 1024;
+    static final long PROGRESS_INTERVAL_MILLIS = 10 * 1000;
+
+    private final ExternalDataServiceImpl service;
+    private final Table toTable;
+    private final List<Column> toColumns;
+    private final CsvFormat format;
+    private final QueryContext context;
+    private final TypesTranslator typesTranslator;
+    private final long commitFrequency;
+    private final int maxRetries;
+    private final int parallelism;
+    private final int chunkBytes;
+    private final AtomicLong rowsLoaded = new AtomicLong();
+    private final AtomicLong bytesLoaded = new AtomicLong();
+    private volatile boolean failed;
+
+    public ParallelCsvLoader(ExternalDataServiceImpl service,
+                             Table toTable, List<Column> toColumns, CsvFormat format,
+                             QueryContext context, TypesTranslator typesTranslator,
+                             long commitFrequency, int maxRetries,
+                             int parallelism, int chunkBytes) {
+        this.service = service;
+        this.toTable = toTable;
+        this.toColumns = toColumns;
+        this.format = format;
+        this.context = context;
+        this.typesTranslator = typesTranslator;
+        this.commitFrequency = commitFrequency;
+        this.maxRetries = maxRetries;
+        this.parallelism = parallelism;
+        this.chunkBytes = chunkBytes;
+    }
+
+    public long load(InputStream inputStream, long skipRows) throws IOException {
+        long startTime = System.currentTimeMillis();
+        long nextReport = startTime + PROGRESS_INTERVAL_MILLIS;
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, THREAD_NAME_PREFIX + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        // Bound memory: at most two chunks waiting per worker.
+        Deque<Future<Long>> pending = new ArrayDeque<>();
+        long total = 0;
+        boolean success = false;
+        try {
+            Chunker chunker = new Chunker(inputStream, format, chunkBytes);
+            chunker.skipRows(skipRows);
+            byte[] chunk;
+            while ((chunk = chunker.nextChunk()) != null) {
+                while (pending.size() >= parallelism * 2) {
+                    total += waitFor(pending.removeFirst());
+                }
+                final byte[] bytes = chunk;
+                pending.addLast(workers.submit(new Callable<Long>() {
+                        @Override
+                        public Long call() throws IOException {
+                            return loadChunk(bytes);
+                        }
+                    }));
+                long now = System.currentTimeMillis();
+                if (now >= nextReport) {
+                    reportProgress(startTime, now);
+                    nextReport = now + PROGRESS_INTERVAL_MILLIS;
+                }
+            }
+            while (!pending.isEmpty()) {
+                total += waitFor(pending.removeFirst());
+            }
+            success = true;
+        }
+        finally {
+            if (!success) {
+                failed = true;
+                for (Future<Long> future : pending) {
+                    // Not interrupted: anything running commits or rolls back normally.
+                    future.cancel(false);
+                }
+            }
+            workers.shutdown();
+            try {
+                // Let workers roll back and close their sessions.
+                workers.awaitTermination(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long elapsed = System.currentTimeMillis() - startTime;
+        logger.debug("Loaded {} rows ({} bytes) into {} in {} ms with {} threads",
+                     total, bytesLoaded.get(), toTable.getName(), elapsed, parallelism);
+        return total;
+    }
+
+    protected long loadChunk(byte[] chunk) throws IOException {
+        if (failed) return 0;
+        ServiceManager serviceManager = service.serviceManager;
+        try (Session session = serviceManager.getSessionService().createSession()) {
+            QueryContext chunkContext = new ChunkQueryContext(service.getAdapter(session, toTable),
+                                                              serviceManager, context);
+            CsvRowReader reader = new CsvRowReader(toTable, toColumns,
+                                                   new ByteArrayInputStream(chunk), format,
+                                                   chunkContext, typesTranslator);
+            long nrows = service.loadTableFromRowReader(session, null, reader,
+                                                        commitFrequency, maxRetries);
+            rowsLoaded.addAndGet(nrows);
+            bytesLoaded.addAndGet(chunk.length);
+            return nrows;
+        }
+    }
+
+    protected void reportProgress(long startTime, long now) {
+        long rows = rowsLoaded.get();
+        long seconds = Math.max((now - startTime) / 1000, 1);
+        logger.info("Loading {}: {} rows ({} MB) so far, {} rows/sec",
+                    toTable.getName(), rows, bytesLoaded.get() >> 20, rows / seconds);
+    }
+
+    private static long waitFor(Future<Long> future) throws IOException {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading", ex);
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /** Session-level settings like the current schema come from the statement's context.
+     * Warnings are logged, since the client connection belongs to the calling thread.
+     */
+    static class ChunkQueryContext extends SimpleQueryContext {
+        private final QueryContext parent;
+
+        public ChunkQueryContext(StoreAdapter adapter,
+                                 ServiceManager serviceManager, QueryContext parent) {
+            super(adapter, serviceManager);
+            this.parent = parent;
+        }
+
+        @Override
+        public String getCurrentUser() {
+            return (parent != null) ? parent.getCurrentUser() : super.getCurrentUser();
+        }
+
+        @Override
+        public String getSessionUser() {
+            return (parent != null) ? parent.getSessionUser() : super.getSessionUser();
+        }
+
+        @Override
+        public String getCurrentSchema() {
+            return (parent != null) ? parent.getCurrentSchema() : super.getCurrentSchema();
+        }
+
+        @Override
+        public String getCurrentSetting(String key) {
+            return (parent != null) ? parent.getCurrentSetting(key) : super.getCurrentSetting(key);
+        }
+    }
+
+    /** Cut CSV input after unquoted newlines. */
+    static class Chunker {
+        private final InputStream inputStream;
+        private final int quote, escape, nl;
+        private final int chunkBytes;
+        private byte[] buffer;
+        private int length, scanned;
+        private boolean inQuote, afterEscape, eof;
+
+        public Chunker(InputStream inputStream, CsvFormat format, int chunkBytes) {
+            this.inputStream = inputStream;
+            this.quote = format.getQuoteByte();
+            this.escape = format.getEscapeByte();
+            this.nl = format.getNewline();
+            this.chunkBytes = chunkBytes;
+            this.buffer = new byte[chunkBytes + 8192];
+        }
+
+        /** Skip rows the way {@link CsvRowReader#skipRows} does. */
+        public void skipRows(long nrows) throws IOException {
+            while (nrows > 0) {
+                if (scanned >= length) {
+                    length = scanned = 0;
+                    if (!fill()) return;
+                }
+                if (buffer[scanned++] == nl) {
+                    nrows--;
+                }
+            }
+            System.arraycopy(buffer, scanned, buffer, 0, length - scanned);
+            length -= scanned;
+            scanned = 0;
+        }
+
+        /** @return the next chunk of whole rows or <code>null</code> at end. */
+        public byte[] nextChunk() throws IOException {
+            while (true) {
+                while (scanned < length) {
+                    int b = buffer[scanned++] & 0xFF;
+                    if (inQuote) {
+                        if (afterEscape) {
+                            afterEscape = false;
+                        }
+                        else if ((b == escape) && (escape != quote)) {
+                            afterEscape = true;
+                        }
+                        else if (b == quote) {
+                            // A doubled quote leaves and reenters.
+                            inQuote = false;
+                        }
+                    }
+                    else if (b == quote) {
+                        inQuote = true;
+                    }
+                    else if ((b == nl) && (scanned >= chunkBytes)) {
+                        return take(scanned);
+                    }
+                }
+                if (!fill()) {
+                    return (length > 0) ? take(length) : null;
+                }
+            }
+        }
+
+        private byte[] take(int size) {
+            byte[] chunk = Arrays.copyOf(buffer, size);
+            System.arraycopy(buffer, size, buffer, 0, length - size);
+            length -= size;
+            scanned -= size;
+            return chunk;
+        }
+
+        private boolean fill() throws IOException {
+            if (eof) return false;
+            if (length == buffer.length) {
+                // A single row longer than the chunk size.
+                buffer = Arrays.copyOf(buffer, (buffer.length * 3) / 2);
+            }
+            int n = inputStream.read(buffer, length, buffer.length - length);
+            if (n < 0) {
+                eof = true;
+                return false;
+            }
+            length += n;
+            return true;
+        }
+    }
+}
@@ -101,4 +101,7 @@ public interface MonitorService {
 
     /** Get minimum number of milliseconds for a query to be logged or {@code -1} if no limit. */
     long getQueryLogThresholdMillis();
+
+    /** Get the number of queries not logged because the log could not keep up. */
+    long getQueryLogDroppedCount();
 }
@@ -29,14 +29,12 @@ import com.google.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.sql.Timestamp;
 import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -45,6 +43,11 @@ public class MonitorServiceImpl implements Service, MonitorService, SessionEvent
     private static final String QUERY_LOG_PROPERTY = "fdbsql.querylog.enabled";
     private static final String QUERY_LOG_FILE_PROPERTY = "fdbsql.querylog.filename";
     private static final String QUERY_LOG_THRESHOLD = "fdbsql.querylog.exec_threshold_ms";
+    private static final String QUERY_LOG_FORMAT = "fdbsql.querylog.format";
+    private static final String QUERY_LOG_BUFFER_SIZE = "fdbsql.querylog.buffer_size";
+    private static final String QUERY_LOG_FLUSH_INTERVAL = "fdbsql.querylog.flush_interval_ms";
+    private static final String QUERY_LOG_MAX_FILE_SIZE = "fdbsql.querylog.max_file_size";
+    private static final String QUERY_LOG_MAX_FILE_AGE = "fdbsql.querylog.max_file_age_minutes";
 
     private static final ErrorCode[] SLOW_ERRORS = {
         ErrorCode.FDB_PAST_VERSION, ErrorCode.QUERY_TIMEOUT
@@ -65,7 +68,8 @@ public class MonitorServiceImpl implements Service, MonitorService, SessionEvent
     private volatile String queryLogFileName;
     private volatile boolean isQueryLogEnabled;
     private volatile long queryLogThresholdMillis;
-    private BufferedWriter queryLogWriter;
+    private volatile QueryLogWriter queryLogWriter;
+    private final AtomicLong queryLogDropped = new AtomicLong();
     
     private Map<String, UserMonitor> users;
 
@@ -186,64 +190,25 @@ public class MonitorServiceImpl implements Service, MonitorService, SessionEvent
             if (!slow) return;
         }
         
-        SessionMonitor monitor = sessions.get(sessionId);
-        monitor.countEvent(StatementTypes.LOGGED);
-        /*
-         * format of each query log entry is:
-         * #
-         * # timestamp
-         * # session_id=sessionID
-         * # execution_time=millis
-         * (optional) # error_msg=class: CODE: text
-         * (optional) # rows_processed=count
-         * SQL text
-         * #
-         * For example:
-         * # 2011-08-18 15:08:11.071
-         * # session_id=2
-         * # execution_time=69824520
-         * # rows_processed=100
-         * select * from tables;
-         * #
-         * # 2011-08-18 15:08:18.224
-         * # session_id=2
-         * # execution_time=3132589
-         * # rows_processed=10
-         * select * from groups;
-         * #
-         */
-        StringBuilder buffer = new StringBuilder();
-        buffer.append("# ");
-        buffer.append(new Timestamp(System.currentTimeMillis()));
-        buffer.append("\n");
-        buffer.append("# session_id=");
-        buffer.append(sessionId);
-        buffer.append("\n");
-        buffer.append("# execution_time=");
-        buffer.append(duration);
-        buffer.append("\n");
-        if (failure != null) {
-            buffer.append("# error_msg=");
-            buffer.append(failure.toString().replace('\n', ' '));
-            buffer.append("\n");
-        }
-        else if (rowsProcessed >= 0) {
-            buffer.append("# rows_processed=");
-            buffer.append(rowsProcessed);
-            buffer.append("\n");
+        QueryLogWriter writer = queryLogWriter;
+        if (writer == null) {
+            return;
         }
-        buffer.append(sql);
-        buffer.append("\n#\n");
-        try {
-            synchronized(this) {
-                queryLogWriter.write(buffer.toString());
-                queryLogWriter.flush();
-            }
-        } 
-        catch (IOException ex) {
-            logger.warn("Failed to write to query log.", ex);
+        if (writer.hasFailed()) {
             /* disable query logging due to failure */
             isQueryLogEnabled = false;
+            return;
+        }
+        // Formatting and writing happen on the writer's own thread.
+        String error = null;
+        if (failure != null) {
+            error = failure.toString().replace('\n', ' ');
+        }
+        QueryLogWriter.Entry entry = new QueryLogWriter.Entry(System.currentTimeMillis(), sessionId, sql,
+                                                              duration, rowsProcessed, error);
+        if (writer.offer(entry)) {
+            SessionMonitor monitor = sessions.get(sessionId);
+            monitor.countEvent(StatementTypes.LOGGED);
         }
     }
     
@@ -307,16 +272,26 @@ public class MonitorServiceImpl implements Service, MonitorService, SessionEvent
             return;
         }
         if(enabled) {
+            if(queryLogWriter != null) {
+                // Left over after a write failure.
+                try {
+                    queryLogWriter.close();
+                } catch(IOException ex) {
+                    logger.debug("Failed to close failed query log.", ex);
+                }
+                queryLogWriter = null;
+            }
             isQueryLogEnabled = setUpQueryLog();
         } else {
             isQueryLogEnabled = false;
+            QueryLogWriter writer = queryLogWriter;
+            queryLogWriter = null;
             try {
-                queryLogWriter.close();
+                writer.close();
             } catch(IOException ex) {
                 logger.warn("Failed to close query log output stream.", ex);
                 throw new QueryLogCloseException(ex);
             }
-            queryLogWriter = null;
         }
     }
 
@@ -340,6 +315,11 @@ public class MonitorServiceImpl implements Service, MonitorService, SessionEvent
         return queryLogThresholdMillis;
     }
 
+    @Override
+    public long getQueryLogDroppedCount() {
+        return queryLogDropped.get();
+    }
+
     @Override
     public long getCount(StatementTypes type) {
         return statementCounter[type.ordinal()].get();
@@ -375,14 +355,18 @@ public class MonitorServiceImpl implements Service, MonitorService, SessionEvent
             logger.error("Failed to create query log file", ex);
             return false;
         }
-        FileWriter writer;
         try {
-            writer = new FileWriter(queryLogFileName, true);
+            this.queryLogWriter = new QueryLogWriter(queryLogFileName,
+                                                     QueryLogWriter.Format.valueOf(config.getProperty(QUERY_LOG_FORMAT).toUpperCase()),
+                                                     Integer.parseInt(config.getProperty(QUERY_LOG_BUFFER_SIZE)),
+                                                     Long.parseLong(config.getProperty(QUERY_LOG_FLUSH_INTERVAL)),
+                                                     Long.parseLong(config.getProperty(QUERY_LOG_MAX_FILE_SIZE)),
+                                                     TimeUnit.MINUTES.toMillis(Long.parseLong(config.getProperty(QUERY_LOG_MAX_FILE_AGE))),
+                                                     queryLogDropped);
         } catch(IOException ex) {
-            logger.error("Failed to create FileWriter object for query log.", ex);
+            logger.error("Failed to open query log.", ex);
             return false;
         }
-        this.queryLogWriter = new BufferedWriter(writer);
         logger.debug("Query log file ready for writing.");
         return true;
     }
@@ -0,0 +1,372 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.service.monitor;
+
+import com.foundationdb.util.JsonUtils;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes the query log from a background thread.
+ *
+ * Executing threads only put an entry into a bounded ring buffer,
+ * without taking any lock. If the buffer is full, the entry is
+ * dropped and counted instead. The writer thread wakes up every flush
+ * interval, or sooner if the buffer is half full, formats everything
+ * that has accumulated and flushes once for the whole group. The file
+ * is renamed aside and a new one started when it gets too big or too
+ * old.
+ */
+class QueryLogWriter implements Runnable
+{
+    public enum Format { TEXT, JSON }
+
+    static class Entry {
+        final long timestamp;
+        final int sessionId;
+        final String sql;
+        final long duration;
+        final int rowsProcessed;
+        final String error;
+
+        Entry(long timestamp, int sessionId, String sql,
+              long duration, int rowsProcessed, String error) {
+            this.timestamp = timestamp;
+            this.sessionId = sessionId;
+            this.sql = sql;
+            this.duration = duration;
+            this.rowsProcessed = rowsProcessed;
+            this.error = error;
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryLogWriter.class);
+
+    private final String fileName;
+    private final Format format;
+    private final long flushNanos, maxFileSize, maxFileAgeMillis;
+    private final AtomicLong dropped;
+
+    // Bounded multiple producer queue: a slot is free for position p
+    // when its sequence is p and full when it is p + 1.
+    private final AtomicReferenceArray<Entry> slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    private final Thread thread;
+    private volatile boolean running, idle, failed;
+    private long droppedReported;
+
+    private CountingOutputStream fileStream;
+    private Writer writer;
+    private long fileOpened;
+
+    public QueryLogWriter(String fileName, Format format, int bufferSize,
+                          long flushMillis, long maxFileSize, long maxFileAgeMillis,
+                          AtomicLong dropped) throws IOException {
+        this.fileName = fileName;
+        this.format = format;
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(flushMillis, 1));
+        this.maxFileSize = maxFileSize;
+        this.maxFileAgeMillis = maxFileAgeMillis;
+        this.dropped = dropped;
+        this.droppedReported = dropped.get();
+        int capacity = 2;
+        while (capacity < bufferSize) {
+            capacity *= 2;
+        }
+        slots = new AtomicReferenceArray<>(capacity);
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        mask = capacity - 1;
+        open();
+        thread = new Thread(this, "QUERY_LOG_WRITER");
+        thread.setDaemon(true);
+        running = true;
+        thread.start();
+    }
+
+    /** Queue an entry for writing. Returns <code>false</code> if it was dropped. */
+    public boolean offer(Entry entry) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int)pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots.set(index, entry);
+                    sequences.set(index, pos + 1);
+                    break;
+                }
+                pos = tail.get();
+            }
+            else if (diff < 0) {
+                dropped.incrementAndGet();
+                if (idle) {
+                    LockSupport.unpark(thread);
+                }
+                return false;
+            }
+            else {
+                pos = tail.get();
+            }
+        }
+        // Otherwise, the writer wakes up by itself in time to flush.
+        if (idle && (pos - head.get() > mask / 2)) {
+            LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    /** Has writing to the file failed, so that nothing more will be written? */
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    /** Write any remaining entries and close the file. */
+    public void close() throws IOException {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    /* Runnable */
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                boolean wasRunning = running;
+                if (wasRunning) {
+                    awaitFlush();
+                }
+                int written = drain();
+                if (written > 0) {
+                    writer.flush();
+                    reportDropped();
+                    rotateIfNeeded();
+                }
+                else if (!wasRunning) {
+                    break;
+                }
+            }
+        }
+        catch (IOException ex) {
+            logger.warn("Failed to write to query log.", ex);
+            failed = true;
+        }
+    }
+
+    /* Internal */
+
+    /** Park until the flush interval is up, the buffer is half full or
+     * the writer is closed.
+     */
+    private void awaitFlush() {
+        long deadline = System.nanoTime() + flushNanos;
+        idle = true;
+        // Producers that saw the flag clear did not wake us.
+        while (running && (tail.get() - head.get() <= mask / 2)) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                break;
+            LockSupport.parkNanos(this, remaining);
+        }
+        idle = false;
+    }
+
+    private Entry poll() {
+        long pos = head.get();
+        int index = (int)pos & mask;
+        if (sequences.get(index) != pos + 1)
+            return null;
+        Entry entry = slots.get(index);
+        slots.set(index, null);
+        sequences.set(index, pos + mask + 1);
+        head.lazySet(pos + 1);
+        return entry;
+    }
+
+    private int drain() throws IOException {
+        int count = 0;
+        Entry entry;
+        while ((entry = poll()) != null) {
+            if (format == Format.JSON)
+                writeJson(entry);
+            else
+                writeText(entry);
+            count++;
+        }
+        return count;
+    }
+
+    /*
+     * format of each text query log entry is:
+     * # timestamp
+     * # session_id=sessionID
+     * # execution_time=millis
+     * (optional) # error_msg=class: CODE: text
+     * (optional) # rows_processed=count
+     * SQL text
+     * #
+     * For example:
+     * # 2011-08-18 15:08:11.071
+     * # session_id=2
+     * # execution_time=69824520
+     * # rows_processed=100
+     * select * from tables;
+     * #
+     */
+    private void writeText(Entry entry) throws IOException {
+        StringBuilder buffer = new StringBuilder();
+        buffer.append("# ");
+        buffer.append(new Timestamp(entry.timestamp));
+        buffer.append("\n");
+        buffer.append("# session_id=");
+        buffer.append(entry.sessionId);
+        buffer.append("\n");
+        buffer.append("# execution_time=");
+        buffer.append(entry.duration);
+        buffer.append("\n");
+        if (entry.error != null) {
+            buffer.append("# error_msg=");
+            buffer.append(entry.error);
+            buffer.append("\n");
+        }
+        else if (entry.rowsProcessed >= 0) {
+            buffer.append("# rows_processed=");
+            buffer.append(entry.rowsProcessed);
+            buffer.append("\n");
+        }
+        buffer.append(entry.sql);
+        buffer.append("\n#\n");
+        writer.write(buffer.toString());
+    }
+
+    /*
+     * One JSON object per line, for example:
+     * {"timestamp":"2011-08-18 15:08:11.071","session_id":2,"execution_time":69,"rows_processed":100,"sql":"select * from tables"}
+     */
+    private void writeJson(Entry entry) throws IOException {
+        JsonGenerator generator = JsonUtils.createJsonGenerator(writer);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+        generator.writeStartObject();
+        generator.writeStringField("timestamp", new Timestamp(entry.timestamp).toString());
+        generator.writeNumberField("session_id", entry.sessionId);
+        generator.writeNumberField("execution_time", entry.duration);
+        if (entry.error != null)
+            generator.writeStringField("error_msg", entry.error);
+        else if (entry.rowsProcessed >= 0)
+            generator.writeNumberField("rows_processed", entry.rowsProcessed);
+        generator.writeStringField("sql", entry.sql);
+        generator.writeEndObject();
+        generator.close();
+        writer.write('\n');
+    }
+
+    private void reportDropped() {
+        long count = dropped.get();
+        if (count != droppedReported) {
+            logger.warn("Query log could not keep up; {} entries dropped", count - droppedReported);
+            droppedReported = count;
+        }
+    }
+
+    private void open() throws IOException {
+        File file = new File(fileName);
+        fileStream = new CountingOutputStream(new FileOutputStream(file, true), file.length());
+        writer = new BufferedWriter(new OutputStreamWriter(fileStream, "UTF-8"));
+        fileOpened = System.currentTimeMillis();
+    }
+
+    private void rotateIfNeeded() throws IOException {
+        boolean tooBig = (maxFileSize > 0) && (fileStream.getCount() >= maxFileSize);
+        boolean tooOld = (maxFileAgeMillis > 0) &&
+            (System.currentTimeMillis() - fileOpened >= maxFileAgeMillis);
+        if (!tooBig && !tooOld)
+            return;
+        writer.close();
+        String suffix = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        File rotated = new File(fileName + "." + suffix);
+        for (int n = 1; rotated.exists(); n++) {
+            rotated = new File(fileName + "." + suffix + "-" + n);
+        }
+        if (!new File(fileName).renameTo(rotated)) {
+            logger.warn("Failed to rename query log to {}", rotated);
+        }
+        open();
+    }
+
+    static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        public CountingOutputStream(OutputStream out, long count) {
+            super(out);
+            this.count = count;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
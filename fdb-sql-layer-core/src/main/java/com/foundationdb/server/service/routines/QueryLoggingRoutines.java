@@ -60,4 +60,8 @@ public class QueryLoggingRoutines
     public static long getMillis() {
         return monitorService().getQueryLogThresholdMillis();
     }
+
+    public static long getDropped() {
+        return monitorService().getQueryLogDroppedCount();
+    }
 }
@@ -370,6 +370,10 @@ public final class RoutineLoaderImpl implements RoutineLoader, Service {
             .language("java", Routine.CallingConvention.JAVA)
             .returnLong("milliseconds")
             .externalName(QueryLoggingRoutines.class.getCanonicalName(), "getMillis");
+        aisb.procedure("query_log_get_dropped")
+            .language("java", Routine.CallingConvention.JAVA)
+            .returnLong("dropped")
+            .externalName(QueryLoggingRoutines.class.getCanonicalName(), "getDropped");
 
         aisb.defaultSchema(TableName.SQLJ_SCHEMA);
         aisb.procedure("install_jar")
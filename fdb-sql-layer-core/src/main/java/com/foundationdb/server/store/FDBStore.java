@@ -18,6 +18,7 @@
 package com.foundationdb.server.store;
 
 import com.foundationdb.KeyValue;
+import com.foundationdb.LocalityUtil;
 import com.foundationdb.ais.model.Column;
 import com.foundationdb.ais.model.Group;
 import com.foundationdb.ais.model.HasStorage;
@@ -58,13 +59,16 @@ import com.foundationdb.server.types.service.TypesRegistryService;
 import com.foundationdb.server.util.ReadWriteMap;
 import com.foundationdb.Range;
 import com.foundationdb.Transaction;
+import com.foundationdb.async.CloseableAsyncIterator;
 import com.foundationdb.async.Function;
+import com.foundationdb.tuple.ByteArrayUtil;
 import com.foundationdb.tuple.Tuple2;
 import com.google.inject.Inject;
 import com.persistit.Key;
 import com.persistit.Persistit;
 import com.persistit.Value;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -74,7 +78,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static com.foundationdb.server.store.FDBStoreDataHelper.*;
 
@@ -93,10 +102,18 @@ public class FDBStore extends AbstractStore<FDBStore,FDBStoreData,FDBStorageDesc
     private static final String ROWS_STORED_METRIC = "SQLLayerRowsStored";
     private static final String ROWS_CLEARED_METRIC = "SQLLayerRowsCleared";
     private static final String CONFIG_SEQUENCE_CACHE_SIZE = "fdbsql.fdb.sequence_cache_size";
+    private static final String CONFIG_SEQUENCE_CACHE_MAX_SIZE = "fdbsql.fdb.sequence_cache_max_size";
+    private static final String CONFIG_SEQUENCE_ALLOCATION = "fdbsql.fdb.sequence_allocation";
+    private static final String CONFIG_SEQUENCE_SHARDS = "fdbsql.fdb.sequence_shards";
+    private static final String PARALLEL_SCAN_THREAD_NAME_PREFIX = "ParallelScan-"; // Number is appended
 
     private LongMetric rowsFetchedMetric, rowsStoredMetric, rowsClearedMetric;
     private DirectorySubspace rootDir;
     private int sequenceCacheSize;
+    private int sequenceCacheMaxSize;
+    // 0 for allocation from the single sequence k/v.
+    private int sequenceShards;
+    private ExecutorService parallelScanExecutor;
 
 
     @Inject
@@ -158,11 +175,9 @@ public class FDBStore extends AbstractStore<FDBStore,FDBStoreData,FDBStorageDesc
         } else {
             // TODO: Allow FDBStorageDescription to intervene?
             TransactionState txn = txnService.getTransaction(session);
-            byte[] byteValue = txn.getValue(prefixBytes(sequence));
-            if(byteValue != null) {
-                Tuple2 tuple = Tuple2.fromBytes(byteValue);
-                rawValue = tuple.getLong(0);
-            }
+            byte[] prefixBytes = prefixBytes(sequence);
+            List<KeyValue> kvs = txn.getTransaction().getRange(Range.startsWith(prefixBytes)).asList().get();
+            rawValue = SequenceShards.read(prefixBytes, kvs).currentValue();
         }
         return sequence.realValueForRawNumber(rawValue);
     }
@@ -188,17 +203,41 @@ public class FDBStore extends AbstractStore<FDBStore,FDBStoreData,FDBStorageDesc
 
         boolean withConcurrentDML = Boolean.parseBoolean(configService.getProperty(FEATURE_DDL_WITH_DML_PROP));
         this.sequenceCacheSize = Integer.parseInt(configService.getProperty(CONFIG_SEQUENCE_CACHE_SIZE));
+        this.sequenceCacheMaxSize = Integer.parseInt(configService.getProperty(CONFIG_SEQUENCE_CACHE_MAX_SIZE));
+        String allocation = configService.getProperty(CONFIG_SEQUENCE_ALLOCATION);
+        if("sharded".equals(allocation)) {
+            this.sequenceShards = Integer.parseInt(configService.getProperty(CONFIG_SEQUENCE_SHARDS));
+        } else if("single".equals(allocation)) {
+            this.sequenceShards = 0;
+        } else {
+            throw new IllegalArgumentException("Unknown " + CONFIG_SEQUENCE_ALLOCATION + ": " + allocation);
+        }
         this.constraintHandler = new FDBConstraintHandler(this, configService, typesRegistryService, serviceManager, txnService);
         this.onlineHelper = new OnlineHelper(txnService, schemaManager, this, typesRegistryService, constraintHandler, withConcurrentDML);
         listenerService.registerRowListener(onlineHelper);
+        // Not a fixed size: a split waits for its consumer, which may be
+        // waiting for a split queued behind it.
+        this.parallelScanExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, PARALLEL_SCAN_THREAD_NAME_PREFIX + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
     }
 
     @Override
     public void stop() {
+        parallelScanExecutor.shutdownNow();
+        parallelScanExecutor = null;
     }
 
     @Override
     public void crash() {
+        stop();
     }
 
 
@@ -538,6 +577,12 @@ public class FDBStore extends AbstractStore<FDBStore,FDBStoreData,FDBStorageDesc
     }
 
     public Row expandGroupData(Session session, FDBStoreData storeData, Schema schema) {
+        if (storeData.iterator != null) {
+            Row row = storeData.iterator.currentRow();
+            if (row != null) {
+                return row;
+            }
+        }
         unpackKey(storeData);
         return expandRow(session, storeData, schema);
     }
@@ -671,6 +716,44 @@ public class FDBStore extends AbstractStore<FDBStore,FDBStoreData,FDBStorageDesc
                                                    transactionOptions);
     }
 
+    /** Runs the splits of parallel group scans. */
+    public ExecutorService getParallelScanExecutor() {
+        return parallelScanExecutor;
+    }
+
+    /** Iterate over the whole group, reading and decoding the pieces on
+     * different shards with up to <code>parallelism</code> threads.
+     */
+    public void parallelGroupIterator(Session session, FDBStoreData storeData, Schema schema,
+                                      int parallelism, FDBScanTransactionOptions transactionOptions) {
+        storeData.storageDescription.parallelGroupIterator(this, session, storeData, schema,
+                                                           parallelism, transactionOptions);
+    }
+
+    /** Keys strictly between <code>begin</code> and <code>end</code>
+     * at which a new shard starts, in order.
+     */
+    public List<byte[]> shardBoundaries(TransactionState txn, byte[] begin, byte[] end) {
+        List<byte[]> boundaries = new ArrayList<>();
+        CloseableAsyncIterator<byte[]> iter = LocalityUtil.getBoundaryKeys(txn.getTransaction(), begin, end);
+        try {
+            while (iter.hasNext()) {
+                byte[] key = iter.next();
+                if ((ByteArrayUtil.compareUnsigned(key, begin) > 0) &&
+                    (ByteArrayUtil.compareUnsigned(key, end) < 0)) {
+                    boundaries.add(key);
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            throw FDBAdapter.wrapFDBException(txn.getSession(), e);
+        }
+        finally {
+            iter.close();
+        }
+        return boundaries;
+    }
+
     /** Iterate over the whole index. */
     public void indexIterator(Session session, FDBStoreData storeData,
                               FDBScanTransactionOptions transactionOptions) {
@@ -757,22 +840,50 @@ public class FDBStore extends AbstractStore<FDBStore,FDBStoreData,FDBStorageDesc
     private long updateSequenceCache(Session session, Sequence s) {
         Transaction tr = txnService.getTransaction(session).getTransaction();
         byte[] prefixBytes = prefixBytes(s);
-        byte[] byteValue = tr.get(prefixBytes).get();
         final long rawValue;
-        if(byteValue != null) {
-            Tuple2 tuple = Tuple2.fromBytes(byteValue);
-            rawValue = tuple.getLong(0);
+        final SequenceCache newCache;
+        if(sequenceShards > 0) {
+            // Snapshot read so that only the chosen shard adds a conflict.
+            List<KeyValue> kvs = tr.snapshot().getRange(Range.startsWith(prefixBytes)).asList().get();
+            SequenceShards shards = SequenceShards.read(prefixBytes, kvs);
+            // But the floor, which single mode advances, must conflict too,
+            // or a refill during a switch of mode could overlap this block.
+            tr.addReadConflictRange(prefixBytes, ByteArrayUtil.join(prefixBytes, new byte[] { 0 }));
+            if(!shards.allShardCount(sequenceShards)) {
+                // Shard count changed: restart all shards above what was allocated by the old ones.
+                kvs = tr.getRange(Range.startsWith(prefixBytes)).asList().get();
+                long floor = SequenceShards.read(prefixBytes, kvs).highWater();
+                tr.clear(Range.startsWith(prefixBytes));
+                tr.set(prefixBytes, Tuple2.from(floor).pack());
+                shards = SequenceShards.fromFloor(prefixBytes, floor);
+            }
+            int shard = ThreadLocalRandom.current().nextInt(sequenceShards);
+            byte[] shardKey = SequenceShards.shardKey(prefixBytes, sequenceShards, shard);
+            tr.addReadConflictRange(shardKey, ByteArrayUtil.join(shardKey, new byte[] { 0 }));
+            long allocated = shards.allocated(sequenceShards, shard);
+            long blockSize = SequenceCache.nextBlockSize(sequenceCache.get(SequenceCache.cacheKey(s)),
+                                                         sequenceCacheSize, sequenceCacheMaxSize,
+                                                         System.nanoTime());
+            tr.set(shardKey, Tuple2.from(allocated + blockSize).pack());
+            rawValue = shards.rawValue(sequenceShards, shard, allocated);
+            newCache = SequenceCache.newLocal(rawValue, blockSize, sequenceShards);
         } else {
-            rawValue = 1;
+            List<KeyValue> kvs = tr.getRange(Range.startsWith(prefixBytes)).asList().get();
+            SequenceShards shards = SequenceShards.read(prefixBytes, kvs);
+            // Just the stored value (or 1), unless blocks were leased from shards before.
+            rawValue = shards.highWater();
+            if(shards.hasShards()) {
+                tr.clear(Range.startsWith(prefixBytes));
+            }
+            tr.set(prefixBytes, Tuple2.from(rawValue + sequenceCacheSize).pack());
+            newCache = SequenceCache.newLocal(rawValue, sequenceCacheSize);
         }
-        tr.set(prefixBytes, Tuple2.from(rawValue + sequenceCacheSize).pack());
 
         Map<Object, SequenceCache> sessionMap = session.get(SEQ_UPDATES_KEY);
         if(sessionMap == null) {
             txnService.addCallback(session, TransactionService.CallbackType.COMMIT, SEQUENCE_UPDATES_PUT_CALLBACK);
             txnService.addCallback(session, TransactionService.CallbackType.END, SEQUENCE_UPDATES_CLEAR_CALLBACK);
         }
-        SequenceCache newCache = SequenceCache.newLocal(rawValue, sequenceCacheSize);
         session.put(SEQ_UPDATES_KEY, SequenceCache.cacheKey(s), newCache);
         return rawValue;
     }
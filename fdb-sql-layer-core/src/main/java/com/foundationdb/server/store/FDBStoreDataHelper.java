@@ -33,7 +33,6 @@ import com.foundationdb.server.store.format.FDBStorageDescription;
 import com.foundationdb.server.types.value.Value;
 import com.foundationdb.server.types.value.ValueTargets;
 import com.foundationdb.tuple.ByteArrayUtil;
-import com.foundationdb.tuple.Tuple2;
 import com.persistit.Key;
 
 import java.util.ArrayList;
@@ -71,10 +70,8 @@ public class FDBStoreDataHelper
     }
 
     public static void unpackTuple(FDBStorageDescription storageDescription, Key key, byte[] tupleBytes) {
-        byte[] treeBytes = prefixBytes(storageDescription);
-        // TODO: Use fromBytes(byte[],int,int) when available.
-        Tuple2 tuple = Tuple2.fromBytes(Arrays.copyOfRange(tupleBytes, treeBytes.length, tupleBytes.length));
-        storageDescription.getTupleKey(tuple, key);
+        int prefixLength = prefixBytes(storageDescription).length;
+        storageDescription.getTupleKey(tupleBytes, prefixLength, tupleBytes.length - prefixLength, key);
     }
 
     public static byte[] packKey(FDBStoreData storeData) {
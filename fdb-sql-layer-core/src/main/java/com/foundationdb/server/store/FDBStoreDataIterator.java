@@ -17,6 +17,8 @@
 
 package com.foundationdb.server.store;
 
+import com.foundationdb.qp.row.Row;
+
 import java.util.Iterator;
 
 /**
@@ -41,5 +43,10 @@ public abstract class FDBStoreDataIterator implements Iterator<Void> {
         throw new UnsupportedOperationException();
     }
 
+    /** The current row, if the iterator has already decoded it. */
+    public Row currentRow() {
+        return null;
+    }
+
     public abstract void close();
 }
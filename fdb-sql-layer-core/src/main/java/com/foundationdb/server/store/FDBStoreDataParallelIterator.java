@@ -0,0 +1,317 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store;
+
+import com.foundationdb.KeyValue;
+import com.foundationdb.ReadTransaction;
+import com.foundationdb.async.AsyncIterator;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.Schema;
+import com.foundationdb.qp.storeadapter.FDBAdapter;
+import com.foundationdb.server.error.QueryCanceledException;
+import com.persistit.Key;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterate over a key range that has been cut into splits, each read
+ * by its own thread into a bounded buffer, all in the same transaction
+ * and so at the same read version.
+ * Splits are returned in order, so the result is the same as a single
+ * range read, but while the caller is consuming one split, the next
+ * ones are already being fetched from their storage servers.
+ * At most <code>parallelism</code> splits are being read at once; the
+ * next is started as each one is used up.
+ * Given a <code>Schema</code>, each split also decodes its rows, so
+ * that the caller only takes them from {@link #currentRow}.
+ */
+public class FDBStoreDataParallelIterator extends FDBStoreDataIterator
+{
+    static final int BATCH_ROWS = 1000;
+    static final int BUFFERED_BATCHES = 4;
+    static final long OFFER_MILLIS = 100;
+    private static final List<Entry> END = new ArrayList<>(0);
+
+    private final FDBStore store;
+    private final Schema schema;
+    private final ExecutorService executor;
+    private final List<Split> splits;
+    private int splitIndex, submitIndex;
+    private List<Entry> batch;
+    private int batchIndex;
+    private Row currentRow;
+    private volatile boolean closed;
+
+    /**
+     * @param schema Decode rows for this schema on the split's thread,
+     * or <code>null</code> to leave that to the caller.
+     * @param boundaries Keys strictly between <code>begin</code> and
+     * <code>end</code>, in order, at which to split the range.
+     * @param executor Runs the splits. Since a split blocks until its
+     * buffer is taken, this must not queue tasks behind running ones.
+     */
+    public FDBStoreDataParallelIterator(FDBStore store,
+                                        FDBStoreData storeData,
+                                        Schema schema,
+                                        ReadTransaction transaction,
+                                        byte[] begin, byte[] end,
+                                        List<byte[]> boundaries,
+                                        int parallelism,
+                                        ExecutorService executor) {
+        super(storeData);
+        this.store = store;
+        this.schema = schema;
+        this.executor = executor;
+        this.splits = new ArrayList<>(boundaries.size() + 1);
+        byte[] splitBegin = begin;
+        for (byte[] boundary : boundaries) {
+            splits.add(new Split(transaction, splitBegin, boundary));
+            splitBegin = boundary;
+        }
+        splits.add(new Split(transaction, splitBegin, end));
+        // Submitted in order, so the split being consumed has
+        // always started before any that are blocked waiting for it.
+        while (submitIndex < Math.min(parallelism, splits.size())) {
+            submitNext();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while ((batch == null) || (batchIndex >= batch.size())) {
+            if (closed || (splitIndex >= splits.size())) {
+                return false;
+            }
+            Split split = splits.get(splitIndex);
+            try {
+                batch = split.buffer.poll(OFFER_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new QueryCanceledException(storeData.session);
+            }
+            if (batch == null) {
+                if ((split.done.getCount() == 0) && split.buffer.isEmpty()) {
+                    // Worker could not even hand over END.
+                    batch = END;
+                }
+                else {
+                    if (storeData.session.isCurrentQueryCanceled()) {
+                        throw new QueryCanceledException(storeData.session);
+                    }
+                    continue;
+                }
+            }
+            batchIndex = 0;
+            if (batch == END) {
+                batch = null;
+                splitIndex++;
+                if (submitIndex < splits.size()) {
+                    submitNext();
+                }
+                Throwable error = split.error;
+                if (error instanceof Error) {
+                    throw (Error)error;
+                }
+                if (error != null) {
+                    throw FDBAdapter.wrapFDBException(storeData.session, (Exception)error);
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Void next() {
+        Entry entry = batch.get(batchIndex++);
+        storeData.rawKey = entry.keyValue.getKey();
+        storeData.rawValue = entry.keyValue.getValue();
+        currentRow = entry.row;
+        if (entry.hKey != null) {
+            Key key = storeData.persistitKey;
+            key.clear();
+            if (key.getMaximumSize() < entry.hKey.length) {
+                key.setMaximumSize(entry.hKey.length);
+            }
+            System.arraycopy(entry.hKey, 0, key.getEncodedBytes(), 0, entry.hKey.length);
+            key.setEncodedSize(entry.hKey.length);
+        }
+        return null;
+    }
+
+    /** The row decoded by the split, with <code>storeData.persistitKey</code>
+     * already set to its hkey, or <code>null</code> if not given a schema.
+     */
+    @Override
+    public Row currentRow() {
+        return currentRow;
+    }
+
+    /** Stop the workers and wait for them, so that nothing is still
+     * reading through the transaction when this returns.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        for (Split split : splits) {
+            split.buffer.clear();
+        }
+        batch = null;
+        currentRow = null;
+        boolean interrupted = false;
+        for (int i = 0; i < submitIndex; i++) {
+            Split split = splits.get(i);
+            split.future.cancel(false);
+            // Workers notice within OFFER_MILLIS, or when their
+            // current fetch completes, and exit. One that had not
+            // started will see closed if it ever does.
+            if (split.started) {
+                while (true) {
+                    try {
+                        split.done.await();
+                        break;
+                    }
+                    catch (InterruptedException ex) {
+                        interrupted = true;
+                    }
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** The number of splits whose workers have not finished. */
+    int runningSplits() {
+        int count = 0;
+        for (int i = 0; i < submitIndex; i++) {
+            Split split = splits.get(i);
+            if (split.started && (split.done.getCount() > 0)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void submitNext() {
+        Split split = splits.get(submitIndex++);
+        split.future = executor.submit(split);
+    }
+
+    /** A fetched row and, if decoded, its hkey and contents. */
+    static final class Entry {
+        final KeyValue keyValue;
+        final byte[] hKey;
+        final Row row;
+
+        Entry(KeyValue keyValue, byte[] hKey, Row row) {
+            this.keyValue = keyValue;
+            this.hKey = hKey;
+            this.row = row;
+        }
+    }
+
+    class Split implements Runnable {
+        final ReadTransaction transaction;
+        final byte[] begin, end;
+        final BlockingQueue<List<Entry>> buffer = new ArrayBlockingQueue<>(BUFFERED_BATCHES);
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean started;
+        volatile Throwable error;
+        Future<?> future;
+
+        Split(ReadTransaction transaction, byte[] begin, byte[] end) {
+            this.transaction = transaction;
+            this.begin = begin;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            started = true;
+            try {
+                if (closed) return;
+                AsyncIterator<KeyValue> iterator = transaction.getRange(begin, end).iterator();
+                try {
+                    // Only this thread decodes into it.
+                    FDBStoreData decodeData = (schema == null) ? null :
+                        store.createStoreData(storeData.session, storeData.storageDescription);
+                    List<Entry> rows = new ArrayList<>(BATCH_ROWS);
+                    while (!closed && iterator.hasNext()) {
+                        rows.add(decode(iterator.next(), decodeData));
+                        if (rows.size() >= BATCH_ROWS) {
+                            put(rows);
+                            rows = new ArrayList<>(BATCH_ROWS);
+                        }
+                    }
+                    if (!rows.isEmpty()) {
+                        put(rows);
+                    }
+                }
+                finally {
+                    iterator.dispose();
+                }
+            }
+            catch (Throwable ex) {
+                // Including interruption, which becomes a cancel.
+                error = ex;
+            }
+            finally {
+                // Always, so that the consumer does not wait forever.
+                try {
+                    put(END);
+                }
+                catch (InterruptedException ex) {
+                    error = ex;
+                }
+                finally {
+                    done.countDown();
+                }
+            }
+        }
+
+        protected Entry decode(KeyValue keyValue, FDBStoreData decodeData) {
+            if (decodeData == null) {
+                return new Entry(keyValue, null, null);
+            }
+            decodeData.rawKey = keyValue.getKey();
+            decodeData.rawValue = keyValue.getValue();
+            Row row = store.expandGroupData(decodeData.session, decodeData, schema);
+            Key key = decodeData.persistitKey;
+            return new Entry(keyValue, Arrays.copyOf(key.getEncodedBytes(), key.getEncodedSize()), row);
+        }
+
+        protected void put(List<Entry> rows) throws InterruptedException {
+            while (!closed) {
+                if (buffer.offer(rows, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        }
+    }
+}
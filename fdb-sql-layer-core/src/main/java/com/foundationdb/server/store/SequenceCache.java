@@ -37,11 +37,22 @@ import com.foundationdb.ais.model.Sequence;
  *   - The layer wide cache update is a post-commit hook so it is possible to lose blocks if
  *     one connection sneaks in past a previous completed one. This only leads to gaps, not
  *     duplication.
+ * - With sharded allocation (fdbsql.fdb.sequence_allocation=sharded), blocks are instead
+ *   leased from one of several shard k/v pairs chosen at random (see SequenceShards)
+ *   - Concurrent refills only conflict when they pick the same shard
+ *   - Values in a block are spaced by the shard count (the stride below)
+ *   - The block size adapts to how quickly this layer used up the previous block
  */
 class SequenceCache
 {
+    /** Aim for a refill about this often when adapting the block size. */
+    public static final long TARGET_BLOCK_NANOS = 1000L * 1000 * 1000;
+
     private final long timestamp;
     private final long maxValue;
+    private final long stride;
+    private final long blockSize;
+    private final long allocatedNanos;
     private long value;
 
     public static Object cacheKey(Sequence s) {
@@ -49,30 +60,53 @@ class SequenceCache
     }
 
     public static SequenceCache newEmpty() {
-        return new SequenceCache(Long.MAX_VALUE, 0, 1);
+        return new SequenceCache(Long.MAX_VALUE, 0, 1, 1, 0, 0);
     }
 
     public static SequenceCache newLocal(long startValue, long cacheSize) {
-        return new SequenceCache(Long.MAX_VALUE, startValue, startValue + cacheSize);
+        return newLocal(startValue, cacheSize, 1);
+    }
+
+    public static SequenceCache newLocal(long startValue, long cacheSize, long stride) {
+        return new SequenceCache(Long.MAX_VALUE, startValue, startValue + cacheSize * stride, stride,
+                                 cacheSize, System.nanoTime());
     }
 
     public static SequenceCache newGlobal(long timestamp, SequenceCache prevLocal) {
-        return new SequenceCache(timestamp, prevLocal.value, prevLocal.maxValue);
+        return new SequenceCache(timestamp, prevLocal.value, prevLocal.maxValue, prevLocal.stride,
+                                 prevLocal.blockSize, prevLocal.allocatedNanos);
+    }
+
+    /** Size of the block to allocate after <code>previous</code>, so that
+     * at the rate it was used up the next lasts about {@link #TARGET_BLOCK_NANOS},
+     * changing by no more than a factor of two at a time. */
+    public static long nextBlockSize(SequenceCache previous, long minSize, long maxSize, long now) {
+        if ((previous == null) || (previous.blockSize == 0)) {
+            return minSize;
+        }
+        long elapsed = Math.max(1, now - previous.allocatedNanos);
+        long size = (long)((double)previous.blockSize * TARGET_BLOCK_NANOS / elapsed);
+        size = Math.max(previous.blockSize / 2, Math.min(previous.blockSize * 2, size));
+        return Math.max(minSize, Math.min(maxSize, size));
     }
 
 
-    private SequenceCache(long timestamp, long startValue, long maxValue) {
+    private SequenceCache(long timestamp, long startValue, long maxValue, long stride,
+                          long blockSize, long allocatedNanos) {
         this.timestamp = timestamp;
         this.value = startValue;
         this.maxValue = maxValue;
+        this.stride = stride;
+        this.blockSize = blockSize;
+        this.allocatedNanos = allocatedNanos;
     }
 
     public synchronized long nextCacheValue() {
-        if (++value == maxValue) {
-            // ensure the next call to nextCacheValue also fails
-            --value;
+        if (value + stride >= maxValue) {
+            // leave value alone so the next call to nextCacheValue also fails
             return -1;
         }
+        value += stride;
         return value;
     }
 
@@ -86,6 +120,6 @@ class SequenceCache
 
     @Override
     public String toString() {
-        return String.format("SequenceCache(@%s, %d, %d, %d)", Integer.toHexString(hashCode()), timestamp, value, maxValue);
+        return String.format("SequenceCache(@%s, %d, %d, %d, %d)", Integer.toHexString(hashCode()), timestamp, value, maxValue, stride);
     }
 }
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.foundationdb.server.store;
+
+import com.foundationdb.KeyValue;
+import com.foundationdb.tuple.ByteArrayUtil;
+import com.foundationdb.tuple.Tuple2;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The k/v pairs of one sequence, as read from its whole prefix:
+ * - key: prefix, value: next raw value for single key allocation (the floor)
+ * - key: prefix + (shard count, shard), value: number of values allocated from that shard
+ *
+ * Shard <code>i</code> of <code>n</code> owns the raw values <code>floor + i + n * k</code>
+ * for <code>k = 0, 1, ...</code>, so shards never overlap each other or anything
+ * allocated before the floor was set. A block is leased by adding to the shard's
+ * count, which only conflicts with another allocation from the same shard.
+ */
+class SequenceShards
+{
+    private final long floor;
+    private final boolean floorPresent;
+    private final List<KeyValue> shardKVs;
+    private final int prefixLength;
+
+    private SequenceShards(long floor, boolean floorPresent, List<KeyValue> shardKVs, int prefixLength) {
+        this.floor = floor;
+        this.floorPresent = floorPresent;
+        this.shardKVs = shardKVs;
+        this.prefixLength = prefixLength;
+    }
+
+    /** Decode <code>kvs</code>, which must be the entire range of <code>prefixBytes</code>, in order. */
+    public static SequenceShards read(byte[] prefixBytes, List<KeyValue> kvs) {
+        long floor = 1;
+        boolean floorPresent = false;
+        List<KeyValue> shardKVs = kvs;
+        if (!kvs.isEmpty() && Arrays.equals(kvs.get(0).getKey(), prefixBytes)) {
+            floor = Tuple2.fromBytes(kvs.get(0).getValue()).getLong(0);
+            floorPresent = true;
+            shardKVs = kvs.subList(1, kvs.size());
+        }
+        return new SequenceShards(floor, floorPresent, shardKVs, prefixBytes.length);
+    }
+
+    /** No shards allocated yet above <code>floor</code>. */
+    public static SequenceShards fromFloor(byte[] prefixBytes, long floor) {
+        return new SequenceShards(floor, true, Collections.<KeyValue>emptyList(), prefixBytes.length);
+    }
+
+    public static byte[] shardKey(byte[] prefixBytes, int shardCount, int shard) {
+        return ByteArrayUtil.join(prefixBytes, Tuple2.from((long)shardCount, (long)shard).pack());
+    }
+
+    public long getFloor() {
+        return floor;
+    }
+
+    public boolean hasShards() {
+        return !shardKVs.isEmpty();
+    }
+
+    /** Were all the shards that exist allocated with <code>shardCount</code>? */
+    public boolean allShardCount(int shardCount) {
+        for (KeyValue kv : shardKVs) {
+            if (shardTuple(kv).getLong(0) != shardCount) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Number of values already allocated from the given shard. */
+    public long allocated(int shardCount, int shard) {
+        for (KeyValue kv : shardKVs) {
+            Tuple2 tuple = shardTuple(kv);
+            if ((tuple.getLong(0) == shardCount) && (tuple.getLong(1) == shard)) {
+                return Tuple2.fromBytes(kv.getValue()).getLong(0);
+            }
+        }
+        return 0;
+    }
+
+    public long rawValue(int shardCount, int shard, long n) {
+        return floor + shard + (long)shardCount * n;
+    }
+
+    /** The raw value above everything allocated so far. */
+    public long highWater() {
+        long result = floor;
+        for (KeyValue kv : shardKVs) {
+            Tuple2 tuple = shardTuple(kv);
+            long allocated = Tuple2.fromBytes(kv.getValue()).getLong(0);
+            if (allocated > 0) {
+                long last = rawValue((int)tuple.getLong(0), (int)tuple.getLong(1), allocated - 1);
+                result = Math.max(result, last + 1);
+            }
+        }
+        return result;
+    }
+
+    /** The raw value reported as the current value: the stored value
+     * for single key allocation, 0 if nothing is stored. */
+    public long currentValue() {
+        if (hasShards()) {
+            return highWater();
+        }
+        return floorPresent ? floor : 0;
+    }
+
+    private Tuple2 shardTuple(KeyValue kv) {
+        byte[] key = kv.getKey();
+        return Tuple2.fromBytes(Arrays.copyOfRange(key, prefixLength, key.length));
+    }
+}
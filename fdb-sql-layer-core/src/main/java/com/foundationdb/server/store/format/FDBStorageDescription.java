@@ -32,6 +32,7 @@ import com.foundationdb.server.store.FDBStore;
 import com.foundationdb.server.store.FDBStoreData;
 import com.foundationdb.server.store.FDBStoreDataHelper;
 import com.foundationdb.server.store.FDBStoreDataKeyValueIterator;
+import com.foundationdb.server.store.FDBStoreDataParallelIterator;
 import com.foundationdb.server.store.FDBStoreDataSingleKeyValueIterator;
 import com.foundationdb.server.store.FDBTransactionService.TransactionState;
 import com.foundationdb.server.store.StoreStorageDescription;
@@ -40,10 +41,12 @@ import com.foundationdb.Transaction;
 import com.foundationdb.async.Future;
 import com.foundationdb.tuple.ByteArrayUtil;
 import com.foundationdb.tuple.Tuple2;
+import com.foundationdb.tuple.TupleReader;
 import com.google.protobuf.ByteString;
 import com.persistit.Key;
 
 import java.util.Arrays;
+import java.util.List;
 
 import static com.foundationdb.server.store.FDBStoreDataHelper.*;
 
@@ -170,6 +173,29 @@ public class FDBStorageDescription extends StoreStorageDescription<FDBStore,FDBS
         key.setEncodedSize(keyBytes.length);
     }
 
+    /** Decode the packed key <code>Tuple</code> in the given range
+     * straight into Persistit <code>Key</code>.
+     */
+    public void getTupleKey(byte[] tupleBytes, int offset, int length, Key key) {
+        TupleReader reader = new TupleReader(tupleBytes, offset, length);
+        key.clear();
+        int size;
+        // Less type code and terminator, the most it can unescape to.
+        if(key.getMaximumSize() >= length - 2) {
+            size = reader.getBytes(key.getEncodedBytes(), 0);
+        }
+        else {
+            byte[] keyBytes = reader.getBytes();
+            size = keyBytes.length;
+            if(key.getMaximumSize() < size) {
+                key.setMaximumSize(size);
+            }
+            System.arraycopy(keyBytes, 0, key.getEncodedBytes(), 0, size);
+        }
+        assert !reader.hasNext() : key;
+        key.setEncodedSize(size);
+    }
+
     /** Store contents of <code>storeData</code> into database.  
      * Usually, key comes from <code>storeData.rawKey</code> via {@link getKeyBytes}
      * and value comes from <code>storeData.rawValue</code> via {@link #packRowData}.
@@ -247,6 +273,34 @@ public class FDBStorageDescription extends StoreStorageDescription<FDBStore,FDBS
             txnState.getRangeIterator(ksLeft, ksRight, limit, false, transactionOptions));
     }
 
+    /** Set up <code>storeData.iterator</code> to iterate over the whole group,
+     * split at shard boundaries and read by up to <code>parallelism</code> threads,
+     * which also decode the rows for <code>schema</code>.
+     * Falls back to {@link #groupIterator} when there is only one shard or
+     * the scan may commit part way through.
+     */
+    public void parallelGroupIterator(FDBStore store, Session session, FDBStoreData storeData,
+                                      Schema schema, int parallelism,
+                                      FDBScanTransactionOptions transactionOptions) {
+        if ((parallelism > 1) && !transactionOptions.isCommitting()) {
+            TransactionState txnState = store.getTransaction(session, storeData);
+            byte[] begin = prefixBytes(storeData);
+            byte[] end = ByteArrayUtil.strinc(begin);
+            List<byte[]> boundaries = store.shardBoundaries(txnState, begin, end);
+            if (!boundaries.isEmpty()) {
+                Transaction transaction = txnState.getTransaction();
+                storeData.iterator = new FDBStoreDataParallelIterator(store, storeData, schema,
+                    transactionOptions.isSnapshot() ? transaction.snapshot() : transaction,
+                    begin, end, boundaries, parallelism,
+                    store.getParallelScanExecutor());
+                return;
+            }
+        }
+        groupIterator(store, session, storeData,
+                      FDBStore.GroupIteratorBoundary.START, FDBStore.GroupIteratorBoundary.END,
+                      Transaction.ROW_LIMIT_UNLIMITED, transactionOptions);
+    }
+
     /** Set up <code>storeData.iterator</code> to iterate over index.
      * @param key Start at <code>storeData.persistitKey</code>
      * @param inclusive Include key itself in result.
@@ -41,8 +41,10 @@ import com.foundationdb.server.store.format.FDBStorageDescription;
 import com.foundationdb.server.store.format.tuple.TupleRowDataConverter;
 import com.foundationdb.server.store.format.tuple.TupleStorageDescription;
 import com.foundationdb.server.types.value.ValueSources;
+import com.foundationdb.Transaction;
 import com.foundationdb.tuple.ByteArrayUtil;
 import com.foundationdb.tuple.Tuple2;
+import com.foundationdb.tuple.TupleReader;
 import com.persistit.Key;
 
 import java.util.HashMap;
@@ -120,6 +122,13 @@ public class ColumnKeysStorageDescription extends FDBStorageDescription
         TupleStorageDescription.appendHKeySegments(t, key, ((Group)object));
     }
 
+    @Override
+    public void getTupleKey(byte[] tupleBytes, int offset, int length, Key key) {
+        key.clear();
+        TupleStorageDescription.appendHKeySegments(new TupleReader(tupleBytes, offset, length),
+                                                   key, ((Group)object));
+    }
+
     @Override
     public void packRow (FDBStore store, Session session, 
                         FDBStoreData storeData, Row row) {
@@ -226,6 +235,16 @@ public class ColumnKeysStorageDescription extends FDBStorageDescription
                                           limit);
     }
 
+    @Override
+    public void parallelGroupIterator(FDBStore store, Session session, FDBStoreData storeData,
+                                      Schema schema, int parallelism,
+                                      FDBScanTransactionOptions transactionOptions) {
+        // A shard boundary can fall between the columns of a row.
+        groupIterator(store, session, storeData,
+                      FDBStore.GroupIteratorBoundary.START, FDBStore.GroupIteratorBoundary.END,
+                      Transaction.ROW_LIMIT_UNLIMITED, transactionOptions);
+    }
+
     public void indexIterator(FDBStore store, Session session, FDBStoreData storeData,
                               boolean key, boolean inclusive, boolean reverse) {
         throw new UnsupportedOperationException();
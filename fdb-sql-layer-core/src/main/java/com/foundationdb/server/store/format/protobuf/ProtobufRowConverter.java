@@ -21,10 +21,12 @@ import com.foundationdb.ais.model.Column;
 import com.foundationdb.ais.model.Group;
 import com.foundationdb.ais.model.Join;
 import com.foundationdb.ais.model.Table;
+import com.foundationdb.qp.row.LazyRow;
 import com.foundationdb.qp.row.Row;
-import com.foundationdb.qp.row.ValuesHolderRow;
 import com.foundationdb.qp.rowtype.RowType;
 import com.foundationdb.qp.util.SchemaCache;
+import com.foundationdb.server.types.value.Value;
+import com.foundationdb.server.types.value.ValueSources;
 import com.google.protobuf.DynamicMessage;
 import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.Descriptors.FileDescriptor;
@@ -158,7 +160,6 @@ public abstract class ProtobufRowConverter
         private final FieldDescriptor[] fields;
         private final FieldDescriptor[] nullFields;
         private final Map<FieldDescriptor,Integer> columnIndexesByField;
-        private final Map<FieldDescriptor,Integer> nullableIndexesByField;
         private final RowType rowType;
         
         public TableConverter(Table table, Descriptor tableMessage) {
@@ -174,7 +175,6 @@ public abstract class ProtobufRowConverter
                 columnIndexedByUuid.put(column.getUuid().toString(), i);
             }
             FieldDescriptor[] nullFields = null;
-            Map<FieldDescriptor,Integer> nullableIndexesByField = null;
             for (FieldDescriptor field : tableMessage.getFields()) {
                 ColumnOptions options = field.getOptions().getExtension(ColumnOptions.fdbsql);
                 if (options.hasUuid()) {
@@ -187,16 +187,13 @@ public abstract class ProtobufRowConverter
                 else if (options.hasNullForField()) {
                     if (nullFields == null) {
                         nullFields = new FieldDescriptor[nfields];
-                        nullableIndexesByField = new HashMap<>(nfields);
                     }
                     FieldDescriptor forField = tableMessage.findFieldByNumber(options.getNullForField());
                     Integer columnIndex = columnIndexesByField.get(forField);
                     nullFields[columnIndex] = field;
-                    nullableIndexesByField.put(field, columnIndex);
                 }
             }
             this.nullFields = nullFields;
-            this.nullableIndexesByField = nullableIndexesByField;
             this.rowType = SchemaCache.globalSchema(table.getAIS()).tableRowType(table);
         }
 
@@ -218,25 +215,35 @@ public abstract class ProtobufRowConverter
             return builder.build();
         }
 
+        /** Values are only converted from the message as the row's fields are used. */
         @Override
         public Row decode(DynamicMessage msg) {
-            Object[] objects = new Object[fields.length];
-            for (FieldDescriptor field : msg.getAllFields().keySet()) {
-                Integer columnIndex = columnIndexesByField.get(field);
-                if (columnIndex != null) {
-                    objects[columnIndex] = conversions[columnIndex].getValue(msg, field);
-                }
-                else {
-                    Integer nullIndex = nullableIndexesByField.get(field);
-                    if (nullIndex != null) {
-                        // TODO: It's already null, because we aren't
-                        // handling defaults yet.
-                        objects[nullIndex] = null;
-                    }
-                }
+            return new MessageRow(msg);
+        }
+
+        protected Value decodeValue(DynamicMessage msg, int columnIndex) {
+            FieldDescriptor field = fields[columnIndex];
+            Object object = null;
+            // An absent field is null, because we aren't handling
+            // defaults yet.
+            if ((field != null) && msg.hasField(field)) {
+                object = conversions[columnIndex].getValue(msg, field);
+            }
+            return ValueSources.valuefromObject(object, rowType.typeAt(columnIndex));
+        }
+
+        private class MessageRow extends LazyRow {
+            private final DynamicMessage msg;
+
+            public MessageRow(DynamicMessage msg) {
+                super(rowType);
+                this.msg = msg;
+            }
+
+            @Override
+            protected Value decodeValue(int i) {
+                return TableConverter.this.decodeValue(msg, i);
             }
-            ValuesHolderRow row = new ValuesHolderRow (rowType, objects);
-            return row;
         }
     }
 }
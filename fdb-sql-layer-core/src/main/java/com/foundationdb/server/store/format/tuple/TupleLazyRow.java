@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store.format.tuple;
+
+import com.foundationdb.qp.row.LazyRow;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.types.value.Value;
+import com.foundationdb.tuple.TupleReader;
+
+/**
+ * A row that keeps its packed tuple and decodes a field the first
+ * time it is asked for. Field offsets are found by skipping over the
+ * earlier fields, also only once.
+ */
+class TupleLazyRow extends LazyRow
+{
+    @Override
+    protected Value decodeValue(int i) {
+        while (nscanned <= i) {
+            reader.reset(bytes, offsets[nscanned], end - offsets[nscanned]);
+            assert reader.hasNext() : "Row Type " + rowType() + " does not match tuple size: " + nscanned;
+            reader.skip();
+            offsets[++nscanned] = end - reader.remaining();
+        }
+        reader.reset(bytes, offsets[i], offsets[i + 1] - offsets[i]);
+        return TupleRowDataConverter.valueFromTuple(reader, rowType().typeAt(i));
+    }
+
+    TupleLazyRow(RowType rowType, byte[] bytes, int offset, int length) {
+        super(rowType);
+        this.bytes = bytes;
+        this.end = offset + length;
+        this.offsets = new int[rowType.nFields() + 1];
+        this.offsets[0] = offset;
+    }
+
+    private final byte[] bytes;
+    private final int end;
+    // offsets[j] is where field j starts, for j <= nscanned.
+    private final int[] offsets;
+    private int nscanned;
+    private final TupleReader reader = new TupleReader();
+}
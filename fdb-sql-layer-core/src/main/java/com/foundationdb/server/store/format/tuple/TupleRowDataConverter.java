@@ -37,8 +37,10 @@ import com.foundationdb.server.types.mcompat.mtypes.MBinary;
 import com.foundationdb.server.types.mcompat.mtypes.MDateAndTime;
 import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
 import com.foundationdb.server.types.mcompat.mtypes.MString;
+import com.foundationdb.server.types.value.Value;
 import com.foundationdb.server.types.value.ValueSources;
 import com.foundationdb.tuple.Tuple2;
+import com.foundationdb.tuple.TupleReader;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -127,4 +129,81 @@ public class TupleRowDataConverter
         ValuesHolderRow newRow = new ValuesHolderRow (rowType, objects);
         return newRow;
     }
+
+    /** As {@link #tupleToRow(Tuple2,RowType)}, but reading the fields
+     * in place from the packed tuple. Values the type can take
+     * directly are put without making an object first.
+     */
+    public static Row tupleToRow (byte[] bytes, int offset, int length, RowType rowType) {
+        int nfields = rowType.nFields();
+        List<Value> values = new ArrayList<>(nfields);
+        TupleReader reader = new TupleReader(bytes, offset, length);
+        for (int i = 0; i < nfields; i++) {
+            assert reader.hasNext() : "Row Type " + rowType + " does not match tuple size: " + i;
+            values.add(valueFromTuple(reader, rowType.typeAt(i)));
+        }
+        assert !reader.hasNext() : "Row Type " + rowType + " does not match tuple size";
+        return new ValuesHolderRow(rowType, values);
+    }
+
+    /** As {@link #tupleToRow(byte[],int,int,RowType)}, but only decoding
+     * the fields that are actually used, when first asked for. The bytes
+     * must not change while the row is in use.
+     */
+    public static Row lazyTupleToRow (byte[] bytes, int offset, int length, RowType rowType) {
+        return new TupleLazyRow(rowType, bytes, offset, length);
+    }
+
+    protected static Value valueFromTuple(TupleReader reader, TInstance type) {
+        Value value = new Value(type);
+        int code = reader.peekCode();
+        if (code == TupleReader.NULL_CODE) {
+            reader.skip();
+            value.putNull();
+            return value;
+        }
+        switch (TInstance.underlyingType(type)) {
+        case INT_8:
+        case INT_16:
+        case UINT_16:
+        case INT_32:
+        case INT_64:
+            if (reader.isInteger()) {
+                ValueSources.valueFromLong(reader.getLong(), value);
+                return value;
+            }
+            break;
+        case DOUBLE:
+            if (code == TupleReader.DOUBLE_CODE) {
+                value.putDouble(reader.getDouble());
+                return value;
+            }
+            break;
+        case FLOAT:
+            if (code == TupleReader.FLOAT_CODE) {
+                value.putFloat(reader.getFloat());
+                return value;
+            }
+            break;
+        case STRING:
+            if (code == TupleReader.STRING_CODE) {
+                value.putString(reader.getString(), null);
+                return value;
+            }
+            break;
+        case BYTES:
+            if (code == TupleReader.BYTES_CODE) {
+                value.putBytes(reader.getBytes());
+                return value;
+            }
+            break;
+        case BOOL:
+            if ((code == TupleReader.TRUE_CODE) || (code == TupleReader.FALSE_CODE)) {
+                value.putBool(reader.getBoolean());
+                return value;
+            }
+            break;
+        }
+        return ValueSources.valuefromObject(reader.get(), type);
+    }
 }
@@ -40,6 +40,7 @@ import com.foundationdb.server.store.FDBStoreData;
 import com.foundationdb.server.store.format.FDBStorageDescription;
 import com.foundationdb.tuple.ByteArrayUtil;
 import com.foundationdb.tuple.Tuple2;
+import com.foundationdb.tuple.TupleReader;
 import com.persistit.Key;
 import com.persistit.KeyShim;
 
@@ -211,6 +212,25 @@ public class TupleStorageDescription extends FDBStorageDescription
         }
     }
 
+    @Override
+    public void getTupleKey(byte[] tupleBytes, int offset, int length, Key key) {
+        if (usage != null) {
+            TupleReader reader = new TupleReader(tupleBytes, offset, length);
+            key.clear();
+            if (object instanceof Group) {
+                appendHKeySegments(reader, key, ((Group)object));
+            }
+            else {
+                while (reader.hasNext()) {
+                    appendSegment(reader, key);
+                }
+            }
+        }
+        else {
+            super.getTupleKey(tupleBytes, offset, length, key);
+        }
+    }
+
     /** <code>Tuple</code> does not distinguish integer types. This is
      * mostly not a problem, since they are all encoded as longs in
      * Persistit.  Except for ordinals, which are ints.
@@ -247,6 +267,55 @@ public class TupleStorageDescription extends FDBStorageDescription
         }
     }
 
+    /** As {@link #appendHKeySegments(Tuple2,Key,Group)}, but reading the
+     * segments in place.
+     */
+    public static void appendHKeySegments(TupleReader reader, Key key, Group group) {
+        Table table = null;
+        int nextOrdinalIndex = 0;
+        for (int i = 0; reader.hasNext(); i++) {
+            if ((i == nextOrdinalIndex) &&
+                reader.isInteger()) {
+                long seg = reader.getLong();
+                int ordinal = (int)seg;
+                boolean found = false;
+                if (i == 0) {
+                    table = group.getRoot();
+                    found = (table.getOrdinal() == ordinal);
+                }
+                else {
+                    for (Join join : table.getChildJoins()) {
+                        table = join.getChild();
+                        if (table.getOrdinal() == ordinal) {
+                            found = true;
+                            break;
+                        }
+                    }
+                }
+                if (found) {
+                    int[] keyDepth = table.hKey().keyDepth();
+                    nextOrdinalIndex = keyDepth[keyDepth.length - 1];
+                    key.append(ordinal);
+                }
+                else {
+                    key.append(seg);
+                }
+            }
+            else {
+                appendSegment(reader, key);
+            }
+        }
+    }
+
+    protected static void appendSegment(TupleReader reader, Key key) {
+        if (reader.isInteger()) {
+            key.append(reader.getLong());
+        }
+        else {
+            key.append(reader.get());
+        }
+    }
+
     @Override
     public void packRow (FDBStore store, Session session, FDBStoreData storeData, Row row) {
         if (usage == TupleUsage.KEY_AND_ROW) {
@@ -261,11 +330,10 @@ public class TupleStorageDescription extends FDBStorageDescription
     public Row expandRow(FDBStore store, Session session, 
                             FDBStoreData storeData, Schema schema) {
         if (usage == TupleUsage.KEY_AND_ROW) {
-            Tuple2 tuple = Tuple2.fromBytes(storeData.rawValue);
             Table table = tableFromOrdinals((Group)object, storeData.persistitKey);
             RowType rowType = schema.tableRowType(table);
             
-            Row row = TupleRowDataConverter.tupleToRow(tuple, rowType);
+            Row row = TupleRowDataConverter.lazyTupleToRow(storeData.rawValue, 0, storeData.rawValue.length, rowType);
             return row; 
         } else {
             return super.expandRow(store, session, storeData, schema);
@@ -190,6 +190,14 @@ public abstract class AbstractIndexStatisticsService implements IndexStatisticsS
         return null;
     }
 
+    @Override
+    public IndexStatistics getCachedIndexStatistics(Index index) {
+        IndexStatistics result = cache.get(index);
+        if ((result != null) && result.isInvalid())
+            return null;
+        return result;
+    }
+
     @Override
     public void updateIndexStatistics(Session session, 
                                       Collection<? extends Index> indexes) {
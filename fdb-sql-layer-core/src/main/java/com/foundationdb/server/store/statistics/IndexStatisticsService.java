@@ -36,6 +36,10 @@ public interface IndexStatisticsService
     /** Get available statistics for the given index. */
     public IndexStatistics getIndexStatistics(Session session, Index index);
 
+    /** Get statistics for the given index if already loaded, without
+     * going to the store. */
+    public IndexStatistics getCachedIndexStatistics(Index index);
+
     /** Update statistics for the given indexes. */
     public void updateIndexStatistics(Session session, 
                                       Collection<? extends Index> indexes);
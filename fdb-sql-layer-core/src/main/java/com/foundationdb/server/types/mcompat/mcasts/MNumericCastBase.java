@@ -699,6 +699,27 @@ public class MNumericCastBase
         }
     }
     
+    /** Does <code>cast</code> just convert the source value to the
+     * target's underlying type, the way Java widens a primitive, with
+     * no range check or rounding?
+     */
+    public static boolean isPrimitiveConversion(TCast cast)
+    {
+        return (cast instanceof FromInt8ToInt16) ||
+               (cast instanceof FromInt8ToInt32) ||
+               (cast instanceof FromInt8ToInt64) ||
+               (cast instanceof FromInt8ToDouble) ||
+               (cast instanceof FromInt16ToInt16) ||
+               (cast instanceof FromInt16ToInt32) ||
+               (cast instanceof FromInt16ToInt64) ||
+               (cast instanceof FromInt16ToDouble) ||
+               (cast instanceof FromInt32ToInt32) ||
+               (cast instanceof FromInt32ToInt64) ||
+               (cast instanceof FromInt32ToDouble) ||
+               (cast instanceof FromInt64ToInt64) ||
+               (cast instanceof FromInt64ToDouble);
+    }
+
     private static TClass checkType (TClass input, UnderlyingType expected)
     {
         if (input.underlyingType() != expected)
@@ -90,6 +90,14 @@ public final class TCastExpression implements TPreparedExpression {
                 : sourceInstance + " not an acceptable source for cast " + cast;
     }
 
+    public TPreparedExpression getInput() {
+        return input;
+    }
+
+    public TCast getCast() {
+        return cast;
+    }
+
 
     private final TInstance sourceInstance;
     private final TInstance targetInstance;
@@ -58,6 +58,10 @@ public final class TComparisonExpression extends TComparisonExpressionBase {
         this.collator = collator;
     }
 
+    public AkCollator getCollator() {
+        return collator;
+    }
+
     // Collator in advance saves mergeCollations() every eval as TClass.compare() would do
     private final AkCollator collator;
 }
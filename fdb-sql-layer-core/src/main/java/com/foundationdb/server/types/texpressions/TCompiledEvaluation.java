@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.foundationdb.server.types.texpressions;
+
+import com.foundationdb.qp.operator.QueryBindings;
+import com.foundationdb.qp.operator.QueryContext;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.value.Value;
+import com.foundationdb.server.types.value.ValueSource;
+
+/**
+ * Superclass of the evaluations generated by {@link TExpressionCompiler}.
+ *
+ * The generated {@link #evaluate} reads fields straight from {@link #row}
+ * into primitive locals. Parts of the expression that could not be
+ * compiled are evaluated by the interpreter, from {@link #inputs}.
+ */
+public abstract class TCompiledEvaluation implements TEvaluatableExpression {
+
+    @Override
+    public ValueSource resultValue() {
+        return value;
+    }
+
+    @Override
+    public abstract void evaluate();
+
+    @Override
+    public void with(Row row) {
+        this.row = row;
+        for (TEvaluatableExpression input : inputs)
+            input.with(row);
+    }
+
+    @Override
+    public void with(QueryContext context) {
+        for (TEvaluatableExpression input : inputs)
+            input.with(context);
+    }
+
+    @Override
+    public void with(QueryBindings bindings) {
+        for (TEvaluatableExpression input : inputs)
+            input.with(bindings);
+    }
+
+    protected TCompiledEvaluation(TEvaluatableExpression[] inputs, TInstance resultType) {
+        this.inputs = inputs;
+        this.value = new Value(resultType);
+    }
+
+    protected final TEvaluatableExpression[] inputs;
+    protected final Value value;
+    protected Row row;
+}
@@ -0,0 +1,778 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.foundationdb.server.types.texpressions;
+
+import com.foundationdb.qp.operator.QueryContext;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.server.error.AkibanInternalException;
+import com.foundationdb.server.explain.CompoundExplainer;
+import com.foundationdb.server.explain.ExplainContext;
+import com.foundationdb.server.types.TClass;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.TOverload;
+import com.foundationdb.server.types.TPreptimeValue;
+import com.foundationdb.server.types.common.funcs.BoolLogic;
+import com.foundationdb.server.types.mcompat.mcasts.MNumericCastBase;
+import com.foundationdb.server.types.mcompat.mfuncs.MArithmetic;
+import com.foundationdb.server.types.value.UnderlyingType;
+import com.foundationdb.server.types.value.Value;
+import com.foundationdb.server.types.value.ValueSource;
+import com.foundationdb.util.SparseArray;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compile a boolean or numeric expression tree into a single JVM class.
+ *
+ * Comparisons between numeric values, and the <code>AND</code>,
+ * <code>OR</code> and <code>NOT</code> connecting them, become
+ * straight-line code over primitive locals, with <code>NULL</code>
+ * handled by branching. So do the arithmetic and widening casts
+ * that compute those values, or a projected column. Any other part of
+ * the tree, such as an overload not listed here, is left to the
+ * interpreter and its result read from there.
+ *
+ * The class is generated once, when the plan is assembled, and is
+ * kept with the plan's operators.
+ */
+public final class TExpressionCompiler
+{
+    private static final Logger logger = LoggerFactory.getLogger(TExpressionCompiler.class);
+
+    private static final String CLASS_PREFIX =
+        TCompiledEvaluation.class.getName().replace('.', '/') + "$Generated";
+    private static final AtomicInteger classCounter = new AtomicInteger();
+
+    /** Return a compiled version of <code>expression</code>, or
+     * <code>expression</code> itself if there is nothing to gain.
+     */
+    public static TPreparedExpression compile(TPreparedExpression expression) {
+        if ((booleanKind(expression) == null) && (numericKind(expression) == null))
+            return expression;
+        try {
+            Generator generator = new Generator(CLASS_PREFIX + classCounter.incrementAndGet());
+            Constructor<? extends TCompiledEvaluation> constructor = generator.generate(expression);
+            return new CompiledExpression(expression, generator.fallbacks, constructor);
+        }
+        catch (RuntimeException | LinkageError | ReflectiveOperationException ex) {
+            logger.warn("Could not compile {}", expression, ex);
+            return expression;
+        }
+    }
+
+    private TExpressionCompiler() {
+    }
+
+    enum BooleanKind { COMPARE, AND, OR, NOT }
+
+    static BooleanKind booleanKind(TPreparedExpression expression) {
+        if (expression instanceof TComparisonExpression) {
+            TComparisonExpression comparison = (TComparisonExpression)expression;
+            if (comparison.getCollator() != null)
+                return null;
+            TInstance left = comparison.getLeft().resultType();
+            TInstance right = comparison.getRight().resultType();
+            if ((left == null) || (right == null) ||
+                (left.typeClass() != right.typeClass()) ||
+                (primitiveType(left) == null) ||
+                !comparesNatively(left.typeClass()))
+                return null;
+            return BooleanKind.COMPARE;
+        }
+        if (expression instanceof TPreparedFunction) {
+            TPreparedFunction function = (TPreparedFunction)expression;
+            TOverload overload = function.getOverload().getUnderlying();
+            SparseArray<Object> preptimeValues = function.getPreptimeValues();
+            if ((preptimeValues != null) && !preptimeValues.isEmpty())
+                return null;
+            int ninputs = function.getInputs().size();
+            if ((overload == BoolLogic.AND) && (ninputs == 2))
+                return BooleanKind.AND;
+            if ((overload == BoolLogic.OR) && (ninputs == 2))
+                return BooleanKind.OR;
+            if ((overload == BoolLogic.NOT) && (ninputs == 1))
+                return BooleanKind.NOT;
+        }
+        return null;
+    }
+
+    enum NumericKind { ARITHMETIC, CAST }
+
+    /** How a compiled arithmetic overload computes its result: both
+     * operands are widened to the result's type and <code>opcode</code>
+     * applied, as its <code>doEvaluate</code> does.
+     */
+    static class Arithmetic {
+        final int opcode;
+        final boolean nullIfZeroDivisor, nullIfNotFinite;
+
+        Arithmetic(int opcode, boolean nullIfZeroDivisor, boolean nullIfNotFinite) {
+            this.opcode = opcode;
+            this.nullIfZeroDivisor = nullIfZeroDivisor;
+            this.nullIfNotFinite = nullIfNotFinite;
+        }
+    }
+
+    private static final Map<TOverload,Arithmetic> ARITHMETIC = new IdentityHashMap<>();
+    static {
+        Arithmetic add = new Arithmetic(Opcodes.IADD, false, false);
+        Arithmetic subtract = new Arithmetic(Opcodes.ISUB, false, false);
+        Arithmetic multiply = new Arithmetic(Opcodes.IMUL, false, false);
+        Arithmetic divide = new Arithmetic(Opcodes.IDIV, true, false);
+        ARITHMETIC.put(MArithmetic.ADD_TINYINT, add);
+        ARITHMETIC.put(MArithmetic.ADD_SMALLINT, add);
+        ARITHMETIC.put(MArithmetic.ADD_MEDIUMINT, add);
+        ARITHMETIC.put(MArithmetic.ADD_INT, add);
+        ARITHMETIC.put(MArithmetic.ADD_BIGINT, add);
+        ARITHMETIC.put(MArithmetic.ADD_DOUBLE, add);
+        ARITHMETIC.put(MArithmetic.ADD_DOUBLE_P2, add);
+        ARITHMETIC.put(MArithmetic.SUBTRACT_TINYINT, subtract);
+        ARITHMETIC.put(MArithmetic.SUBTRACT_SMALLINT, subtract);
+        ARITHMETIC.put(MArithmetic.SUBTRACT_MEDIUMINT, subtract);
+        ARITHMETIC.put(MArithmetic.SUBTRACT_INT, subtract);
+        ARITHMETIC.put(MArithmetic.SUBTRACT_BIGINT, subtract);
+        ARITHMETIC.put(MArithmetic.SUBSTRACT_DOUBLE, subtract);
+        ARITHMETIC.put(MArithmetic.SUBSTRACT_DOUBLE_P2, subtract);
+        ARITHMETIC.put(MArithmetic.MULTIPLY_TINYINT, multiply);
+        ARITHMETIC.put(MArithmetic.MULTIPLY_SMALLINT, multiply);
+        ARITHMETIC.put(MArithmetic.MULTIPLY_MEDIUMINT, multiply);
+        ARITHMETIC.put(MArithmetic.MULTIPLY_INT, multiply);
+        ARITHMETIC.put(MArithmetic.MULTIPLY_BIGINT, multiply);
+        ARITHMETIC.put(MArithmetic.MULTIPLY_DOUBLE, new Arithmetic(Opcodes.IMUL, false, true));
+        ARITHMETIC.put(MArithmetic.DIVIDE_TINYINT, divide);
+        ARITHMETIC.put(MArithmetic.DIVIDE_SMALLINT, divide);
+        ARITHMETIC.put(MArithmetic.DIVIDE_INT, divide);
+        ARITHMETIC.put(MArithmetic.DIVIDE_BIGINT, divide);
+        ARITHMETIC.put(MArithmetic.DIVIDE_DOUBLE, divide);
+        ARITHMETIC.put(MArithmetic.DIVIDE_DOUBLE_P2, divide);
+    }
+
+    static NumericKind numericKind(TPreparedExpression expression) {
+        Type resultType = primitiveType(expression.resultType());
+        if (resultType == null)
+            return null;
+        if (expression instanceof TPreparedFunction) {
+            TPreparedFunction function = (TPreparedFunction)expression;
+            SparseArray<Object> preptimeValues = function.getPreptimeValues();
+            if ((preptimeValues != null) && !preptimeValues.isEmpty())
+                return null;
+            if (!ARITHMETIC.containsKey(function.getOverload().getUnderlying()) ||
+                (function.getInputs().size() != 2))
+                return null;
+            for (TPreparedExpression input : function.getInputs()) {
+                if (!widens(primitiveType(input.resultType()), resultType))
+                    return null;
+            }
+            return NumericKind.ARITHMETIC;
+        }
+        if (expression instanceof TCastExpression) {
+            TCastExpression cast = (TCastExpression)expression;
+            if (MNumericCastBase.isPrimitiveConversion(cast.getCast()) &&
+                widens(primitiveType(cast.getInput().resultType()), resultType))
+                return NumericKind.CAST;
+        }
+        return null;
+    }
+
+    /** Does every value of <code>from</code> convert to <code>to</code> by JVM widening? */
+    static boolean widens(Type from, Type to) {
+        if (from == null)
+            return false;
+        if (from.equals(to))
+            return true;
+        if (to.getSort() == Type.CHAR)
+            return false;
+        if (from.getSort() == Type.CHAR)
+            return (widening(to) > widening(Type.SHORT_TYPE));
+        return (widening(from) <= widening(to));
+    }
+
+    /** Position in the order of JVM widening conversions. */
+    private static int widening(Type type) {
+        switch (type.getSort()) {
+        case Type.BYTE:
+            return 1;
+        case Type.SHORT:
+        case Type.CHAR:
+            return 2;
+        case Type.INT:
+            return 3;
+        case Type.LONG:
+            return 4;
+        case Type.FLOAT:
+            return 5;
+        case Type.DOUBLE:
+            return 6;
+        default:
+            return 0;
+        }
+    }
+
+    /** The JVM type for values of <code>type</code>, if it is one of those compiled. */
+    static Type primitiveType(TInstance type) {
+        switch (TInstance.underlyingType(type)) {
+        case INT_8:
+            return Type.BYTE_TYPE;
+        case INT_16:
+            return Type.SHORT_TYPE;
+        case UINT_16:
+            return Type.CHAR_TYPE;
+        case INT_32:
+            return Type.INT_TYPE;
+        case INT_64:
+            return Type.LONG_TYPE;
+        case FLOAT:
+            return Type.FLOAT_TYPE;
+        case DOUBLE:
+            return Type.DOUBLE_TYPE;
+        default:
+            return null;
+        }
+    }
+
+    /** Does <code>tClass</code> compare with the default {@link TClass#compare}? */
+    static boolean comparesNatively(TClass tClass) {
+        for (Class<?> c = tClass.getClass(); c != TClass.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("doCompare",
+                                    TInstance.class, ValueSource.class, TInstance.class, ValueSource.class);
+                return false;
+            }
+            catch (NoSuchMethodException ex) {
+            }
+        }
+        return true;
+    }
+
+    static class Generator implements Opcodes {
+        private static final String BASE = Type.getInternalName(TCompiledEvaluation.class);
+        private static final String ROW = Type.getInternalName(Row.class);
+        private static final String VALUE = Type.getInternalName(Value.class);
+        private static final String VALUE_SOURCE = Type.getInternalName(ValueSource.class);
+        private static final String EVALUATABLE = Type.getInternalName(TEvaluatableExpression.class);
+        private static final String INIT_DESC =
+            Type.getMethodDescriptor(Type.VOID_TYPE,
+                                     Type.getType(TEvaluatableExpression[].class),
+                                     Type.getType(TInstance.class));
+
+        private final String className;
+        private final List<TPreparedExpression> fallbacks = new ArrayList<>();
+        private MethodVisitor mv;
+        private int nextLocal;
+
+        Generator(String className) {
+            this.className = className;
+        }
+
+        public Constructor<? extends TCompiledEvaluation> generate(TPreparedExpression expression)
+                throws ReflectiveOperationException {
+            ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS) {
+                    @Override
+                    protected String getCommonSuperClass(String type1, String type2) {
+                        // Only ever merging interfaces and arrays.
+                        return "java/lang/Object";
+                    }
+                };
+            cw.visit(V1_7, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, className, null, BASE, null);
+
+            mv = cw.visitMethod(ACC_PUBLIC, "<init>", INIT_DESC, null, null);
+            mv.visitCode();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitVarInsn(ALOAD, 2);
+            mv.visitMethodInsn(INVOKESPECIAL, BASE, "<init>", INIT_DESC, false);
+            mv.visitInsn(RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+
+            mv = cw.visitMethod(ACC_PUBLIC, "evaluate", "()V", null, null);
+            mv.visitCode();
+            nextLocal = 1;
+            Label ifNull = new Label();
+            if (booleanKind(expression) != null) {
+                Label ifTrue = new Label(), ifFalse = new Label();
+                booleanCode(expression, ifTrue, ifFalse, ifNull);
+                mv.visitLabel(ifTrue);
+                putResult(true);
+                mv.visitLabel(ifFalse);
+                putResult(false);
+            }
+            else {
+                int local = numericCode(expression, ifNull);
+                if (local >= 0)
+                    putResult(expression.resultType(), local);
+            }
+            mv.visitLabel(ifNull);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, BASE, "value", "L" + VALUE + ";");
+            mv.visitMethodInsn(INVOKEVIRTUAL, VALUE, "putNull", "()V", false);
+            mv.visitInsn(RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+
+            cw.visitEnd();
+            Class<? extends TCompiledEvaluation> clazz =
+                new Loader(TCompiledEvaluation.class.getClassLoader())
+                .define(className.replace('/', '.'), cw.toByteArray())
+                .asSubclass(TCompiledEvaluation.class);
+            return clazz.getConstructor(TEvaluatableExpression[].class, TInstance.class);
+        }
+
+        private void putResult(boolean result) {
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, BASE, "value", "L" + VALUE + ";");
+            mv.visitInsn(result ? ICONST_1 : ICONST_0);
+            mv.visitMethodInsn(INVOKEVIRTUAL, VALUE, "putBool", "(Z)V", false);
+            mv.visitInsn(RETURN);
+        }
+
+        private void putResult(TInstance resultType, int local) {
+            Type type = primitiveType(resultType);
+            String putter;
+            switch (TInstance.underlyingType(resultType)) {
+            case INT_8:
+                putter = "putInt8";
+                break;
+            case INT_16:
+                putter = "putInt16";
+                break;
+            case UINT_16:
+                putter = "putUInt16";
+                break;
+            case INT_32:
+                putter = "putInt32";
+                break;
+            case INT_64:
+                putter = "putInt64";
+                break;
+            case FLOAT:
+                putter = "putFloat";
+                break;
+            case DOUBLE:
+                putter = "putDouble";
+                break;
+            default:
+                throw new AkibanInternalException("Not a primitive result: " + resultType);
+            }
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, BASE, "value", "L" + VALUE + ";");
+            mv.visitVarInsn(type.getOpcode(ILOAD), local);
+            mv.visitMethodInsn(INVOKEVIRTUAL, VALUE, putter,
+                               Type.getMethodDescriptor(Type.VOID_TYPE, type), false);
+            mv.visitInsn(RETURN);
+        }
+
+        /** Jump to one of the labels according to the value of <code>expression</code>. */
+        private void booleanCode(TPreparedExpression expression,
+                                 Label ifTrue, Label ifFalse, Label ifNull) {
+            BooleanKind kind = booleanKind(expression);
+            if (kind == null) {
+                if (expression instanceof TPreparedLiteral) {
+                    ValueSource value = expression.evaluateConstant(null).value();
+                    if (value.isNull())
+                        mv.visitJumpInsn(GOTO, ifNull);
+                    else
+                        mv.visitJumpInsn(GOTO, value.getBoolean() ? ifTrue : ifFalse);
+                    return;
+                }
+                int source = sourceCode(expression, true);
+                mv.visitVarInsn(ALOAD, source);
+                mv.visitMethodInsn(INVOKEINTERFACE, VALUE_SOURCE, "isNull", "()Z", true);
+                mv.visitJumpInsn(IFNE, ifNull);
+                mv.visitVarInsn(ALOAD, source);
+                mv.visitMethodInsn(INVOKEINTERFACE, VALUE_SOURCE, "getBoolean", "()Z", true);
+                mv.visitJumpInsn(IFNE, ifTrue);
+                mv.visitJumpInsn(GOTO, ifFalse);
+                return;
+            }
+            switch (kind) {
+            case COMPARE:
+                compareCode((TComparisonExpression)expression, ifTrue, ifFalse, ifNull);
+                break;
+            case AND:
+            case OR:
+                {
+                    // Three-valued: the second operand decides unless it is
+                    // NULL or the first was, which is remembered in a flag.
+                    List<? extends TPreparedExpression> inputs = ((TPreparedFunction)expression).getInputs();
+                    boolean and = (kind == BooleanKind.AND);
+                    int firstNull = nextLocal++;
+                    Label second = new Label(), firstNullLabel = new Label();
+                    Label undecided = new Label(), evaluateSecond = new Label();
+                    if (and)
+                        booleanCode(inputs.get(0), second, ifFalse, firstNullLabel);
+                    else
+                        booleanCode(inputs.get(0), ifTrue, second, firstNullLabel);
+                    mv.visitLabel(firstNullLabel);
+                    mv.visitInsn(ICONST_1);
+                    mv.visitVarInsn(ISTORE, firstNull);
+                    mv.visitJumpInsn(GOTO, evaluateSecond);
+                    mv.visitLabel(second);
+                    mv.visitInsn(ICONST_0);
+                    mv.visitVarInsn(ISTORE, firstNull);
+                    mv.visitLabel(evaluateSecond);
+                    if (and)
+                        booleanCode(inputs.get(1), undecided, ifFalse, ifNull);
+                    else
+                        booleanCode(inputs.get(1), ifTrue, undecided, ifNull);
+                    mv.visitLabel(undecided);
+                    mv.visitVarInsn(ILOAD, firstNull);
+                    mv.visitJumpInsn(IFNE, ifNull);
+                    mv.visitJumpInsn(GOTO, and ? ifTrue : ifFalse);
+                }
+                break;
+            case NOT:
+                booleanCode(((TPreparedFunction)expression).getInputs().get(0),
+                            ifFalse, ifTrue, ifNull);
+                break;
+            }
+        }
+
+        private void compareCode(TComparisonExpression expression,
+                                 Label ifTrue, Label ifFalse, Label ifNull) {
+            TPreparedExpression left = expression.getLeft();
+            TPreparedExpression right = expression.getRight();
+            Type type = primitiveType(left.resultType());
+            int leftLocal = numericCode(left, ifNull);
+            if (leftLocal < 0)
+                return;
+            int rightLocal = numericCode(right, ifNull);
+            if (rightLocal < 0)
+                return;
+            // Same as TClass.doCompare, including the int subtraction.
+            switch (type.getSort()) {
+            case Type.LONG:
+                mv.visitVarInsn(LLOAD, leftLocal);
+                mv.visitVarInsn(LLOAD, rightLocal);
+                mv.visitInsn(LCMP);
+                break;
+            case Type.FLOAT:
+                mv.visitVarInsn(FLOAD, leftLocal);
+                mv.visitVarInsn(FLOAD, rightLocal);
+                mv.visitMethodInsn(INVOKESTATIC, "java/lang/Float", "compare", "(FF)I", false);
+                break;
+            case Type.DOUBLE:
+                mv.visitVarInsn(DLOAD, leftLocal);
+                mv.visitVarInsn(DLOAD, rightLocal);
+                mv.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "compare", "(DD)I", false);
+                break;
+            default:
+                mv.visitVarInsn(ILOAD, leftLocal);
+                mv.visitVarInsn(ILOAD, rightLocal);
+                mv.visitInsn(ISUB);
+                break;
+            }
+            int opcode;
+            switch (expression.getComparison()) {
+            case EQ:
+                opcode = IFEQ;
+                break;
+            case NE:
+                opcode = IFNE;
+                break;
+            case LT:
+                opcode = IFLT;
+                break;
+            case LE:
+                opcode = IFLE;
+                break;
+            case GT:
+                opcode = IFGT;
+                break;
+            case GE:
+                opcode = IFGE;
+                break;
+            default:
+                throw new AkibanInternalException("Unknown comparison: " + expression.getComparison());
+            }
+            mv.visitJumpInsn(opcode, ifTrue);
+            mv.visitJumpInsn(GOTO, ifFalse);
+        }
+
+        /** Store the value of <code>expression</code> in a new local
+         * of its primitive type, or jump to <code>ifNull</code>. Returns
+         * -1 if it is always <code>NULL</code>, in which case there is
+         * nothing more to do.
+         */
+        private int numericCode(TPreparedExpression expression, Label ifNull) {
+            Type type = primitiveType(expression.resultType());
+            NumericKind kind = numericKind(expression);
+            if (kind == NumericKind.ARITHMETIC) {
+                return arithmeticCode((TPreparedFunction)expression, type, ifNull);
+            }
+            else if (kind == NumericKind.CAST) {
+                TPreparedExpression input = ((TCastExpression)expression).getInput();
+                int inputLocal = numericCode(input, ifNull);
+                if (inputLocal < 0)
+                    return -1;
+                loadWidened(inputLocal, primitiveType(input.resultType()), type);
+            }
+            else if (expression instanceof TPreparedLiteral) {
+                ValueSource value = expression.evaluateConstant(null).value();
+                if (value.isNull()) {
+                    mv.visitJumpInsn(GOTO, ifNull);
+                    return -1;
+                }
+                switch (TInstance.underlyingType(expression.resultType())) {
+                case INT_8:
+                    mv.visitLdcInsn((int)value.getInt8());
+                    break;
+                case INT_16:
+                    mv.visitLdcInsn((int)value.getInt16());
+                    break;
+                case UINT_16:
+                    mv.visitLdcInsn((int)value.getUInt16());
+                    break;
+                case INT_32:
+                    mv.visitLdcInsn(value.getInt32());
+                    break;
+                case INT_64:
+                    mv.visitLdcInsn(value.getInt64());
+                    break;
+                case FLOAT:
+                    mv.visitLdcInsn(value.getFloat());
+                    break;
+                case DOUBLE:
+                    mv.visitLdcInsn(value.getDouble());
+                    break;
+                default:
+                    throw new AkibanInternalException("Not a primitive literal: " + expression);
+                }
+            }
+            else {
+                int source = sourceCode(expression, false);
+                mv.visitVarInsn(ALOAD, source);
+                mv.visitMethodInsn(INVOKEINTERFACE, VALUE_SOURCE, "isNull", "()Z", true);
+                mv.visitJumpInsn(IFNE, ifNull);
+                mv.visitVarInsn(ALOAD, source);
+                String getter;
+                switch (TInstance.underlyingType(expression.resultType())) {
+                case INT_8:
+                    getter = "getInt8";
+                    break;
+                case INT_16:
+                    getter = "getInt16";
+                    break;
+                case UINT_16:
+                    getter = "getUInt16";
+                    break;
+                case INT_32:
+                    getter = "getInt32";
+                    break;
+                case INT_64:
+                    getter = "getInt64";
+                    break;
+                case FLOAT:
+                    getter = "getFloat";
+                    break;
+                case DOUBLE:
+                    getter = "getDouble";
+                    break;
+                default:
+                    throw new AkibanInternalException("Not a primitive value: " + expression);
+                }
+                mv.visitMethodInsn(INVOKEINTERFACE, VALUE_SOURCE, getter,
+                                   Type.getMethodDescriptor(type), true);
+            }
+            return storeLocal(type);
+        }
+
+        /** Same <code>NULL</code> handling as {@link TScalarBase#evaluate}:
+         * any <code>NULL</code> operand makes the result <code>NULL</code>.
+         */
+        private int arithmeticCode(TPreparedFunction function, Type type, Label ifNull) {
+            Arithmetic arithmetic = ARITHMETIC.get(function.getOverload().getUnderlying());
+            TPreparedExpression left = function.getInputs().get(0);
+            TPreparedExpression right = function.getInputs().get(1);
+            int leftLocal = numericCode(left, ifNull);
+            if (leftLocal < 0)
+                return -1;
+            int rightLocal = numericCode(right, ifNull);
+            if (rightLocal < 0)
+                return -1;
+            Type rightType = primitiveType(right.resultType());
+            if (arithmetic.nullIfZeroDivisor) {
+                // Tested before widening, as doEvaluate does.
+                mv.visitVarInsn(rightType.getOpcode(ILOAD), rightLocal);
+                switch (rightType.getSort()) {
+                case Type.LONG:
+                    mv.visitInsn(LCONST_0);
+                    mv.visitInsn(LCMP);
+                    break;
+                case Type.FLOAT:
+                    mv.visitInsn(FCONST_0);
+                    mv.visitMethodInsn(INVOKESTATIC, "java/lang/Float", "compare", "(FF)I", false);
+                    break;
+                case Type.DOUBLE:
+                    mv.visitInsn(DCONST_0);
+                    mv.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "compare", "(DD)I", false);
+                    break;
+                default:
+                    break;
+                }
+                mv.visitJumpInsn(IFEQ, ifNull);
+            }
+            loadWidened(leftLocal, primitiveType(left.resultType()), type);
+            loadWidened(rightLocal, rightType, type);
+            mv.visitInsn(type.getOpcode(arithmetic.opcode));
+            int local = storeLocal(type);
+            if (arithmetic.nullIfNotFinite) {
+                mv.visitVarInsn(DLOAD, local);
+                mv.visitMethodInsn(INVOKESTATIC, "com/google/common/primitives/Doubles", "isFinite", "(D)Z", false);
+                mv.visitJumpInsn(IFEQ, ifNull);
+            }
+            return local;
+        }
+
+        /** Push a local of type <code>from</code> as a <code>to</code>. */
+        private void loadWidened(int local, Type from, Type to) {
+            mv.visitVarInsn(from.getOpcode(ILOAD), local);
+            int fromSort = (from.getOpcode(ILOAD) == ILOAD) ? Type.INT : from.getSort();
+            int toSort = (to.getOpcode(ILOAD) == ILOAD) ? Type.INT : to.getSort();
+            if (fromSort == toSort)
+                return;
+            switch (fromSort) {
+            case Type.INT:
+                mv.visitInsn((toSort == Type.LONG) ? I2L : (toSort == Type.FLOAT) ? I2F : I2D);
+                break;
+            case Type.LONG:
+                mv.visitInsn((toSort == Type.FLOAT) ? L2F : L2D);
+                break;
+            case Type.FLOAT:
+                mv.visitInsn(F2D);
+                break;
+            default:
+                throw new AkibanInternalException("Cannot widen " + from + " to " + to);
+            }
+        }
+
+        private int storeLocal(Type type) {
+            int local = nextLocal;
+            nextLocal += type.getSize();
+            mv.visitVarInsn(type.getOpcode(ISTORE), local);
+            return local;
+        }
+
+        /** Store a <code>ValueSource</code> for <code>expression</code> in a new local.
+         * A field is read directly from the row; anything else is
+         * evaluated by the interpreter.
+         */
+        private int sourceCode(TPreparedExpression expression, boolean isBoolean) {
+            boolean direct = false;
+            if (expression instanceof TPreparedField) {
+                if (isBoolean)
+                    direct = (TInstance.underlyingType(expression.resultType()) == UnderlyingType.BOOL);
+                else
+                    direct = (primitiveType(expression.resultType()) != null);
+            }
+            if (direct) {
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitFieldInsn(GETFIELD, BASE, "row", "L" + ROW + ";");
+                mv.visitLdcInsn(((TPreparedField)expression).getFieldIndex());
+                mv.visitMethodInsn(INVOKEINTERFACE, ROW, "value",
+                                   "(I)L" + VALUE_SOURCE + ";", true);
+            }
+            else {
+                int index = fallbacks.size();
+                fallbacks.add(expression);
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitFieldInsn(GETFIELD, BASE, "inputs", "[L" + EVALUATABLE + ";");
+                mv.visitLdcInsn(index);
+                mv.visitInsn(AALOAD);
+                mv.visitInsn(DUP);
+                mv.visitMethodInsn(INVOKEINTERFACE, EVALUATABLE, "evaluate", "()V", true);
+                mv.visitMethodInsn(INVOKEINTERFACE, EVALUATABLE, "resultValue",
+                                   "()L" + VALUE_SOURCE + ";", true);
+            }
+            int local = nextLocal++;
+            mv.visitVarInsn(ASTORE, local);
+            return local;
+        }
+    }
+
+    static class Loader extends ClassLoader {
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        public Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /** Interpreted everywhere but {@link #build}. */
+    static class CompiledExpression implements TPreparedExpression {
+        private final TPreparedExpression expression;
+        private final List<TPreparedExpression> fallbacks;
+        private final Constructor<? extends TCompiledEvaluation> constructor;
+
+        CompiledExpression(TPreparedExpression expression,
+                           List<TPreparedExpression> fallbacks,
+                           Constructor<? extends TCompiledEvaluation> constructor) {
+            this.expression = expression;
+            this.fallbacks = fallbacks;
+            this.constructor = constructor;
+        }
+
+        @Override
+        public TPreptimeValue evaluateConstant(QueryContext queryContext) {
+            return expression.evaluateConstant(queryContext);
+        }
+
+        @Override
+        public TInstance resultType() {
+            return expression.resultType();
+        }
+
+        @Override
+        public TEvaluatableExpression build() {
+            TEvaluatableExpression[] inputs = new TEvaluatableExpression[fallbacks.size()];
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i] = fallbacks.get(i).build();
+            }
+            try {
+                return constructor.newInstance(inputs, resultType());
+            }
+            catch (ReflectiveOperationException ex) {
+                throw new AkibanInternalException("Could not create compiled evaluation", ex);
+            }
+        }
+
+        @Override
+        public CompoundExplainer getExplainer(ExplainContext context) {
+            return expression.getExplainer(context);
+        }
+
+        @Override
+        public String toString() {
+            return expression.toString();
+        }
+    }
+}
@@ -17,6 +17,8 @@
 package com.foundationdb.server.types.texpressions;
 
 import com.foundationdb.qp.operator.QueryContext;
+import com.foundationdb.server.collation.AkCollator;
+import com.foundationdb.server.collation.AkCollatorFactory;
 import com.foundationdb.server.types.LazyList;
 import com.foundationdb.server.types.TClass;
 import com.foundationdb.server.types.TComparison;
@@ -25,6 +27,9 @@ import com.foundationdb.server.types.TInstance;
 import com.foundationdb.server.types.TKeyComparable;
 import com.foundationdb.server.types.TOverloadResult;
 import com.foundationdb.server.types.aksql.aktypes.AkBool;
+import com.foundationdb.server.types.common.types.StringAttribute;
+import com.foundationdb.server.types.common.types.TString;
+import com.foundationdb.server.types.value.UnderlyingType;
 import com.foundationdb.server.types.value.ValueSource;
 import com.foundationdb.server.types.value.ValueTarget;
 
@@ -33,6 +38,11 @@ import java.util.List;
 
 public final class TInExpression {
 
+    /** Lists at least this long whose values do not change during
+     * execution are probed as a set instead of one at a time.
+     */
+    public static final int MIN_SET_SIZE = 8;
+
     public static TPreparedExpression prepare(TPreparedExpression lhs, List<? extends TPreparedExpression> rhs,
                                               QueryContext queryContext) {
         return prepare(lhs, rhs, null, null, queryContext);
@@ -53,11 +63,11 @@ public final class TInExpression {
             nullable |= r.resultType().nullability();
         }
         TValidatedScalar overload;        
+        boolean reverse = false;
         if (comparable == null)
             overload = noKey;
         else {
             TInstance lhsInstance = lhs.resultType();
-            boolean reverse;
             TClass leftIn = lhsInstance.typeClass();
             TClass rightIn = rhsInstance.typeClass();
             TClass leftCmp = comparable.getLeftTClass();
@@ -75,7 +85,79 @@ public final class TInExpression {
                                             new InKeyReversedScalar(comparable.getComparison()) :
                                             new InKeyScalar(comparable.getComparison()));
         }
-        return new TPreparedFunction(overload, AkBool.INSTANCE.instance(nullable), all);
+        TPreparedFunction function = new TPreparedFunction(overload, AkBool.INSTANCE.instance(nullable), all);
+        if ((rhs.size() < MIN_SET_SIZE) || !allUnchanging(rhs))
+            return function;
+        if (comparable == null) {
+            TInstance lhsInstance = lhs.resultType();
+            TClass tClass = lhsInstance.typeClass();
+            for (TPreparedExpression r : rhs) {
+                if (r.resultType().typeClass() != tClass)
+                    return function;
+            }
+            switch (tClass.underlyingType()) {
+            case BOOL:
+            case INT_8:
+            case INT_16:
+            case UINT_16:
+            case INT_32:
+            case INT_64:
+                return new TInSetExpression(function, lhs, rhs,
+                                            TInSetExpression.Probe.HASH, null, false, null);
+            case STRING:
+                {
+                    // Hashing needs the same collation for every comparison.
+                    AkCollator collator = null;
+                    for (int i = 0; i < rhs.size(); i++) {
+                        AkCollator rcollator = TString.mergeAkCollators(StringAttribute.characterTypeAttributes(lhsInstance),
+                                                                        StringAttribute.characterTypeAttributes(rhs.get(i).resultType()));
+                        if (i == 0)
+                            collator = rcollator;
+                        else if (!sameCollator(collator, rcollator))
+                            return function;
+                    }
+                    if (collator == null)
+                        collator = AkCollatorFactory.UCS_BINARY_COLLATOR;
+                    return new TInSetExpression(function, lhs, rhs,
+                                                TInSetExpression.Probe.HASH, null, false, collator);
+                }
+            default:
+                return new TInSetExpression(function, lhs, rhs,
+                                            TInSetExpression.Probe.SORTED, null, false, null);
+            }
+        }
+        else {
+            TClass tClass = rhsInstance.typeClass();
+            if (tClass.underlyingType() == UnderlyingType.STRING)
+                return function;
+            for (TPreparedExpression r : rhs) {
+                if (r.resultType().typeClass() != tClass)
+                    return function;
+            }
+            return new TInSetExpression(function, lhs, rhs,
+                                        TInSetExpression.Probe.SORTED, comparable.getComparison(), reverse, null);
+        }
+    }
+
+    /** Does the value of each expression stay the same for a whole execution? */
+    protected static boolean allUnchanging(List<? extends TPreparedExpression> expressions) {
+        for (TPreparedExpression expression : expressions) {
+            while (expression instanceof TCastExpression) {
+                expression = ((TCastExpression)expression).getInput();
+            }
+            if (!((expression instanceof TPreparedLiteral) ||
+                  (expression instanceof TPreparedParameter)))
+                return false;
+        }
+        return true;
+    }
+
+    protected static boolean sameCollator(AkCollator c1, AkCollator c2) {
+        if (c1 == c2)
+            return true;
+        if ((c1 == null) || (c2 == null))
+            return false;
+        return c1.getScheme().equals(c2.getScheme());
     }
     
     static abstract class InScalarBase extends TScalarBase {
@@ -0,0 +1,279 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.foundationdb.server.types.texpressions;
+
+import com.foundationdb.qp.operator.QueryBindings;
+import com.foundationdb.qp.operator.QueryContext;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.server.collation.AkCollator;
+import com.foundationdb.server.explain.CompoundExplainer;
+import com.foundationdb.server.explain.ExplainContext;
+import com.foundationdb.server.types.TClass;
+import com.foundationdb.server.types.TComparison;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.TPreptimeValue;
+import com.foundationdb.server.types.value.Value;
+import com.foundationdb.server.types.value.ValueSource;
+import com.foundationdb.server.types.value.ValueSources;
+import com.foundationdb.server.types.value.ValueTargets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <code>IN</code> against a list whose values do not change during
+ * execution, such as literals and parameters. The values are
+ * gathered once into a hash table or sorted array, which each row
+ * then probes, instead of comparing with every one in turn.
+ *
+ * Everything but building the evaluation is left to the ordinary
+ * prepared function, so that constant folding and explain are the
+ * same either way.
+ */
+final class TInSetExpression implements TPreparedExpression {
+
+    enum Probe { HASH, SORTED }
+
+    @Override
+    public TPreptimeValue evaluateConstant(QueryContext queryContext) {
+        return function.evaluateConstant(queryContext);
+    }
+
+    @Override
+    public TInstance resultType() {
+        return function.resultType();
+    }
+
+    @Override
+    public TEvaluatableExpression build() {
+        List<TEvaluatableExpression> rhsEvals = new ArrayList<>(rhs.size());
+        for (TPreparedExpression r : rhs)
+            rhsEvals.add(r.build());
+        return new InSetEvaluation(lhs.build(), rhsEvals, resultType(),
+                                   probe, comparison, reverse, collator);
+    }
+
+    @Override
+    public CompoundExplainer getExplainer(ExplainContext context) {
+        return function.getExplainer(context);
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+
+    TInSetExpression(TPreparedFunction function,
+                     TPreparedExpression lhs, List<? extends TPreparedExpression> rhs,
+                     Probe probe, TComparison comparison, boolean reverse,
+                     AkCollator collator) {
+        this.function = function;
+        this.lhs = lhs;
+        this.rhs = rhs;
+        this.probe = probe;
+        this.comparison = comparison;
+        this.reverse = reverse;
+        this.collator = collator;
+    }
+
+    private final TPreparedFunction function;
+    private final TPreparedExpression lhs;
+    private final List<? extends TPreparedExpression> rhs;
+    private final Probe probe;
+    private final TComparison comparison;
+    private final boolean reverse;
+    private final AkCollator collator;
+
+    private static final class InSetEvaluation implements TEvaluatableExpression {
+
+        @Override
+        public ValueSource resultValue() {
+            return resultValue;
+        }
+
+        @Override
+        public void evaluate() {
+            if (values == null)
+                buildValues();
+            lhs.evaluate();
+            ValueSource lhsSource = lhs.resultValue();
+            if (lhsSource.isNull()) {
+                resultValue.putNull();
+                return;
+            }
+            boolean found;
+            if (probe == Probe.HASH)
+                found = hashContains(lhsSource);
+            else
+                found = sortedContains(lhsSource);
+            resultValue.putBool(found);
+        }
+
+        @Override
+        public void with(Row row) {
+            lhs.with(row);
+        }
+
+        @Override
+        public void with(QueryContext context) {
+            lhs.with(context);
+            if (context != this.context) {
+                this.context = context;
+                for (TEvaluatableExpression r : rhs)
+                    r.with(context);
+                values = null;
+            }
+        }
+
+        @Override
+        public void with(QueryBindings bindings) {
+            lhs.with(bindings);
+            if (bindings != this.bindings) {
+                this.bindings = bindings;
+                for (TEvaluatableExpression r : rhs)
+                    r.with(bindings);
+                values = null;
+            }
+        }
+
+        private void buildValues() {
+            // NULL in the list never compares equal, just as with
+            // the one at a time comparison.
+            List<Value> list = new ArrayList<>(rhs.size());
+            for (TEvaluatableExpression r : rhs) {
+                r.evaluate();
+                ValueSource source = r.resultValue();
+                if (source.isNull())
+                    continue;
+                Value copy = new Value(source.getType());
+                ValueTargets.copyFrom(source, copy);
+                list.add(copy);
+            }
+            if (probe == Probe.HASH) {
+                int capacity = 2;
+                while (capacity < list.size() * 2)
+                    capacity *= 2;
+                values = new Value[capacity];
+                hashes = new int[capacity];
+                for (Value value : list) {
+                    int hash = hash(value);
+                    if (!hashContains(value, hash))
+                        hashInsert(value, hash);
+                }
+            }
+            else {
+                values = list.toArray(new Value[list.size()]);
+                Arrays.sort(values, SORT_ORDER);
+            }
+        }
+
+        private boolean hashContains(ValueSource source) {
+            return hashContains(source, hash(source));
+        }
+
+        // Value hashes of small integers are the integers themselves, so
+        // spread them with MurmurHash3's fmix32 before masking off the
+        // low bits; otherwise sequential or strided keys cluster.
+        private int hash(ValueSource source) {
+            int h = ValueSources.hash(source, collator);
+            h ^= (h >>> 16);
+            h *= 0x85ebca6b;
+            h ^= (h >>> 13);
+            h *= 0xc2b2ae35;
+            h ^= (h >>> 16);
+            return h;
+        }
+
+        private boolean hashContains(ValueSource source, int hash) {
+            int mask = values.length - 1;
+            for (int i = hash & mask; values[i] != null; i = (i + 1) & mask) {
+                if ((hashes[i] == hash) && (compare(source, values[i]) == 0))
+                    return true;
+            }
+            return false;
+        }
+
+        private void hashInsert(Value value, int hash) {
+            int mask = values.length - 1;
+            int i = hash & mask;
+            while (values[i] != null)
+                i = (i + 1) & mask;
+            values[i] = value;
+            hashes[i] = hash;
+        }
+
+        private boolean sortedContains(ValueSource source) {
+            int low = 0, high = values.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(source, values[mid]);
+                if (cmp > 0)
+                    low = mid + 1;
+                else if (cmp < 0)
+                    high = mid - 1;
+                else
+                    return true;
+            }
+            return false;
+        }
+
+        private int compare(ValueSource lhsSource, ValueSource rhsSource) {
+            TInstance lhsInstance = lhsSource.getType();
+            TInstance rhsInstance = rhsSource.getType();
+            if (comparison == null)
+                return TClass.compare(lhsInstance, lhsSource, rhsInstance, rhsSource);
+            else if (reverse)
+                return -comparison.compare(rhsInstance, rhsSource, lhsInstance, lhsSource);
+            else
+                return comparison.compare(lhsInstance, lhsSource, rhsInstance, rhsSource);
+        }
+
+        private InSetEvaluation(TEvaluatableExpression lhs, List<TEvaluatableExpression> rhs,
+                                TInstance resultType,
+                                Probe probe, TComparison comparison, boolean reverse,
+                                AkCollator collator) {
+            this.lhs = lhs;
+            this.rhs = rhs;
+            this.resultValue = new Value(resultType);
+            this.probe = probe;
+            this.comparison = comparison;
+            this.reverse = reverse;
+            this.collator = collator;
+        }
+
+        private final TEvaluatableExpression lhs;
+        private final List<TEvaluatableExpression> rhs;
+        private final Value resultValue;
+        private final Probe probe;
+        private final TComparison comparison;
+        private final boolean reverse;
+        private final AkCollator collator;
+        private QueryContext context;
+        private QueryBindings bindings;
+        private Value[] values;
+        private int[] hashes;
+    }
+
+    private static final Comparator<ValueSource> SORT_ORDER = new Comparator<ValueSource>() {
+        @Override
+        public int compare(ValueSource v1, ValueSource v2) {
+            return TClass.compare(v1, v2);
+        }
+    };
+}
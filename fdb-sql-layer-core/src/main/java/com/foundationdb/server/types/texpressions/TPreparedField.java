@@ -64,6 +64,10 @@ public final class TPreparedField implements TPreparedExpression {
         this.fieldIndex = fieldIndex;
     }
 
+    public int getFieldIndex() {
+        return fieldIndex;
+    }
+
     private final TInstance typeInstance;
     private final int fieldIndex;
     
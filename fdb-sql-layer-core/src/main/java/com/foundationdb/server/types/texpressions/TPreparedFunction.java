@@ -110,6 +110,18 @@ public final class TPreparedFunction implements TPreparedExpression {
         this.preptimeValues = preptimeValues;
     }
 
+    public TValidatedScalar getOverload() {
+        return overload;
+    }
+
+    public List<? extends TPreparedExpression> getInputs() {
+        return inputs;
+    }
+
+    public SparseArray<Object> getPreptimeValues() {
+        return preptimeValues;
+    }
+
     private final TValidatedScalar overload;
     private final TInstance resultType;
     private final List<TInstance> inputTypes;
@@ -52,6 +52,7 @@ import com.foundationdb.server.types.texpressions.ExistsSubqueryTExpression;
 import com.foundationdb.server.types.texpressions.ResultSetSubqueryTExpression;
 import com.foundationdb.server.types.texpressions.ScalarSubqueryTExpression;
 import com.foundationdb.server.types.texpressions.TCastExpression;
+import com.foundationdb.server.types.texpressions.TExpressionCompiler;
 import com.foundationdb.server.types.texpressions.TNullExpression;
 import com.foundationdb.server.types.texpressions.TPreparedExpression;
 import com.foundationdb.server.types.texpressions.TPreparedField;
@@ -68,6 +69,7 @@ import com.foundationdb.qp.row.BindableRow;
 import com.foundationdb.qp.row.Row;
 import com.foundationdb.qp.row.ValuesHolderRow;
 import com.foundationdb.qp.rowtype.*;
+import com.foundationdb.qp.util.LongKeyHashTable;
 import com.foundationdb.qp.expression.IndexBound;
 import com.foundationdb.qp.expression.IndexKeyRange;
 import com.foundationdb.qp.expression.RowBasedUnboundExpressions;
@@ -94,6 +96,7 @@ public class OperatorAssembler extends BaseRule
     public static final int CREATE_AS_BINDING_POSITION = 2;
 
     public static final int INSERTION_SORT_MAX_LIMIT = 100;
+    public static final int TOPN_SORT_MAX_LIMIT = 50000;
 
     public OperatorAssembler() {
     }
@@ -116,6 +119,7 @@ public class OperatorAssembler extends BaseRule
         private final Schema schema;
         private final ExpressionAssembler expressionAssembler;
         private final Set<Table> affectedTables;
+        private final boolean compileExpressions;
 
         public Assembler(PlanContext planContext) {
             this.planContext = planContext;
@@ -127,6 +131,7 @@ public class OperatorAssembler extends BaseRule
                 explainContext = null;
             schema = rulesContext.getSchema();
             expressionAssembler = new ExpressionAssembler(planContext);
+            compileExpressions = Boolean.parseBoolean(rulesContext.getProperty("compileExpressions", "false"));
             initializeBindings();
         }
 
@@ -640,32 +645,46 @@ public class OperatorAssembler extends BaseRule
                         unionOrderedAll = unionOrdered = true;
                     }
                 }
-                for (RangeSegment rangeSegment : range.getSegments()) {
-                    Operator scan = API.indexScan_Default(indexRowType,
-                                                          assembleIndexKeyRange(indexScan, null, rangeSegment),
-                                                          assembleIndexOrdering(indexScan, indexRowType),
-                                                          selector,
-                                                          rulesContext.getPipelineConfiguration().getIndexScanLookaheadQuantum());
-                    if (stream.operator == null) {
-                        stream.operator = scan;
-                        stream.rowType = indexRowType;
+                int multiRangeQuantum = rulesContext.getPipelineConfiguration().getIndexScanMultiRangeQuantum();
+                if ((multiRangeQuantum > 0) &&
+                    (range.getSegments().size() > 1) &&
+                    (forIntersection == IntersectionMode.NONE)) {
+                    // Not used for intersection, which needs jump.
+                    List<IndexKeyRange> keyRanges = new ArrayList<>(range.getSegments().size());
+                    for (RangeSegment rangeSegment : range.getSegments()) {
+                        keyRanges.add(assembleIndexKeyRange(indexScan, null, rangeSegment));
                     }
-                    else if (unionOrdered) {
-                        int nequals = indexScan.getNEquality();
-                        List<OrderByExpression> ordering = indexScan.getOrdering();
-                        int nordering = ordering.size() - nequals;
-                        boolean[] ascending = new boolean[nordering];
-                        for (int i = 0; i < nordering; i++) {
-                            ascending[i] = ordering.get(nequals + i).isAscending();
+                    stream.operator = API.indexScan_MultiRange(indexRowType,
+                                                               keyRanges,
+                                                               assembleIndexOrdering(indexScan, indexRowType),
+                                                               selector,
+                                                               multiRangeQuantum,
+                                                               unionOrdered ? mergeAscending(indexScan) : null);
+                    stream.rowType = indexRowType;
+                }
+                else {
+                    for (RangeSegment rangeSegment : range.getSegments()) {
+                        Operator scan = API.indexScan_Default(indexRowType,
+                                                              assembleIndexKeyRange(indexScan, null, rangeSegment),
+                                                              assembleIndexOrdering(indexScan, indexRowType),
+                                                              selector,
+                                                              rulesContext.getPipelineConfiguration().getIndexScanLookaheadQuantum());
+                        if (stream.operator == null) {
+                            stream.operator = scan;
+                            stream.rowType = indexRowType;
+                        }
+                        else if (unionOrdered) {
+                            boolean[] ascending = mergeAscending(indexScan);
+                            int nordering = ascending.length;
+                            stream.operator = API.union_Ordered(stream.operator, scan,
+                                                                (IndexRowType)stream.rowType, indexRowType,
+                                                                nordering, nordering, 
+                                                                ascending, unionOrderedAll);
+                        }
+                        else {
+                            stream.operator = API.unionAll_Default(stream.operator, stream.rowType, scan, indexRowType, rulesContext.getPipelineConfiguration().isUnionAllOpenBoth());
+                            stream.rowType = stream.operator.rowType();
                         }
-                        stream.operator = API.union_Ordered(stream.operator, scan,
-                                                            (IndexRowType)stream.rowType, indexRowType,
-                                                            nordering, nordering, 
-                                                            ascending, unionOrderedAll);
-                    }
-                    else {
-                        stream.operator = API.unionAll_Default(stream.operator, stream.rowType, scan, indexRowType, rulesContext.getPipelineConfiguration().isUnionAllOpenBoth());
-                        stream.rowType = stream.operator.rowType();
                     }
                 }
                 if (stream.operator == null) {
@@ -680,6 +699,20 @@ public class OperatorAssembler extends BaseRule
             return stream;
         }
 
+        /** Directions of the ordering columns after the equalities,
+         * which single-point ranges can be merged on.
+         */
+        protected boolean[] mergeAscending(SingleIndexScan indexScan) {
+            int nequals = indexScan.getNEquality();
+            List<OrderByExpression> ordering = indexScan.getOrdering();
+            int nordering = ordering.size() - nequals;
+            boolean[] ascending = new boolean[nordering];
+            for (int i = 0; i < nordering; i++) {
+                ascending[i] = ordering.get(nequals + i).isAscending();
+            }
+            return ascending;
+        }
+
         protected void explainSingleIndexScan(Operator operator, SingleIndexScan indexScan, Index index) {
             Attributes atts = new Attributes();
             atts.put(Label.ORDER_EFFECTIVENESS, PrimitiveExplainer.getInstance(indexScan.getOrderEffectiveness().name()));
@@ -733,7 +766,11 @@ public class OperatorAssembler extends BaseRule
         protected RowStream assembleGroupScan(GroupScan groupScan) {
             RowStream stream = new RowStream();
             Group group = groupScan.getGroup().getGroup();
-            stream.operator = API.groupScan_Default(group);
+            int parallelism = rulesContext.getPipelineConfiguration().getGroupScanParallelism();
+            if (parallelism > 1)
+                stream.operator = API.groupScan_Default(group, parallelism);
+            else
+                stream.operator = API.groupScan_Default(group);
             stream.unknownTypesPresent = true;
             return stream;
         }
@@ -797,8 +834,8 @@ public class OperatorAssembler extends BaseRule
                 }
                 stream.operator = API.select_HKeyOrdered(stream.operator,
                         rowType,
-                        assembleExpression(condition,
-                                fieldOffsets));
+                        compileExpression(assembleExpression(condition,
+                                fieldOffsets)));
             }
             return stream;
         }
@@ -1248,6 +1285,7 @@ public class OperatorAssembler extends BaseRule
             switch (impl) {
             case PRESORTED:
             case UNGROUPED:
+            case HASH:
                 break;
             case FIRST_FROM_INDEX:
                 {
@@ -1298,6 +1336,20 @@ public class OperatorAssembler extends BaseRule
                         "Can't use Distinct_Partial except following a projection. Try again when types3 is in place"));
                 }
                 break;
+            case HASH:
+                if (stream.fieldOffsets instanceof ColumnSourceFieldOffsets) {
+                    // Every field is a key, with no aggregates.
+                    stream.operator = API.aggregate_Hashed(stream.operator, stream.rowType,
+                                                           stream.rowType.nFields(),
+                                                           Collections.<TAggregator>emptyList(),
+                                                           Collections.<TInstance>emptyList(),
+                                                           Collections.emptyList());
+                    stream.rowType = stream.operator.rowType();
+                    stream.fieldOffsets = new ColumnSourceFieldOffsets(((ColumnSourceFieldOffsets)stream.fieldOffsets).getSource(),
+                                                                       stream.rowType);
+                    break;
+                }
+                /* falls through */
             default:
                 assembleSort(stream, stream.rowType.nFields(), distinct.getInput(),
                              API.SortOption.SUPPRESS_DUPLICATES);
@@ -1354,11 +1406,12 @@ public class OperatorAssembler extends BaseRule
                                     PlanNode input, PlanNode output, 
                                     API.SortOption sortOption) {
             int maxrows = -1;
+            Limit limit = null;
             if (output instanceof Project) {
                 output = output.getOutput();
             }
             if (output instanceof Limit) {
-                Limit limit = (Limit)output;
+                limit = (Limit)output;
                 if (!limit.isOffsetParameter() && !limit.isLimitParameter() &&
                     (limit.getLimit() >= 0)) {
                     maxrows = limit.getOffset() + limit.getLimit();
@@ -1371,6 +1424,14 @@ public class OperatorAssembler extends BaseRule
             if ((maxrows >= 0) && (maxrows <= INSERTION_SORT_MAX_LIMIT))
                 stream.operator = API.sort_InsertionLimited(stream.operator, stream.rowType,
                                                             ordering, sortOption, maxrows);
+            else if ((maxrows >= 0) && (maxrows <= TOPN_SORT_MAX_LIMIT) &&
+                     (limit != null) &&
+                     (sortOption == API.SortOption.PRESERVE_DUPLICATES)) {
+                // Heap sort applies the whole Limit, including OFFSET.
+                stream.operator = API.sort_TopN(stream.operator, stream.rowType,
+                                                ordering, limit.getOffset(), limit.getLimit());
+                stream.limitApplied = limit;
+            }
             else
                 stream.operator = API.sort_General(stream.operator, stream.rowType, ordering, sortOption);
         }
@@ -1395,6 +1456,10 @@ public class OperatorAssembler extends BaseRule
 
         protected RowStream assembleLimit(Limit limit) {
             RowStream stream = assembleStream(limit.getInput());
+            if (stream.limitApplied == limit) {
+                stream.limitApplied = null;
+                return stream;
+            }
             int nlimit = limit.getLimit();
             if ((nlimit < 0) && !limit.isLimitParameter())
                 nlimit = Integer.MAX_VALUE; // Slight disagreement in saying unlimited.
@@ -1494,13 +1559,24 @@ public class OperatorAssembler extends BaseRule
             }
             if (allNull)
                 collators = null;
+            // The lookup was assembled with the input, so both sides are known.
+            List<TPreparedExpression> lookupFields = hashTableLookupFields.get(hashTable);
+            boolean packedKeys = (lookupFields != null) &&
+                LongKeyHashTable.canPack(tFields, lookupFields, tComparisons);
+            List<TPreparedExpression> probeFields = null;
+            if ((lookupFields != null) &&
+                (usingHashTable.getInput() instanceof MapJoin) &&
+                new PartitionableProbesChecker().check((MapJoin)usingHashTable.getInput()))
+                probeFields = lookupFields;
             stream.operator = API.using_HashTable(lstream.operator,
                     lstream.rowType,
                     tFields,
                     pos,
                     stream.operator,
                     tComparisons,
-                    collators);
+                    collators,
+                    packedKeys,
+                    probeFields);
             return stream;
         }
 
@@ -1510,6 +1586,7 @@ public class OperatorAssembler extends BaseRule
             RowStream lstream = hashTableLoaders.get(hashTable);
             List<ExpressionNode> expressionNodes = hashTableLookup.getLookupExpressions();
             List<TPreparedExpression> tFields = assembleExpressions(hashTableLookup.getLookupExpressions(), lstream.fieldOffsets);
+            hashTableLookupFields.put(hashTable, tFields);
 
             RowStream stream = new RowStream();
             stream.rowType = lstream.rowType;
@@ -1523,8 +1600,11 @@ public class OperatorAssembler extends BaseRule
 
         protected RowStream assembleProject(Project project) {
             RowStream stream = assembleStream(project.getInput());
-            List<? extends TPreparedExpression> pExpressions;
+            List<TPreparedExpression> pExpressions;
             pExpressions = assembleExpressions(project.getFields(), stream.fieldOffsets);
+            for (int i = 0; i < pExpressions.size(); i++) {
+                pExpressions.set(i, compileExpression(pExpressions.get(i)));
+            }
             stream.operator = API.project_Default(stream.operator,
                                                   stream.rowType,
                                                   pExpressions);
@@ -1898,6 +1978,17 @@ public class OperatorAssembler extends BaseRule
             return expressionAssembler.assembleExpression(expr, context, this);
         }
 
+        /** Generate code for a row filter predicate or projected
+         * column, if enabled. Anything {@link TExpressionCompiler} cannot
+         * compile is returned as is.
+         */
+        protected TPreparedExpression compileExpression(TPreparedExpression expression) {
+            if (compileExpressions)
+                return TExpressionCompiler.compile(expression);
+            else
+                return expression;
+        }
+
         // Assemble an aggregate operator
         public Operator assembleAggregates(Operator inputOperator, RowType inputRowType, int inputsIndex,
                                            AggregateSource aggregateSource) {
@@ -2071,6 +2162,7 @@ public class OperatorAssembler extends BaseRule
         protected List<Object> bindings = new ArrayList<>();
         protected Map<Object,Integer> bindingPositions = new HashMap<>();
         protected Map<HashTable,RowStream> hashTableLoaders = new HashMap<>();
+        protected Map<HashTable,List<TPreparedExpression>> hashTableLookupFields = new HashMap<>();
 
         protected int assignBindingPosition(Object binding) {
             int position = bindings.size();
@@ -2187,12 +2279,77 @@ public class OperatorAssembler extends BaseRule
         }
     }
 
+    /** Whether a hash join's rows can be put off so that a spilled hash
+     * table is probed one partition at a time: nothing depends on the
+     * order its outer side gives them, and its inner side only looks up
+     * the outer row's values in the hash table.
+     */
+    static class PartitionableProbesChecker implements PlanVisitor, ExpressionVisitor {
+        private boolean inner, partitionable;
+
+        public boolean check(MapJoin mapJoin) {
+            partitionable = true;
+            inner = false;
+            mapJoin.getOuter().accept(this);
+            inner = true;
+            mapJoin.getInner().accept(this);
+            return partitionable;
+        }
+
+        @Override
+        public boolean visitEnter(PlanNode n) {
+            return visit(n);
+        }
+
+        @Override
+        public boolean visitLeave(PlanNode n) {
+            return partitionable;
+        }
+
+        @Override
+        public boolean visit(PlanNode n) {
+            if (inner) {
+                if (n instanceof HashTableLookup)
+                    return false; // Its tables are those of the hash table's rows.
+                if (!((n instanceof Project) || (n instanceof Select) ||
+                      (n instanceof Limit) ||
+                      (n instanceof NullIfEmpty) || (n instanceof OnlyIfEmpty)))
+                    partitionable = false;
+            }
+            else if ((n instanceof Sort) ||
+                     ((n instanceof IndexScan) &&
+                      (((IndexScan)n).getOrderEffectiveness() != IndexScan.OrderEffectiveness.NONE))) {
+                partitionable = false;
+            }
+            return partitionable;
+        }
+
+        @Override
+        public boolean visitEnter(ExpressionNode n) {
+            return visit(n);
+        }
+
+        @Override
+        public boolean visitLeave(ExpressionNode n) {
+            return partitionable;
+        }
+
+        @Override
+        public boolean visit(ExpressionNode n) {
+            // A subquery might need more of the outer row than its values.
+            if (inner && (n instanceof SubqueryExpression))
+                partitionable = false;
+            return partitionable;
+        }
+    }
+
     // Struct for multiple value return from assembly.
     static class RowStream {
         Operator operator;
         RowType rowType;
         boolean unknownTypesPresent;
         ColumnExpressionToIndex fieldOffsets;
+        Limit limitApplied;
     }
 
     static abstract class BaseColumnExpressionToIndex implements ColumnExpressionToIndex {
@@ -23,7 +23,9 @@ public class PipelineConfiguration
 {
     private boolean mapEnabled = false;
     private int indexScanLookaheadQuantum = 1;
+    private int indexScanMultiRangeQuantum = 0;
     private int groupLookupLookaheadQuantum = 1;
+    private int groupScanParallelism = 1;
     private boolean unionAllOpenBoth = false;
     private boolean selectBloomFilterEnabled = false;
 
@@ -42,10 +44,22 @@ public class PipelineConfiguration
         return indexScanLookaheadQuantum;
     }
 
+    /** Number of ranges an index scan over several ranges keeps open
+     * at once, or <code>0</code> to scan each range separately.
+     */
+    public int getIndexScanMultiRangeQuantum() {
+        return indexScanMultiRangeQuantum;
+    }
+
     public int getGroupLookupLookaheadQuantum() {
         return groupLookupLookaheadQuantum;
     }
 
+    /** Number of threads that may read and decode a full group scan. */
+    public int getGroupScanParallelism() {
+        return groupScanParallelism;
+    }
+
     public boolean isUnionAllOpenBoth() {
         return unionAllOpenBoth;
     }
@@ -61,13 +75,18 @@ public class PipelineConfiguration
                 mapEnabled = Boolean.parseBoolean(val);
             else if ("indexScan.lookaheadQuantum".equals(prop))
                 indexScanLookaheadQuantum = Integer.parseInt(val);
+            else if ("indexScan.multiRangeQuantum".equals(prop))
+                indexScanMultiRangeQuantum = Integer.parseInt(val);
             else if ("groupLookup.lookaheadQuantum".equals(prop))
                 groupLookupLookaheadQuantum = Integer.parseInt(val);
+            else if ("groupScan.parallelism".equals(prop))
+                groupScanParallelism = Integer.parseInt(val);
             else if ("unionAll.openBoth".equals(prop))
                 unionAllOpenBoth = Boolean.parseBoolean(val);
             else if ("selectBloomFilter.enabled".equals(prop))
                 selectBloomFilterEnabled = Boolean.parseBoolean(val);
-            else
+            // lookahead.* is read by the lookahead cursors when they are opened.
+            else if (!prop.startsWith("lookahead."))
                 throw new IllegalArgumentException("Unknown property " + prop);
         }
     }
@@ -991,6 +991,32 @@ public abstract class CostEstimator implements TableRowCounts
                                 model.sortWithLimit((int)size, nfields));
     }
 
+    /** Estimate the number of distinct values of a column from the
+     * histogram of an index that leads with it, or -1 if there is none.
+     */
+    public long distinctCount(Column column) {
+        for (TableIndex index : column.getTable().getIndexes()) {
+            if (index.getKeyColumns().get(0).getColumn() != column)
+                continue;
+            IndexStatistics stats = getIndexStatistics(index);
+            if (stats == null)
+                continue;
+            Histogram histogram = stats.getHistogram(0, 1);
+            if ((histogram == null) || histogram.getEntries().isEmpty())
+                continue;
+            long distinct = histogram.totalDistinctCount();
+            long sampledCount = stats.getSampledCount();
+            if (mostlyDistinct(histogram) && (sampledCount > 0)) {
+                // Most values only appear once in the sample, so there
+                // are probably more in the whole table.
+                long rowCount = getTableRowCount(column.getTable());
+                return Math.max(distinct, rowCount * distinct / sampledCount);
+            }
+            return distinct;
+        }
+        return -1;
+    }
+
     /** Estimate cost of scanning the whole group. */
     // TODO: Need to account for tables actually wanted?
     public CostEstimate costGroupScan(Group group) {
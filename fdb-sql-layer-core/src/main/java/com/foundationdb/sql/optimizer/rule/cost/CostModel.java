@@ -175,7 +175,7 @@ public abstract class CostModel
         return cost;
     }
     
-    private TreeStatistics treeStatistics(RowType rowType)
+    protected TreeStatistics treeStatistics(RowType rowType)
     {
         return statisticsMap.get(rowType.typeId());
     }
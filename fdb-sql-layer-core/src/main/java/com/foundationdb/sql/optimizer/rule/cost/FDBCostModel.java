@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.foundationdb.sql.optimizer.rule.cost;
+
+import com.foundationdb.qp.rowtype.Schema;
+import com.foundationdb.qp.rowtype.TableRowType;
+
+import java.util.List;
+
+public class FDBCostModel extends CostModel
+{
+    private final FDBCostModelMeasurements measurements;
+    private final boolean groupLookupLookahead;
+
+    public FDBCostModel(Schema schema, TableRowCounts tableRowCounts,
+                        FDBCostModelMeasurements measurements,
+                        boolean groupLookupLookahead) {
+        super(schema, tableRowCounts);
+        this.measurements = measurements;
+        this.groupLookupLookahead = groupLookupLookahead;
+    }
+
+    @Override
+    protected double treeScan(int rowWidth, long nRows) {
+        return
+            measurements.getRandomAccessPerRow() + measurements.getRandomAccessPerByte() * rowWidth +
+            nRows * (measurements.getSequentialAccessPerRow() + measurements.getSequentialAccessPerByte() * rowWidth);
+    }
+
+    @Override
+    public double ancestorLookup(List<TableRowType> ancestorTableTypes)
+    {
+        if (!groupLookupLookahead) {
+            return super.ancestorLookup(ancestorTableTypes);
+        }
+        // With lookahead, the round trips for successive lookups overlap,
+        // so the random access part of treeScan(rowWidth, 1) is cheaper.
+        double cost = 0;
+        for (TableRowType ancestorTableType : ancestorTableTypes) {
+            cost += treeScan(treeStatistics(ancestorTableType).rowWidth(), 1)
+                  - measurements.getRandomAccessPerRow() + measurements.getLookaheadAccessPerRow();
+        }
+        return cost;
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.foundationdb.sql.optimizer.rule.cost;
+
+import com.foundationdb.KeyValue;
+import com.foundationdb.Range;
+import com.foundationdb.Transaction;
+import com.foundationdb.TransactionContext;
+import com.foundationdb.async.Function;
+import com.foundationdb.async.Future;
+import com.foundationdb.directory.DirectorySubspace;
+import com.foundationdb.tuple.Tuple2;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/** Measure the cost of the kinds of reads the store makes, by timing
+ * them against scratch data written into <code>directory</code>.
+ *
+ * Each kind of read is timed for a narrow and a wide row and the
+ * per-row and per-byte costs fitted to the two points.
+ */
+public class FDBCostModelCalibrator
+{
+    private static final Logger logger = LoggerFactory.getLogger(FDBCostModelCalibrator.class);
+
+    public static final int NARROW_ROW = 16;
+    public static final int WIDE_ROW = 1016;
+    public static final int ROWS_PER_WRITE = 100;
+
+    private final TransactionContext txnContext;
+    private final DirectorySubspace directory;
+    private final int nRows;
+    private final int runs;
+    private final int lookaheadQuantum;
+    private final Random random = new Random();
+
+    /**
+     * @param nRows the number of rows of each width to write and read.
+     * @param runs the number of times to repeat each measurement.
+     * @param lookaheadQuantum the number of point gets outstanding at once when timing lookahead.
+     */
+    public FDBCostModelCalibrator(TransactionContext txnContext, DirectorySubspace directory,
+                                  int nRows, int runs, int lookaheadQuantum) {
+        this.txnContext = txnContext;
+        this.directory = directory;
+        this.nRows = nRows;
+        this.runs = runs;
+        this.lookaheadQuantum = Math.max(1, lookaheadQuantum);
+    }
+
+    public FDBCostModelMeasurements calibrate() {
+        write(NARROW_ROW);
+        write(WIDE_ROW);
+        // Warm up before measuring anything.
+        sequential(NARROW_ROW);
+        random(NARROW_ROW, 1);
+
+        double sequentialNarrow = sequential(NARROW_ROW);
+        double sequentialWide = sequential(WIDE_ROW);
+        double randomNarrow = random(NARROW_ROW, 1);
+        double randomWide = random(WIDE_ROW, 1);
+        double lookaheadNarrow = random(NARROW_ROW, lookaheadQuantum);
+        logger.debug("Sequential {} / {}, random {} / {}, lookahead {} usec/row",
+                     sequentialNarrow, sequentialWide, randomNarrow, randomWide, lookaheadNarrow);
+
+        double sequentialPerByte = perByte(sequentialNarrow, sequentialWide);
+        double randomPerByte = perByte(randomNarrow, randomWide);
+        return new FDBCostModelMeasurements(perRow(randomNarrow, randomPerByte),
+                                            randomPerByte,
+                                            perRow(sequentialNarrow, sequentialPerByte),
+                                            sequentialPerByte,
+                                            perRow(lookaheadNarrow, randomPerByte));
+    }
+
+    static double perByte(double narrowCost, double wideCost) {
+        return Math.max(0.0, (wideCost - narrowCost) / (WIDE_ROW - NARROW_ROW));
+    }
+
+    static double perRow(double narrowCost, double perByte) {
+        return Math.max(0.0, narrowCost - perByte * NARROW_ROW);
+    }
+
+    protected byte[] key(int width, int n) {
+        return directory.pack(Tuple2.from((long)width, (long)n));
+    }
+
+    protected void write(final int width) {
+        final byte[] value = new byte[width];
+        random.nextBytes(value);
+        for (int start = 0; start < nRows; start += ROWS_PER_WRITE) {
+            final int from = start;
+            final int to = Math.min(start + ROWS_PER_WRITE, nRows);
+            txnContext.run(new Function<Transaction,Void>() {
+                               @Override
+                               public Void apply(Transaction tr) {
+                                   for (int i = from; i < to; i++) {
+                                       tr.set(key(width, i), value);
+                                   }
+                                   return null;
+                               }
+                           });
+        }
+    }
+
+    /** Average time to read each row of a whole range. */
+    protected double sequential(final int width) {
+        final byte[] prefix = directory.pack(Tuple2.from((long)width));
+        long nanos = 0;
+        for (int run = 0; run < runs; run++) {
+            nanos += txnContext.run(new Function<Transaction,Long>() {
+                                        @Override
+                                        public Long apply(Transaction tr) {
+                                            // Do not count getting the read version.
+                                            tr.getReadVersion().get();
+                                            long start = System.nanoTime();
+                                            int count = 0;
+                                            for (KeyValue kv : tr.getRange(Range.startsWith(prefix))) {
+                                                count++;
+                                            }
+                                            assert count == nRows : count;
+                                            return System.nanoTime() - start;
+                                        }
+                                    });
+        }
+        return nanos / (1000.0 * runs * nRows);
+    }
+
+    /** Average time for each point get of distinct keys in random
+     * order, with <code>quantum</code> of them outstanding at a time. */
+    protected double random(final int width, final int quantum) {
+        final List<Integer> order = new ArrayList<>(nRows);
+        for (int i = 0; i < nRows; i++) {
+            order.add(i);
+        }
+        long nanos = 0;
+        for (int run = 0; run < runs; run++) {
+            Collections.shuffle(order, random);
+            nanos += txnContext.run(new Function<Transaction,Long>() {
+                                        @Override
+                                        public Long apply(Transaction tr) {
+                                            tr.getReadVersion().get();
+                                            long start = System.nanoTime();
+                                            List<Future<byte[]>> pending = new ArrayList<>(quantum);
+                                            for (Integer n : order) {
+                                                pending.add(tr.get(key(width, n)));
+                                                if (pending.size() >= quantum) {
+                                                    waitFor(pending);
+                                                }
+                                            }
+                                            waitFor(pending);
+                                            return System.nanoTime() - start;
+                                        }
+                                    });
+        }
+        return nanos / (1000.0 * runs * nRows);
+    }
+
+    private static void waitFor(List<Future<byte[]>> pending) {
+        for (Future<byte[]> future : pending) {
+            future.get();
+        }
+        pending.clear();
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.foundationdb.sql.optimizer.rule.cost;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Store access costs, in microseconds, as measured against a live
+ * FoundationDB cluster by {@link FDBCostModelCalibrator}.
+ */
+public class FDBCostModelMeasurements
+{
+    /** Until calibrated, price access the same as {@link PersistitCostModel}. */
+    public static final FDBCostModelMeasurements DEFAULT =
+        new FDBCostModelMeasurements(PersistitCostModelMeasurements.RANDOM_ACCESS_PER_ROW,
+                                     PersistitCostModelMeasurements.RANDOM_ACCESS_PER_BYTE,
+                                     PersistitCostModelMeasurements.SEQUENTIAL_ACCESS_PER_ROW,
+                                     PersistitCostModelMeasurements.SEQUENTIAL_ACCESS_PER_BYTE,
+                                     PersistitCostModelMeasurements.RANDOM_ACCESS_PER_ROW);
+
+    public static final String RANDOM_ACCESS_PER_ROW = "randomAccessPerRow";
+    public static final String RANDOM_ACCESS_PER_BYTE = "randomAccessPerByte";
+    public static final String SEQUENTIAL_ACCESS_PER_ROW = "sequentialAccessPerRow";
+    public static final String SEQUENTIAL_ACCESS_PER_BYTE = "sequentialAccessPerByte";
+    public static final String LOOKAHEAD_ACCESS_PER_ROW = "lookaheadAccessPerRow";
+
+    private final double randomAccessPerRow;
+    private final double randomAccessPerByte;
+    private final double sequentialAccessPerRow;
+    private final double sequentialAccessPerByte;
+    private final double lookaheadAccessPerRow;
+
+    public FDBCostModelMeasurements(double randomAccessPerRow,
+                                    double randomAccessPerByte,
+                                    double sequentialAccessPerRow,
+                                    double sequentialAccessPerByte,
+                                    double lookaheadAccessPerRow) {
+        this.randomAccessPerRow = randomAccessPerRow;
+        this.randomAccessPerByte = randomAccessPerByte;
+        this.sequentialAccessPerRow = sequentialAccessPerRow;
+        this.sequentialAccessPerByte = sequentialAccessPerByte;
+        this.lookaheadAccessPerRow = lookaheadAccessPerRow;
+    }
+
+    /** Cost of a point get, which is one round trip to a storage server. */
+    public double getRandomAccessPerRow() {
+        return randomAccessPerRow;
+    }
+
+    public double getRandomAccessPerByte() {
+        return randomAccessPerByte;
+    }
+
+    /** Cost of each further row of a range read, with the round trips
+     * for its batches spread over the rows. */
+    public double getSequentialAccessPerRow() {
+        return sequentialAccessPerRow;
+    }
+
+    public double getSequentialAccessPerByte() {
+        return sequentialAccessPerByte;
+    }
+
+    /** Cost of a point get issued as part of a batch of outstanding
+     * gets, as by a pipelined group lookup. */
+    public double getLookaheadAccessPerRow() {
+        return lookaheadAccessPerRow;
+    }
+
+    public Map<String,Double> toMap() {
+        Map<String,Double> result = new LinkedHashMap<>();
+        result.put(RANDOM_ACCESS_PER_ROW, randomAccessPerRow);
+        result.put(RANDOM_ACCESS_PER_BYTE, randomAccessPerByte);
+        result.put(SEQUENTIAL_ACCESS_PER_ROW, sequentialAccessPerRow);
+        result.put(SEQUENTIAL_ACCESS_PER_BYTE, sequentialAccessPerByte);
+        result.put(LOOKAHEAD_ACCESS_PER_ROW, lookaheadAccessPerRow);
+        return result;
+    }
+
+    /** Measurements from <code>map</code>, with defaults for any that are missing. */
+    public static FDBCostModelMeasurements fromMap(Map<String,Double> map) {
+        return new FDBCostModelMeasurements(get(map, RANDOM_ACCESS_PER_ROW, DEFAULT.randomAccessPerRow),
+                                            get(map, RANDOM_ACCESS_PER_BYTE, DEFAULT.randomAccessPerByte),
+                                            get(map, SEQUENTIAL_ACCESS_PER_ROW, DEFAULT.sequentialAccessPerRow),
+                                            get(map, SEQUENTIAL_ACCESS_PER_BYTE, DEFAULT.sequentialAccessPerByte),
+                                            get(map, LOOKAHEAD_ACCESS_PER_ROW, DEFAULT.lookaheadAccessPerRow));
+    }
+
+    private static double get(Map<String,Double> map, String key, double defaultValue) {
+        Double value = map.get(key);
+        return (value == null) ? defaultValue : value;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
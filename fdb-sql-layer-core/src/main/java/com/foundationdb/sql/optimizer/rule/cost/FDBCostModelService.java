@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.foundationdb.sql.optimizer.rule.cost;
+
+import com.foundationdb.ais.model.AkibanInformationSchema;
+import com.foundationdb.ais.model.Routine;
+import com.foundationdb.ais.model.TableName;
+import com.foundationdb.ais.model.aisb2.AISBBasedBuilder;
+import com.foundationdb.ais.model.aisb2.NewAISBuilder;
+import com.foundationdb.qp.rowtype.Schema;
+import com.foundationdb.server.service.Service;
+import com.foundationdb.server.service.config.ConfigurationService;
+import com.foundationdb.server.store.FDBHolder;
+import com.foundationdb.server.store.SchemaManager;
+import com.foundationdb.sql.server.ServerCallContextStack;
+import com.foundationdb.sql.server.ServerQueryContext;
+
+import com.foundationdb.Transaction;
+import com.foundationdb.async.Function;
+import com.foundationdb.directory.DirectorySubspace;
+import com.foundationdb.tuple.Tuple2;
+import com.google.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Cost model for the FoundationDB store, whose access costs come
+ * from a calibration run against the live cluster.
+ *
+ * <code>CALL sys.cost_model_calibrate()</code> runs the calibration,
+ * saves the results in the schema manager directory and starts using
+ * them for newly compiled queries. Until then, the Persistit
+ * measurements are used.
+ */
+public class FDBCostModelService implements CostModelFactory, Service
+{
+    private static final Logger logger = LoggerFactory.getLogger(FDBCostModelService.class);
+
+    private static final List<String> COST_MODEL_PATH = Arrays.asList("schemaManager", "costModel");
+    private static final List<String> CALIBRATION_PATH = Arrays.asList("costModelCalibration");
+
+    private static final String CALIBRATION_ROWS_PROPERTY = "fdbsql.cost_model.calibration_rows";
+    private static final String CALIBRATION_RUNS_PROPERTY = "fdbsql.cost_model.calibration_runs";
+    private static final String LOOKAHEAD_QUANTUM_PROPERTY = "fdbsql.pipeline.groupLookup.lookaheadQuantum";
+
+    private static final String SCHEMA = TableName.SYS_SCHEMA;
+    private static final String CALIBRATE = "cost_model_calibrate";
+
+    private final ConfigurationService configService;
+    private final FDBHolder holder;
+    private final SchemaManager schemaManager;
+    private DirectorySubspace directory;
+    private int lookaheadQuantum;
+    private volatile FDBCostModelMeasurements measurements;
+
+    @Inject
+    public FDBCostModelService(ConfigurationService configService, FDBHolder holder,
+                               SchemaManager schemaManager) {
+        this.configService = configService;
+        this.holder = holder;
+        this.schemaManager = schemaManager;
+    }
+
+    @Override
+    public CostModel newCostModel(Schema schema, TableRowCounts tableRowCounts) {
+        return new FDBCostModel(schema, tableRowCounts, measurements, lookaheadQuantum > 1);
+    }
+
+    public FDBCostModelMeasurements getMeasurements() {
+        return measurements;
+    }
+
+    /** Measure the store, then save and use the results. */
+    public synchronized FDBCostModelMeasurements calibrate() {
+        int nRows = Integer.parseInt(configService.getProperty(CALIBRATION_ROWS_PROPERTY));
+        int runs = Integer.parseInt(configService.getProperty(CALIBRATION_RUNS_PROPERTY));
+        DirectorySubspace scratch = holder.getRootDirectory().createOrOpen(holder.getTransactionContext(),
+                                                                           CALIBRATION_PATH).get();
+        FDBCostModelMeasurements calibrated;
+        try {
+            calibrated = new FDBCostModelCalibrator(holder.getTransactionContext(), scratch,
+                                                    nRows, runs, lookaheadQuantum).calibrate();
+        }
+        finally {
+            scratch.remove(holder.getTransactionContext()).get();
+        }
+        logger.info("Calibrated cost model: {}", calibrated);
+        saveMeasurements(calibrated);
+        measurements = calibrated;
+        return calibrated;
+    }
+
+    /** Reread the saved measurements, if any. */
+    public FDBCostModelMeasurements loadMeasurements() {
+        final List<String> names = new ArrayList<>(FDBCostModelMeasurements.DEFAULT.toMap().keySet());
+        Map<String,Double> map = holder.getTransactionContext()
+            .run(new Function<Transaction,Map<String,Double>>() {
+                     @Override
+                     public Map<String,Double> apply(Transaction tr) {
+                         Map<String,Double> result = new HashMap<>();
+                         for (String name : names) {
+                             byte[] bytes = tr.get(directory.pack(name)).get();
+                             if (bytes != null) {
+                                 result.put(name, Double.longBitsToDouble(Tuple2.fromBytes(bytes).getLong(0)));
+                             }
+                         }
+                         return result;
+                     }
+                 });
+        measurements = map.isEmpty() ?
+            FDBCostModelMeasurements.DEFAULT :
+            FDBCostModelMeasurements.fromMap(map);
+        return measurements;
+    }
+
+    protected void saveMeasurements(final FDBCostModelMeasurements toSave) {
+        holder.getTransactionContext()
+            .run(new Function<Transaction,Void>() {
+                     @Override
+                     public Void apply(Transaction tr) {
+                         for (Map.Entry<String,Double> entry : toSave.toMap().entrySet()) {
+                             tr.set(directory.pack(entry.getKey()),
+                                    Tuple2.from(Double.doubleToLongBits(entry.getValue())).pack());
+                         }
+                         return null;
+                     }
+                 });
+    }
+
+    @Override
+    public void start() {
+        lookaheadQuantum = Integer.parseInt(configService.getProperty(LOOKAHEAD_QUANTUM_PROPERTY));
+        directory = holder.getRootDirectory().createOrOpen(holder.getTransactionContext(),
+                                                           COST_MODEL_PATH).get();
+        loadMeasurements();
+        registerSystemObjects();
+    }
+
+    @Override
+    public void stop() {
+        deregisterSystemObjects();
+    }
+
+    @Override
+    public void crash() {
+        stop();
+    }
+
+    protected void registerSystemObjects() {
+        AkibanInformationSchema ais = buildSystemObjects();
+        schemaManager.registerSystemRoutine(ais.getRoutine(SCHEMA, CALIBRATE));
+    }
+
+    protected void deregisterSystemObjects() {
+        schemaManager.unRegisterSystemRoutine(new TableName(SCHEMA, CALIBRATE));
+    }
+
+    protected AkibanInformationSchema buildSystemObjects() {
+        NewAISBuilder builder = AISBBasedBuilder.create(SCHEMA, schemaManager.getTypesTranslator());
+        builder.procedure(CALIBRATE)
+            .language("java", Routine.CallingConvention.JAVA)
+            .returnString("measurements", 1024)
+            .externalName(Routines.class.getName(), "calibrate");
+        return builder.ais(true);
+    }
+
+    public static class Routines {
+        public static String calibrate() {
+            ServerQueryContext context = ServerCallContextStack.getCallingContext();
+            FDBCostModelService service = (FDBCostModelService)
+                context.getServiceManager().getServiceByClass(CostModelFactory.class);
+            return service.calibrate().toString();
+        }
+    }
+}
@@ -22,6 +22,7 @@ import com.foundationdb.sql.optimizer.rule.cost.CostEstimator.IndexIntersectionC
 import com.foundationdb.sql.optimizer.rule.cost.CostEstimator.SelectivityConditions;
 import com.foundationdb.sql.optimizer.rule.range.RangeSegment;
 import static com.foundationdb.sql.optimizer.rule.OperatorAssembler.INSERTION_SORT_MAX_LIMIT;
+import static com.foundationdb.sql.optimizer.rule.OperatorAssembler.TOPN_SORT_MAX_LIMIT;
 import static com.foundationdb.sql.optimizer.rule.cost.CostEstimator.simpleRound;
 
 import com.foundationdb.sql.optimizer.plan.*;
@@ -97,8 +98,8 @@ public class PlanCostEstimator
                                             conditions, selectivityConditions);
     }
 
-    public void sort(int nfields) {
-        planEstimator = new SortEstimator(planEstimator, nfields);
+    public void sort(int nfields, boolean suppressDuplicates) {
+        planEstimator = new SortEstimator(planEstimator, nfields, suppressDuplicates);
     }
 
     protected abstract class PlanEstimator {
@@ -354,10 +355,13 @@ public class PlanCostEstimator
 
     protected class SortEstimator extends PlanEstimator {
         private int nfields;
+        private boolean suppressDuplicates;
 
-        protected SortEstimator(PlanEstimator input, int nfields) {
+        protected SortEstimator(PlanEstimator input, int nfields,
+                                boolean suppressDuplicates) {
             super(input);
             this.nfields = nfields;
+            this.suppressDuplicates = suppressDuplicates;
         }
 
         @Override
@@ -365,8 +369,12 @@ public class PlanCostEstimator
             input.setLimit(NO_LIMIT);
             CostEstimate inputCost = inputCostEstimate();
             CostEstimate sortCost;
+            // Same choice as OperatorAssembler.assembleSort: Sort_TopN
+            // does not remove duplicates, so only an insertion sort
+            // limits a DISTINCT.
             if (hasLimit() && 
-                (limit <= INSERTION_SORT_MAX_LIMIT)) {
+                ((limit <= INSERTION_SORT_MAX_LIMIT) ||
+                 ((limit <= TOPN_SORT_MAX_LIMIT) && !suppressDuplicates))) {
                 sortCost = costEstimator.costSortWithLimit(inputCost.getRowCount(),
                                                            Math.min(limit, inputCost.getRowCount()),
                                                            nfields);
@@ -1297,7 +1297,8 @@ public class GroupIndexGoal implements Comparator<BaseScan>
         }
 
         if (queryGoal.needSort(index.getOrderEffectiveness())) {
-            estimator.sort(queryGoal.sortFields());
+            estimator.sort(queryGoal.sortFields(),
+                           queryGoal.sortSuppressesDuplicates());
         }
 
         estimator.setLimit(limit);
@@ -1352,7 +1353,8 @@ public class GroupIndexGoal implements Comparator<BaseScan>
         }
 
         if (queryGoal.needSort(IndexScan.OrderEffectiveness.NONE)) {
-            estimator.sort(queryGoal.sortFields());
+            estimator.sort(queryGoal.sortFields(),
+                           queryGoal.sortSuppressesDuplicates());
         }
 
         estimator.setLimit(queryGoal.getLimit());
@@ -1394,7 +1396,8 @@ public class GroupIndexGoal implements Comparator<BaseScan>
         }
 
         if (queryGoal.needSort(IndexScan.OrderEffectiveness.NONE)) {
-            estimator.sort(queryGoal.sortFields());
+            estimator.sort(queryGoal.sortFields(),
+                           queryGoal.sortSuppressesDuplicates());
         }
 
         estimator.setLimit(queryGoal.getLimit());
@@ -2008,7 +2011,8 @@ public class GroupIndexGoal implements Comparator<BaseScan>
         }
 
         if (queryGoal.needSort(index.getOrderEffectiveness())) {
-            estimator.sort(queryGoal.sortFields());
+            estimator.sort(queryGoal.sortFields(),
+                           queryGoal.sortSuppressesDuplicates());
         }
 
         estimator.setLimit(queryGoal.getLimit());
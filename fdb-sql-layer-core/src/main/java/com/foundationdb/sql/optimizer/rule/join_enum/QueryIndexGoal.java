@@ -22,6 +22,10 @@ import com.foundationdb.sql.optimizer.plan.IndexScan.OrderEffectiveness;
 import com.foundationdb.sql.optimizer.rule.SchemaRulesContext;
 import com.foundationdb.sql.optimizer.rule.cost.CostEstimator;
 
+import com.foundationdb.ais.model.Column;
+
+import java.util.List;
+
 /** The overall goal of a query: WHERE conditions, ORDER BY, etc. */
 public class QueryIndexGoal
 {
@@ -114,6 +118,13 @@ public class QueryIndexGoal
         return 0;
     }
 
+    /** Will the sort also remove duplicates, as for <code>DISTINCT</code>? */
+    public boolean sortSuppressesDuplicates() {
+        if (ordering != null)
+            return (ordering.getOutput() instanceof Distinct);
+        return (projectDistinct != null);
+    }
+
     /** Change GROUP BY, and ORDER BY upstream of <code>node</code> as
      * a consequence of <code>orderEffectiveness</code> being used.
      */
@@ -129,7 +140,10 @@ public class QueryIndexGoal
                 implementation = AggregateSource.Implementation.PREAGGREGATE_RESORT;
                 break;
             default:
-                implementation = AggregateSource.Implementation.SORT;
+                if (hashAllowed(grouping.getGroupBy()))
+                    implementation = AggregateSource.Implementation.HASH;
+                else
+                    implementation = AggregateSource.Implementation.SORT;
                 break;
             }
             grouping.setImplementation(implementation);
@@ -148,13 +162,55 @@ public class QueryIndexGoal
                 implementation = Distinct.Implementation.PRESORTED;
                 break;
             default:
-                implementation = Distinct.Implementation.SORT;
+                // Hashing would lose the order of an ORDER BY underneath.
+                if ((ordering == null) && hashAllowed(projectDistinct.getFields()))
+                    implementation = Distinct.Implementation.HASH;
+                else
+                    implementation = Distinct.Implementation.SORT;
                 break;
             }
             distinct.setImplementation(implementation);
         }
     }
 
+    /** Default for <code>hashAggregateMaxGroups</code>: only sort.
+     * Plans are chosen assuming a sort either way, and the rows of a
+     * hashed grouping are in no particular order, so hashing is only
+     * done when the <code>optimizer.hashAggregateMaxGroups</code>
+     * property asks for it.
+     */
+    public static final long HASH_AGGREGATE_MAX_GROUPS_DEFAULT = 0;
+
+    /** Whether grouping on these keys should use a hash table instead
+     * of a sort, because statistics show few enough distinct
+     * combinations. Keys other than columns have unknown cardinality.
+     */
+    protected boolean hashAllowed(List<ExpressionNode> keys) {
+        long maxGroups;
+        String prop = rulesContext.getProperty("hashAggregateMaxGroups");
+        if (prop != null)
+            maxGroups = Long.parseLong(prop);
+        else
+            maxGroups = HASH_AGGREGATE_MAX_GROUPS_DEFAULT;
+        if ((maxGroups <= 0) || keys.isEmpty())
+            return false;
+        long groups = 1;
+        for (ExpressionNode key : keys) {
+            if (!(key instanceof ColumnExpression))
+                return false;
+            Column column = ((ColumnExpression)key).getColumn();
+            if (column == null)
+                return false;
+            long distinct = getCostEstimator().distinctCount(column);
+            if (distinct < 0)
+                return false;
+            groups *= Math.max(distinct, 1);
+            if (groups > maxGroups)
+                return false;
+        }
+        return true;
+    }
+
     public long getLimit() {
         if ((limit == null) || limit.isOffsetParameter() || limit.isLimitParameter())
             return -1;
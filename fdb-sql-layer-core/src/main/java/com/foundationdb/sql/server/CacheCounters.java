@@ -18,10 +18,14 @@
 package com.foundationdb.sql.server;
 
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class CacheCounters {
     private final AtomicInteger hits = new AtomicInteger(0);
     private final AtomicInteger misses = new AtomicInteger(0);
+    private final AtomicInteger evictions = new AtomicInteger(0);
+    private final AtomicInteger compiles = new AtomicInteger(0);
+    private final AtomicLong compileNanos = new AtomicLong(0);
 
     public void incrementHits() {
         hits.incrementAndGet();
@@ -31,6 +35,15 @@ public class CacheCounters {
         misses.incrementAndGet();
     }
 
+    public void incrementEvictions() {
+        evictions.incrementAndGet();
+    }
+
+    public void addCompileTime(long nanos) {
+        compiles.incrementAndGet();
+        compileNanos.addAndGet(nanos);
+    }
+
     public int getHits() {
         return hits.get();
     }
@@ -39,8 +52,24 @@ public class CacheCounters {
         return misses.get();
     }
 
+    /** Entries dropped, or not admitted, because the cache was full. */
+    public int getEvictions() {
+        return evictions.get();
+    }
+
+    public int getCompiles() {
+        return compiles.get();
+    }
+
+    public long getCompileTimeNanos() {
+        return compileNanos.get();
+    }
+
     public void reset() {
         hits.set(0);
         misses.set(0);
+        evictions.set(0);
+        compiles.set(0);
+        compileNanos.set(0);
     }
 }
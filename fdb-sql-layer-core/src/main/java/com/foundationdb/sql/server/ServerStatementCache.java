@@ -17,32 +17,59 @@
 
 package com.foundationdb.sql.server;
 
-import com.foundationdb.server.util.LRUCacheMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
- * Cache of parsed statements.
+ * Cache of parsed statements, shared by all the connections with the
+ * same settings and AIS generation.
+ *
+ * Entries are keyed by SQL text and the parameter types requested by
+ * the client. The cache is split into independently locked segments
+ * by key hash, so that connections rarely wait for one another.
+ *
+ * Each segment follows W-TinyLFU: new entries go into a small LRU
+ * window; an entry pushed out of the window only displaces the least
+ * recently used entry of the main LRU area if it has been asked for
+ * more often recently, according to a count-min sketch. So one-off
+ * statements do not flush out frequently used ones.
  */
 public class ServerStatementCache<T extends ServerStatement>
 {
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_CAPACITY = 64;
+    private static final int WINDOW_PERCENT = 1;
+
     private final CacheCounters counters;
-    private final LRUCacheMap<String,T> cache;
+    private volatile int capacity;
+    private volatile List<Segment> segments;
 
     public ServerStatementCache(CacheCounters counters, int size) {
         this.counters = counters;
-        this.cache = new LRUCacheMap<>(size);
+        this.capacity = size;
+        this.segments = createSegments(size);
     }
 
     public int getCapacity() {
-        return cache.getCapacity();
+        return capacity;
     }
 
     public synchronized void setCapacity(int capacity) {
-        cache.setCapacity(capacity);
-        cache.clear();
+        this.capacity = capacity;
+        this.segments = createSegments(capacity);
+    }
+
+    public T get(String sql) {
+        return get(sql, null);
     }
 
-    public synchronized T get(String sql) {
-        T entry = cache.get(sql);
+    public T get(String sql, int[] paramTypes) {
+        StatementKey key = new StatementKey(sql, paramTypes);
+        T entry = segment(key).get(key);
         if (entry != null)
             counters.incrementHits();
         else
@@ -50,17 +77,206 @@ public class ServerStatementCache<T extends ServerStatement>
         return entry;
     }
 
-    public synchronized void put(String sql, T stmt) {
-        // TODO: Count number of times this is non-null, meaning that
-        // two threads computed the same statement?
-        cache.put(sql, stmt);
+    public void put(String sql, T stmt) {
+        put(sql, null, stmt);
+    }
+
+    public void put(String sql, int[] paramTypes, T stmt) {
+        StatementKey key = new StatementKey(sql, paramTypes);
+        segment(key).put(key, stmt);
+    }
+
+    /** Note the time taken to compile a statement that was not found. */
+    public void recordCompile(long nanos) {
+        counters.addCompileTime(nanos);
+    }
+
+    public void invalidate() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public void reset() {
+        invalidate();
+    }
+
+    private List<Segment> createSegments(int capacity) {
+        int nsegments = 1;
+        while ((nsegments * 2 <= MAX_SEGMENTS) &&
+               (capacity / (nsegments * 2) >= MIN_SEGMENT_CAPACITY)) {
+            nsegments *= 2;
+        }
+        List<Segment> result = new ArrayList<>(nsegments);
+        for (int i = 0; i < nsegments; i++) {
+            int segmentCapacity = capacity / nsegments;
+            if (i < capacity % nsegments)
+                segmentCapacity++;
+            result.add(new Segment(Math.max(segmentCapacity, 0)));
+        }
+        return result;
+    }
+
+    private Segment segment(StatementKey key) {
+        List<Segment> current = segments;
+        return current.get(spread(key.hashCode()) & (current.size() - 1));
     }
 
-    public synchronized void invalidate() {
-        cache.clear();
+    static int spread(int hash) {
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+        return hash;
     }
 
-    public synchronized void reset() {
-        cache.clear();
+    static final class StatementKey {
+        private final String sql;
+        private final int[] paramTypes;
+        private final int hash;
+
+        StatementKey(String sql, int[] paramTypes) {
+            this.sql = sql;
+            this.paramTypes = ((paramTypes != null) && (paramTypes.length > 0)) ? paramTypes : null;
+            this.hash = sql.hashCode() * 31 + Arrays.hashCode(this.paramTypes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof StatementKey))
+                return false;
+            StatementKey other = (StatementKey)o;
+            return (hash == other.hash) &&
+                sql.equals(other.sql) &&
+                Arrays.equals(paramTypes, other.paramTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            if (paramTypes == null)
+                return sql;
+            return sql + " " + Arrays.toString(paramTypes);
+        }
+    }
+
+    class Segment {
+        private final int windowCapacity, mainCapacity;
+        private final LinkedHashMap<StatementKey,T> window, main;
+        private final FrequencySketch sketch;
+
+        Segment(int capacity) {
+            windowCapacity = (capacity <= 1) ? capacity : Math.max(1, capacity * WINDOW_PERCENT / 100);
+            mainCapacity = capacity - windowCapacity;
+            window = new LinkedHashMap<>(16, 0.75f, true);
+            main = new LinkedHashMap<>(16, 0.75f, true);
+            sketch = new FrequencySketch(capacity);
+        }
+
+        synchronized T get(StatementKey key) {
+            if (windowCapacity == 0)
+                return null;
+            sketch.increment(key.hash);
+            T stmt = window.get(key);
+            if (stmt == null)
+                stmt = main.get(key);
+            return stmt;
+        }
+
+        synchronized void put(StatementKey key, T stmt) {
+            if (windowCapacity == 0)
+                return;
+            if (main.containsKey(key)) {
+                main.put(key, stmt);
+                return;
+            }
+            window.put(key, stmt);
+            if (window.size() <= windowCapacity)
+                return;
+            Iterator<Map.Entry<StatementKey,T>> iter = window.entrySet().iterator();
+            Map.Entry<StatementKey,T> entry = iter.next();
+            StatementKey candidate = entry.getKey();
+            T candidateStmt = entry.getValue();
+            iter.remove();
+            if (main.size() < mainCapacity) {
+                main.put(candidate, candidateStmt);
+                return;
+            }
+            if (mainCapacity > 0) {
+                iter = main.entrySet().iterator();
+                StatementKey victim = iter.next().getKey();
+                if (sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+                    iter.remove();
+                    main.put(candidate, candidateStmt);
+                }
+            }
+            counters.incrementEvictions();
+        }
+
+        synchronized void clear() {
+            window.clear();
+            main.clear();
+        }
+    }
+
+    /**
+     * Approximate recent access counts: four rows of four-bit
+     * counters, halved after a number of increments proportional to
+     * the capacity, so that old popularity fades.
+     */
+    static final class FrequencySketch {
+        private static final int[] SEEDS = { 0x97cb3127, 0x2f3e4f1b, 0xc2b2ae35, 0x27d4eb2f };
+        private static final int MAX_COUNT = 15;
+
+        private final byte[][] rows;
+        private final int mask;
+        private final int sampleSize;
+        private int size;
+
+        FrequencySketch(int capacity) {
+            int width = 16;
+            while (width < capacity * 2) {
+                width *= 2;
+            }
+            rows = new byte[SEEDS.length][width];
+            mask = width - 1;
+            sampleSize = Math.max(capacity, 1) * 10;
+        }
+
+        public void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < rows.length; i++) {
+                int index = index(hash, i);
+                if (rows[i][index] < MAX_COUNT) {
+                    rows[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && (++size >= sampleSize)) {
+                for (byte[] row : rows) {
+                    for (int j = 0; j < row.length; j++) {
+                        row[j] = (byte)(row[j] >>> 1);
+                    }
+                }
+                size /= 2;
+            }
+        }
+
+        public int frequency(int hash) {
+            int min = MAX_COUNT;
+            for (int i = 0; i < rows.length; i++) {
+                min = Math.min(min, rows[i][index(hash, i)]);
+            }
+            return min;
+        }
+
+        private int index(int hash, int i) {
+            return spread(hash * SEEDS[i]) & mask;
+        }
     }
 }
@@ -92,6 +92,13 @@ public class ServerValueEncoder
         this.zeroDateTimeBehavior = zeroDateTimeBehavior;
     }
 
+    /** Encode into a stream owned by the caller, such as the buffer for an outgoing message. */
+    public ServerValueEncoder(TypesTranslator typesTranslator, String encoding, ByteArrayOutputStream byteStream, 
+                              ZeroDateTimeBehavior zeroDateTimeBehavior, FormatOptions options) {
+        this(typesTranslator, encoding, byteStream, options);
+        this.zeroDateTimeBehavior = zeroDateTimeBehavior;
+    }
+
     public ServerValueEncoder(TypesTranslator typesTranslator, String encoding, ByteArrayOutputStream byteStream, 
                               FormatOptions options) {
         this.typesTranslator = typesTranslator;
@@ -140,6 +147,19 @@ public class ServerValueEncoder
      */
     public ByteArrayOutputStream encodeValue(ValueSource value, ServerType type,
                                              boolean binary) throws IOException {
+        value = encodableValue(value, type);
+        if (value == null)
+            return null;
+        reset();
+        appendValue(value, type, binary);
+        return getByteStream();
+    }
+
+    /**
+     * Get the value that should actually be sent for the given one,
+     * or <code>null</code> if it should be sent as NULL.
+     */
+    public ValueSource encodableValue(ValueSource value, ServerType type) {
         if (value.isNull())
             return null;
         if ((zeroDateTimeBehavior != ZeroDateTimeBehavior.NONE) &&
@@ -159,9 +179,7 @@ public class ServerValueEncoder
                 return null;
             }
         }
-        reset();
-        appendValue(value, type, binary);
-        return getByteStream();
+        return value;
     }
 
     /** Encode the given direct value. */
@@ -178,6 +196,11 @@ public class ServerValueEncoder
     public void reset() {
         getByteStream().reset();
     }
+
+    /** Make sure everything appended so far is in the buffer. */
+    public void flush() {
+        printWriter.flush();
+    }
     
     /** Append the given value to the buffer. */
     public void appendValue(ValueSource value, ServerType type, boolean binary)
@@ -239,7 +239,7 @@ class TupleFloatingUtil {
         List<Object> items = new LinkedList<Object>();
         int pos = start;
         int end = start + length;
-        while(pos < bytes.length) {
+        while(pos < end) {
             DecodeResult decoded = decode(bytes, pos, end);
             items.add(decoded.o);
             pos = decoded.end;
@@ -0,0 +1,301 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.tuple;
+
+import java.nio.charset.Charset;
+
+/**
+ * Reads the elements of a packed {@link Tuple2} one at a time, in place
+ * from a range of a {@code byte} array.
+ *
+ * Unlike {@link Tuple2#fromBytes}, nothing is copied and no element
+ * list is built: integers, floating point numbers and booleans are
+ * returned as primitives. Element types without a typed getter can
+ * still be read with {@link #get}.
+ * <br>
+ * This object is not thread safe.
+ */
+public class TupleReader {
+    public static final int NULL_CODE = 0x00;
+    public static final int BYTES_CODE = 0x01;
+    public static final int STRING_CODE = 0x02;
+    public static final int INT_ZERO_CODE = 0x14;
+    public static final int FLOAT_CODE = TupleFloatingUtil.FLOAT_CODE;
+    public static final int DOUBLE_CODE = TupleFloatingUtil.DOUBLE_CODE;
+    public static final int TRUE_CODE = TupleFloatingUtil.TRUE_CODE;
+    public static final int FALSE_CODE = TupleFloatingUtil.FALSE_CODE;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] bytes;
+    private int pos, end;
+
+    public TupleReader() {
+    }
+
+    public TupleReader(byte[] bytes) {
+        reset(bytes, 0, bytes.length);
+    }
+
+    public TupleReader(byte[] bytes, int offset, int length) {
+        reset(bytes, offset, length);
+    }
+
+    /** Start reading the tuple packed in the given range. */
+    public TupleReader reset(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.pos = offset;
+        this.end = offset + length;
+        return this;
+    }
+
+    /** Are there any more elements? */
+    public boolean hasNext() {
+        return pos < end;
+    }
+
+    /** The number of bytes not yet read. */
+    public int remaining() {
+        return end - pos;
+    }
+
+    /** The type code of the next element, without reading it. */
+    public int peekCode() {
+        return bytes[pos];
+    }
+
+    public boolean isNull() {
+        return bytes[pos] == NULL_CODE;
+    }
+
+    public boolean isInteger() {
+        int code = bytes[pos];
+        return (code >= INT_ZERO_CODE - 8) && (code <= INT_ZERO_CODE + 8);
+    }
+
+    /** Read an integer element. */
+    public long getLong() {
+        int code = bytes[pos];
+        int n = code - INT_ZERO_CODE;
+        boolean negative = (n < 0);
+        if (negative) n = -n;
+        if (n > 8)
+            throw wrongType("integer");
+        long value = 0;
+        for (int i = 1; i <= n; i++) {
+            value = (value << 8) | (bytes[pos + i] & 0xFF);
+        }
+        pos += 1 + n;
+        if (negative) {
+            // Stored as the ones' complement of the magnitude.
+            long mask = (n == 8) ? -1L : (1L << (n * 8)) - 1;
+            value = -(value ^ mask);
+        }
+        return value;
+    }
+
+    /** Read a double element. */
+    public double getDouble() {
+        if (bytes[pos] != DOUBLE_CODE)
+            throw wrongType("double");
+        long bits = 0;
+        for (int i = 1; i <= TupleFloatingUtil.DOUBLE_LEN; i++) {
+            bits = (bits << 8) | (bytes[pos + i] & 0xFF);
+        }
+        pos += 1 + TupleFloatingUtil.DOUBLE_LEN;
+        // See TupleFloatingUtil.floatingPointCoding.
+        if (bits < 0)
+            bits ^= Long.MIN_VALUE;
+        else
+            bits = ~bits;
+        return Double.longBitsToDouble(bits);
+    }
+
+    /** Read a float element. */
+    public float getFloat() {
+        if (bytes[pos] != FLOAT_CODE)
+            throw wrongType("float");
+        int bits = 0;
+        for (int i = 1; i <= TupleFloatingUtil.FLOAT_LEN; i++) {
+            bits = (bits << 8) | (bytes[pos + i] & 0xFF);
+        }
+        pos += 1 + TupleFloatingUtil.FLOAT_LEN;
+        if (bits < 0)
+            bits ^= Integer.MIN_VALUE;
+        else
+            bits = ~bits;
+        return Float.intBitsToFloat(bits);
+    }
+
+    /** Read a boolean element. */
+    public boolean getBoolean() {
+        int code = bytes[pos];
+        if ((code != TRUE_CODE) && (code != FALSE_CODE))
+            throw wrongType("boolean");
+        pos++;
+        return (code == TRUE_CODE);
+    }
+
+    /** Read a string element, or <code>null</code>. */
+    public String getString() {
+        int code = bytes[pos];
+        if (code == NULL_CODE) {
+            pos++;
+            return null;
+        }
+        if (code != STRING_CODE)
+            throw wrongType("string");
+        int start = pos + 1;
+        int stop = terminator(start);
+        String result;
+        if (stop < 0) {
+            stop = -stop - 1;
+            result = new String(bytes, start, stop - start, UTF_8);
+        }
+        else {
+            byte[] unescaped = new byte[unescapedLength(start, stop)];
+            unescape(start, stop, unescaped, 0);
+            result = new String(unescaped, UTF_8);
+        }
+        pos = stop + 1;
+        return result;
+    }
+
+    /** Read a byte string element, or <code>null</code>. */
+    public byte[] getBytes() {
+        int code = bytes[pos];
+        if (code == NULL_CODE) {
+            pos++;
+            return null;
+        }
+        if (code != BYTES_CODE)
+            throw wrongType("bytes");
+        int start = pos + 1;
+        int stop = terminator(start);
+        if (stop < 0)
+            stop = -stop - 1;
+        byte[] result = new byte[unescapedLength(start, stop)];
+        unescape(start, stop, result, 0);
+        pos = stop + 1;
+        return result;
+    }
+
+    /** Read a byte string element into <code>dest</code>, which
+     * must have room for {@link #remaining} bytes, and return its
+     * length.
+     */
+    public int getBytes(byte[] dest, int destOffset) {
+        if (bytes[pos] != BYTES_CODE)
+            throw wrongType("bytes");
+        int start = pos + 1;
+        int stop = terminator(start);
+        int length;
+        if (stop < 0) {
+            stop = -stop - 1;
+            length = stop - start;
+            System.arraycopy(bytes, start, dest, destOffset, length);
+        }
+        else {
+            length = unescape(start, stop, dest, destOffset);
+        }
+        pos = stop + 1;
+        return length;
+    }
+
+    /** Read the next element of any type, as {@link Tuple2#get} would return it. */
+    public Object get() {
+        TupleUtil.DecodeResult decoded = TupleFloatingUtil.decode(bytes, pos, end);
+        pos = decoded.end;
+        return decoded.o;
+    }
+
+    /** Skip over the next element. */
+    public void skip() {
+        int code = bytes[pos];
+        if ((code == BYTES_CODE) || (code == STRING_CODE)) {
+            int stop = terminator(pos + 1);
+            if (stop < 0)
+                stop = -stop - 1;
+            pos = stop + 1;
+        }
+        else if (isInteger()) {
+            pos += 1 + Math.abs(code - INT_ZERO_CODE);
+        }
+        else if (code == DOUBLE_CODE) {
+            pos += 1 + TupleFloatingUtil.DOUBLE_LEN;
+        }
+        else if (code == FLOAT_CODE) {
+            pos += 1 + TupleFloatingUtil.FLOAT_LEN;
+        }
+        else if ((code == NULL_CODE) || (code == TRUE_CODE) || (code == FALSE_CODE)) {
+            pos++;
+        }
+        else {
+            get();
+        }
+    }
+
+    /* Internal */
+
+    // A 0x00 inside a byte or string element is escaped as 0x00 0xFF.
+    // Returns the position of the terminating 0x00, or -(position + 1)
+    // if there were no escapes, so that the bytes can be used as is.
+    private int terminator(int start) {
+        boolean escaped = false;
+        int i = start;
+        while (true) {
+            if (i >= end)
+                throw new IllegalArgumentException("Unterminated tuple element at index " + start);
+            if (bytes[i] == 0) {
+                if ((i + 1 < end) && (bytes[i + 1] == (byte)0xFF)) {
+                    escaped = true;
+                    i += 2;
+                    continue;
+                }
+                return escaped ? i : -(i + 1);
+            }
+            i++;
+        }
+    }
+
+    private int unescapedLength(int start, int stop) {
+        int length = 0;
+        for (int i = start; i < stop; i++) {
+            if (bytes[i] == 0)
+                i++;
+            length++;
+        }
+        return length;
+    }
+
+    private int unescape(int start, int stop, byte[] dest, int destOffset) {
+        int j = destOffset;
+        for (int i = start; i < stop; i++) {
+            byte b = bytes[i];
+            dest[j++] = b;
+            if (b == 0)
+                i++;
+        }
+        return j - destOffset;
+    }
+
+    private IllegalArgumentException wrongType(String expected) {
+        return new IllegalArgumentException("Tuple element at index " + pos +
+                                            " is not " + expected + ": " + bytes[pos]);
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.util;
+
+import static java.lang.Math.exp;
+import static java.lang.Math.log;
+
+/**
+ * Split-block Bloom filter. The filter is an array of 512-bit blocks, the size of a cache line. A 64-bit hash
+ * picks one block with its high half and, with its low half, one bit in each of the block's eight words, so
+ * adding or probing a key touches a single cache line and no division is done.
+ */
+public class BlockedBloomFilter
+{
+    public void add(long hash)
+    {
+        hash = mix(hash);
+        int base = block(hash) * WORDS_PER_BLOCK;
+        int key = (int) hash;
+        for (int i = 0; i < WORDS_PER_BLOCK; i++) {
+            filter[base + i] |= 1L << ((key * SALTS[i]) >>> SHIFT);
+        }
+        keys++;
+    }
+
+    public boolean maybePresent(long hash)
+    {
+        hash = mix(hash);
+        int base = block(hash) * WORDS_PER_BLOCK;
+        int key = (int) hash;
+        for (int i = 0; i < WORDS_PER_BLOCK; i++) {
+            if ((filter[base + i] & (1L << ((key * SALTS[i]) >>> SHIFT))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Fold the hash of one more column into a multi-column key hash. Order matters. */
+    public static long combine(long hash, long columnHash)
+    {
+        return (hash + columnHash) * GOLDEN;
+    }
+
+    /** The false positive rate expected given the keys added so far. */
+    public double expectedFalsePositiveRate()
+    {
+        return falsePositiveRate((double) keys / blocks);
+    }
+
+    public long keys()
+    {
+        return keys;
+    }
+
+    public int sizeInBytes()
+    {
+        return filter.length * 8;
+    }
+
+    public BlockedBloomFilter(long maxKeys, double errorRate)
+    {
+        maxKeys = Math.max(maxKeys, 1);
+        // Start from the size of a classic Bloom filter, from http://en.wikipedia.org/wiki/Bloom_filter.
+        // Keys are not spread evenly over blocks, so grow until the estimate for this layout meets the error rate.
+        double ln2 = log(2);
+        double bitsPerKey = Math.max(-log(errorRate) / (ln2 * ln2), 1);
+        while ((bitsPerKey < MAX_BITS_PER_KEY) &&
+               (falsePositiveRate(BITS_PER_BLOCK / bitsPerKey) > errorRate)) {
+            bitsPerKey *= 1.05;
+        }
+        long nblocks = (long) Math.ceil(maxKeys * bitsPerKey / BITS_PER_BLOCK);
+        blocks = (int) Math.max(1, Math.min(nblocks, MAX_BLOCKS));
+        filter = new long[blocks * WORDS_PER_BLOCK];
+    }
+
+    // For use by this class
+
+    private int block(long hash)
+    {
+        // Multiply and shift maps the high 32 bits onto [0, blocks) without a modulo.
+        return (int) (((hash >>> 32) * blocks) >>> 32);
+    }
+
+    // Finalization step from MurmurHash3's fmix64, so that callers can pass weak hashes.
+    private static long mix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // Average over the Poisson-distributed number of keys per block of the chance that all eight bits
+    // probed for a missing key are set.
+    private static double falsePositiveRate(double keysPerBlock)
+    {
+        double rate = 0;
+        double poisson = exp(-keysPerBlock);
+        int limit = (int) (keysPerBlock + 10 * Math.sqrt(keysPerBlock) + 10);
+        for (int j = 0; j <= limit; j++) {
+            if (j > 0) {
+                poisson *= keysPerBlock / j;
+            }
+            double bitSet = 1 - Math.pow(1 - 1.0 / BITS_PER_WORD, j);
+            rate += poisson * Math.pow(bitSet, WORDS_PER_BLOCK);
+        }
+        return rate;
+    }
+
+    // Class state
+
+    private static final int BITS_PER_WORD = 64;
+    private static final int SHIFT = 32 - 6; // Top log2(BITS_PER_WORD) bits of an int
+    private static final int WORDS_PER_BLOCK = 8;
+    private static final int BITS_PER_BLOCK = BITS_PER_WORD * WORDS_PER_BLOCK;
+    private static final int MAX_BLOCKS = Integer.MAX_VALUE / WORDS_PER_BLOCK;
+    private static final double MAX_BITS_PER_KEY = 64;
+    private static final long GOLDEN = 0x9e3779b97f4a7c15L;
+
+    // Odd constants, one per word, from the Parquet split-block Bloom filter.
+    private static final int[] SALTS = {
+        0x47b6137b, 0x44974d91, 0x8824ad5b, 0xa2b7289d,
+        0x705495c7, 0x2df1424b, 0x9efc4947, 0x5c6bfb31,
+    };
+
+    // Object state
+
+    private final int blocks;
+    private final long[] filter;
+    private long keys;
+}
@@ -50,6 +50,13 @@ class Count extends Tap
         }
     }
 
+    void hits(long count)
+    {
+        justEnabled = false;
+        inCount += count;
+        outCount += count;
+    }
+
     public long getDuration()
     {
         return 0;
@@ -43,6 +43,11 @@ class Dispatch extends Tap
     {
         currentTap.out();
     }
+
+    void hits(long count)
+    {
+        currentTap.hits(count);
+    }
     
     public long getDuration()
     {
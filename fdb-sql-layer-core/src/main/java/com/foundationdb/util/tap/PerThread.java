@@ -54,6 +54,12 @@ abstract class PerThread extends Tap
         threadTap().out();
     }
 
+    @Override
+    void hits(long count)
+    {
+        threadTap().hits(count);
+    }
+
     @Override
     public long getDuration()
     {
@@ -25,6 +25,11 @@ public class PointTap
         internal.out();
     }
 
+    /** Count this many hits at once, such as bytes. */
+    public void hit(long count) {
+        internal.hits(count);
+    }
+
     PointTap(Tap internal) {
         this.internal = internal;
     }
@@ -294,6 +294,11 @@ public abstract class Tap
 
     abstract void out();
 
+    /** Count <code>count</code> in / out pairs at once. Only counting taps do. */
+    void hits(long count)
+    {
+    }
+
     abstract void appendReport(String label, StringBuilder buffer);
 
     abstract TapReport[] getReports();
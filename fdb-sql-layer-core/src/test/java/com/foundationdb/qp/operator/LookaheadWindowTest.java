@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.foundationdb.qp.operator;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+public class LookaheadWindowTest
+{
+    private static final long WAITED_NANOS = LookaheadWindow.DEFAULT_WAITED_MICROS * 1000;
+    private static final long WAITED = WAITED_NANOS * 10;
+    private static final long READY = 0;
+
+    @Test
+    public void growsWhileWaiting() {
+        LookaheadWindow window = new LookaheadWindow(10, LookaheadWindow.DEFAULT_MAX_GROWTH, WAITED_NANOS);
+        assertEquals(10, window.size());
+        assertEquals(40, window.max());
+        window.firstRow(WAITED);
+        assertEquals(20, window.size());
+        window.firstRow(WAITED);
+        window.firstRow(WAITED);
+        assertEquals(40, window.size());
+    }
+
+    @Test
+    public void shrinksToQuantum() {
+        LookaheadWindow window = new LookaheadWindow(10, LookaheadWindow.DEFAULT_MAX_GROWTH, WAITED_NANOS);
+        window.firstRow(READY);
+        assertEquals(10, window.size());
+        window.firstRow(WAITED);
+        window.firstRow(READY);
+        window.firstRow(READY);
+        assertEquals(18, window.size());
+        for (int i = 0; i < 20; i++) {
+            window.firstRow(READY);
+        }
+        assertEquals(10, window.size());
+    }
+
+    @Test
+    public void fixedWindow() {
+        LookaheadWindow window = new LookaheadWindow(10, 1, WAITED_NANOS);
+        assertEquals(10, window.max());
+        window.firstRow(WAITED);
+        assertEquals(10, window.size());
+    }
+
+    @Test
+    public void waitedThreshold() {
+        LookaheadWindow window = new LookaheadWindow(10, 2, WAITED * 2);
+        window.firstRow(WAITED);
+        assertEquals(10, window.size());
+        window.firstRow(WAITED * 3);
+        assertEquals(20, window.size());
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.qp.util;
+
+import com.foundationdb.qp.operator.RowsBuilder;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
+import com.foundationdb.server.types.mcompat.mtypes.MString;
+import com.foundationdb.server.types.texpressions.TEvaluatableExpression;
+import com.foundationdb.server.types.texpressions.TPreparedExpression;
+import com.foundationdb.server.types.texpressions.TPreparedField;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LongKeyHashTableTest
+{
+    @Test
+    public void canPack() {
+        List<TPreparedExpression> ints = fields(MNumeric.INT.instance(true), MNumeric.BIGINT.instance(true));
+        assertTrue(LongKeyHashTable.canPack(ints, ints, null));
+        assertFalse(LongKeyHashTable.canPack(fields(MNumeric.INT.instance(true), MString.varchar()), ints, null));
+        // Either side can stop it.
+        assertFalse(LongKeyHashTable.canPack(ints, fields(MNumeric.INT.instance(true), MNumeric.DECIMAL.instance(10, 2, true)), null));
+    }
+
+    @Test
+    public void singleKey() {
+        TInstance type = MNumeric.BIGINT.instance(true);
+        RowsBuilder builder = new RowsBuilder(type, MString.varchar());
+        for (long i = 0; i < 1000; i++) {
+            builder.row(i % 100, "r" + i);
+        }
+        builder.row(null, "null");
+        List<TEvaluatableExpression> key = evaluatables(fields(type));
+        LongKeyHashTable hashTable = new LongKeyHashTable(1);
+        List<Row> loaded = new ArrayList<>(builder.rows());
+        for (Row row : loaded) {
+            hashTable.put(row, key, null);
+        }
+        assertEquals(1000, hashTable.size());
+        assertEquals(100, hashTable.distinctKeys());
+        for (long k = 0; k < 100; k++) {
+            Row probe = new RowsBuilder(type, MString.varchar()).row(k, "probe").rows().getFirst();
+            List<Row> matches = hashTable.getMatchingRows(probe, key, null);
+            assertEquals(10, matches.size());
+            for (int i = 0; i < 10; i++) {
+                // Load order is preserved within a key.
+                assertSame(loaded.get((int)k + i * 100), matches.get(i));
+            }
+        }
+        Row missing = new RowsBuilder(type, MString.varchar()).row(100L, "probe").rows().getFirst();
+        assertEquals(Collections.<Row>emptyList(), hashTable.getMatchingRows(missing, key, null));
+        Row nullProbe = new RowsBuilder(type, MString.varchar()).row(null, "probe").rows().getFirst();
+        assertEquals(Collections.<Row>emptyList(), hashTable.getMatchingRows(nullProbe, key, null));
+    }
+
+    @Test
+    public void matchNulls() {
+        TInstance type = MNumeric.INT.instance(true);
+        RowsBuilder builder = new RowsBuilder(type, type)
+            .row(1L, null)
+            .row(1L, 0L)
+            .row(null, 0L);
+        List<TEvaluatableExpression> key = evaluatables(fields(type, type));
+        LongKeyHashTable hashTable = new LongKeyHashTable(2);
+        hashTable.setMatchNulls(true);
+        for (Row row : builder.rows()) {
+            hashTable.put(row, key, null);
+        }
+        assertEquals(3, hashTable.distinctKeys());
+        for (Row row : builder.rows()) {
+            List<Row> matches = hashTable.getMatchingRows(row, key, null);
+            assertEquals(1, matches.size());
+            assertSame(row, matches.get(0));
+        }
+    }
+
+    private static List<TPreparedExpression> fields(TInstance... types) {
+        List<TPreparedExpression> result = new ArrayList<>();
+        for (int i = 0; i < types.length; i++) {
+            result.add(new TPreparedField(types[i], i));
+        }
+        return result;
+    }
+
+    private static List<TEvaluatableExpression> evaluatables(List<TPreparedExpression> fields) {
+        List<TEvaluatableExpression> result = new ArrayList<>();
+        for (TPreparedExpression field : fields) {
+            result.add(field.build());
+        }
+        return result;
+    }
+}
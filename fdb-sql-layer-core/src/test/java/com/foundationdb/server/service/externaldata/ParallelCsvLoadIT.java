@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.service.externaldata;
+
+import com.foundationdb.ais.model.Table;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.server.error.DuplicateKeyException;
+import com.foundationdb.server.service.ServiceManager;
+import com.foundationdb.server.service.config.ConfigurationService;
+import com.foundationdb.server.service.dxl.DXLService;
+import com.foundationdb.server.service.servicemanager.GuicedServiceManager;
+import com.foundationdb.server.service.transaction.TransactionService;
+import com.foundationdb.server.store.Store;
+import com.foundationdb.server.test.it.ITBase;
+
+import com.google.inject.Inject;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+public class ParallelCsvLoadIT extends ITBase
+{
+    public static final int NROWS = 5000;
+    public static final int CHUNK_BYTES = 2000;
+
+    protected ExternalDataService external;
+    protected int tableId;
+    protected Table table;
+
+    @Override
+    protected GuicedServiceManager.BindingsConfigurationProvider serviceBindingsProvider() {
+        return super.serviceBindingsProvider()
+                .bindAndRequire(ExternalDataService.class, SmallChunkExternalDataServiceImpl.class);
+    }
+
+    @Override
+    protected Map<String, String> startupConfigProperties() {
+        Map<String,String> properties = new HashMap<>(uniqueStartupConfigProperties(getClass()));
+        properties.put("fdbsql.load.parallelism", "4");
+        return properties;
+    }
+
+    @Before
+    public void createSchema() {
+        external = serviceManager().getServiceByClass(ExternalDataService.class);
+        tableId = createTable("test", "t", "id INT PRIMARY KEY NOT NULL", "s VARCHAR(64)");
+        table = ais().getTable(tableId);
+    }
+
+    @Test
+    public void loadPeriodically() throws Exception {
+        assertEquals(NROWS, load(csv(NROWS), ExternalDataService.COMMIT_FREQUENCY_PERIODICALLY));
+        checkRows(NROWS);
+    }
+
+    @Test
+    public void loadEveryN() throws Exception {
+        assertEquals(NROWS, load(csv(NROWS), 100));
+        checkRows(NROWS);
+    }
+
+    @Test
+    public void loadError() throws Exception {
+        String csv = csv(NROWS) + "17,duplicate\n";
+        try {
+            load(csv, 100);
+            fail("duplicate key not detected");
+        }
+        catch (DuplicateKeyException ex) {
+        }
+    }
+
+    protected long load(String csv, long commitFrequency) throws Exception {
+        InputStream istr = new ByteArrayInputStream(csv.getBytes("UTF-8"));
+        CsvFormat format = new CsvFormat("UTF-8");
+        return external.loadTableFromCsv(session(), istr, format, 1,
+                                         table, table.getColumns(),
+                                         commitFrequency, 1, null);
+    }
+
+    protected static String csv(int nrows) {
+        StringBuilder str = new StringBuilder("id,s\n");
+        for (int i = 0; i < nrows; i++) {
+            str.append(i).append(',');
+            if (i % 3 == 0) {
+                // Quoted newlines must not split a chunk.
+                str.append("\"row\n").append(i).append("\"");
+            }
+            else {
+                str.append("row ").append(i);
+            }
+            str.append('\n');
+        }
+        return str.toString();
+    }
+
+    protected void checkRows(int nrows) {
+        List<Row> rows = scanAll(tableId);
+        assertEquals(nrows, rows.size());
+        for (int i = 0; i < nrows; i++) {
+            Row row = rows.get(i);
+            assertEquals(i, row.value(0).getInt32());
+            assertEquals(((i % 3) == 0) ? ("row\n" + i) : ("row " + i), row.value(1).getString());
+        }
+    }
+
+    static class SmallChunkExternalDataServiceImpl extends ExternalDataServiceImpl {
+        @Inject
+        public SmallChunkExternalDataServiceImpl(ConfigurationService configService,
+                                                 DXLService dxlService,
+                                                 Store store,
+                                                 TransactionService transactionService,
+                                                 ServiceManager serviceManager) {
+            super(configService, dxlService, store, transactionService, serviceManager);
+        }
+
+        @Override
+        protected int loadChunkBytes() {
+            return CHUNK_BYTES;
+        }
+    }
+}
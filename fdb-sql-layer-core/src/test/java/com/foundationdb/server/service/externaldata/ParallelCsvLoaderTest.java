@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.service.externaldata;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+public final class ParallelCsvLoaderTest {
+    @Test
+    public void chunksAtNewlines() throws Exception {
+        List<String> chunks = chunks("a,1\nbb,2\nccc,3\ndddd,4\n", new CsvFormat("UTF-8"), 0, 5);
+        assertEquals(Arrays.asList("a,1\nbb,2\n", "ccc,3\n", "dddd,4\n"), chunks);
+    }
+
+    @Test
+    public void lastRowWithoutNewline() throws Exception {
+        List<String> chunks = chunks("a,1\nbb,2", new CsvFormat("UTF-8"), 0, 1);
+        assertEquals(Arrays.asList("a,1\n", "bb,2"), chunks);
+    }
+
+    @Test
+    public void notInsideQuotes() throws Exception {
+        String csv = "1,\"x\ny\"\n2,\"say \"\"hi\"\"\n\"\n3,z\n";
+        List<String> chunks = chunks(csv, new CsvFormat("UTF-8"), 0, 1);
+        assertEquals(Arrays.asList("1,\"x\ny\"\n", "2,\"say \"\"hi\"\"\n\"\n", "3,z\n"), chunks);
+    }
+
+    @Test
+    public void escapedQuote() throws Exception {
+        CsvFormat format = new CsvFormat("UTF-8");
+        format.setEscape("\\");
+        String csv = "1,\"a\\\"\nb\"\n2,c\n";
+        List<String> chunks = chunks(csv, format, 0, 1);
+        assertEquals(Arrays.asList("1,\"a\\\"\nb\"\n", "2,c\n"), chunks);
+    }
+
+    @Test
+    public void skipHeader() throws Exception {
+        List<String> chunks = chunks("id,s\n1,a\n2,b\n", new CsvFormat("UTF-8"), 1, 100);
+        assertEquals(Arrays.asList("1,a\n2,b\n"), chunks);
+    }
+
+    @Test
+    public void rowLongerThanBuffer() throws Exception {
+        StringBuilder str = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            str.append('x');
+        }
+        String csv = "1," + str + "\n2,y\n";
+        List<String> chunks = chunks(csv, new CsvFormat("UTF-8"), 0, 16);
+        assertEquals(Arrays.asList("1," + str + "\n", "2,y\n"), chunks);
+    }
+
+    @Test
+    public void empty() throws Exception {
+        assertEquals(Collections.<String>emptyList(), chunks("", new CsvFormat("UTF-8"), 0, 16));
+    }
+
+    protected static List<String> chunks(String csv, CsvFormat format, long skipRows, int chunkBytes) throws IOException {
+        ParallelCsvLoader.Chunker chunker = 
+            new ParallelCsvLoader.Chunker(new ByteArrayInputStream(csv.getBytes("UTF-8")), format, chunkBytes);
+        chunker.skipRows(skipRows);
+        List<String> result = new ArrayList<>();
+        byte[] chunk;
+        while ((chunk = chunker.nextChunk()) != null) {
+            result.add(new String(chunk, "UTF-8"));
+        }
+        return result;
+    }
+}
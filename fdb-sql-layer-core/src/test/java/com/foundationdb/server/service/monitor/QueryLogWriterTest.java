@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.service.monitor;
+
+import com.foundationdb.util.JsonUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class QueryLogWriterTest
+{
+    private File dir;
+    private AtomicLong dropped;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("querylog").toFile();
+        dropped = new AtomicLong();
+    }
+
+    @After
+    public void deleteDir() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void text() throws IOException {
+        QueryLogWriter writer = writer(QueryLogWriter.Format.TEXT, 1024, 0);
+        assertTrue(writer.offer(new QueryLogWriter.Entry(0, 1, "SELECT 1", 10, 1, null)));
+        assertTrue(writer.offer(new QueryLogWriter.Entry(0, 2, "SELECT x", 20, -1, "bad column")));
+        writer.close();
+        List<String> lines = lines();
+        assertEquals(12, lines.size());
+        assertEquals("# session_id=1", lines.get(1));
+        assertEquals("# rows_processed=1", lines.get(3));
+        assertEquals("SELECT 1", lines.get(4));
+        assertEquals("# error_msg=bad column", lines.get(9));
+    }
+
+    @Test
+    public void json() throws IOException {
+        QueryLogWriter writer = writer(QueryLogWriter.Format.JSON, 1024, 0);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(writer.offer(new QueryLogWriter.Entry(0, i, "SELECT \"" + i + "\"", i, i, null)));
+        }
+        writer.close();
+        List<String> lines = lines();
+        assertEquals(100, lines.size());
+        for (int i = 0; i < 100; i++) {
+            JsonNode node = JsonUtils.readTree(lines.get(i));
+            assertEquals(i, node.get("session_id").asInt());
+            assertEquals("SELECT \"" + i + "\"", node.get("sql").asText());
+        }
+    }
+
+    @Test
+    public void dropWhenFull() throws Exception {
+        final QueryLogWriter writer = writer(QueryLogWriter.Format.TEXT, 16, 0);
+        final int nthreads = 4, nentries = 10000;
+        final AtomicLong accepted = new AtomicLong();
+        Thread[] threads = new Thread[nthreads];
+        for (int i = 0; i < nthreads; i++) {
+            threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        for (int j = 0; j < nentries; j++) {
+                            if (writer.offer(new QueryLogWriter.Entry(0, 1, "SELECT " + j, 1, 1, null)))
+                                accepted.incrementAndGet();
+                        }
+                    }
+                };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writer.close();
+        assertEquals(nthreads * nentries, accepted.get() + dropped.get());
+        int logged = 0;
+        for (String line : lines()) {
+            if (line.startsWith("SELECT"))
+                logged++;
+        }
+        assertEquals(accepted.get(), logged);
+    }
+
+    @Test
+    public void rotate() throws IOException {
+        QueryLogWriter writer = writer(QueryLogWriter.Format.TEXT, 1024, 100);
+        for (int i = 0; i < 10; i++) {
+            writer.offer(new QueryLogWriter.Entry(0, 1, "SELECT " + i, 1, 1, null));
+            sleep(50);
+        }
+        writer.close();
+        assertTrue("rotated files", dir.listFiles().length > 1);
+        int logged = 0;
+        for (String line : lines()) {
+            if (line.startsWith("SELECT"))
+                logged++;
+        }
+        assertEquals(10, logged);
+    }
+
+    @Test
+    public void flushWhenHalfFull() throws IOException {
+        QueryLogWriter writer = writer(QueryLogWriter.Format.JSON, 16, 60000, 0);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(writer.offer(new QueryLogWriter.Entry(0, i, "SELECT " + i, 1, 1, null)));
+        }
+        sleep(100);
+        assertEquals("before interval", 0, lines().size());
+        for (int i = 4; i < 9; i++) {
+            assertTrue(writer.offer(new QueryLogWriter.Entry(0, i, "SELECT " + i, 1, 1, null)));
+        }
+        for (int i = 0; (i < 100) && (lines().size() < 9); i++) {
+            sleep(50);
+        }
+        assertEquals("after half full", 9, lines().size());
+        writer.close();
+    }
+
+    private QueryLogWriter writer(QueryLogWriter.Format format, int bufferSize,
+                                  long maxFileSize) throws IOException {
+        return writer(format, bufferSize, 10, maxFileSize);
+    }
+
+    private QueryLogWriter writer(QueryLogWriter.Format format, int bufferSize,
+                                  long flushMillis, long maxFileSize) throws IOException {
+        return new QueryLogWriter(new File(dir, "queries.log").getPath(), format,
+                                  bufferSize, flushMillis, maxFileSize, 0, dropped);
+    }
+
+    private List<String> lines() throws IOException {
+        List<String> result = new ArrayList<>();
+        File[] files = dir.listFiles();
+        Arrays.sort(files);
+        for (File file : files) {
+            result.addAll(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store;
+
+import com.foundationdb.ais.model.Group;
+import com.foundationdb.ais.model.Table;
+import com.foundationdb.ais.model.TableName;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.rowtype.Schema;
+import com.foundationdb.qp.storeadapter.FDBAdapter;
+import com.foundationdb.qp.util.SchemaCache;
+import com.foundationdb.server.store.FDBTransactionService.TransactionState;
+import com.foundationdb.server.test.it.FDBITBase;
+import com.foundationdb.server.test.it.qp.TestRow;
+import com.foundationdb.tuple.ByteArrayUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class FDBParallelScanIT extends FDBITBase
+{
+    private static final String SCHEMA = "test";
+
+    private Group group;
+    private FDBAdapter adapter;
+    private Row[] expected;
+
+    static final int NT1 = 5, NT2 = 10;
+
+    @Before
+    public void populate() {
+        createFromDDL(SCHEMA,
+                      "CREATE TABLE t1(id INT PRIMARY KEY, name VARCHAR(16));\n" +
+                      "CREATE TABLE t2(id INT PRIMARY KEY, pid INT, GROUPING FOREIGN KEY(pid) REFERENCES t1(id), name VARCHAR(16));");
+        int tid1 = ddl().getTableId(session(), new TableName(SCHEMA, "t1"));
+        int tid2 = ddl().getTableId(session(), new TableName(SCHEMA, "t2"));
+
+        Table t1 = getTable(tid1);
+        Table t2 = getTable(tid2);
+        group = t1.getGroup();
+
+        Schema schema = SchemaCache.globalSchema(ddl().getAIS(session()));
+        RowType t1Type = schema.tableRowType(t1);
+        RowType t2Type = schema.tableRowType(t2);
+        adapter = (FDBAdapter)newStoreAdapter();
+
+        txnService().beginTransaction(session());
+
+        List<Row> inserted = new ArrayList<>(NT1 * NT2);
+
+        for (int i1 = 0; i1 < NT1; i1++) {
+            Object[] r1 = { i1, Integer.toString(i1) };
+            writeRow(tid1, r1);
+            inserted.add(new TestRow(t1Type, r1));
+            for (int i2 = 0; i2 < NT2; i2++) {
+                Object[] r2 = { i1 * 1000 + i2, i1, String.format("%d-%d", i1, i2) };
+                writeRow(tid2, r2);
+                inserted.add(new TestRow(t2Type, r2));
+            }
+        }
+
+        expected = inserted.toArray(new Row[inserted.size()]);
+
+        txnService().commitTransaction(session());
+    }
+
+    @Test
+    public void parallelGroupCursor() {
+        txnService().beginTransaction(session());
+        compareRows(expected, adapter.newGroupCursor(group, 4));
+        txnService().commitTransaction(session());
+    }
+
+    @Test
+    public void shardBoundariesInsideRange() {
+        txnService().beginTransaction(session());
+        FDBStore store = (FDBStore)store();
+        FDBStoreData storeData = store.createStoreData(session(), group);
+        byte[] begin = FDBStoreDataHelper.prefixBytes(storeData);
+        byte[] end = ByteArrayUtil.strinc(begin);
+        TransactionState txn = store.getTransaction(session(), storeData);
+        for (byte[] boundary : store.shardBoundaries(txn, begin, end)) {
+            assertTrue(ByteArrayUtil.compareUnsigned(boundary, begin) > 0);
+            assertTrue(ByteArrayUtil.compareUnsigned(boundary, end) < 0);
+        }
+        txnService().commitTransaction(session());
+    }
+
+    @Test
+    public void splitsInOrder() {
+        txnService().beginTransaction(session());
+        List<byte[]> keys = serialKeys();
+        assertEquals(expected.length, keys.size());
+        // Split before every seventh row, and once past the end of the rows.
+        List<byte[]> boundaries = new ArrayList<>();
+        for (int i = 7; i < keys.size(); i += 7) {
+            boundaries.add(keys.get(i));
+        }
+        boundaries.add(ByteArrayUtil.join(keys.get(keys.size() - 1), new byte[] { 0 }));
+        for (int parallelism : new int[] { 1, 2, 16 }) {
+            assertKeysEqual(keys, parallelKeys(boundaries, parallelism));
+        }
+        assertKeysEqual(keys, parallelKeys(Collections.<byte[]>emptyList(), 4));
+        txnService().commitTransaction(session());
+    }
+
+    @Test
+    public void decodedOnSplits() {
+        txnService().beginTransaction(session());
+        FDBStore store = (FDBStore)store();
+        Schema schema = SchemaCache.globalSchema(group.getAIS());
+        List<byte[]> keys = serialKeys();
+        List<byte[]> boundaries = new ArrayList<>();
+        for (int i = 3; i < keys.size(); i += 3) {
+            boundaries.add(keys.get(i));
+        }
+        List<String> serialHKeys = new ArrayList<>();
+        FDBStoreData storeData = store.createStoreData(session(), group);
+        store.groupIterator(session(), storeData);
+        while (storeData.next()) {
+            store.expandGroupData(session(), storeData, schema);
+            serialHKeys.add(storeData.persistitKey.toString());
+        }
+        storeData.closeIterator();
+        List<Row> rows = new ArrayList<>();
+        List<String> hKeys = new ArrayList<>();
+        storeData = parallelStoreData(boundaries, 4, schema);
+        while (storeData.next()) {
+            assertNotNull(storeData.iterator.currentRow());
+            rows.add(store.expandGroupData(session(), storeData, schema));
+            hKeys.add(storeData.persistitKey.toString());
+        }
+        storeData.closeIterator();
+        compareRows(expected, rows.toArray(new Row[rows.size()]));
+        assertEquals(serialHKeys, hKeys);
+        txnService().commitTransaction(session());
+    }
+
+    @Test
+    public void closeEarly() {
+        txnService().beginTransaction(session());
+        List<byte[]> keys = serialKeys();
+        FDBStoreData storeData = parallelStoreData(keys.subList(1, keys.size()), 2);
+        FDBStoreDataParallelIterator iterator = (FDBStoreDataParallelIterator)storeData.iterator;
+        assertTrue(storeData.next());
+        assertTrue(storeData.next());
+        storeData.closeIterator();
+        // Nothing still reading through the transaction being committed.
+        assertEquals(0, iterator.runningSplits());
+        txnService().commitTransaction(session());
+    }
+
+    private List<byte[]> serialKeys() {
+        FDBStore store = (FDBStore)store();
+        FDBStoreData storeData = store.createStoreData(session(), group);
+        store.groupIterator(session(), storeData);
+        List<byte[]> keys = new ArrayList<>();
+        while (storeData.next()) {
+            keys.add(storeData.rawKey);
+        }
+        storeData.closeIterator();
+        return keys;
+    }
+
+    private List<byte[]> parallelKeys(List<byte[]> boundaries, int parallelism) {
+        FDBStoreData storeData = parallelStoreData(boundaries, parallelism);
+        List<byte[]> keys = new ArrayList<>();
+        while (storeData.next()) {
+            keys.add(storeData.rawKey);
+        }
+        storeData.closeIterator();
+        return keys;
+    }
+
+    private FDBStoreData parallelStoreData(List<byte[]> boundaries, int parallelism) {
+        return parallelStoreData(boundaries, parallelism, null);
+    }
+
+    private FDBStoreData parallelStoreData(List<byte[]> boundaries, int parallelism, Schema schema) {
+        FDBStore store = (FDBStore)store();
+        FDBStoreData storeData = store.createStoreData(session(), group);
+        byte[] begin = FDBStoreDataHelper.prefixBytes(storeData);
+        byte[] end = ByteArrayUtil.strinc(begin);
+        TransactionState txn = store.getTransaction(session(), storeData);
+        storeData.iterator = new FDBStoreDataParallelIterator(store, storeData, schema, txn.getTransaction(),
+                                                              begin, end, boundaries, parallelism,
+                                                              store.getParallelScanExecutor());
+        return storeData;
+    }
+
+    private static void assertKeysEqual(List<byte[]> expected, List<byte[]> actual) {
+        assertEquals("number of keys", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals("key " + i, expected.get(i), actual.get(i));
+        }
+    }
+}
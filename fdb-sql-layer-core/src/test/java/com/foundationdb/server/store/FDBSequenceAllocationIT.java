@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.foundationdb.server.store;
+
+import com.foundationdb.KeyValue;
+import com.foundationdb.ais.model.Sequence;
+import com.foundationdb.ais.model.TableName;
+import com.foundationdb.server.service.session.Session;
+import com.foundationdb.server.test.it.FDBITBase;
+import com.foundationdb.tuple.Tuple2;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class FDBSequenceAllocationIT extends FDBITBase
+{
+    private static final String SCHEMA = "test";
+    private static final int VALUES_PER_THREAD = 200;
+
+    @Override
+    protected Map<String, String> startupConfigProperties() {
+        Map<String,String> props = new HashMap<>(super.startupConfigProperties());
+        props.put("fdbsql.fdb.sequence_allocation", "sharded");
+        props.put("fdbsql.fdb.sequence_shards", "4");
+        // Refill on (almost) every transaction to exercise contention.
+        props.put("fdbsql.fdb.sequence_cache_size", "1");
+        props.put("fdbsql.fdb.sequence_cache_max_size", "1");
+        return props;
+    }
+
+    @Test
+    public void uniqueAcrossSessions() throws Exception {
+        Sequence sequence = createSequence("s1");
+        List<Long> values = allocate(sequence, 8);
+        assertEquals(8 * VALUES_PER_THREAD, values.size());
+        assertEquals("distinct values", values.size(), new HashSet<>(values).size());
+        // Each shard hands out every fourth value above the start, so
+        // none can be below it or beyond what four shards could reach.
+        assertTrue("above start", Collections.min(values) >= 1);
+        assertTrue("within shards", Collections.max(values) <= 4L * values.size());
+    }
+
+    @Test
+    public void shardLayout() {
+        byte[] prefix = { 0x15, 0x01 };
+        List<KeyValue> kvs = Arrays.asList(
+            new KeyValue(prefix, Tuple2.from(101L).pack()),
+            new KeyValue(SequenceShards.shardKey(prefix, 4, 1), Tuple2.from(3L).pack()),
+            new KeyValue(SequenceShards.shardKey(prefix, 4, 3), Tuple2.from(2L).pack()));
+        SequenceShards shards = SequenceShards.read(prefix, kvs);
+        assertEquals(101, shards.getFloor());
+        assertTrue(shards.allShardCount(4));
+        assertFalse(shards.allShardCount(8));
+        assertEquals(3, shards.allocated(4, 1));
+        assertEquals(0, shards.allocated(4, 2));
+        // Shard 1 has 102, 106, 110; shard 3 has 104, 108.
+        assertEquals(110, shards.rawValue(4, 1, 2));
+        assertEquals(111, shards.highWater());
+        assertEquals(111, shards.currentValue());
+        assertEquals(0, SequenceShards.read(prefix, new ArrayList<KeyValue>()).currentValue());
+    }
+
+    @Test
+    public void adaptiveBlockSize() {
+        SequenceCache previous = SequenceCache.newLocal(1, 100, 1);
+        long now = System.nanoTime();
+        // Used up in no time: double.
+        assertEquals(200, SequenceCache.nextBlockSize(previous, 10, 1000, now));
+        // Used up slowly: halve, but not below the minimum.
+        assertEquals(50, SequenceCache.nextBlockSize(previous, 10, 1000, now + 100 * SequenceCache.TARGET_BLOCK_NANOS));
+        assertEquals(80, SequenceCache.nextBlockSize(previous, 80, 1000, now + 100 * SequenceCache.TARGET_BLOCK_NANOS));
+        assertEquals(10, SequenceCache.nextBlockSize(SequenceCache.newEmpty(), 10, 1000, now));
+    }
+
+    private Sequence createSequence(String name) {
+        createFromDDL(SCHEMA, "CREATE SEQUENCE " + name + " START WITH 1 INCREMENT BY 1;");
+        return ais().getSequence(new TableName(SCHEMA, name));
+    }
+
+    private List<Long> allocate(final Sequence sequence, int nthreads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(nthreads);
+        List<Future<List<Long>>> futures = new ArrayList<>();
+        for (int i = 0; i < nthreads; i++) {
+            futures.add(executor.submit(new Callable<List<Long>>() {
+                    @Override
+                    public List<Long> call() {
+                        final Session session = createNewSession();
+                        try {
+                            List<Long> values = new ArrayList<>(VALUES_PER_THREAD);
+                            for (int j = 0; j < VALUES_PER_THREAD; j++) {
+                                values.add(txnService().run(session, new Callable<Long>() {
+                                        @Override
+                                        public Long call() {
+                                            return store().nextSequenceValue(session, sequence);
+                                        }
+                                    }));
+                            }
+                            return values;
+                        }
+                        finally {
+                            session.close();
+                        }
+                    }
+                }));
+        }
+        List<Long> result = new ArrayList<>();
+        for (Future<List<Long>> future : futures) {
+            result.addAll(future.get());
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        return result;
+    }
+}
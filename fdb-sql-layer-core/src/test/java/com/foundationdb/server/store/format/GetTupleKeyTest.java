@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.foundationdb.server.store.format;
+
+import com.foundationdb.ais.CAOIBuilderFiller;
+import com.foundationdb.ais.model.AbstractVisitor;
+import com.foundationdb.ais.model.AkibanInformationSchema;
+import com.foundationdb.ais.model.Group;
+import com.foundationdb.ais.model.Index;
+import com.foundationdb.ais.model.Table;
+import com.foundationdb.ais.protobuf.FDBProtobuf.TupleUsage;
+import com.foundationdb.server.store.format.columnkeys.ColumnKeysStorageDescription;
+import com.foundationdb.server.store.format.tuple.TupleStorageDescription;
+import com.foundationdb.tuple.Tuple2;
+import com.persistit.Key;
+import com.persistit.Persistit;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+/** Decoding a packed key in place must give the same Persistit
+ * <code>Key</code> as going through {@link Tuple2}, for each format.
+ */
+public class GetTupleKeyTest
+{
+    private Group group;
+    private Index customerPK;
+    private int customer, address, order, item;
+
+    @Before
+    public void createAIS() {
+        AkibanInformationSchema ais = CAOIBuilderFiller.createAndFillBuilder("test").ais();
+        ais.visit(new AbstractVisitor() {
+                int nextOrdinal = 1;
+
+                @Override
+                public void visit(Table table) {
+                    if (table.getOrdinal() == null) {
+                        table.setOrdinal(nextOrdinal++);
+                    }
+                }
+            });
+        Table customerTable = ais.getTable("test", CAOIBuilderFiller.CUSTOMER_TABLE);
+        group = customerTable.getGroup();
+        customerPK = customerTable.getIndex(Index.PRIMARY);
+        customer = customerTable.getOrdinal();
+        address = ais.getTable("test", CAOIBuilderFiller.ADDRESS_TABLE).getOrdinal();
+        order = ais.getTable("test", CAOIBuilderFiller.ORDER_TABLE).getOrdinal();
+        item = ais.getTable("test", CAOIBuilderFiller.ITEM_TABLE).getOrdinal();
+    }
+
+    @Test
+    public void tupleGroup() {
+        TupleStorageDescription storage = new TupleStorageDescription(group, "tuple");
+        storage.setUsage(TupleUsage.KEY_AND_ROW);
+        checkHKeys(storage);
+        // Not an ordinal of this group, so stays a long.
+        check(storage, Tuple2.from(customer, 5L, 99L, 7L));
+    }
+
+    @Test
+    public void tupleIndex() {
+        TupleStorageDescription storage = new TupleStorageDescription(customerPK, "tuple");
+        storage.setUsage(TupleUsage.KEY_ONLY);
+        check(storage, Tuple2.from(5L));
+        check(storage, Tuple2.from(-5L, "abc", null));
+        check(storage, Tuple2.from(Long.MAX_VALUE, 1.5, true, new byte[] { 0, 1, 0 }));
+    }
+
+    @Test
+    public void columnKeys() {
+        ColumnKeysStorageDescription storage = new ColumnKeysStorageDescription(group, "column_keys");
+        checkHKeys(storage);
+    }
+
+    @Test
+    public void persistitKey() {
+        FDBStorageDescription storage = new FDBStorageDescription(group, "fdb");
+        Key key = newKey();
+        key.append(5L).append(order).append("a\u0000b").append((Object)null);
+        byte[] keyBytes = Arrays.copyOf(key.getEncodedBytes(), key.getEncodedSize());
+        check(storage, Tuple2.from(keyBytes));
+        // The escaped zeros take more room packed than decoded.
+        check(storage, Tuple2.from(new byte[100]));
+        check(storage, Tuple2.from(new byte[0]));
+    }
+
+    private void checkHKeys(FDBStorageDescription storage) {
+        check(storage, Tuple2.from(customer, 5L));
+        check(storage, Tuple2.from(customer, -5L, address, 2L));
+        check(storage, Tuple2.from(customer, 5L, order, 7L));
+        check(storage, Tuple2.from(customer, 5L, order, 7L, item, 9L));
+        // Child ordinal after a null parent key.
+        check(storage, Tuple2.from(customer, null, order, 7L, item, Long.MIN_VALUE));
+        // Orphan, and string segments.
+        check(storage, Tuple2.from(customer, "x", order));
+    }
+
+    private static void check(FDBStorageDescription storage, Tuple2 tuple) {
+        byte[] packed = tuple.pack();
+        Key expected = newKey();
+        storage.getTupleKey(Tuple2.fromBytes(packed), expected);
+        // Decode from the middle of a larger array.
+        byte[] bytes = new byte[packed.length + 5];
+        Arrays.fill(bytes, (byte)0xFF);
+        System.arraycopy(packed, 0, bytes, 2, packed.length);
+        Key actual = newKey();
+        actual.append("stale");
+        storage.getTupleKey(bytes, 2, packed.length, actual);
+        assertEquals(tuple.toString(), expected, actual);
+    }
+
+    private static Key newKey() {
+        return new Key((Persistit)null);
+    }
+}
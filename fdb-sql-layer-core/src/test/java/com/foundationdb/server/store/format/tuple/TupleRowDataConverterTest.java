@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.store.format.tuple;
+
+import com.foundationdb.qp.operator.RowsBuilder;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.types.aksql.aktypes.AkBool;
+import com.foundationdb.server.types.mcompat.mtypes.MApproximateNumber;
+import com.foundationdb.server.types.mcompat.mtypes.MDateAndTime;
+import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
+import com.foundationdb.server.types.mcompat.mtypes.MString;
+import com.foundationdb.tuple.Tuple2;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+
+public class TupleRowDataConverterTest
+{
+    private final RowType rowType = new RowsBuilder(MNumeric.INT.instance(false),
+                                                    MString.varchar(),
+                                                    MApproximateNumber.DOUBLE.instance(true),
+                                                    MNumeric.DECIMAL.instance(10, 2, true),
+                                                    MDateAndTime.DATE.instance(true),
+                                                    AkBool.INSTANCE.instance(true),
+                                                    MNumeric.BIGINT.instance(true)).rowType();
+
+    @Test
+    public void sameAsTuple() {
+        check(1L, "abc", 3.5, new BigDecimal("12.34"), (long)MDateAndTime.encodeDate(2014, 6, 1), true, Long.MIN_VALUE);
+        check(2L, "x\u0000y", null, null, null, null, null);
+    }
+
+    @Test
+    public void lazyOutOfOrder() {
+        byte[] bytes = Tuple2.from(7L, "last", -1.0, new BigDecimal("-0.50"), 0L, false, 99L).pack();
+        byte[] padded = new byte[bytes.length + 3];
+        System.arraycopy(bytes, 0, padded, 1, bytes.length);
+        Row row = TupleRowDataConverter.lazyTupleToRow(padded, 1, bytes.length, rowType);
+        assertEquals(99L, row.value(6).getInt64());
+        assertEquals("last", row.value(1).getString());
+        assertEquals(7, row.value(0).getInt32());
+        assertFalse(row.value(5).getBoolean());
+        // The same decoded value each time.
+        assertSame(row.value(1), row.value(1));
+    }
+
+    private void check(Object... objects) {
+        byte[] bytes = Tuple2.from(objects).pack();
+        Row expected = TupleRowDataConverter.tupleToRow(Tuple2.fromBytes(bytes), rowType);
+        Row direct = TupleRowDataConverter.tupleToRow(bytes, 0, bytes.length, rowType);
+        Row lazy = TupleRowDataConverter.lazyTupleToRow(bytes, 0, bytes.length, rowType);
+        // Touch the last field first, then the rest.
+        int nfields = rowType.nFields();
+        lazy.value(nfields - 1);
+        assertEquals(0, expected.compareTo(direct, 0, 0, nfields));
+        assertEquals(0, expected.compareTo(lazy, 0, 0, nfields));
+        for (int i = 0; i < nfields; i++) {
+            assertEquals(expected.value(i).isNull(), lazy.value(i).isNull());
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.test.it.qp;
+
+import com.foundationdb.qp.operator.Operator;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.rowtype.TableRowType;
+import com.foundationdb.server.collation.AkCollator;
+import com.foundationdb.server.types.TAggregator;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.mcompat.aggr.MCount;
+import com.foundationdb.server.types.mcompat.aggr.MMinMaxAggregation;
+import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.foundationdb.qp.operator.API.*;
+import static com.foundationdb.server.test.ExpressionGenerators.*;
+
+public class Aggregate_HashedIT extends OperatorITBase
+{
+    @Override
+    protected void setupCreateSchema() {
+        super.setupCreateSchema();
+        names = createTable(
+            "schema", "names",
+            "id int not null primary key",
+            "name varchar(10) collate en_us_ci");
+    }
+
+    @Override
+    protected void setupPostCreateSchema() {
+        super.setupPostCreateSchema();
+        namesRowType = schema.tableRowType(table(names));
+        Row[] dbRows = new Row[]{
+            row(customer, 1L, "northbridge"),
+            row(customer, 2L, "foundation"),
+            row(customer, 4L, "highland"),
+            row(customer, 5L, "matrix"),
+            row(order, 11L, 1L, "ori"),
+            row(order, 12L, 1L, "david"),
+            row(order, 21L, 2L, "david"),
+            row(order, 22L, 2L, "jack"),
+            row(order, 31L, 3L, "david"),
+            row(order, 51L, 5L, null),
+            row(order, 52L, 5L, "yuval"),
+            row(item, 111L, 11L),
+            row(item, 112L, 11L),
+            row(item, 121L, 12L),
+            row(names, 1L, "aa"),
+            row(names, 2L, "AA"),
+            row(names, 3L, "bb"),
+            row(names, 4L, "Aa"),
+        };
+        use(dbRows);
+    }
+
+    @Test
+    public void testGroupBySalesman() {
+        Operator project = project_DefaultTest(
+            filter_Default(
+                groupScan_Default(coi),
+                Collections.singleton(orderRowType)),
+            orderRowType,
+            Arrays.asList(field(orderRowType, 2), field(orderRowType, 0), field(orderRowType, 0)));
+        RowType projectRowType = project.rowType();
+        Operator aggregate = aggregate_Hashed(
+            project,
+            projectRowType,
+            1,
+            Arrays.asList(COUNT, MMinMaxAggregation.MAX),
+            Arrays.asList(MNumeric.BIGINT.instance(false), projectRowType.typeAt(1)),
+            Arrays.<Object>asList(null, null));
+        RowType outputRowType = aggregate.rowType();
+        Row[] expected = new Row[] {
+            row(outputRowType, null, 1L, 51L),
+            row(outputRowType, "david", 3L, 31L),
+            row(outputRowType, "jack", 1L, 22L),
+            row(outputRowType, "ori", 1L, 11L),
+            row(outputRowType, "yuval", 1L, 52L),
+        };
+        compareRows(expected, cursor(sortByFirst(aggregate, null), queryContext, queryBindings));
+    }
+
+    @Test
+    public void testDistinct() {
+        Operator project = project_DefaultTest(
+            filter_Default(
+                groupScan_Default(coi),
+                Collections.singleton(orderRowType)),
+            orderRowType,
+            Arrays.asList(field(orderRowType, 2)));
+        RowType projectRowType = project.rowType();
+        Operator distinct = aggregate_Hashed(
+            project,
+            projectRowType,
+            1,
+            Collections.<TAggregator>emptyList(),
+            Collections.<TInstance>emptyList(),
+            Collections.emptyList());
+        RowType outputRowType = distinct.rowType();
+        Row[] expected = new Row[] {
+            row(outputRowType, (Object)null),
+            row(outputRowType, "david"),
+            row(outputRowType, "jack"),
+            row(outputRowType, "ori"),
+            row(outputRowType, "yuval"),
+        };
+        compareRows(expected, cursor(sortByFirst(distinct, null), queryContext, queryBindings));
+    }
+
+    @Test
+    public void testCaseInsensitive() {
+        Operator project = project_DefaultTest(
+            groupScan_Default(group(names)),
+            namesRowType,
+            Arrays.asList(field(namesRowType, 1), field(namesRowType, 0)));
+        RowType projectRowType = project.rowType();
+        Operator aggregate = aggregate_Hashed(
+            project,
+            projectRowType,
+            1,
+            Arrays.asList(COUNT),
+            Arrays.asList(MNumeric.BIGINT.instance(false)),
+            Arrays.<Object>asList((Object)null));
+        RowType outputRowType = aggregate.rowType();
+        AkCollator collator = namesRowType.table().getColumn(1).getCollator();
+        Row[] expected = new Row[] {
+            row(outputRowType, "aa", 3L),
+            row(outputRowType, "bb", 1L),
+        };
+        compareRows(expected, cursor(sortByFirst(aggregate, collator), queryContext, queryBindings));
+    }
+
+    @Test
+    public void testNoGroupByNoRows() {
+        Operator project = project_DefaultTest(
+            filter_Default(
+                groupScan_Default(coi),
+                Collections.singleton(addressRowType)),
+            addressRowType,
+            Arrays.asList(field(addressRowType, 0)));
+        RowType projectRowType = project.rowType();
+        Operator aggregate = aggregate_Hashed(
+            project,
+            projectRowType,
+            0,
+            Arrays.asList(COUNT),
+            Arrays.asList(MNumeric.BIGINT.instance(false)),
+            Arrays.<Object>asList((Object)null));
+        Row[] expected = new Row[] {
+            row(aggregate.rowType(), 0L),
+        };
+        compareRows(expected, cursor(aggregate, queryContext, queryBindings));
+    }
+
+    @Test
+    public void testNoGroupBy() {
+        Operator project = project_DefaultTest(
+            filter_Default(
+                groupScan_Default(coi),
+                Collections.singleton(orderRowType)),
+            orderRowType,
+            Arrays.asList(field(orderRowType, 2)));
+        RowType projectRowType = project.rowType();
+        Operator aggregate = aggregate_Hashed(
+            project,
+            projectRowType,
+            0,
+            Arrays.asList(COUNT),
+            Arrays.asList(MNumeric.BIGINT.instance(false)),
+            Arrays.<Object>asList((Object)null));
+        Row[] expected = new Row[] {
+            row(aggregate.rowType(), 6L),
+        };
+        compareRows(expected, cursor(aggregate, queryContext, queryBindings));
+    }
+
+    // Output order is not defined, so sort it for comparing.
+    private Operator sortByFirst(Operator input, AkCollator collator) {
+        Ordering ordering = ordering();
+        ordering.append(field(input.rowType(), 0), true, collator);
+        return sort_General(input, input.rowType(), ordering, SortOption.PRESERVE_DUPLICATES);
+    }
+
+    // COUNT(x), not counting NULLs.
+    private static final TAggregator COUNT = MCount.INSTANCES[3];
+
+    private int names;
+    private TableRowType namesRowType;
+}
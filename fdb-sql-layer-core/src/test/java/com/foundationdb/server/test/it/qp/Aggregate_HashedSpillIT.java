@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.test.it.qp;
+
+import com.foundationdb.server.service.config.TestConfigService;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** Same as {@link Aggregate_HashedIT} but with a memory budget small enough that every new group spills. */
+public class Aggregate_HashedSpillIT extends Aggregate_HashedIT
+{
+    @Override
+    protected Map<String,String> startupConfigProperties() {
+        Map<String,String> props = new HashMap<>();
+        props.putAll(super.startupConfigProperties());
+        props.put("fdbsql.hash_table.memory", "1");
+        props.put("fdbsql.tmp_dir", TestConfigService.dataDirectory().getAbsolutePath());
+        return props;
+    }
+}
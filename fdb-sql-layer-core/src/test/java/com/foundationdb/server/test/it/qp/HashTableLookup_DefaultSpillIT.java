@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.test.it.qp;
+
+import com.foundationdb.qp.operator.Cursor;
+import com.foundationdb.qp.operator.Operator;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.service.config.TestConfigService;
+import com.foundationdb.server.types.texpressions.TPreparedBoundField;
+import com.foundationdb.server.types.texpressions.TPreparedExpression;
+import com.foundationdb.server.types.texpressions.TPreparedField;
+import com.foundationdb.server.types.value.ValueSources;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.foundationdb.qp.operator.API.*;
+import static org.junit.Assert.assertEquals;
+
+/** Same as {@link HashTableLookup_DefaultIT} but with a hash table budget small enough that every table spills. */
+public class HashTableLookup_DefaultSpillIT extends HashTableLookup_DefaultIT
+{
+    @Override
+    protected Map<String,String> startupConfigProperties() {
+        Map<String,String> props = new HashMap<>();
+        props.putAll(super.startupConfigProperties());
+        props.put("fdbsql.hash_table.memory", "1");
+        props.put("fdbsql.tmp_dir", TestConfigService.dataDirectory().getAbsolutePath());
+        return props;
+    }
+
+    /** Probes put off to their partitions come out in another order, but all the same rows. */
+    @Test
+    public void partitionedProbes() {
+        for (boolean pipeline : new boolean[] { false, true }) {
+            // Orders joined to their customers.
+            List<String> expected = Arrays.asList("[100, northbridge]", "[101, northbridge]",
+                                                  "[200, foundation]", "[201, foundation]",
+                                                  "[300, matrix]",
+                                                  "[400, atlas]", "[401, atlas]");
+            assertEquals(expected, sortedRows(partitionedPlan(orderRowType, 1, customerRowType, 0, pipeline, false)));
+            // Customers with any order, once each.
+            expected = Arrays.asList("[1, northbridge]", "[2, foundation]", "[3, matrix]", "[4, atlas]");
+            assertEquals(expected, sortedRows(partitionedPlan(customerRowType, 0, orderRowType, 1, pipeline, true)));
+        }
+    }
+
+    private Operator partitionedPlan(RowType outerRowType, int outerField,
+                                     RowType innerRowType, int innerField,
+                                     boolean pipeline, boolean semi) {
+        int rowPosition = 300, tablePosition = 301;
+        List<TPreparedExpression> probeFields = Collections.<TPreparedExpression>singletonList(
+            new TPreparedBoundField(outerRowType, rowPosition, outerField));
+        Operator lookup = hashTableLookup_Default(innerRowType, probeFields, tablePosition);
+        List<TPreparedExpression> projections;
+        if (semi) {
+            lookup = limit_Default(lookup, 1);
+            projections = Arrays.<TPreparedExpression>asList(
+                new TPreparedBoundField(outerRowType, rowPosition, 0),
+                new TPreparedBoundField(outerRowType, rowPosition, 1));
+        }
+        else {
+            projections = Arrays.<TPreparedExpression>asList(
+                new TPreparedBoundField(outerRowType, rowPosition, 0),
+                new TPreparedField(innerRowType.typeAt(1), 1));
+        }
+        return using_HashTable(
+            filter_Default(groupScan_Default(innerRowType.table().getGroup()), Collections.singleton(innerRowType)),
+            innerRowType,
+            Collections.<TPreparedExpression>singletonList(new TPreparedField(innerRowType.typeAt(innerField), innerField)),
+            tablePosition,
+            map_NestedLoops(
+                filter_Default(groupScan_Default(outerRowType.table().getGroup()), Collections.singleton(outerRowType)),
+                project_Default(lookup, innerRowType, projections),
+                rowPosition, pipeline, 1),
+            null, null, false, probeFields);
+    }
+
+    private List<String> sortedRows(Operator plan) {
+        List<String> rows = new ArrayList<>();
+        Cursor cursor = cursor(plan, queryContext, queryBindings);
+        cursor.openTopLevel();
+        try {
+            Row row;
+            while ((row = cursor.next()) != null) {
+                rows.add(Arrays.asList(ValueSources.toObject(row.value(0)), ValueSources.toObject(row.value(1))).toString());
+            }
+        }
+        finally {
+            cursor.closeTopLevel();
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+}
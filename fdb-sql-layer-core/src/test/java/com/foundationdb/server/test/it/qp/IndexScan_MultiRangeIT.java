@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.test.it.qp;
+
+import com.foundationdb.qp.expression.IndexBound;
+import com.foundationdb.qp.expression.IndexKeyRange;
+import com.foundationdb.qp.operator.API;
+import com.foundationdb.qp.operator.Cursor;
+import com.foundationdb.qp.operator.IndexScanSelector;
+import com.foundationdb.qp.operator.Operator;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.IndexRowType;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.api.dml.SetColumnSelector;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.foundationdb.qp.operator.API.*;
+import static com.foundationdb.server.test.ExpressionGenerators.field;
+
+public class IndexScan_MultiRangeIT extends OperatorITBase
+{
+    @Override
+    protected void setupCreateSchema()
+    {
+        t = createTable(
+            "schema", "t",
+            "pid int not null primary key",
+            "x int");
+        createIndex("schema", "t", "idx_x", "x");
+    }
+
+    @Override
+    protected void setupPostCreateSchema()
+    {
+        tRowType = schema.tableRowType(table(t));
+        tXIndexRowType = indexType(t, "x");
+        queryContext = queryContext(adapter);
+        queryBindings = queryContext.createBindings();
+        db = new Row[] {
+            row(t, 1000L, 1L),
+            row(t, 1001L, 2L),
+            row(t, 1002L, 1L),
+            row(t, 2000L, 3L),
+            row(t, 2001L, 2L),
+            row(t, 2002L, 1L),
+            row(t, 3000L, 5L),
+        };
+        use(db);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoRanges()
+    {
+        indexScan_MultiRange(tXIndexRowType, Collections.<IndexKeyRange>emptyList(),
+                             ordering(true), selector(), 1);
+    }
+
+    @Test
+    public void testInOrder()
+    {
+        for (int quantum = 1; quantum <= 4; quantum++) {
+            Operator plan = indexScan_MultiRange(tXIndexRowType, xEq(1, 2, 3),
+                                                 ordering(true), selector(), quantum);
+            Row[] expected = new Row[] {
+                row(tRowType, 1L, 1000L),
+                row(tRowType, 1L, 1002L),
+                row(tRowType, 1L, 2002L),
+                row(tRowType, 2L, 1001L),
+                row(tRowType, 2L, 2001L),
+                row(tRowType, 3L, 2000L),
+            };
+            compareRows(expected, cursor(plan, queryContext, queryBindings));
+        }
+    }
+
+    @Test
+    public void testEmptyRanges()
+    {
+        Operator plan = indexScan_MultiRange(tXIndexRowType, xEq(0, 3, 4, 5, 6),
+                                             ordering(true), selector(), 2);
+        Row[] expected = new Row[] {
+            row(tRowType, 3L, 2000L),
+            row(tRowType, 5L, 3000L),
+        };
+        compareRows(expected, cursor(plan, queryContext, queryBindings));
+        plan = indexScan_MultiRange(tXIndexRowType, xEq(0, 4, 6),
+                                    ordering(true), selector(), 2);
+        compareRows(new Row[0], cursor(plan, queryContext, queryBindings));
+    }
+
+    @Test
+    public void testMerge()
+    {
+        // Window of open ranges smaller than, equal to and larger than their number.
+        for (int quantum = 1; quantum <= 5; quantum++) {
+            Operator plan = indexScan_MultiRange(tXIndexRowType, xEq(0, 1, 2, 3),
+                                                 ordering(true), selector(), quantum,
+                                                 new boolean[] { true });
+            Row[] expected = new Row[] {
+                row(tRowType, 1L, 1000L),
+                row(tRowType, 2L, 1001L),
+                row(tRowType, 1L, 1002L),
+                row(tRowType, 3L, 2000L),
+                row(tRowType, 2L, 2001L),
+                row(tRowType, 1L, 2002L),
+            };
+            compareRows(expected, cursor(plan, queryContext, queryBindings));
+        }
+    }
+
+    @Test
+    public void testMergeDescending()
+    {
+        Operator plan = indexScan_MultiRange(tXIndexRowType, xEq(1, 2, 5),
+                                             ordering(false), selector(), 1,
+                                             new boolean[] { false });
+        Row[] expected = new Row[] {
+            row(tRowType, 5L, 3000L),
+            row(tRowType, 1L, 2002L),
+            row(tRowType, 2L, 2001L),
+            row(tRowType, 1L, 1002L),
+            row(tRowType, 2L, 1001L),
+            row(tRowType, 1L, 1000L),
+        };
+        compareRows(expected, cursor(plan, queryContext, queryBindings));
+    }
+
+    @Test
+    public void testReopen()
+    {
+        Operator plan = indexScan_MultiRange(tXIndexRowType, xEq(2, 3),
+                                             ordering(true), selector(), 1);
+        Row[] expected = new Row[] {
+            row(tRowType, 2L, 1001L),
+            row(tRowType, 2L, 2001L),
+            row(tRowType, 3L, 2000L),
+        };
+        Cursor cursor = cursor(plan, queryContext, queryBindings);
+        compareRows(expected, cursor);
+        compareRows(expected, cursor);
+    }
+
+    @Test
+    public void testCloseEarly()
+    {
+        Operator plan = indexScan_MultiRange(tXIndexRowType, xEq(1, 2, 3),
+                                             ordering(true), selector(), 2,
+                                             new boolean[] { true });
+        Cursor cursor = cursor(plan, queryContext, queryBindings);
+        txnService().beginTransaction(session());
+        try {
+            cursor.openTopLevel();
+            cursor.next();
+            cursor.next();
+            cursor.closeTopLevel();
+            Row[] expected = new Row[] {
+                row(tRowType, 1L, 1000L),
+                row(tRowType, 2L, 1001L),
+                row(tRowType, 1L, 1002L),
+                row(tRowType, 3L, 2000L),
+                row(tRowType, 2L, 2001L),
+                row(tRowType, 1L, 2002L),
+            };
+            compareRows(expected, cursor);
+        } finally {
+            txnService().commitTransaction(session());
+        }
+    }
+
+    private List<IndexKeyRange> xEq(long... xs)
+    {
+        List<IndexKeyRange> ranges = new ArrayList<>(xs.length);
+        for (long x : xs) {
+            IndexBound xBound = new IndexBound(row(tXIndexRowType, x), new SetColumnSelector(0));
+            ranges.add(IndexKeyRange.bounded(tXIndexRowType, xBound, true, xBound, true));
+        }
+        return ranges;
+    }
+
+    private Ordering ordering(boolean ascending)
+    {
+        Ordering ordering = API.ordering();
+        ordering.append(field(tXIndexRowType, 0), ascending);
+        ordering.append(field(tXIndexRowType, 1), ascending);
+        return ordering;
+    }
+
+    private IndexScanSelector selector()
+    {
+        return IndexScanSelector.leftJoinAfter(tXIndexRowType.index(), tXIndexRowType.tableType().table());
+    }
+
+    private int t;
+    private RowType tRowType;
+    private IndexRowType tXIndexRowType;
+}
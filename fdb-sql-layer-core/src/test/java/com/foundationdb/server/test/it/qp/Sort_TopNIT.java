@@ -0,0 +1,257 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.test.it.qp;
+
+import com.foundationdb.qp.operator.API;
+import com.foundationdb.qp.operator.Cursor;
+import com.foundationdb.qp.operator.ExpressionGenerator;
+import com.foundationdb.qp.operator.Operator;
+import com.foundationdb.qp.row.Row;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static com.foundationdb.server.test.ExpressionGenerators.*;
+import static com.foundationdb.qp.operator.API.*;
+
+public class Sort_TopNIT extends OperatorITBase
+{
+    @Override
+    protected void setupPostCreateSchema() {
+        super.setupPostCreateSchema();
+        Row[] dbRows = new Row[]{
+            row(customer, 1L, "northbridge"),
+            row(customer, 2L, "foundation"),
+            row(customer, 4L, "highland"),
+            row(customer, 5L, "matrix"),
+            row(order, 11L, 1L, "ori"),
+            row(order, 12L, 1L, "david"),
+            row(order, 21L, 2L, "david"),
+            row(order, 22L, 2L, "jack"),
+            row(order, 31L, 3L, "david"),
+            row(order, 51L, 5L, "yuval"),
+            row(item, 111L, 11L),
+            row(item, 112L, 11L),
+            row(item, 121L, 12L),
+            row(item, 122L, 12L),
+            row(item, 211L, 21L),
+            row(item, 212L, 21L),
+            row(item, 221L, 22L),
+            row(item, 222L, 22L),
+        };
+        use(dbRows);
+    }
+
+    // Sort / TopN tests
+
+    @Test
+    public void testCustomerName_Limit0()
+    {
+        Operator plan =
+            sort_TopN(
+                filter_Default(
+                    groupScan_Default(coi),
+                    Collections.singleton(customerRowType)),
+                customerRowType,
+                ordering(field(customerRowType, 1), true),
+                0,
+                0);
+        Cursor cursor = cursor(plan, queryContext, queryBindings);
+        compareRows(new Row[0], cursor);
+    }
+
+    @Test
+    public void testCustomerName()
+    {
+        Operator plan =
+            sort_TopN(
+                filter_Default(
+                    groupScan_Default(coi),
+                    Collections.singleton(customerRowType)),
+                customerRowType,
+                ordering(field(customerRowType, 1), true),
+                0,
+                2);
+        Cursor cursor = cursor(plan, queryContext, queryBindings);
+        Row[] expected = new Row[]{
+            row(customerRowType, 2L, "foundation"),
+            row(customerRowType, 4L, "highland")
+        };
+        compareRows(expected, cursor);
+    }
+
+    @Test
+    public void testCustomerNameDescending()
+    {
+        Operator plan =
+            sort_TopN(
+                filter_Default(
+                    groupScan_Default(coi),
+                    Collections.singleton(customerRowType)),
+                customerRowType,
+                ordering(field(customerRowType, 1), false),
+                0,
+                10);
+        Cursor cursor = cursor(plan, queryContext, queryBindings);
+        Row[] expected = new Row[]{
+            row(customerRowType, 1L, "northbridge"),
+            row(customerRowType, 5L, "matrix"),
+            row(customerRowType, 4L, "highland"),
+            row(customerRowType, 2L, "foundation"),
+        };
+        compareRows(expected, cursor);
+    }
+
+    @Test
+    public void testOrderSalesmanCid()
+    {
+        Operator plan =
+            sort_TopN(
+                filter_Default(
+                    groupScan_Default(coi),
+                    Collections.singleton(orderRowType)),
+                orderRowType,
+                ordering(field(orderRowType, 2), true, field(orderRowType, 1), false),
+                0,
+                4);
+        Cursor cursor = cursor(plan, queryContext, queryBindings);
+        Row[] expected = new Row[]{
+            row(orderRowType, 31L, 3L, "david"),
+            row(orderRowType, 21L, 2L, "david"),
+            row(orderRowType, 12L, 1L, "david"),
+            row(orderRowType, 22L, 2L, "jack"),
+        };
+        compareRows(expected, cursor);
+    }
+
+    @Test
+    public void testTiesInInputOrder()
+    {
+        Operator plan =
+            sort_TopN(
+                filter_Default(
+                    groupScan_Default(coi),
+                    Collections.singleton(orderRowType)),
+                orderRowType,
+                ordering(field(orderRowType, 2), true),
+                0,
+                3);
+        Cursor cursor = cursor(plan, queryContext, queryBindings);
+        Row[] expected = new Row[]{
+            row(orderRowType, 12L, 1L, "david"),
+            row(orderRowType, 21L, 2L, "david"),
+            row(orderRowType, 31L, 3L, "david"),
+        };
+        compareRows(expected, cursor);
+    }
+
+    @Test
+    public void testOffset()
+    {
+        Operator plan =
+            sort_TopN(
+                filter_Default(
+                    groupScan_Default(coi),
+                    Collections.singleton(orderRowType)),
+                orderRowType,
+                ordering(field(orderRowType, 2), true),
+                2,
+                2);
+        Cursor cursor = cursor(plan, queryContext, queryBindings);
+        Row[] expected = new Row[]{
+            row(orderRowType, 31L, 3L, "david"),
+            row(orderRowType, 22L, 2L, "jack"),
+        };
+        compareRows(expected, cursor);
+    }
+
+    @Test
+    public void testOffsetNearEnd()
+    {
+        Operator plan =
+            sort_TopN(
+                filter_Default(
+                    groupScan_Default(coi),
+                    Collections.singleton(orderRowType)),
+                orderRowType,
+                ordering(field(orderRowType, 2), true),
+                5,
+                10);
+        Cursor cursor = cursor(plan, queryContext, queryBindings);
+        Row[] expected = new Row[]{
+            row(orderRowType, 51L, 5L, "yuval"),
+        };
+        compareRows(expected, cursor);
+    }
+
+    @Test
+    public void testOffsetPastEnd()
+    {
+        Operator plan =
+            sort_TopN(
+                filter_Default(
+                    groupScan_Default(coi),
+                    Collections.singleton(orderRowType)),
+                orderRowType,
+                ordering(field(orderRowType, 2), true),
+                6,
+                10);
+        Cursor cursor = cursor(plan, queryContext, queryBindings);
+        compareRows(new Row[0], cursor);
+    }
+
+    @Test
+    public void testCursor()
+    {
+        Operator plan =
+            sort_TopN(
+                filter_Default(
+                    groupScan_Default(coi),
+                    Collections.singleton(orderRowType)),
+                orderRowType,
+                ordering(field(orderRowType, 2), true, field(orderRowType, 1), false),
+                1,
+                3);
+        CursorLifecycleTestCase testCase = new CursorLifecycleTestCase()
+        {
+            @Override
+            public Row[] firstExpectedRows()
+            {
+                return new Row[] {
+                    row(orderRowType, 21L, 2L, "david"),
+                    row(orderRowType, 12L, 1L, "david"),
+                    row(orderRowType, 22L, 2L, "jack"),
+                };
+            }
+        };
+        testCursorLifecycle(plan, testCase);
+    }
+
+    private Ordering ordering(Object... objects)
+    {
+        Ordering ordering = API.ordering();
+        int i = 0;
+        while (i < objects.length) {
+            ExpressionGenerator expression = (ExpressionGenerator) objects[i++];
+            Boolean ascending = (Boolean) objects[i++];
+            ordering.append(expression, ascending);
+        }
+        return ordering;
+    }
+
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.test.it.sort;
+
+import com.foundationdb.qp.operator.API;
+import com.foundationdb.qp.operator.Cursor;
+import com.foundationdb.qp.operator.QueryBindings;
+import com.foundationdb.qp.operator.QueryContext;
+import com.foundationdb.qp.operator.RowCursor;
+import com.foundationdb.qp.operator.TestOperator;
+import com.foundationdb.qp.storeadapter.Sorter;
+import com.foundationdb.qp.storeadapter.indexcursor.ParallelMergeSorter;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.service.config.TestConfigService;
+import com.foundationdb.util.tap.InOutTap;
+import com.foundationdb.util.tap.Tap;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.foundationdb.server.test.ExpressionGenerators.field;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/** Memory small enough that every row is its own run. */
+public class ParallelMergeSorterIT extends SorterITBase
+{
+    @Override
+    public Map<String,String> startupConfigProperties() {
+        Map<String,String> props = new HashMap<>();
+        props.putAll(super.startupConfigProperties());
+        props.put("fdbsql.sort.memory", "1");
+        props.put("fdbsql.tmp_dir", TestConfigService.dataDirectory().getAbsolutePath());
+        return props;
+    }
+
+    @Override
+    public Sorter createSorter(QueryContext context,
+                               QueryBindings bindings,
+                               Cursor input,
+                               RowType rowType,
+                               API.Ordering ordering,
+                               API.SortOption sortOption,
+                               InOutTap loadTap) {
+        return new ParallelMergeSorter(context, bindings, input, rowType, ordering, sortOption, loadTap, 2);
+    }
+
+    @Test
+    public void closeBeforeReadingDeletesRuns() {
+        TestOperator inputOperator = new TestOperator(createBuilder(list("e", "d", "c", "b", "a", "f", "h", "g")));
+        QueryContext context = queryContext(newStoreAdapter());
+        QueryBindings bindings = context.createBindings();
+        Cursor inputCursor = API.cursor(inputOperator, context, bindings);
+        inputCursor.openTopLevel();
+        API.Ordering ordering = API.ordering();
+        ordering.append(field(inputOperator.rowType(), 0), true);
+        Sorter sorter = createSorter(context, bindings, inputCursor, inputOperator.rowType(), ordering,
+                                     API.SortOption.PRESERVE_DUPLICATES, Tap.createTimer("closeBeforeReading"));
+        RowCursor sorted = sorter.sort();
+        sorted.open();
+        assertNotNull(sorted.next());
+        sorted.close();
+        sorter.close();
+        String[] left = TestConfigService.dataDirectory().list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("sort-");
+            }
+        });
+        assertEquals("run files left", 0, (left == null) ? 0 : left.length);
+    }
+}
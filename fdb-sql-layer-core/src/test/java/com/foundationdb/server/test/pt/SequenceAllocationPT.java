@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.test.pt;
+
+import com.foundationdb.ais.model.Sequence;
+import com.foundationdb.ais.model.TableName;
+import com.foundationdb.junit.NamedParameterizedRunner;
+import com.foundationdb.junit.Parameterization;
+import com.foundationdb.junit.ParameterizationBuilder;
+import com.foundationdb.server.service.servicemanager.GuicedServiceManager.BindingsConfigurationProvider;
+import com.foundationdb.server.service.session.Session;
+import com.foundationdb.server.test.it.FDBITBase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare sequence allocations per second with single and sharded
+ * block allocation as the number of concurrent sessions grows. The
+ * cache is kept to one value, so that every allocation goes to the
+ * store and contends for the sequence's keys.
+ */
+@RunWith(NamedParameterizedRunner.class)
+public final class SequenceAllocationPT extends PTBase {
+
+    @NamedParameterizedRunner.TestParameters
+    public static Collection<Parameterization> params() {
+        ParameterizationBuilder pb = new ParameterizationBuilder();
+        pb.add("single", "single");
+        pb.add("sharded", "sharded");
+        return pb.asList();
+    }
+
+    @Override
+    protected BindingsConfigurationProvider serviceBindingsProvider() {
+        return FDBITBase.doBind(super.serviceBindingsProvider());
+    }
+
+    @Override
+    protected Map<String, String> startupConfigProperties() {
+        Map<String,String> props = new HashMap<>(super.startupConfigProperties());
+        props.put("fdbsql.fdb.sequence_allocation", allocation);
+        props.put("fdbsql.fdb.sequence_shards", "8");
+        props.put("fdbsql.fdb.sequence_cache_size", "1");
+        props.put("fdbsql.fdb.sequence_cache_max_size", "1");
+        return props;
+    }
+
+    @Override
+    protected String paramName() {
+        return allocation;
+    }
+
+    @Test
+    public void allocate() throws Exception {
+        // Warmup
+        allocate("warmup", 4);
+        for (int nthreads : new int[] { 1, 2, 4, 8, 16 }) {
+            long start = System.nanoTime();
+            int count = allocate("s" + nthreads, nthreads);
+            long elapsed = System.nanoTime() - start;
+            log("SEQUENCE %s - %d sessions: %.0f allocations/sec",
+                allocation, nthreads, count * 1.0e9 / elapsed);
+        }
+    }
+
+    private int allocate(String name, int nthreads) throws Exception {
+        createFromDDL(SCHEMA, "CREATE SEQUENCE " + name + " START WITH 1 INCREMENT BY 1;");
+        final Sequence sequence = ais().getSequence(new TableName(SCHEMA, name));
+        ExecutorService executor = Executors.newFixedThreadPool(nthreads);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < nthreads; i++) {
+            futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        final Session session = createNewSession();
+                        try {
+                            for (int j = 0; j < VALUES_PER_THREAD; j++) {
+                                txnService().run(session, new Callable<Long>() {
+                                        @Override
+                                        public Long call() {
+                                            return store().nextSequenceValue(session, sequence);
+                                        }
+                                    });
+                            }
+                            return VALUES_PER_THREAD;
+                        }
+                        finally {
+                            session.close();
+                        }
+                    }
+                }));
+        }
+        int count = 0;
+        for (Future<Integer> future : futures) {
+            count += future.get();
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        return count;
+    }
+
+    public SequenceAllocationPT(String allocation) {
+        this.allocation = allocation;
+    }
+
+    private final String allocation;
+
+    private static final String SCHEMA = "sapt";
+    private static final int VALUES_PER_THREAD = 500;
+}
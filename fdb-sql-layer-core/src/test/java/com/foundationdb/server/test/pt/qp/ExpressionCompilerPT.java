@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.test.pt.qp;
+
+import com.foundationdb.qp.operator.API;
+import com.foundationdb.qp.operator.Cursor;
+import com.foundationdb.qp.operator.Operator;
+import com.foundationdb.qp.operator.RowsBuilder;
+import com.foundationdb.qp.operator.StoreAdapter;
+import com.foundationdb.qp.row.BindableRow;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.aksql.aktypes.AkBool;
+import com.foundationdb.server.types.common.funcs.BoolLogic;
+import com.foundationdb.server.types.mcompat.mtypes.MApproximateNumber;
+import com.foundationdb.server.types.mcompat.mtypes.MDateAndTime;
+import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
+import com.foundationdb.server.types.texpressions.Comparison;
+import com.foundationdb.server.types.texpressions.TComparisonExpression;
+import com.foundationdb.server.types.texpressions.TExpressionCompiler;
+import com.foundationdb.server.types.texpressions.TPreparedExpression;
+import com.foundationdb.server.types.texpressions.TPreparedField;
+import com.foundationdb.server.types.texpressions.TPreparedFunction;
+import com.foundationdb.server.types.texpressions.TPreparedLiteral;
+import com.foundationdb.server.types.texpressions.TValidatedScalar;
+import com.foundationdb.server.types.value.Value;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/** Compare interpreted and compiled evaluation of a TPC-H Q6 style filter. */
+public class ExpressionCompilerPT extends QPProfilePTBase
+{
+    @Before
+    public void before()
+    {
+        RowsBuilder builder = new RowsBuilder(QUANTITY, DISCOUNT, SHIPDATE);
+        Random random = new Random(1);
+        for (int i = 0; i < NROWS; i++) {
+            builder.row(new Value(QUANTITY, (long)(1 + random.nextInt(50))),
+                        new Value(DISCOUNT, random.nextInt(11) / 100.0),
+                        new Value(SHIPDATE, MDateAndTime.encodeDate(1992 + random.nextInt(7),
+                                                                    1 + random.nextInt(12),
+                                                                    1 + random.nextInt(28))));
+        }
+        rowType = builder.rowType();
+        rows = new ArrayList<>(NROWS);
+        for (Row row : builder.rows()) {
+            rows.add(BindableRow.of(row));
+        }
+        adapter = newStoreAdapter();
+        queryContext = queryContext(adapter);
+        queryBindings = queryContext.createBindings();
+    }
+
+    @Test
+    public void profileFilter()
+    {
+        TPreparedExpression predicate = predicate();
+        TPreparedExpression compiled = TExpressionCompiler.compile(predicate);
+        assert compiled != predicate : predicate;
+        // Warmup
+        for (int i = 0; i < 5; i++) {
+            profileFilter("interpreted", predicate, false);
+            profileFilter("compiled", compiled, false);
+        }
+        // Measure
+        int interpreted = profileFilter("interpreted", predicate, true);
+        int generated = profileFilter("compiled", compiled, true);
+        assert interpreted == generated : generated;
+    }
+
+    private int profileFilter(String label, TPreparedExpression predicate, boolean print)
+    {
+        Operator plan = API.select_HKeyOrdered(API.valuesScan_Default(rows, rowType), rowType, predicate);
+        long start = System.nanoTime();
+        int count = 0;
+        for (int i = 0; i < NREPEATS; i++) {
+            Cursor cursor = API.cursor(plan, queryContext, queryBindings);
+            cursor.openTopLevel();
+            while (cursor.next() != null) {
+                count++;
+            }
+            cursor.closeTopLevel();
+        }
+        long end = System.nanoTime();
+        if (print) {
+            System.out.println(String.format("Filter %d rows %d times, %s: %d ms, %d selected",
+                                             NROWS, NREPEATS, label,
+                                             (end - start) / 1000000, count));
+        }
+        return count;
+    }
+
+    // l_shipdate >= '1994-01-01' AND l_shipdate < '1995-01-01' AND
+    // l_discount >= 0.05 AND l_discount <= 0.07 AND l_quantity < 24
+    private static TPreparedExpression predicate()
+    {
+        TPreparedExpression shipdate = new TPreparedField(SHIPDATE, 2);
+        TPreparedExpression discount = new TPreparedField(DISCOUNT, 1);
+        TPreparedExpression quantity = new TPreparedField(QUANTITY, 0);
+        return and(and(compare(shipdate, Comparison.GE, date(1994, 1, 1)),
+                       compare(shipdate, Comparison.LT, date(1995, 1, 1))),
+                   and(and(compare(discount, Comparison.GE, literal(new Value(DISCOUNT, 0.05))),
+                           compare(discount, Comparison.LE, literal(new Value(DISCOUNT, 0.07)))),
+                       compare(quantity, Comparison.LT, literal(new Value(QUANTITY, 24L)))));
+    }
+
+    private static TPreparedExpression date(int y, int m, int d)
+    {
+        return literal(new Value(SHIPDATE, MDateAndTime.encodeDate(y, m, d)));
+    }
+
+    private static TPreparedExpression literal(Value value)
+    {
+        return new TPreparedLiteral(value.getType(), value);
+    }
+
+    private static TPreparedExpression compare(TPreparedExpression left, Comparison comparison,
+                                               TPreparedExpression right)
+    {
+        return new TComparisonExpression(left, comparison, right);
+    }
+
+    private static TPreparedExpression and(TPreparedExpression left, TPreparedExpression right)
+    {
+        return new TPreparedFunction(new TValidatedScalar(BoolLogic.AND), AkBool.INSTANCE.instance(true),
+                                     Arrays.asList(left, right));
+    }
+
+    private static final TInstance QUANTITY = MNumeric.BIGINT.instance(false);
+    private static final TInstance DISCOUNT = MApproximateNumber.DOUBLE.instance(false);
+    private static final TInstance SHIPDATE = MDateAndTime.DATE.instance(false);
+    private static final int NROWS = 1000000;
+    private static final int NREPEATS = 10;
+
+    private RowType rowType;
+    private List<BindableRow> rows;
+    private StoreAdapter adapter;
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.test.pt.qp;
+
+import com.foundationdb.qp.operator.API;
+import com.foundationdb.qp.operator.QueryBindings;
+import com.foundationdb.qp.operator.QueryContext;
+import com.foundationdb.qp.operator.RowCursor;
+import com.foundationdb.qp.operator.RowCursorImpl;
+import com.foundationdb.qp.operator.RowsBuilder;
+import com.foundationdb.qp.operator.StoreAdapter;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.row.ValuesHolderRow;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.storeadapter.Sorter;
+import com.foundationdb.qp.storeadapter.indexcursor.MergeJoinSorter;
+import com.foundationdb.qp.storeadapter.indexcursor.ParallelMergeSorter;
+import com.foundationdb.server.service.config.TestConfigService;
+import com.foundationdb.server.test.ExpressionGenerators;
+import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
+import com.foundationdb.server.types.mcompat.mtypes.MString;
+import com.foundationdb.util.tap.InOutTap;
+import com.foundationdb.util.tap.Tap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/** Compare {@link MergeJoinSorter} with {@link ParallelMergeSorter} on inputs that spill. */
+public class ExternalSortPT extends QPProfilePTBase
+{
+    @Override
+    protected Map<String, String> startupConfigProperties() {
+        Map<String,String> props = new HashMap<>();
+        props.putAll(super.startupConfigProperties());
+        props.put("fdbsql.tmp_dir", TestConfigService.dataDirectory().getAbsolutePath());
+        return props;
+    }
+
+    @Before
+    public void before()
+    {
+        rowType = new RowsBuilder(MNumeric.BIGINT.instance(false),
+                                  MNumeric.BIGINT.instance(false),
+                                  MString.varchar()).rowType();
+        adapter = newStoreAdapter();
+        queryContext = queryContext(adapter);
+        queryBindings = queryContext.createBindings();
+    }
+
+    @Test
+    public void profileSort()
+    {
+        // Warmup
+        profileSort(1000000, 1, false);
+        profileSort(1000000, 4, false);
+        // Measure
+        int cores = ParallelMergeSorter.defaultParallelism();
+        for (int n : new int[] { 1000000, 10000000 }) {
+            profileSort(n, 1, true);
+            for (int parallelism = 2; parallelism <= cores; parallelism *= 2) {
+                profileSort(n, parallelism, true);
+            }
+        }
+    }
+
+    private void profileSort(int n, int parallelism, boolean print)
+    {
+        API.Ordering ordering = API.ordering();
+        ordering.append(ExpressionGenerators.field(rowType, 1), true);
+        RowCursor input = new GeneratingCursor(n);
+        Sorter sorter;
+        if (parallelism > 1)
+            sorter = new ParallelMergeSorter(queryContext, queryBindings, input, rowType, ordering,
+                                             API.SortOption.PRESERVE_DUPLICATES, LOAD_TAP, parallelism);
+        else
+            sorter = new MergeJoinSorter(queryContext, queryBindings, input, rowType, ordering,
+                                         API.SortOption.PRESERVE_DUPLICATES, LOAD_TAP);
+        long start = System.nanoTime();
+        RowCursor sorted = sorter.sort();
+        sorted.open();
+        int count = 0;
+        while (sorted.next() != null) {
+            count++;
+        }
+        sorted.close();
+        sorter.close();
+        long end = System.nanoTime();
+        assert count == n : count;
+        if (print) {
+            System.out.println(String.format("Sort %d rows, %s, parallelism %d: %d ms",
+                                             n, sorter.getClass().getSimpleName(), parallelism,
+                                             (end - start) / 1000000));
+        }
+    }
+
+    private class GeneratingCursor extends RowCursorImpl
+    {
+        @Override
+        public Row next()
+        {
+            if (count >= n)
+                return null;
+            return new ValuesHolderRow(rowType, (long)count++, random.nextLong(), FILLER);
+        }
+
+        GeneratingCursor(int n)
+        {
+            this.n = n;
+        }
+
+        private final int n;
+        private int count;
+    }
+
+    private static final InOutTap LOAD_TAP = Tap.createTimer("sort: load");
+    private static final String FILLER = "xxxxxxxxxxxxxxxxxxxx";
+
+    private final Random random = new Random(1);
+    private RowType rowType;
+    private StoreAdapter adapter;
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.test.pt.qp;
+
+import com.foundationdb.ais.model.Group;
+import com.foundationdb.ais.model.Table;
+import com.foundationdb.ais.protobuf.FDBProtobuf.TupleUsage;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.qp.row.ValuesHolderRow;
+import com.foundationdb.qp.rowtype.RowType;
+import com.foundationdb.qp.util.SchemaCache;
+import com.foundationdb.server.error.InvalidOperationException;
+import com.foundationdb.server.store.format.tuple.TupleRowDataConverter;
+import com.foundationdb.server.store.format.tuple.TupleStorageDescription;
+import com.foundationdb.tuple.ByteArrayUtil;
+import com.foundationdb.tuple.Tuple2;
+import com.persistit.Key;
+import com.persistit.Persistit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/** Compare decoding scanned tuple keys and rows through {@link Tuple2}
+ * with decoding them in place. Only decoding is measured, not I/O.
+ */
+public class TupleDecodePT extends QPProfilePTBase
+{
+    @Before
+    public void before() throws InvalidOperationException
+    {
+        int customer = createTable(
+            "schema", "customer",
+            "cid int not null key",
+            "name varchar(20)");
+        int order = createTable(
+            "schema", "order",
+            "oid int not null key",
+            "cid int",
+            "salesman varchar(20)",
+            "amount double",
+            "constraint __akiban_oc foreign key __akiban_oc(cid) references customer(cid)");
+        schema = SchemaCache.globalSchema(ais());
+        Table orderTable = table(order);
+        orderRowType = schema.tableRowType(orderTable);
+        Group group = group(customer);
+        storageDescription = new TupleStorageDescription(group, "tuple");
+        storageDescription.setUsage(TupleUsage.KEY_AND_ROW);
+        byte[] prefix = { 0x15, 0x2A };
+        prefixLength = prefix.length;
+        Random random = new Random(1);
+        keys = new byte[NROWS][];
+        values = new byte[NROWS][];
+        for (int i = 0; i < NROWS; i++) {
+            long cid = i / 10, oid = i;
+            keys[i] = ByteArrayUtil.join(prefix,
+                                         Tuple2.from(group.getRoot().getOrdinal(), cid,
+                                                     orderTable.getOrdinal(), oid).pack());
+            Row row = new ValuesHolderRow(orderRowType, oid, cid,
+                                          "salesman" + random.nextInt(100),
+                                          random.nextDouble() * 1000);
+            values[i] = TupleRowDataConverter.tupleFromRow(row).pack();
+        }
+    }
+
+    @Test
+    public void profileDecode()
+    {
+        // Warmup
+        for (int i = 0; i < 5; i++) {
+            profileDecode(false, false);
+            profileDecode(true, false);
+        }
+        // Measure
+        profileDecode(false, true);
+        profileDecode(true, true);
+    }
+
+    private void profileDecode(boolean inPlace, boolean print)
+    {
+        Key key = new Key((Persistit)null);
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < NROWS; i++) {
+            byte[] keyBytes = keys[i], valueBytes = values[i];
+            Row row;
+            if (inPlace) {
+                storageDescription.getTupleKey(keyBytes, prefixLength, keyBytes.length - prefixLength, key);
+                row = TupleRowDataConverter.tupleToRow(valueBytes, 0, valueBytes.length, orderRowType);
+            }
+            else {
+                Tuple2 tuple = Tuple2.fromBytes(Arrays.copyOfRange(keyBytes, prefixLength, keyBytes.length));
+                storageDescription.getTupleKey(tuple, key);
+                row = TupleRowDataConverter.tupleToRow(Tuple2.fromBytes(valueBytes), orderRowType);
+            }
+            checksum += key.getEncodedSize() + row.value(0).getInt32();
+        }
+        long end = System.nanoTime();
+        if (print) {
+            System.out.println(String.format("Decode %d rows, %s: %d ms (%d)",
+                                             NROWS, inPlace ? "in place" : "Tuple2",
+                                             (end - start) / 1000000, checksum));
+        }
+    }
+
+    private static final int NROWS = 1000000;
+
+    private RowType orderRowType;
+    private TupleStorageDescription storageDescription;
+    private int prefixLength;
+    private byte[][] keys, values;
+}
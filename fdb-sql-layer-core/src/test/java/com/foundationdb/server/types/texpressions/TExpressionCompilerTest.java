@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.server.types.texpressions;
+
+import com.foundationdb.qp.operator.RowsBuilder;
+import com.foundationdb.qp.row.Row;
+import com.foundationdb.server.types.TCast;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.TScalar;
+import com.foundationdb.server.types.aksql.aktypes.AkBool;
+import com.foundationdb.server.types.common.funcs.BoolLogic;
+import com.foundationdb.server.types.mcompat.mcasts.Cast_From_Bigint;
+import com.foundationdb.server.types.mcompat.mcasts.Cast_From_Int;
+import com.foundationdb.server.types.mcompat.mfuncs.MArithmetic;
+import com.foundationdb.server.types.mcompat.mtypes.MApproximateNumber;
+import com.foundationdb.server.types.mcompat.mtypes.MNumeric;
+import com.foundationdb.server.types.mcompat.mtypes.MString;
+import com.foundationdb.server.types.value.Value;
+import com.foundationdb.server.types.value.ValueSource;
+import com.foundationdb.server.types.value.ValueSources;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+public class TExpressionCompilerTest
+{
+    private static final TInstance INT = MNumeric.INT.instance(true);
+    private static final TInstance BIGINT = MNumeric.BIGINT.instance(true);
+    private static final TInstance DOUBLE = MApproximateNumber.DOUBLE.instance(true);
+    private static final TInstance BOOL = AkBool.INSTANCE.instance(true);
+    private static final TInstance VARCHAR = MString.varchar();
+
+    private final List<Row> rows = rows();
+
+    @Test
+    public void compareFields() {
+        for (Comparison comparison : Comparison.values()) {
+            check(compare(field(INT, 0), comparison, field(INT, 1)));
+            check(compare(field(BIGINT, 2), comparison, literal(BIGINT, 5L)));
+            check(compare(literal(DOUBLE, 0.5), comparison, field(DOUBLE, 3)));
+        }
+    }
+
+    @Test
+    public void compareNull() {
+        check(compare(field(INT, 0), Comparison.EQ, literal(INT, null)));
+        check(compare(literal(BIGINT, null), Comparison.LT, field(BIGINT, 2)));
+    }
+
+    @Test
+    public void overflow() {
+        // Must agree with TClass.compare, which subtracts ints.
+        check(compare(literal(INT, Integer.MIN_VALUE), Comparison.LT, literal(INT, Integer.MAX_VALUE)));
+        check(compare(field(INT, 0), Comparison.GT, literal(INT, Integer.MIN_VALUE)));
+    }
+
+    @Test
+    public void logic() {
+        TPreparedExpression a = compare(field(INT, 0), Comparison.LT, field(INT, 1));
+        TPreparedExpression b = compare(field(DOUBLE, 3), Comparison.GE, literal(DOUBLE, 0.25));
+        TPreparedExpression c = field(BOOL, 4);
+        check(and(a, b));
+        check(or(a, b));
+        check(not(a));
+        check(and(c, or(not(c), b)));
+        check(or(and(a, c), not(and(b, c))));
+    }
+
+    @Test
+    public void fallback() {
+        // The string comparison is left to the interpreter.
+        TPreparedExpression strings = compare(field(VARCHAR, 5), Comparison.EQ, literal(VARCHAR, "b"));
+        TPreparedExpression a = compare(field(INT, 0), Comparison.NE, field(INT, 1));
+        check(and(strings, a));
+        check(or(a, not(strings)));
+    }
+
+    @Test
+    public void arithmetic() {
+        check(arithmetic(MArithmetic.ADD_INT, BIGINT, field(INT, 0), field(INT, 1)));
+        check(arithmetic(MArithmetic.SUBTRACT_BIGINT, BIGINT, field(BIGINT, 2), literal(BIGINT, 5L)));
+        check(arithmetic(MArithmetic.MULTIPLY_BIGINT, BIGINT, field(BIGINT, 2), field(BIGINT, 2)));
+        check(arithmetic(MArithmetic.ADD_DOUBLE, DOUBLE, field(DOUBLE, 3), literal(DOUBLE, null)));
+        // Overflow to infinity is NULL.
+        check(arithmetic(MArithmetic.MULTIPLY_DOUBLE, DOUBLE, field(DOUBLE, 3), literal(DOUBLE, Double.MAX_VALUE)));
+    }
+
+    @Test
+    public void divide() {
+        // Dividing by zero is NULL, but only by positive zero for doubles.
+        check(arithmetic(MArithmetic.DIVIDE_INT, DOUBLE, field(INT, 0), field(INT, 1)));
+        check(arithmetic(MArithmetic.DIVIDE_BIGINT, DOUBLE, field(BIGINT, 2), literal(BIGINT, 0L)));
+        check(arithmetic(MArithmetic.DIVIDE_DOUBLE, DOUBLE, literal(DOUBLE, 1.0), field(DOUBLE, 3)));
+    }
+
+    @Test
+    public void casts() {
+        check(cast(field(INT, 0), Cast_From_Int.TO_BIGINT, BIGINT));
+        check(cast(field(INT, 1), Cast_From_Int.TO_DOUBLE, DOUBLE));
+        check(cast(field(BIGINT, 2), Cast_From_Bigint.TO_DOUBLE, DOUBLE));
+    }
+
+    @Test
+    public void nested() {
+        TPreparedExpression sum = arithmetic(MArithmetic.ADD_BIGINT, BIGINT,
+                                             cast(field(INT, 0), Cast_From_Int.TO_BIGINT, BIGINT),
+                                             arithmetic(MArithmetic.MULTIPLY_BIGINT, BIGINT,
+                                                        field(BIGINT, 2), literal(BIGINT, 5L)));
+        check(sum);
+        check(compare(sum, Comparison.GT, field(BIGINT, 2)));
+        check(compare(arithmetic(MArithmetic.ADD_INT, BIGINT, field(INT, 0), field(INT, 1)),
+                      Comparison.LE, literal(BIGINT, 0L)));
+    }
+
+    @Test
+    public void interpretedOperand() {
+        // Integer DIV is left to the interpreter, but the addition is still compiled.
+        TPreparedExpression div = arithmetic(MArithmetic.DIV_INT, INT, field(INT, 0), field(INT, 1));
+        check(arithmetic(MArithmetic.ADD_INT, BIGINT, div, field(INT, 1)));
+    }
+
+    @Test
+    public void notCompiled() {
+        TPreparedExpression strings = compare(field(VARCHAR, 5), Comparison.EQ, literal(VARCHAR, "b"));
+        assertSame(strings, TExpressionCompiler.compile(strings));
+        TPreparedExpression field = field(INT, 0);
+        assertSame(field, TExpressionCompiler.compile(field));
+        TPreparedExpression mod = arithmetic(MArithmetic.MOD_INT, INT, field(INT, 0), field(INT, 1));
+        assertSame(mod, TExpressionCompiler.compile(mod));
+    }
+
+    private void check(TPreparedExpression expression) {
+        TPreparedExpression compiled = TExpressionCompiler.compile(expression);
+        assertNotSame(expression.toString(), expression, compiled);
+        TEvaluatableExpression interpreted = expression.build();
+        TEvaluatableExpression generated = compiled.build();
+        for (Row row : rows) {
+            interpreted.with(row);
+            interpreted.evaluate();
+            generated.with(row);
+            generated.evaluate();
+            ValueSource expected = interpreted.resultValue();
+            ValueSource actual = generated.resultValue();
+            String message = expression + " on " + row;
+            assertEquals(message, ValueSources.toObject(expected), ValueSources.toObject(actual));
+        }
+    }
+
+    private static List<Row> rows() {
+        RowsBuilder builder = new RowsBuilder(INT, INT, BIGINT, DOUBLE, BOOL, VARCHAR);
+        Integer[] ints = { null, Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE };
+        Long[] longs = { null, Long.MIN_VALUE, 5L, Long.MAX_VALUE };
+        Double[] doubles = { null, -0.0, 0.25, 0.5, Double.NaN };
+        Boolean[] bools = { null, false, true };
+        String[] strings = { null, "a", "b" };
+        int n = 0;
+        for (Integer i : ints) {
+            for (Integer j : ints) {
+                for (Long l : longs) {
+                    Double d = doubles[n % doubles.length];
+                    Boolean b = bools[n % bools.length];
+                    String s = strings[(n / 2) % strings.length];
+                    builder.row(i, j, l, d, b, s);
+                    n++;
+                }
+            }
+        }
+        return new ArrayList<>(builder.rows());
+    }
+
+    private static TPreparedExpression field(TInstance type, int index) {
+        return new TPreparedField(type, index);
+    }
+
+    private static TPreparedExpression literal(TInstance type, Object object) {
+        Value value = new Value(type);
+        if (object == null)
+            value.putNull();
+        else if (object instanceof Integer)
+            value.putInt32((Integer)object);
+        else if (object instanceof Long)
+            value.putInt64((Long)object);
+        else if (object instanceof Double)
+            value.putDouble((Double)object);
+        else
+            value.putString((String)object, null);
+        return new TPreparedLiteral(type, value);
+    }
+
+    private static TPreparedExpression compare(TPreparedExpression left, Comparison comparison,
+                                               TPreparedExpression right) {
+        return new TComparisonExpression(left, comparison, right);
+    }
+
+    private static TPreparedExpression and(TPreparedExpression... inputs) {
+        return function(BoolLogic.AND, Arrays.asList(inputs));
+    }
+
+    private static TPreparedExpression or(TPreparedExpression... inputs) {
+        return function(BoolLogic.OR, Arrays.asList(inputs));
+    }
+
+    private static TPreparedExpression not(TPreparedExpression input) {
+        return function(BoolLogic.NOT, Arrays.asList(input));
+    }
+
+    private static TPreparedExpression arithmetic(TScalar scalar, TInstance resultType,
+                                                  TPreparedExpression left, TPreparedExpression right) {
+        return new TPreparedFunction(new TValidatedScalar(scalar), resultType,
+                                     Arrays.asList(left, right));
+    }
+
+    private static TPreparedExpression cast(TPreparedExpression input, TCast cast, TInstance targetType) {
+        return new TCastExpression(input, cast, targetType);
+    }
+
+    private static TPreparedExpression function(TScalar scalar,
+                                                Collection<TPreparedExpression> inputs) {
+        return new TPreparedFunction(new TValidatedScalar(scalar), BOOL,
+                                     new ArrayList<>(inputs));
+    }
+}
@@ -359,6 +359,16 @@ public class CostEstimatorTest
         }
     };
 
+    @Test
+    public void testDistinctCount() {
+        assertEquals(9, costEstimator.distinctCount(table("addresses").getColumn("state")));
+        assertEquals(200, costEstimator.distinctCount(table("items").getColumn("sku")));
+        assertEquals(738, costEstimator.distinctCount(table("orders").getColumn("order_date")));
+        assertEquals(20000, costEstimator.distinctCount(table("items").getColumn("iid")));
+        // No index leading with city.
+        assertEquals(-1, costEstimator.distinctCount(table("addresses").getColumn("city")));
+    }
+
     @Test
     public void testUniformPortion() {
         assertEquals(8, CostEstimator.uniformPortion("A".getBytes(),
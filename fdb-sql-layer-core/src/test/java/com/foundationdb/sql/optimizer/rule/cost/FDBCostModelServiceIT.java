@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.foundationdb.sql.optimizer.rule.cost;
+
+import com.foundationdb.server.service.servicemanager.GuicedServiceManager.BindingsConfigurationProvider;
+import com.foundationdb.server.test.it.FDBITBase;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class FDBCostModelServiceIT extends FDBITBase
+{
+    @Override
+    protected BindingsConfigurationProvider serviceBindingsProvider() {
+        return super.serviceBindingsProvider()
+            .bind(CostModelFactory.class, FDBCostModelService.class);
+    }
+
+    @Override
+    protected Map<String, String> startupConfigProperties() {
+        Map<String,String> props = new HashMap<>(super.startupConfigProperties());
+        props.put("fdbsql.cost_model.calibration_rows", "200");
+        props.put("fdbsql.cost_model.calibration_runs", "2");
+        return props;
+    }
+
+    private FDBCostModelService costModelService() {
+        return (FDBCostModelService)serviceManager().getServiceByClass(CostModelFactory.class);
+    }
+
+    @Test
+    public void calibrateAndReload() {
+        FDBCostModelService service = costModelService();
+        FDBCostModelMeasurements calibrated = service.calibrate();
+        for (Map.Entry<String,Double> entry : calibrated.toMap().entrySet()) {
+            assertTrue(entry.getKey(), entry.getValue() >= 0);
+        }
+        assertTrue("round trip measured", calibrated.getRandomAccessPerRow() > 0);
+        assertSame(calibrated, service.getMeasurements());
+        assertEquals(calibrated.toMap(), service.loadMeasurements().toMap());
+    }
+
+    @Test
+    public void fitting() {
+        double perByte = FDBCostModelCalibrator.perByte(10.0, 20.0);
+        assertEquals(10.0 / (FDBCostModelCalibrator.WIDE_ROW - FDBCostModelCalibrator.NARROW_ROW), perByte, 1e-9);
+        assertEquals(10.0 - perByte * FDBCostModelCalibrator.NARROW_ROW,
+                     FDBCostModelCalibrator.perRow(10.0, perByte), 1e-9);
+        assertEquals(0.0, FDBCostModelCalibrator.perByte(20.0, 10.0), 0.0);
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.sql.server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ServerStatementCacheTest
+{
+    static class Stmt implements ServerStatement {
+        @Override
+        public TransactionMode getTransactionMode() {
+            return TransactionMode.ALLOWED;
+        }
+
+        @Override
+        public TransactionAbortedMode getTransactionAbortedMode() {
+            return TransactionAbortedMode.ALLOWED;
+        }
+
+        @Override
+        public AISGenerationMode getAISGenerationMode() {
+            return AISGenerationMode.ALLOWED;
+        }
+    }
+
+    private final CacheCounters counters = new CacheCounters();
+
+    private boolean lookup(ServerStatementCache<Stmt> cache, String sql) {
+        if (cache.get(sql) != null)
+            return true;
+        cache.put(sql, new Stmt());
+        return false;
+    }
+
+    @Test
+    public void hitAndMiss() {
+        ServerStatementCache<Stmt> cache = new ServerStatementCache<>(counters, 10);
+        assertFalse(lookup(cache, "SELECT 1"));
+        assertTrue(lookup(cache, "SELECT 1"));
+        assertFalse(lookup(cache, "SELECT 2"));
+        assertEquals(1, counters.getHits());
+        assertEquals(2, counters.getMisses());
+    }
+
+    @Test
+    public void parameterTypes() {
+        ServerStatementCache<Stmt> cache = new ServerStatementCache<>(counters, 10);
+        Stmt stmt = new Stmt();
+        cache.put("SELECT ?", new int[] { 23 }, stmt);
+        assertSame(stmt, cache.get("SELECT ?", new int[] { 23 }));
+        assertNull(cache.get("SELECT ?", new int[] { 20 }));
+        assertNull(cache.get("SELECT ?"));
+        // No parameter types is the same as none given.
+        cache.put("SELECT 1", new int[0], stmt);
+        assertSame(stmt, cache.get("SELECT 1"));
+    }
+
+    @Test
+    public void zeroCapacity() {
+        ServerStatementCache<Stmt> cache = new ServerStatementCache<>(counters, 0);
+        assertFalse(lookup(cache, "SELECT 1"));
+        assertFalse(lookup(cache, "SELECT 1"));
+    }
+
+    @Test
+    public void capacityBounded() {
+        ServerStatementCache<Stmt> cache = new ServerStatementCache<>(counters, 10);
+        for (int i = 0; i < 100; i++) {
+            lookup(cache, "SELECT " + i);
+        }
+        int present = 0;
+        for (int i = 0; i < 100; i++) {
+            if (cache.get("SELECT " + i) != null)
+                present++;
+        }
+        assertTrue("at most capacity present", present <= 10);
+        assertTrue("some evictions", counters.getEvictions() > 0);
+    }
+
+    @Test
+    public void frequentSurvivesScan() {
+        ServerStatementCache<Stmt> cache = new ServerStatementCache<>(counters, 100);
+        for (int n = 0; n < 10; n++) {
+            for (int i = 0; i < 50; i++) {
+                lookup(cache, "hot " + i);
+            }
+        }
+        // Five times the capacity, but less than the sketch's aging period.
+        for (int i = 0; i < 500; i++) {
+            lookup(cache, "scan " + i);
+        }
+        for (int i = 0; i < 50; i++) {
+            assertNotNull("hot " + i, cache.get("hot " + i));
+        }
+    }
+
+    @Test
+    public void invalidate() {
+        ServerStatementCache<Stmt> cache = new ServerStatementCache<>(counters, 1000);
+        for (int i = 0; i < 100; i++) {
+            lookup(cache, "SELECT " + i);
+        }
+        cache.invalidate();
+        for (int i = 0; i < 100; i++) {
+            assertNull(cache.get("SELECT " + i));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.tuple;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+public class TupleReaderTest {
+
+    private static final long[] LONGS = {
+        0, 1, -1, 255, 256, -255, -256, 65535, -65536,
+        Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1
+    };
+
+    @Test
+    public void longs() {
+        Tuple2 t = new Tuple2();
+        for (long l : LONGS) {
+            t = t.add(l);
+        }
+        TupleReader reader = new TupleReader(t.pack());
+        for (long l : LONGS) {
+            assertTrue(reader.isInteger());
+            assertEquals(l, reader.getLong());
+        }
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void typed() {
+        byte[] bytes = { 1, 0, 2, 0, (byte)0xFF };
+        Tuple2 t = new Tuple2();
+        t = t.add("foo");
+        t = t.add("f\u0000\u00e9");
+        t = t.add(bytes);
+        t = t.add(4.5);
+        t = t.add(-0.0);
+        t = t.add((Float)(float)-4.5);
+        t = t.add(new Boolean(true));
+        t = t.add(new Boolean(false));
+        t = t.add((String)null);
+        TupleReader reader = new TupleReader(t.pack());
+        assertEquals("foo", reader.getString());
+        assertEquals("f\u0000\u00e9", reader.getString());
+        assertArrayEquals(bytes, reader.getBytes());
+        assertEquals(4.5, reader.getDouble(), 0.0);
+        assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(reader.getDouble()));
+        assertEquals(-4.5f, reader.getFloat(), 0.0f);
+        assertTrue(reader.getBoolean());
+        assertFalse(reader.getBoolean());
+        assertTrue(reader.isNull());
+        assertNull(reader.getString());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void sameAsTuple() {
+        Tuple2 t = new Tuple2();
+        t = t.add(Long.MIN_VALUE);
+        t = t.add("bar");
+        t = t.add(new byte[] { 0, 0 });
+        t = t.add(new BigDecimal("-12345678912345.1234567891234"));
+        t = t.add(UUID.randomUUID());
+        t = t.add(3.25);
+        t = t.add(17);
+        byte[] packed = t.pack();
+        // Surround with other bytes, as in a raw key after its prefix.
+        byte[] bytes = new byte[packed.length + 4];
+        Arrays.fill(bytes, (byte)0x7F);
+        System.arraycopy(packed, 0, bytes, 2, packed.length);
+        List<Object> items = Tuple2.fromBytes(bytes, 2, packed.length).getItems();
+        assertEquals(t.size(), items.size());
+        TupleReader reader = new TupleReader(bytes, 2, packed.length);
+        for (Object item : items) {
+            Object read = reader.get();
+            if (item instanceof byte[])
+                assertArrayEquals((byte[])item, (byte[])read);
+            else
+                assertEquals(item, read);
+        }
+        assertFalse(reader.hasNext());
+        reader.reset(bytes, 2, packed.length);
+        for (int i = 0; i < items.size(); i++) {
+            reader.skip();
+        }
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void bytesInto() {
+        byte[] key = { 0x21, 0, 0x35, 0, 0 };
+        byte[] packed = Tuple2.from(key).pack();
+        TupleReader reader = new TupleReader(packed);
+        byte[] dest = new byte[reader.remaining()];
+        int length = reader.getBytes(dest, 0);
+        assertArrayEquals(key, Arrays.copyOf(dest, length));
+        assertFalse(reader.hasNext());
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BlockedBloomFilterTest
+{
+    @Test
+    public void test()
+    {
+        for (double errorRate : ERROR_RATES) {
+            for (int count : COUNTS) {
+                test("dense longs", errorRate, count, denseLongs(0, count), denseLongs(count, 2 * count));
+                test("sparse longs", errorRate, count, sparseLongs(0, count), sparseLongs(count, 2 * count));
+                test("strided longs", errorRate, count, stridedLongs(0, count), stridedLongs(count, 2 * count));
+                test("random strings", errorRate, count, randomStrings(0, count), randomStrings(count, 2 * count));
+            }
+        }
+    }
+
+    @Test
+    public void empty()
+    {
+        BlockedBloomFilter filter = new BlockedBloomFilter(0, 0.01);
+        for (long key = 0; key < 1000; key++) {
+            assertFalse(filter.maybePresent(key));
+        }
+        assertEquals(0, filter.keys());
+        assertEquals(0.0, filter.expectedFalsePositiveRate(), 0.0);
+    }
+
+    @Test
+    public void combineIsOrdered()
+    {
+        long ab = BlockedBloomFilter.combine(BlockedBloomFilter.combine(0, 1), 2);
+        long ba = BlockedBloomFilter.combine(BlockedBloomFilter.combine(0, 2), 1);
+        long aa = BlockedBloomFilter.combine(BlockedBloomFilter.combine(0, 1), 1);
+        long bb = BlockedBloomFilter.combine(BlockedBloomFilter.combine(0, 2), 2);
+        assertTrue(ab != ba);
+        assertTrue(aa != bb);
+    }
+
+    private void test(String label, double errorRate, int count, List<Long> keys, List<Long> missingKeys)
+    {
+        BlockedBloomFilter filter = new BlockedBloomFilter(count, errorRate);
+        for (long key : keys) {
+            filter.add(key);
+        }
+        // Check that all keys are found
+        for (long key : keys) {
+            assertTrue(label, filter.maybePresent(key));
+        }
+        // Check false positives for missing keys
+        int falsePositives = 0;
+        for (long missingKey : missingKeys) {
+            if (filter.maybePresent(missingKey)) {
+                falsePositives++;
+            }
+        }
+        double actualErrorRate = ((double) falsePositives) / count;
+        double maxAcceptableErrorRate = errorRate * 10;
+        assertTrue(label, actualErrorRate <= maxAcceptableErrorRate);
+        assertTrue(label, filter.expectedFalsePositiveRate() <= errorRate);
+    }
+
+    private List<Long> denseLongs(int start, int end)
+    {
+        List<Long> keys = new ArrayList<>(end - start);
+        for (long i = start; i < end; i++) {
+            keys.add(i);
+        }
+        return keys;
+    }
+
+    private List<Long> sparseLongs(int start, int end)
+    {
+        List<Long> keys = new ArrayList<>(end - start);
+        for (long i = start; i < end; i++) {
+            keys.add((((long) random.nextInt()) << 32) | i);
+        }
+        return keys;
+    }
+
+    // Only high bits vary, which a 32-bit hash would fold together.
+    private List<Long> stridedLongs(int start, int end)
+    {
+        List<Long> keys = new ArrayList<>(end - start);
+        for (long i = start; i < end; i++) {
+            keys.add(i << 40);
+        }
+        return keys;
+    }
+
+    private List<Long> randomStrings(int start, int end)
+    {
+        List<Long> keys = new ArrayList<>(end - start);
+        for (long i = start; i < end; i++) {
+            long key = (((long) random.nextInt()) << 32) | i;
+            keys.add((long) Long.toString(key).hashCode());
+        }
+        return keys;
+    }
+
+    private static final Random random = new Random(419);
+    private static final double[] ERROR_RATES = { 0.1d, 0.01d, 0.001d, 0.0001d };
+    private static final int[] COUNTS = { 100, 1000, 10000, 100000 };
+}
@@ -195,4 +195,21 @@ public class TapTest {
         }
         assertEquals(0x3, mask);
     }
+
+    @Test
+    public void testCountHits()
+    {
+        PointTap bytes = Tap.createCount("bytes");
+        Tap.setEnabled(".*", true);
+        bytes.hit();
+        bytes.hit(100);
+        TapReport[] reports = Tap.getReport("bytes");
+        assertEquals(1, reports.length);
+        assertEquals(101, reports[0].getInCount());
+        assertEquals(101, reports[0].getOutCount());
+        Tap.setEnabled(".*", false);
+        bytes.hit(100);
+        Tap.setEnabled(".*", true);
+        assertEquals(0, Tap.getReport("bytes")[0].getInCount());
+    }
 }
@@ -0,0 +1 @@
+SELECT customers.name, order_date FROM customers LEFT OUTER JOIN (orders INNER JOIN items ON orders.oid = items.oid) ON customers.cid = orders.cid WHERE quan > 100 ORDER BY order_date DESC OFFSET 20 LIMIT 1000
\ No newline at end of file
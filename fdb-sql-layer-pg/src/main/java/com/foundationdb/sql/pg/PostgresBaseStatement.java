@@ -32,6 +32,7 @@ import java.util.List;
 public abstract class PostgresBaseStatement implements PostgresStatement
 {
     protected long aisGeneration;
+    protected PostgresStatisticsSnapshot statisticsSnapshot;
     protected abstract InOutTap executeTap();
 
     protected void preExecute(PostgresQueryContext context, DXLFunction operationType)
@@ -59,6 +60,15 @@ public abstract class PostgresBaseStatement implements PostgresStatement
         return aisGeneration;
     }
 
+    /** Get the statistics this statement was planned with, if tracked. */
+    public PostgresStatisticsSnapshot getStatisticsSnapshot() {
+        return statisticsSnapshot;
+    }
+
+    public void setStatisticsSnapshot(PostgresStatisticsSnapshot statisticsSnapshot) {
+        this.statisticsSnapshot = statisticsSnapshot;
+    }
+
     @Override
     public PostgresStatement finishGenerating(PostgresServerSession server,
                                               String sql, StatementNode stmt,
@@ -0,0 +1,248 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.sql.pg;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Parks idle connections for <code>connection_mode=selector</code>.
+ * A connection that is waiting for its next message gives up its
+ * thread and registers its channel here. When the client sends
+ * something, or the connection needs to be canceled or stopped, it
+ * is resumed on a pooled worker thread, which runs it until it is
+ * idle again. So threads are only needed for connections that are
+ * doing something.
+ */
+public class PostgresConnectionSelector implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(PostgresConnectionSelector.class);
+    private static final String THREAD_NAME_PREFIX = "PostgresServer_Selector-"; // Port is appended
+    private static final String WORKER_NAME_PREFIX = "PostgresServer_Worker-"; // Number is appended
+
+    private final int port;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final Queue<PostgresServerConnection> toPark = new ConcurrentLinkedQueue<>();
+    private final Queue<PostgresServerConnection> toWake = new ConcurrentLinkedQueue<>();
+    // Only touched by the selector thread.
+    private final Set<PostgresServerConnection> parked = new HashSet<>();
+    private volatile int parkedCount;
+    private volatile boolean running;
+    private Thread thread;
+
+    public PostgresConnectionSelector(int port) throws IOException {
+        this.port = port;
+        this.selector = Selector.open();
+        final AtomicInteger workerNumber = new AtomicInteger();
+        this.workers = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, WORKER_NAME_PREFIX + workerNumber.incrementAndGet());
+                }
+            });
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this, THREAD_NAME_PREFIX + port);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+        if (thread != null) {
+            try {
+                thread.join(500);
+                if (thread.isAlive())
+                    logger.warn("Selector still running.");
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(500, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            selector.close();
+        }
+        catch (IOException ex) {
+        }
+    }
+
+    /** Run a new connection on a worker thread. */
+    public void execute(PostgresServerConnection connection) {
+        workers.execute(connection);
+    }
+
+    /** Called by a connection's worker thread, which must then return
+     * without touching the connection. */
+    public void park(PostgresServerConnection connection) {
+        toPark.add(connection);
+        selector.wakeup();
+    }
+
+    /** Resume a connection if it is parked, so that it notices it has been canceled or stopped. */
+    public void wake(PostgresServerConnection connection) {
+        toWake.add(connection);
+        selector.wakeup();
+    }
+
+    /** Number of connections currently without a thread. */
+    public int getParkedCount() {
+        return parkedCount;
+    }
+
+    @Override
+    public void run() {
+        List<PostgresServerConnection> ready = new ArrayList<>();
+        try {
+            while (running) {
+                registerParked(ready);
+                wakeParked(ready);
+                if (ready.isEmpty())
+                    selector.select();
+                else
+                    selector.selectNow();
+                do {
+                    Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                    while (iter.hasNext()) {
+                        SelectionKey key = iter.next();
+                        iter.remove();
+                        PostgresServerConnection connection = (PostgresServerConnection)key.attachment();
+                        key.cancel();
+                        if (parked.remove(connection)) {
+                            ready.add(connection);
+                        }
+                    }
+                    // A channel cannot go back to blocking mode until its
+                    // canceled key is flushed by another selection.
+                } while (selector.selectNow() > 0);
+                resume(ready);
+            }
+        }
+        catch (Exception ex) {
+            if (running)
+                logger.warn("Error in selector", ex);
+        }
+        finally {
+            // Let anything still parked notice the shutdown.
+            for (SelectionKey key : selector.keys()) {
+                key.cancel();
+            }
+            ready.addAll(parked);
+            parked.clear();
+            ready.addAll(toPark);
+            toPark.clear();
+            try {
+                selector.selectNow();
+            }
+            catch (IOException ex) {
+            }
+            resume(ready);
+        }
+    }
+
+    // For use by this class
+
+    private void registerParked(List<PostgresServerConnection> ready) {
+        PostgresServerConnection connection;
+        while ((connection = toPark.poll()) != null) {
+            if (connection.isWakeRequested()) {
+                ready.add(connection);
+                continue;
+            }
+            SocketChannel channel = connection.getChannel();
+            try {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, connection);
+                parked.add(connection);
+            }
+            catch (ClosedChannelException ex) {
+                // Stopped meanwhile: resume to clean up.
+                ready.add(connection);
+            }
+            catch (IOException ex) {
+                logger.warn("Error parking connection", ex);
+                ready.add(connection);
+            }
+        }
+        parkedCount = parked.size();
+    }
+
+    private void wakeParked(List<PostgresServerConnection> ready) {
+        PostgresServerConnection connection;
+        while ((connection = toWake.poll()) != null) {
+            if (parked.remove(connection)) {
+                SelectionKey key = connection.getChannel().keyFor(selector);
+                if (key != null) {
+                    key.cancel();
+                }
+                ready.add(connection);
+            }
+        }
+        parkedCount = parked.size();
+    }
+
+    private void resume(List<PostgresServerConnection> ready) {
+        parkedCount = parked.size();
+        for (PostgresServerConnection connection : ready) {
+            try {
+                SocketChannel channel = connection.getChannel();
+                if (channel.isOpen()) {
+                    channel.configureBlocking(true);
+                }
+            }
+            catch (IOException ex) {
+                logger.warn("Error resuming connection", ex);
+            }
+            try {
+                workers.execute(connection);
+            }
+            catch (RuntimeException ex) {
+                // Rejected after shutdown: stop and clean up here.
+                connection.stop();
+                connection.run();
+            }
+        }
+        ready.clear();
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.sql.pg;
+
+import com.foundationdb.qp.operator.QueryBindings;
+import com.foundationdb.qp.operator.QueryContext;
+import com.foundationdb.server.error.SQLParserInternalException;
+import com.foundationdb.server.service.TypesRegistryService;
+import com.foundationdb.server.types.TInstance;
+import com.foundationdb.server.types.value.ValueSource;
+import com.foundationdb.sql.StandardException;
+import com.foundationdb.sql.optimizer.ParameterFinder;
+import com.foundationdb.sql.parser.*;
+import com.foundationdb.sql.server.ServerValueDecoder;
+import com.foundationdb.util.AkibanAppender;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Replace literals in a simple query with parameters, so that queries
+ * that differ only in those literals can share one compiled statement.
+ *
+ * Only literals compared directly with a column are replaced: in
+ * comparison operators, <code>BETWEEN</code> and <code>IN</code>
+ * lists. There the column decides the type of the parameter. Anywhere
+ * else, the type of the literal itself can change what the query
+ * means.
+ */
+public class PostgresLiteralParameterizer implements Visitor
+{
+    static class Site {
+        final QueryTreeNode owner;
+        final int position;
+        final ConstantNode literal;
+
+        Site(QueryTreeNode owner, int position, ConstantNode literal) {
+            this.owner = owner;
+            this.position = position;
+            this.literal = literal;
+        }
+    }
+
+    private final String sql;
+    private List<Site> sites;
+    private Set<ConstantNode> seen;
+    private List<TableName> tables;
+    private String genericSQL;
+    private List<ParameterNode> parameters;
+
+    public PostgresLiteralParameterizer(String sql) {
+        this.sql = sql;
+    }
+
+    /** Replace literals in <code>stmt</code> with parameters.
+     * Returns <code>false</code>, leaving the statement alone, if
+     * there are none to replace.
+     */
+    public boolean parameterize(StatementNode stmt) {
+        if (!(stmt instanceof DMLStatementNode) || (stmt instanceof CallStatementNode))
+            return false;
+        if (!new ParameterFinder().find(stmt).isEmpty())
+            return false;
+        sites = new ArrayList<>();
+        seen = Collections.newSetFromMap(new IdentityHashMap<ConstantNode,Boolean>());
+        tables = new ArrayList<>();
+        try {
+            stmt.accept(this);
+        }
+        catch (StandardException ex) {
+            throw new SQLParserInternalException(ex);
+        }
+        if (sites.isEmpty())
+            return false;
+        Collections.sort(sites, new Comparator<Site>() {
+                @Override
+                public int compare(Site s1, Site s2) {
+                    return Integer.compare(s1.literal.getBeginOffset(),
+                                           s2.literal.getBeginOffset());
+                }
+            });
+        // The generic text is made from the original, so that nothing
+        // but the literals themselves is lost.
+        StringBuilder str = new StringBuilder();
+        int offset = 0;
+        for (int i = 0; i < sites.size(); i++) {
+            ConstantNode literal = sites.get(i).literal;
+            int begin = literal.getBeginOffset();
+            int end = literal.getEndOffset();
+            if ((begin < offset) || (end < begin) || (end >= sql.length()))
+                return false;
+            str.append(sql, offset, begin).append('$').append(i + 1);
+            offset = end + 1;
+        }
+        str.append(sql, offset, sql.length());
+        genericSQL = str.toString();
+        parameters = new ArrayList<>(sites.size());
+        try {
+            for (int i = 0; i < sites.size(); i++) {
+                Site site = sites.get(i);
+                ParameterNode parameter = (ParameterNode)
+                    site.literal.getNodeFactory().getNode(NodeTypes.PARAMETER_NODE,
+                                                          i, null,
+                                                          site.literal.getParserContext());
+                if (site.owner instanceof BinaryOperatorNode) {
+                    if (site.position == 0)
+                        ((BinaryOperatorNode)site.owner).setLeftOperand(parameter);
+                    else
+                        ((BinaryOperatorNode)site.owner).setRightOperand(parameter);
+                }
+                else {
+                    ((ValueNodeList)site.owner).set(site.position, parameter);
+                }
+                parameters.add(parameter);
+            }
+        }
+        catch (StandardException ex) {
+            throw new SQLParserInternalException(ex);
+        }
+        return true;
+    }
+
+    /** The query text with <code>$<i>n</i></code> in place of each literal. */
+    public String getGenericSQL() {
+        return genericSQL;
+    }
+
+    public List<ParameterNode> getParameters() {
+        return parameters;
+    }
+
+    /** Tables named in the query, as written. */
+    public List<TableName> getTables() {
+        return tables;
+    }
+
+    /** Bind the replaced literals as the values of the parameters.
+     * Returns <code>false</code> if some literal does not convert
+     * exactly to the type of its parameter, in which case the generic
+     * statement would not mean the same as the original query.
+     */
+    public boolean bind(PostgresType[] parameterTypes, ServerValueDecoder decoder,
+                        String encoding, QueryBindings bindings, QueryContext context,
+                        TypesRegistryService typesRegistryService) {
+        if ((parameterTypes == null) || (parameterTypes.length != sites.size()))
+            return false;
+        for (int i = 0; i < parameterTypes.length; i++) {
+            PostgresType pgType = parameterTypes[i];
+            if ((pgType == null) || (pgType.getType() == null))
+                return false;
+            Object value = sites.get(i).literal.getValue();
+            String text = literalText(value);
+            try {
+                decoder.decodeValue(text.getBytes(encoding), pgType, false,
+                                    bindings, i, context, typesRegistryService);
+            }
+            catch (UnsupportedEncodingException ex) {
+                return false;
+            }
+            catch (RuntimeException ex) {
+                return false;
+            }
+            if (!sameValue(value, text, pgType.getType(), bindings.getValue(i)))
+                return false;
+        }
+        return true;
+    }
+
+    protected static String literalText(Object value) {
+        if (value instanceof BigDecimal)
+            return ((BigDecimal)value).toPlainString();
+        return value.toString();
+    }
+
+    protected static boolean sameValue(Object value, String text,
+                                       TInstance type, ValueSource source) {
+        if (source.isNull())
+            return false;
+        StringBuilder str = new StringBuilder();
+        type.format(source, AkibanAppender.of(str));
+        if (value instanceof String)
+            return text.equals(str.toString());
+        try {
+            return new BigDecimal(text).compareTo(new BigDecimal(str.toString())) == 0;
+        }
+        catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    /* Visitor */
+
+    @Override
+    public Visitable visit(Visitable node) throws StandardException {
+        if (node instanceof FromBaseTable) {
+            tables.add(((FromBaseTable)node).getOrigTableName());
+        }
+        else if (node instanceof BinaryComparisonOperatorNode) {
+            BinaryOperatorNode binop = (BinaryOperatorNode)node;
+            if (binop.getLeftOperand() instanceof ColumnReference)
+                addSite(binop, 1, binop.getRightOperand());
+            else if (binop.getRightOperand() instanceof ColumnReference)
+                addSite(binop, 0, binop.getLeftOperand());
+        }
+        else if (node instanceof BetweenOperatorNode) {
+            BetweenOperatorNode between = (BetweenOperatorNode)node;
+            if (between.getLeftOperand() instanceof ColumnReference) {
+                ValueNodeList range = between.getRightOperandList();
+                for (int i = 0; i < range.size(); i++) {
+                    addSite(range, i, range.get(i));
+                }
+            }
+        }
+        else if (node instanceof InListOperatorNode) {
+            InListOperatorNode in = (InListOperatorNode)node;
+            ValueNodeList left = in.getLeftOperand().getNodeList();
+            if ((left.size() == 1) && (left.get(0) instanceof ColumnReference)) {
+                ValueNodeList list = in.getRightOperandList().getNodeList();
+                for (int i = 0; i < list.size(); i++) {
+                    addSite(list, i, list.get(i));
+                }
+            }
+        }
+        return node;
+    }
+
+    protected void addSite(QueryTreeNode owner, int position, ValueNode operand) {
+        if (!(operand instanceof ConstantNode))
+            return;
+        ConstantNode literal = (ConstantNode)operand;
+        Object value = literal.getValue();
+        if (!((value instanceof String) || (value instanceof Number)))
+            return;
+        // Set operators can lead to the same node being visited twice.
+        if (seen.add(literal))
+            sites.add(new Site(owner, position, literal));
+    }
+
+    @Override
+    public boolean visitChildrenFirst(Visitable node) {
+        return false;
+    }
+
+    @Override
+    public boolean stopTraversal() {
+        return false;
+    }
+
+    @Override
+    public boolean skipChildren(Visitable node) {
+        return false;
+    }
+}
@@ -38,6 +38,9 @@ public interface PostgresMXBean {
     void setStatementCacheCapacity(int capacity);
     int getStatementCacheHits();
     int getStatementCacheMisses();
+    int getStatementCacheEvictions();
+    /** Total milliseconds spent compiling statements not found in the cache. */
+    long getStatementCacheCompileTime();
     void resetStatementCache();
     
     Set<Integer> getCurrentSessions();
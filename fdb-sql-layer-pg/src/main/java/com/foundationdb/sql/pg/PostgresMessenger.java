@@ -51,6 +51,9 @@ public class PostgresMessenger implements DataInput, DataOutput
     private final static InOutTap xmitTap = Tap.createTimer("sql: msg: xmit");
 
     private static final int IDLE_INTERVAL = 100;
+    // Give back the buffer after an unusually large message.
+    private static final int OUTPUT_BUFFER_INITIAL = 8192;
+    private static final int OUTPUT_BUFFER_RETAIN = 1024 * 1024;
 
     private final Socket socket;
     private final InputStream inputStream;
@@ -58,8 +61,8 @@ public class PostgresMessenger implements DataInput, DataOutput
     private final DataInputStream dataInput;
     private byte[] rawMessageInput;
     private DataInputStream messageInput;
-    private ByteArrayOutputStream byteOutput;
-    private DataOutputStream messageOutput;
+    private final MessageBuffer byteOutput = new MessageBuffer();
+    private final DataOutputStream messageOutput = new DataOutputStream(byteOutput);
     private String encoding = "UTF-8";
 
     public PostgresMessenger(Socket socket) throws SocketException, IOException {
@@ -167,8 +170,7 @@ public class PostgresMessenger implements DataInput, DataOutput
 
     /** Begin outgoing message of given type. */
     protected void beginMessage(int type) throws IOException {
-        byteOutput = new ByteArrayOutputStream();
-        messageOutput = new DataOutputStream(byteOutput);
+        byteOutput.reset();
         messageOutput.write(type);
         messageOutput.writeInt(0);
     }
@@ -176,20 +178,41 @@ public class PostgresMessenger implements DataInput, DataOutput
     /** Send outgoing message. */
     protected void sendMessage() throws IOException {
         messageOutput.flush();
-        byte[] msg = byteOutput.toByteArray();
         
         // check we're writing an allowed message. 
-        assert PostgresMessages.writeTypeCorrect((int)msg[0]) : "Invalid write message: " + (char)msg[0];
+        assert PostgresMessages.writeTypeCorrect((int)byteOutput.byteAt(0)) : "Invalid write message: " + (char)byteOutput.byteAt(0);
         
-        int len = msg.length - 1;
-        msg[1] = (byte)(len >> 24);
-        msg[2] = (byte)(len >> 16);
-        msg[3] = (byte)(len >> 8);
-        msg[4] = (byte)len;
-        outputStream.write(msg);
+        int len = byteOutput.size() - 1;
+        byteOutput.setInt(1, len);
+        byteOutput.writeTo(outputStream);
+        byteOutput.release();
         bytesWritten(len + 1);
     }
 
+    /** Start a length-prefixed value in the current message.
+     * @return the position to pass to {@link #endLength}.
+     */
+    protected int beginLength() throws IOException {
+        int position = byteOutput.size();
+        messageOutput.writeInt(0);
+        return position;
+    }
+
+    /** Fill in the length of everything written since {@link #beginLength}.
+     * @return that length.
+     */
+    protected int endLength(int position) {
+        int length = byteOutput.size() - position - 4;
+        byteOutput.setInt(position, length);
+        return length;
+    }
+
+    /** Get the buffer for the current message, so that values can be
+     * encoded straight into it. */
+    protected ByteArrayOutputStream getMessageStream() {
+        return byteOutput;
+    }
+
     /** Send outgoing message and optionally flush stream. */
     protected void sendMessage(boolean flush) throws IOException {
         sendMessage();
@@ -211,13 +234,13 @@ public class PostgresMessenger implements DataInput, DataOutput
      * something asynchronous can be sent. */
     protected Object suspendMessage() throws IOException {
         messageOutput.flush();
-        return byteOutput;
+        return byteOutput.toByteArray();
     }
 
     /** Restore the state from {@link #suspendMessage}. */
     protected void resumeMessage(Object state) throws IOException {
-        byteOutput = (ByteArrayOutputStream)state;
-        messageOutput = new DataOutputStream(byteOutput);
+        byteOutput.reset();
+        byteOutput.write((byte[])state);
     }
 
     /** Read null-terminated string. */
@@ -366,4 +389,29 @@ public class PostgresMessenger implements DataInput, DataOutput
     }
     public void bytesWritten(int count) {
     }
+
+    /** Outgoing message buffer, reused from one message to the next. */
+    static class MessageBuffer extends ByteArrayOutputStream {
+        public MessageBuffer() {
+            super(OUTPUT_BUFFER_INITIAL);
+        }
+
+        public byte byteAt(int position) {
+            return buf[position];
+        }
+
+        public void setInt(int position, int value) {
+            buf[position] = (byte)(value >> 24);
+            buf[position+1] = (byte)(value >> 16);
+            buf[position+2] = (byte)(value >> 8);
+            buf[position+3] = (byte)value;
+        }
+
+        /** Empty, and shrink if a large message made it grow. */
+        public void release() {
+            count = 0;
+            if (buf.length > OUTPUT_BUFFER_RETAIN)
+                buf = new byte[OUTPUT_BUFFER_INITIAL];
+        }
+    }
 }
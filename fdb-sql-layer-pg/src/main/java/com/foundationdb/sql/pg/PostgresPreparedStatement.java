@@ -26,6 +26,7 @@ public class PostgresPreparedStatement implements PreparedStatementMonitor
     private String name;
     private String sql;
     private PostgresStatement statement;
+    private PostgresLiteralParameterizer literals;
     private long prepareTime;
 
     public PostgresPreparedStatement(PostgresServerSession session, String name,
@@ -71,4 +72,17 @@ public class PostgresPreparedStatement implements PreparedStatementMonitor
         return statement;
     }
 
+    public void setStatement(PostgresStatement statement) {
+        this.statement = statement;
+    }
+
+    /** Literals in the SQL that the statement takes as parameters. */
+    public PostgresLiteralParameterizer getLiterals() {
+        return literals;
+    }
+
+    public void setLiterals(PostgresLiteralParameterizer literals) {
+        this.literals = literals;
+    }
+
 }
@@ -18,8 +18,9 @@
 package com.foundationdb.sql.pg;
 
 import com.foundationdb.qp.row.Row;
+import com.foundationdb.server.types.value.ValueSource;
+import com.foundationdb.sql.server.ServerValueEncoder;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 import org.slf4j.Logger;
@@ -29,9 +30,13 @@ public class PostgresRowOutputter extends PostgresOutputter<Row>
 {
     private static final Logger logger = LoggerFactory.getLogger(PostgresRowOutputter.class);
 
+    // Encodes straight into the DataRow message.
+    private final ServerValueEncoder messageEncoder;
+
     public PostgresRowOutputter(PostgresQueryContext context,
                                 PostgresDMLStatement statement) {
         super(context, statement);
+        messageEncoder = context.getServer().getMessageEncoder();
     }
 
     @Override
@@ -41,14 +46,17 @@ public class PostgresRowOutputter extends PostgresOutputter<Row>
         for (int i = 0; i < ncols; i++) {
             PostgresType type = columnTypes.get(i);
             boolean binary = context.isColumnBinary(i);
-            ByteArrayOutputStream bytes = encoder.encodeValue(row.value(i), type, binary);
-            if (bytes == null) {
+            ValueSource value = messageEncoder.encodableValue(row.value(i), type);
+            if (value == null) {
                 messenger.writeInt(-1);
             }
             else {
-                messenger.writeInt(bytes.size());
-                messenger.writeByteStream(bytes);
-                logger.trace("BE Row Data -> {}:{}", i, bytes.size() );
+                int lengthPosition = messenger.beginLength();
+                messageEncoder.appendValue(value, type, binary);
+                messageEncoder.flush();
+                int length = messenger.endLength(lengthPosition);
+                if (logger.isTraceEnabled())
+                    logger.trace("BE Row Data -> {}:{}", i, length);
             }
         }
         messenger.sendMessage();
@@ -25,6 +25,7 @@ import com.foundationdb.server.error.InvalidPortException;
 import com.foundationdb.server.service.metrics.LongMetric;
 import com.foundationdb.server.service.monitor.MonitorStage;
 import com.foundationdb.server.service.monitor.ServerMonitor;
+import com.foundationdb.server.store.PersistitTransactionService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,8 +33,10 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -44,6 +47,8 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.security.Principal;
 import javax.security.auth.Subject;
@@ -53,6 +58,8 @@ import javax.security.auth.login.LoginException;
 /** The PostgreSQL server.
  * Listens of a given port and spawns <code>PostgresServerConnection</code> threads
  * to process requests.
+ * With <code>connection_mode=selector</code>, connections instead share worker
+ * threads and idle ones wait in a {@link PostgresConnectionSelector}.
  * Also keeps global state for shutdown and inter-connection communication like cancel.
 */
 public class PostgresServer implements Runnable, PostgresMXBean, ServerMonitor {
@@ -67,6 +74,10 @@ public class PostgresServer implements Runnable, PostgresMXBean, ServerMonitor {
         NONE, CLEAR_TEXT, MD5, GSS, JAAS
     };
 
+    protected static enum ConnectionMode {
+        THREAD, SELECTOR
+    };
+
     private final Properties properties;
     private final int port;
     private final String host;
@@ -82,7 +93,7 @@ public class PostgresServer implements Runnable, PostgresMXBean, ServerMonitor {
     // AIS-dependent state
     private volatile int statementCacheCapacity;
     private final Map<ObjectLongPair,ServerStatementCache<PostgresStatement>> statementCaches =
-        new HashMap<>(); // key and aisGeneration
+        new ConcurrentHashMap<>(); // key and aisGeneration
     // end AIS-dependent state
     private volatile Date overrideCurrentTime;
     private final CacheCounters cacheCounters = new CacheCounters();
@@ -93,6 +104,8 @@ public class PostgresServer implements Runnable, PostgresMXBean, ServerMonitor {
     private Collection<Class<? extends Principal>> jaasRoleClasses;
     private final int slowLimit;
     private final int hardLimit;
+    private final ConnectionMode connectionMode;
+    private volatile PostgresConnectionSelector connectionSelector;
 
     private static final Logger logger = LoggerFactory.getLogger(PostgresServer.class);
 
@@ -112,6 +125,20 @@ public class PostgresServer implements Runnable, PostgresMXBean, ServerMonitor {
         
         slowLimit = Integer.parseInt(properties.getProperty("connection_slow_limit", "250"));
         hardLimit = Integer.parseInt(properties.getProperty("connection_hard_limit", "500"));
+
+        String modeString = properties.getProperty("connection_mode", "thread");
+        try {
+            connectionMode = ConnectionMode.valueOf(modeString.trim().toUpperCase());
+        }
+        catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Invalid connection_mode: " + modeString, ex);
+        }
+        if ((connectionMode == ConnectionMode.SELECTOR) &&
+            (reqs.txnService() instanceof PersistitTransactionService)) {
+            // A Persistit transaction belongs to the thread that began it,
+            // but a resumed connection may be on a different worker.
+            throw new IllegalArgumentException("connection_mode=selector is not supported by the Persistit store");
+        }
     }
 
     public Properties getProperties() {
@@ -174,12 +201,19 @@ public class PostgresServer implements Runnable, PostgresMXBean, ServerMonitor {
             }
             thread = null;
         }
+
+        PostgresConnectionSelector connectionSelector = this.connectionSelector;
+        if (connectionSelector != null) {
+            connectionSelector.stop();
+            this.connectionSelector = null;
+        }
     }
 
     @Override
     public void run() {
         computeAuthenticationType();
-        logger.info("Starting Postgres server listening on {}:{} with authentication {}", host, port, authenticationType);
+        logger.info("Starting Postgres server listening on {}:{} with authentication {} and connection mode {}",
+                    host, port, authenticationType, connectionMode);
         Random rand = new Random();
         LongMetric bytesInMetric = null, bytesOutMetric = null;
         try {
@@ -188,8 +222,17 @@ public class PostgresServer implements Runnable, PostgresMXBean, ServerMonitor {
             reqs.monitor().registerServerMonitor(this);
             synchronized(this) {
                 if (!running) return;
-                // 50 here was taken from the shorter new ServerSocket(port)
-                socket = new ServerSocket(port, 50, InetAddress.getByName(host));
+                if (connectionMode == ConnectionMode.SELECTOR) {
+                    // Accepted sockets need channels to be parked.
+                    socket = ServerSocketChannel.open().socket();
+                    socket.bind(new InetSocketAddress(InetAddress.getByName(host), port), 50);
+                    connectionSelector = new PostgresConnectionSelector(port);
+                    connectionSelector.start();
+                }
+                else {
+                    // 50 here was taken from the shorter new ServerSocket(port)
+                    socket = new ServerSocket(port, 50, InetAddress.getByName(host));
+                }
                 listening = true;
             }
             while (running) {
@@ -216,7 +259,8 @@ public class PostgresServer implements Runnable, PostgresMXBean, ServerMonitor {
                 int secret = rand.nextInt();
                 PostgresServerConnection connection = 
                     new PostgresServerConnection(this, 
-                                                 sock, sessionId, secret, 
+                                                 sock, connectionSelector,
+                                                 sessionId, secret, 
                                                  bytesInMetric, bytesOutMetric,
                                                  reqs);
                 nconnections++;
@@ -247,6 +291,12 @@ public class PostgresServer implements Runnable, PostgresMXBean, ServerMonitor {
         return listening;
     }
 
+    /** Number of connections currently idle without a thread of their own. */
+    public int getParkedConnectionCount() {
+        PostgresConnectionSelector connectionSelector = this.connectionSelector;
+        return (connectionSelector == null) ? 0 : connectionSelector.getParkedCount();
+    }
+
     public synchronized PostgresServerConnection getConnection(int sessionId) {
         return connections.get(sessionId);
     }
@@ -303,7 +353,9 @@ public class PostgresServer implements Runnable, PostgresMXBean, ServerMonitor {
             return null;
 
         ObjectLongPair fullKey = new ObjectLongPair(key, aisGeneration);
-        ServerStatementCache<PostgresStatement> statementCache;
+        ServerStatementCache<PostgresStatement> statementCache = statementCaches.get(fullKey);
+        if (statementCache != null)
+            return statementCache;
         synchronized (statementCaches) {
             statementCache = statementCaches.get(fullKey);
             if (statementCache == null) {
@@ -343,6 +395,16 @@ public class PostgresServer implements Runnable, PostgresMXBean, ServerMonitor {
     public int getStatementCacheMisses() {
         return cacheCounters.getMisses();
     }
+
+    @Override
+    public int getStatementCacheEvictions() {
+        return cacheCounters.getEvictions();
+    }
+
+    @Override
+    public long getStatementCacheCompileTime() {
+        return TimeUnit.NANOSECONDS.toMillis(cacheCounters.getCompileTimeNanos());
+    }
     
     @Override
     public void resetStatementCache() {
@@ -18,6 +18,7 @@
 package com.foundationdb.sql.pg;
 
 import com.foundationdb.ais.model.AkibanInformationSchema;
+import com.foundationdb.ais.model.Table;
 import com.foundationdb.sql.server.ServerServiceRequirements;
 import com.foundationdb.sql.server.ServerSessionBase;
 import com.foundationdb.sql.server.ServerSessionMonitor;
@@ -38,6 +39,7 @@ import com.foundationdb.server.service.monitor.CursorMonitor;
 import com.foundationdb.server.service.monitor.MonitorStage;
 import com.foundationdb.server.service.monitor.PreparedStatementMonitor;
 import com.foundationdb.server.service.monitor.SessionMonitor.StatementTypes;
+import com.foundationdb.server.store.statistics.IndexStatisticsService;
 import com.foundationdb.util.MultipleCauseException;
 import com.foundationdb.util.tap.InOutTap;
 import com.foundationdb.util.tap.Tap;
@@ -54,6 +56,7 @@ import javax.security.auth.Subject;
 import javax.security.auth.login.LoginException;
 
 import java.net.*;
+import java.nio.channels.SocketChannel;
 
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
@@ -63,7 +66,9 @@ import java.util.*;
 
 /**
  * Connection to a Postgres server client.
- * Runs in its own thread; has its own Main Session.
+ * Runs in its own thread, or, with a {@link PostgresConnectionSelector},
+ * on a worker thread only while it has messages to process;
+ * has its own Main Session.
  *
  */
 public class PostgresServerConnection extends ServerSessionBase
@@ -76,10 +81,18 @@ public class PostgresServerConnection extends ServerSessionBase
     private static final String MD5_SALT = "MD5_SALT";
 
     private final PostgresServer server;
-    private boolean running = false, ignoreUntilSync = false;
+    private volatile boolean running = false;
+    private boolean ignoreUntilSync = false, startupComplete = false;
+    // Whether consecutive DML Executes share one transaction, committed at Sync.
+    private boolean batchUntilSync = false, syncTransaction = false;
+    // Simple queries that differ only in literals share a statement.
+    private boolean parameterizeLiterals = false;
     private Socket socket;
+    private final PostgresConnectionSelector connectionSelector;
+    private final SocketChannel channel;
+    private volatile boolean wakeRequested;
     private PostgresMessenger messenger;
-    private ServerValueEncoder valueEncoder;
+    private ServerValueEncoder valueEncoder, messageEncoder;
     private ServerValueDecoder valueDecoder;
     private OutputFormat outputFormat = OutputFormat.TABLE;
     private final int sessionId, secret;
@@ -92,7 +105,7 @@ public class PostgresServerConnection extends ServerSessionBase
     private ServerStatementCache<PostgresStatement> statementCache;
     private PostgresStatementParser[] unparsedGenerators;
     private PostgresStatementGenerator[] parsedGenerators;
-    private Thread thread;
+    private volatile Thread thread;
     private final LongMetric bytesInMetric, bytesOutMetric;
 
     private volatile String cancelForKillReason, cancelByUser;
@@ -101,10 +114,21 @@ public class PostgresServerConnection extends ServerSessionBase
                                     int sessionId, int secret,
                                     LongMetric bytesInMetric, LongMetric bytesOutMetric,
                                     ServerServiceRequirements reqs) {
+        this(server, socket, null, sessionId, secret, bytesInMetric, bytesOutMetric, reqs);
+    }
+
+    public PostgresServerConnection(PostgresServer server, Socket socket, 
+                                    PostgresConnectionSelector connectionSelector,
+                                    int sessionId, int secret,
+                                    LongMetric bytesInMetric, LongMetric bytesOutMetric,
+                                    ServerServiceRequirements reqs) {
         super(reqs);
         this.server = server;
 
         this.socket = socket;
+        this.connectionSelector = connectionSelector;
+        this.channel = socket.getChannel();
+        assert (connectionSelector == null) || (channel != null) : "selector needs a channel";
         this.sessionId = sessionId;
         this.secret = secret;
         this.bytesInMetric = bytesInMetric;
@@ -138,8 +162,13 @@ public class PostgresServerConnection extends ServerSessionBase
 
     public void start() {
         running = true;
-        thread = new Thread(this, THREAD_NAME_PREFIX + sessionId);
-        thread.start();
+        if (connectionSelector != null) {
+            connectionSelector.execute(this);
+        }
+        else {
+            thread = new Thread(this, THREAD_NAME_PREFIX + sessionId);
+            thread.start();
+        }
     }
 
     public void stop() {
@@ -150,7 +179,13 @@ public class PostgresServerConnection extends ServerSessionBase
         }
         catch (IOException ex) {
         }
-        if ((thread != null) && (thread != Thread.currentThread())) {
+        if (connectionSelector != null) {
+            // A parked connection has no thread to notice, so it
+            // needs to be resumed to clean up. Worker threads are
+            // shared, so there is nothing to join.
+            wake();
+        }
+        else if ((thread != null) && (thread != Thread.currentThread())) {
             try {
                 // Wait a bit, but don't hang up shutdown if thread is wedged.
                 thread.join(500);
@@ -165,9 +200,16 @@ public class PostgresServerConnection extends ServerSessionBase
     }
 
     public void run() {
+        boolean parked = false;
+        if (connectionSelector != null) {
+            synchronized (this) {
+                thread = Thread.currentThread();
+            }
+        }
         try {
-            createMessenger();
-            topLevel();
+            if (messenger == null)
+                createMessenger();
+            parked = topLevel();
         }
         catch (Exception ex) {
             if (running)
@@ -177,15 +219,60 @@ public class PostgresServerConnection extends ServerSessionBase
         }
         
         finally {
-            try {
-                socket.close();
+            if (connectionSelector != null) {
+                synchronized (this) {
+                    thread = null;
+                    // Do not leave a late cancel for the next connection on this worker.
+                    Thread.interrupted();
+                }
+            }
+            if (parked) {
+                connectionSelector.park(this);
             }
-            catch (IOException ex) {
+            else {
+                try {
+                    socket.close();
+                }
+                catch (IOException ex) {
+                }
             }
         }
     }
 
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    boolean isWakeRequested() {
+        return wakeRequested;
+    }
+
+    /** Resume this connection if it is parked. */
+    protected void wake() {
+        if (connectionSelector != null) {
+            wakeRequested = true;
+            connectionSelector.wake(this);
+        }
+    }
+
+    /** Whether to give up this thread instead of waiting for the next message. */
+    protected boolean shouldPark() throws IOException {
+        if (connectionSelector == null)
+            return false;
+        // Anything a wake was for is checked below.
+        wakeRequested = false;
+        return running && startupComplete &&
+            (cancelForKillReason == null) &&
+            // Stay on this thread until any transaction ends, since
+            // a store may tie it to the thread that began it.
+            !isTransactionActive() && !syncTransaction &&
+            // SSL may have read ahead into its own buffers.
+            !(socket instanceof SSLSocket) &&
+            (messenger.getInputStream().available() == 0);
+    }
+
     protected void createMessenger() throws IOException {
+        messageEncoder = null;
         messenger = new PostgresMessenger(socket) {
                 @Override
                 public void beforeIdle() throws IOException {
@@ -223,11 +310,19 @@ public class PostgresServerConnection extends ServerSessionBase
             };
     }
 
-    protected void topLevel() throws IOException, Exception {
-        logger.debug("Connect from {}" + socket.getRemoteSocketAddress());
-        boolean startupComplete = false;
+    /** Process messages until stopped or, if parking, idle.
+     * @return <code>true</code> if parked, in which case the connection is still open.
+     */
+    protected boolean topLevel() throws IOException, Exception {
+        if (!startupComplete) // Not resuming after being parked.
+            logger.debug("Connect from {}" + socket.getRemoteSocketAddress());
+        boolean parked = false;
         try {
             while (running) {
+                if (shouldPark()) {
+                    parked = true;
+                    return true;
+                }
                 READ_MESSAGE.in();
                 PostgresMessages type;
                 try {
@@ -254,7 +349,7 @@ public class PostgresServerConnection extends ServerSessionBase
                         stop();
                         break;
                     case SYNC_TYPE:
-                        readyForQuery();
+                        processSync();
                         break;
                     case STARTUP_MESSAGE_TYPE:
                         startupComplete = processStartupMessage();
@@ -365,14 +460,17 @@ public class PostgresServerConnection extends ServerSessionBase
             }
         }
         finally {
-            if (transaction != null) {
-                transaction.abort();
-                transaction = null;
+            if (!parked) {
+                if (transaction != null) {
+                    transaction.abort();
+                    transaction = null;
+                }
+                server.removeConnection(sessionId);
+                reqs.monitor().deregisterSessionMonitor(sessionMonitor, session);
+                logger.debug("Disconnect");
             }
-            server.removeConnection(sessionId);
-            reqs.monitor().deregisterSessionMonitor(sessionMonitor, session);
-            logger.debug("Disconnect");
         }
+        return false;
     }
 
     private enum ErrorLogLevel { WARN, INFO, DEBUG };
@@ -408,6 +506,8 @@ public class PostgresServerConnection extends ServerSessionBase
     }
 
     protected void sendErrorResponse(PostgresMessages type, Exception exception, ErrorCode errorCode, String message) throws Exception {
+        // Like an implicit transaction block, nothing since the last Sync is kept.
+        abortSyncTransaction();
         PostgresMessages.ErrorMode errorMode = type.errorMode();
         if (errorMode == PostgresMessages.ErrorMode.NONE) {
             throw exception;
@@ -683,6 +783,7 @@ public class PostgresServerConnection extends ServerSessionBase
         long startTime = System.currentTimeMillis();
         String sql = messenger.readString();
         logger.debug("Query: {}", sql);
+        endSyncTransaction();
 
         if (sql.length() == 0) {
             emptyQuery();
@@ -712,26 +813,32 @@ public class PostgresServerConnection extends ServerSessionBase
             }
         }
         int rowsProcessed = 0;
+        List<StatementNode> stmts = null;
+        if (pstmt == null) {
+            // Parse as a _list_ of statements and process each in turn.
+            stmts = parseStatements(sql);
+            if ((stmts.size() == 1) && parameterizeLiterals && (statementCache != null)) {
+                PostgresLiteralParameterizer parameterizer = new PostgresLiteralParameterizer(sql);
+                if (parameterizer.parameterize(stmts.get(0))) {
+                    pstmt = genericStatement(context, stmts.get(0), parameterizer);
+                    if ((pstmt != null) && 
+                        !bindLiterals(parameterizer, pstmt, bindings, context)) {
+                        pstmt = null;
+                    }
+                    if (pstmt == null) {
+                        // The literals do not fit the shared statement's
+                        // parameters: compile the query as written.
+                        stmts = parseStatements(sql);
+                        bindings = context.createBindings();
+                    }
+                }
+            }
+        }
         if (pstmt != null) {
             pstmt.sendDescription(context, false, false);
             rowsProcessed = executeStatementWithAutoTxn(pstmt, context, bindings, -1);
         }
         else {
-            // Parse as a _list_ of statements and process each in turn.
-            List<StatementNode> stmts;
-            try {
-                sessionMonitor.enterStage(MonitorStage.PARSE);
-                stmts = parser.parseStatements(sql);
-            } 
-            catch (SQLParserException ex) {
-                throw new SQLParseException(ex);
-            }
-            catch (StandardException ex) {
-                throw new SQLParserInternalException(ex);
-            }
-            finally {
-                sessionMonitor.leaveStage();
-            }
             boolean singleStmt = (stmts.size() == 1);
             for (StatementNode stmt : stmts) {
                 String stmtSQL;
@@ -740,13 +847,16 @@ public class PostgresServerConnection extends ServerSessionBase
                 else
                     stmtSQL = sql.substring(stmt.getBeginOffset(),
                                             stmt.getEndOffset() + 1);
+                long compileStart = System.nanoTime();
                 pstmt = generateStatementStub(stmtSQL, stmt, null, null);
                 boolean local = beforeExecute(pstmt);
                 boolean success = false;
                 try {
                     pstmt = finishGenerating(context, stmtSQL, stmt, null, null);
-                    if ((statementCache != null) && singleStmt && pstmt.putInCache())
+                    if ((statementCache != null) && singleStmt && pstmt.putInCache()) {
+                        statementCache.recordCompile(System.nanoTime() - compileStart);
                         statementCache.put(stmtSQL, pstmt);
+                    }
                     pstmt.sendDescription(context, false, false);
                     rowsProcessed = executeStatement(pstmt, context, bindings, -1);
                     success = true;
@@ -763,6 +873,105 @@ public class PostgresServerConnection extends ServerSessionBase
         }
     }
 
+    protected List<StatementNode> parseStatements(String sql) {
+        try {
+            sessionMonitor.enterStage(MonitorStage.PARSE);
+            return parser.parseStatements(sql);
+        } 
+        catch (SQLParserException ex) {
+            throw new SQLParseException(ex);
+        }
+        catch (StandardException ex) {
+            throw new SQLParserInternalException(ex);
+        }
+        finally {
+            sessionMonitor.leaveStage();
+        }
+    }
+
+    protected StatementNode parseStatement(String sql) {
+        try {
+            sessionMonitor.enterStage(MonitorStage.PARSE);
+            return parser.parseStatement(sql);
+        } 
+        catch (SQLParserException ex) {
+            throw new SQLParseException(ex);
+        }
+        catch (StandardException ex) {
+            throw new SQLParserInternalException(ex);
+        }
+        finally {
+            sessionMonitor.leaveStage();
+        }
+    }
+
+    /** Get the statement shared by all queries that differ from
+     * <code>stmt</code> only in the literals that have been replaced
+     * with parameters. Returns <code>null</code> if there cannot be
+     * one.
+     *
+     * The shared statement is planned again when the index statistics
+     * of the tables involved change materially.
+     */
+    protected PostgresStatement genericStatement(PostgresQueryContext context,
+                                                 StatementNode stmt,
+                                                 PostgresLiteralParameterizer parameterizer) {
+        String sql = parameterizer.getGenericSQL();
+        List<ParameterNode> params = parameterizer.getParameters();
+        // Unspecified types, as from a Parse of the same text.
+        int[] paramTypes = new int[params.size()];
+        IndexStatisticsService indexStatistics = reqs.indexStatistics();
+        PostgresStatement pstmt = statementCache.get(sql, paramTypes);
+        if (pstmt instanceof PostgresBaseStatement) {
+            PostgresStatisticsSnapshot snapshot = 
+                ((PostgresBaseStatement)pstmt).getStatisticsSnapshot();
+            if ((snapshot != null) && snapshot.hasDrifted(indexStatistics)) {
+                logger.debug("Statistics changed, planning again: {}", sql);
+                pstmt = null;
+            }
+        }
+        if (pstmt != null) {
+            sessionMonitor.countEvent(StatementTypes.FROM_CACHE);
+        }
+        else {
+            long compileStart = System.nanoTime();
+            pstmt = compileStatement(context, sql, stmt, params, paramTypes);
+            if (!(pstmt instanceof PostgresDMLStatement) || !pstmt.putInCache())
+                return null;
+            List<Table> tables = new ArrayList<>();
+            for (com.foundationdb.sql.parser.TableName name : parameterizer.getTables()) {
+                String schemaName = name.getSchemaName();
+                if (schemaName == null)
+                    schemaName = defaultSchemaName;
+                Table table = ais.getTable(schemaName, name.getTableName());
+                if ((table != null) && !tables.contains(table))
+                    tables.add(table);
+            }
+            ((PostgresDMLStatement)pstmt).setStatisticsSnapshot(new PostgresStatisticsSnapshot(indexStatistics, tables));
+            statementCache.recordCompile(System.nanoTime() - compileStart);
+            statementCache.put(sql, paramTypes, pstmt);
+        }
+        return pstmt;
+    }
+
+    /** Bind the literals replaced by parameters in a generic statement.
+     * Returns <code>false</code> if they do not convert exactly.
+     */
+    protected boolean bindLiterals(PostgresLiteralParameterizer literals,
+                                   PostgresStatement pstmt, QueryBindings bindings,
+                                   PostgresQueryContext context) {
+        if (valueDecoder == null)
+            valueDecoder = new ServerValueDecoder(typesTranslator(),
+                                                  messenger.getEncoding());
+        if (!literals.bind(pstmt.getParameterTypes(), valueDecoder,
+                           messenger.getEncoding(), bindings, context,
+                           typesRegistryService())) {
+            logger.debug("Literals do not fit parameters of {}", literals.getGenericSQL());
+            return false;
+        }
+        return true;
+    }
+
     protected void processParse() throws IOException {
         String stmtName = messenger.readString();
         String sql = messenger.readString();
@@ -776,24 +985,12 @@ public class PostgresServerConnection extends ServerSessionBase
         PostgresQueryContext context = new PostgresQueryContext(this);
         updateAIS(context);
 
+        // The parameter types from the parse request are part of the
+        // key, so a cached statement was compiled with the same ones.
         PostgresStatement pstmt = null;
         if (statementCache != null)
-            pstmt = statementCache.get(sql);
-
-        // Verify the parameter types from the parse request match the
-        // parameter requests from our potential cached statement
-        // if they don't match, assume the statement isn't a match
-        if (pstmt != null) {
-            if (pstmt.getParameterTypes() != null && pstmt.getParameterTypes().length >= nparams){
-                for (int i = 0; i < nparams; i++ ) {
-                    if (pstmt.getParameterTypes()[i].getOid() != paramTypes[i]) {
-                        pstmt = null;
-                        break;
-                    }
-                }
-            }
-        }
-         if (pstmt == null) {
+            pstmt = statementCache.get(sql, paramTypes);
+        if (pstmt == null) {
             for (PostgresStatementParser parser : unparsedGenerators) {
                 pstmt = parser.parse(this, sql, null);
                 if (pstmt != null) {
@@ -804,39 +1001,40 @@ public class PostgresServerConnection extends ServerSessionBase
         }
         
         
+        PostgresLiteralParameterizer literals = null;
         if (pstmt == null) {
-            StatementNode stmt;
-            List<ParameterNode> params;
-            try {
-                sessionMonitor.enterStage(MonitorStage.PARSE);
-                stmt = parser.parseStatement(sql);
-                params = parser.getParameterList();
-            } 
-            catch (SQLParserException ex) {
-                throw new SQLParseException(ex);
-            }
-            catch (StandardException ex) {
-                throw new SQLParserInternalException(ex);
-            }
-            finally {
-                sessionMonitor.leaveStage();
-            }
-            pstmt = generateStatementStub(sql, stmt, params, paramTypes);
-            boolean local = beforeExecute(pstmt);
-            boolean success = false;
-            try {
-                pstmt = finishGenerating(context, sql, stmt, params, paramTypes);
-                success = true;
-            } finally {
-                afterExecute(pstmt, local, success, false);
+            StatementNode stmt = parseStatement(sql);
+            List<ParameterNode> params = parser.getParameterList();
+            if ((nparams == 0) && params.isEmpty() && 
+                parameterizeLiterals && (statementCache != null)) {
+                // The literals are bound again at each Bind.
+                PostgresLiteralParameterizer parameterizer = new PostgresLiteralParameterizer(sql);
+                if (parameterizer.parameterize(stmt)) {
+                    pstmt = genericStatement(context, stmt, parameterizer);
+                    if ((pstmt != null) && 
+                        bindLiterals(parameterizer, pstmt, context.createBindings(), context)) {
+                        literals = parameterizer;
+                    }
+                    else {
+                        pstmt = null;
+                        stmt = parseStatement(sql);
+                        params = parser.getParameterList();
+                    }
+                }
             }
-            if ((statementCache != null) && pstmt.putInCache()) {
-                statementCache.put(sql, pstmt);
+            if (pstmt == null) {
+                long compileStart = System.nanoTime();
+                pstmt = compileStatement(context, sql, stmt, params, paramTypes);
+                if ((statementCache != null) && pstmt.putInCache()) {
+                    statementCache.recordCompile(System.nanoTime() - compileStart);
+                    statementCache.put(sql, paramTypes, pstmt);
+                }
             }
         }
         PostgresPreparedStatement ppstmt = 
             new PostgresPreparedStatement(this, stmtName, sql, pstmt,
                                           sessionMonitor.getCurrentStatementStartTimeMillis());
+        ppstmt.setLiterals(literals);
         synchronized (preparedStatements) {
             preparedStatements.put(stmtName, ppstmt);
         }
@@ -844,6 +1042,34 @@ public class PostgresServerConnection extends ServerSessionBase
         messenger.sendMessage();
     }
 
+    protected PostgresStatement compileStatement(PostgresQueryContext context, String sql,
+                                                 StatementNode stmt, List<ParameterNode> params,
+                                                 int[] paramTypes) {
+        PostgresStatement pstmt = generateStatementStub(sql, stmt, params, paramTypes);
+        boolean local = beforeExecute(pstmt);
+        boolean success = false;
+        try {
+            pstmt = finishGenerating(context, sql, stmt, params, paramTypes);
+            success = true;
+        } finally {
+            afterExecute(pstmt, local, success, false);
+        }
+        return pstmt;
+    }
+
+    /** Replace a prepared statement that shares a generic statement
+     * with one compiled from its own SQL, with the literals as written.
+     */
+    protected void prepareAsWritten(PostgresPreparedStatement pstmt) {
+        PostgresQueryContext context = new PostgresQueryContext(this);
+        updateAIS(context);
+        String sql = pstmt.getSQL();
+        StatementNode stmt = parseStatement(sql);
+        List<ParameterNode> params = parser.getParameterList();
+        pstmt.setStatement(compileStatement(context, sql, stmt, params, new int[params.size()]));
+        pstmt.setLiterals(null);
+    }
+
     protected void processBind() throws IOException {
         String portalName = messenger.readString();
         String stmtName = messenger.readString();
@@ -892,6 +1118,18 @@ public class PostgresServerConnection extends ServerSessionBase
         PostgresBoundQueryContext bound = 
             new PostgresBoundQueryContext(this, pstmt, portalName, canSuspend, true);
         QueryBindings bindings = bound.createBindings();
+        if ((pstmt.getLiterals() != null) &&
+            !bindLiterals(pstmt.getLiterals(), stmt, bindings, bound)) {
+            // They fit the same statement at Parse, so this should not
+            // happen; rather than run with parameters unset, compile
+            // this one as written.
+            prepareAsWritten(pstmt);
+            stmt = pstmt.getStatement();
+            canSuspend = ((stmt instanceof PostgresCursorGenerator) &&
+                          ((PostgresCursorGenerator<?>)stmt).canSuspend(this));
+            bound = new PostgresBoundQueryContext(this, pstmt, portalName, canSuspend, true);
+            bindings = bound.createBindings();
+        }
         if (params != null) {
             if (valueDecoder == null)
                 valueDecoder = new ServerValueDecoder(typesTranslator(),
@@ -934,11 +1172,22 @@ public class PostgresServerConnection extends ServerSessionBase
         boolean params;
         switch (source) {
         case (byte)'S':
-            pstmt = preparedStatements.get(name).getStatement();
-            if (pstmt == null)
-                throw new NoSuchPreparedStatementException(name);
-            context = new PostgresQueryContext(this);
-            params = true;
+            {
+                PostgresPreparedStatement ppstmt = preparedStatements.get(name);
+                if (ppstmt == null)
+                    throw new NoSuchPreparedStatementException(name);
+                pstmt = ppstmt.getStatement();
+                context = new PostgresQueryContext(this);
+                params = true;
+                if (ppstmt.getLiterals() != null) {
+                    // The client did not ask for the parameters that
+                    // stand in for its literals.
+                    messenger.beginMessage(PostgresMessages.PARAMETER_DESCRIPTION_TYPE.code());
+                    messenger.writeShort(0);
+                    messenger.sendMessage();
+                    params = false;
+                }
+            }
             break;
         case (byte)'P':
             {
@@ -967,7 +1216,14 @@ public class PostgresServerConnection extends ServerSessionBase
         QueryBindings bindings = context.getBindings();
         PostgresPreparedStatement pstmt = context.getStatement();
         sessionMonitor.startStatement(pstmt.getSQL(), pstmt.getName(), startTime);
-        int rowsProcessed = executeStatementWithAutoTxn(pstmt.getStatement(), context, bindings, maxrows);
+        int rowsProcessed;
+        if (batchUntilSync && (pstmt.getStatement() instanceof PostgresModifyOperatorStatement)) {
+            rowsProcessed = executeStatementUntilSync(pstmt.getStatement(), context, bindings, maxrows);
+        }
+        else {
+            endSyncTransaction();
+            rowsProcessed = executeStatementWithAutoTxn(pstmt.getStatement(), context, bindings, maxrows);
+        }
         sessionMonitor.endStatement(rowsProcessed);
         logger.debug("Execute complete: {} rows", rowsProcessed);
         if (reqs.monitor().isQueryLogEnabled()) {
@@ -979,6 +1235,19 @@ public class PostgresServerConnection extends ServerSessionBase
         messenger.flush();
     }
 
+    protected void processSync() throws Exception {
+        try {
+            endSyncTransaction();
+        }
+        catch (InvalidOperationException ex) {
+            logError(ErrorLogLevel.WARN, "Error committing batch {}", ex);
+            // As for a simple query, the error is followed by ReadyForQuery.
+            sendErrorResponse(PostgresMessages.QUERY_TYPE, ex, ex.getCode(), ex.getShortMessage());
+            return;
+        }
+        readyForQuery();
+    }
+
     protected void processClose() throws IOException {
         byte source = messenger.readByte();
         String name = messenger.readString();
@@ -1009,9 +1278,12 @@ public class PostgresServerConnection extends ServerSessionBase
         if (session != null) {
             session.cancelCurrentQuery(true);
         }
-        if (thread != null) {
-            thread.interrupt();
+        synchronized (this) {
+            if (thread != null) {
+                thread.interrupt();
+            }
         }
+        wake();
     }
 
     public void waitAndStop() {
@@ -1159,6 +1431,68 @@ public class PostgresServerConnection extends ServerSessionBase
         return rowsProcessed;
     }
 
+    /** Execute a DML statement from an Execute message. Outside of an
+     * explicit transaction, it joins the one started by the first such
+     * statement since the last Sync, which commits them all together.
+     * An error rolls back every statement since the last Sync, even
+     * ones that already had CommandComplete.
+     * <br>
+     * The exception is a batch that grows until the store asks for a
+     * periodic commit: what has been done so far is committed then and
+     * the rest continues in a new transaction, so an error after that
+     * only rolls back to that point.
+     */
+    protected int executeStatementUntilSync(PostgresStatement pstmt, PostgresQueryContext context, QueryBindings bindings, int maxrows)
+            throws IOException {
+        if (beforeExecute(pstmt))
+            syncTransaction = true;
+        int rowsProcessed;
+        boolean success = false;
+        try {
+            rowsProcessed = executeStatement(pstmt, context, bindings, maxrows);
+            success = true;
+        }
+        finally {
+            if (!syncTransaction) {
+                afterExecute(pstmt, false, success, true);
+            }
+            else if (!success) {
+                abortSyncTransaction();
+            }
+            else {
+                afterExecute(pstmt, false, true, false);
+                // Do not let a long batch outgrow a single store transaction.
+                if ((transaction != null) && transaction.shouldPeriodicallyCommit())
+                    endSyncTransaction();
+            }
+            sessionMonitor.leaveStage();
+        }
+        return rowsProcessed;
+    }
+
+    /** Commit the transaction shared by statements since the last Sync, if any. */
+    protected void endSyncTransaction() {
+        if (syncTransaction) {
+            syncTransaction = false;
+            if (transaction != null)
+                commitTransaction();
+        }
+    }
+
+    protected void abortSyncTransaction() {
+        if (syncTransaction) {
+            syncTransaction = false;
+            if (transaction != null) {
+                try {
+                    transaction.abort();
+                }
+                finally {
+                    transaction = null;
+                }
+            }
+        }
+    }
+
     protected int executeStatement(PostgresStatement pstmt, PostgresQueryContext context, QueryBindings bindings, int maxrows)
             throws IOException {
         int rowsProcessed;
@@ -1374,13 +1708,24 @@ public class PostgresServerConnection extends ServerSessionBase
         return valueEncoder;
     }
 
+    @Override
+    public ServerValueEncoder getMessageEncoder() {
+        if (messageEncoder == null)
+            messageEncoder = new ServerValueEncoder(typesTranslator(),
+                                                    messenger.getEncoding(), 
+                                                    messenger.getMessageStream(),
+                                                    getZeroDateTimeBehavior(),
+                                                    getFormatOptions());
+        return messageEncoder;
+    }
+
     /* ServerSession */
 
     @Override
     protected boolean propertySet(String key, String value) {
         if ("client_encoding".equals(key)) {
             messenger.setEncoding(value);
-            valueEncoder = null; // These depend on the encoding.
+            valueEncoder = messageEncoder = null; // These depend on the encoding.
             valueDecoder = null;
             return true;
         }
@@ -1395,10 +1740,18 @@ public class PostgresServerConnection extends ServerSessionBase
             return true;
         }
         if ("zeroDateTimeBehavior".equals(key)) {
-            valueEncoder = null; // Also depends on this.
+            valueEncoder = messageEncoder = null; // Also depends on this.
+        }
+        if ("parameterizeLiterals".equals(key)) {
+            parameterizeLiterals = (value != null) && Boolean.parseBoolean(value);
+            return true;
+        }
+        if ("batchUntilSync".equals(key)) {
+            batchUntilSync = (value != null) && Boolean.parseBoolean(value);
+            return true;
         }
         if ("binary_output".equals(key) || "jsonbinary_output".equals(key)){
-            valueEncoder = null;
+            valueEncoder = messageEncoder = null;
         }
         return super.propertySet(key, value);
     }
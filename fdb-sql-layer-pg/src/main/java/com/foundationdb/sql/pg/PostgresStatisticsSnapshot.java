@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.sql.pg;
+
+import com.foundationdb.ais.model.Index;
+import com.foundationdb.ais.model.Table;
+import com.foundationdb.server.store.statistics.IndexStatistics;
+import com.foundationdb.server.store.statistics.IndexStatisticsService;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The index row counts that a generic statement was planned with.
+ * When they change by more than {@link #DRIFT_FACTOR} either way,
+ * or statistics appear or disappear, the plan should be made again.
+ *
+ * Only statistics already in memory are looked at, so that checking
+ * costs nothing but a few map lookups.
+ */
+public class PostgresStatisticsSnapshot
+{
+    public static final long DRIFT_FACTOR = 2;
+
+    private final Map<Index,Long> rowCounts;
+
+    public PostgresStatisticsSnapshot(IndexStatisticsService indexStatistics,
+                                      Collection<Table> tables) {
+        rowCounts = new HashMap<>();
+        for (Table table : tables) {
+            for (Index index : table.getIndexesIncludingInternal()) {
+                rowCounts.put(index, rowCount(indexStatistics, index));
+            }
+            for (Index index : table.getGroupIndexes()) {
+                rowCounts.put(index, rowCount(indexStatistics, index));
+            }
+        }
+    }
+
+    public boolean hasDrifted(IndexStatisticsService indexStatistics) {
+        for (Map.Entry<Index,Long> entry : rowCounts.entrySet()) {
+            long then = entry.getValue();
+            long now = rowCount(indexStatistics, entry.getKey());
+            if ((then < 0) || (now < 0)) {
+                if (then != now)
+                    return true;
+            }
+            else if ((now > then * DRIFT_FACTOR) || (then > now * DRIFT_FACTOR)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected static long rowCount(IndexStatisticsService indexStatistics, Index index) {
+        IndexStatistics stats = indexStatistics.getCachedIndexStatistics(index);
+        if (stats == null)
+            return -1;
+        return stats.getRowCount();
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.sql.pg;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PostgresServerBatchIT extends PostgresServerITBase
+{
+    private static final int NROWS = 100;
+
+    @Before
+    public void createTable() throws Exception {
+        createTable(SCHEMA_NAME, "t", "id INT PRIMARY KEY NOT NULL, n INT");
+    }
+
+    @After
+    public void dontLeaveConnection() throws Exception {
+        // Tests change auto-commit state. Easiest not to reuse.
+        forgetConnection();
+    }
+
+    @Test
+    public void batchInsert() throws Exception {
+        int[] counts = insertBatch(batchingConnection(), 0, NROWS, -1);
+        int[] expected = new int[NROWS];
+        Arrays.fill(expected, 1);
+        assertEquals(Arrays.toString(expected), Arrays.toString(counts));
+        assertEquals("[[" + NROWS + "]]", sql("SELECT COUNT(*) FROM t").toString());
+    }
+
+    @Test
+    public void batchInsertError() throws Exception {
+        sql("INSERT INTO t VALUES(50, 0)");
+        try {
+            insertBatch(batchingConnection(), 0, NROWS, -1);
+            fail("duplicate key not detected");
+        }
+        catch (BatchUpdateException ex) {
+        }
+        // The whole batch is rolled back, as in an implicit transaction
+        // block, including the rows before the failure.
+        assertEquals("[[1]]", sql("SELECT COUNT(*) FROM t").toString());
+        // And the connection is still usable.
+        insertBatch(getConnection(), 100, 110, -1);
+        assertEquals("[[11]]", sql("SELECT COUNT(*) FROM t").toString());
+    }
+
+    @Test
+    public void batchInsertErrorNotBatched() throws Exception {
+        sql("INSERT INTO t VALUES(50, 0)");
+        try {
+            insertBatch(getConnection(), 0, NROWS, -1);
+            fail("duplicate key not detected");
+        }
+        catch (BatchUpdateException ex) {
+        }
+        // By default, each row before the failure was committed on its own.
+        assertEquals("[[51]]", sql("SELECT COUNT(*) FROM t").toString());
+    }
+
+    @Test
+    public void batchInExplicitTransaction() throws Exception {
+        Connection conn = batchingConnection();
+        conn.setAutoCommit(false);
+        insertBatch(conn, 0, NROWS, -1);
+        conn.rollback();
+        conn.setAutoCommit(true);
+        assertEquals("[[0]]", sql("SELECT COUNT(*) FROM t").toString());
+    }
+
+    @Test
+    public void batchUpdate() throws Exception {
+        Connection conn = batchingConnection();
+        insertBatch(conn, 0, NROWS, 0);
+        try (PreparedStatement s = conn.prepareStatement("UPDATE t SET n = ? WHERE id = ?")) {
+            for (int i = 0; i < NROWS; i += 2) {
+                s.setInt(1, 1);
+                s.setInt(2, i);
+                s.addBatch();
+            }
+            s.executeBatch();
+        }
+        assertEquals("[[" + NROWS / 2 + "]]", sql("SELECT SUM(n) FROM t").toString());
+    }
+
+    protected Connection batchingConnection() throws Exception {
+        Connection conn = getConnection();
+        try (Statement s = conn.createStatement()) {
+            s.execute("SET batchUntilSync TO 'true'");
+        }
+        return conn;
+    }
+
+    protected static int[] insertBatch(Connection conn, int from, int to, int n) throws Exception {
+        try (PreparedStatement s = conn.prepareStatement("INSERT INTO t VALUES(?, ?)")) {
+            for (int i = from; i < to; i++) {
+                s.setInt(1, i);
+                s.setInt(2, n);
+                s.addBatch();
+            }
+            return s.executeBatch();
+        }
+    }
+}
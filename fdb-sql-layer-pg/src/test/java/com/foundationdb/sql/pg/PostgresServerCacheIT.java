@@ -76,8 +76,12 @@ public class PostgresServerCacheIT extends PostgresServerFilesITBase
             query(stmt, i % NROWS);
         }
         stmt.close();
-        assertEquals("Cache hits matches", 0, server().getStatementCacheHits() - hitsBase);
-        assertEquals("Cache misses matches", 1000, server().getStatementCacheMisses() - missesBase);
+        // Cycling through more statements than fit defeats plain LRU
+        // entirely; frequency-based admission keeps a few of them.
+        int hits = server().getStatementCacheHits() - hitsBase;
+        int misses = server().getStatementCacheMisses() - missesBase;
+        assertEquals("Cache lookups matches", 1000, hits + misses);
+        assertTrue("Cache misses at least", misses >= 1000 - 10 * Integer.parseInt(CAPACITY));
     }
 
     @Test
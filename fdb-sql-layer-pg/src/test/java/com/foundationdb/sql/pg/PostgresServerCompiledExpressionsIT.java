@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.foundationdb.sql.pg;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Row filters with <code>optimizer.compileExpressions</code> on, so that
+ * predicates go through {@link com.foundationdb.server.types.texpressions.TExpressionCompiler}.
+ * Includes <code>NULL</code>s on either side of each connective and a
+ * string comparison that is left to the interpreter.
+ */
+public class PostgresServerCompiledExpressionsIT extends PostgresServerITBase
+{
+    @Override
+    protected Map<String, String> startupConfigProperties() {
+        Map<String,String> settings = new HashMap<>(super.startupConfigProperties());
+        settings.put("optimizer.compileExpressions", "true");
+        return settings;
+    }
+
+    @Before
+    public void loadData() throws Exception {
+        sql("CREATE TABLE t(id INT NOT NULL PRIMARY KEY, a INT, b BIGINT, c DOUBLE, s VARCHAR(8))");
+        sql("INSERT INTO t VALUES(1, 1, 10, 0.5, 'x'), (2, 5, 5, 1.5, 'y'), (3, 7, 20, 2.5, NULL), (4, NULL, 30, 3.5, 'x'), " +
+            "(5, 9, NULL, 4.5, 'z'), (6, 3, 3, NULL, 'y'), (7, 12, 25, 1.0, 'x'), (8, 6, 6, NULL, NULL)");
+    }
+
+    @Test
+    public void and() {
+        assertEquals(ids(3, 8), select("a > 5 AND b <= 20"));
+    }
+
+    @Test
+    public void or() {
+        assertEquals(ids(1, 6, 7), select("a = 3 OR c < 1.5"));
+        assertEquals(ids(3, 5, 7, 8), select("b > 100 OR a > 5"));
+    }
+
+    @Test
+    public void not() {
+        assertEquals(ids(2, 6, 8), select("NOT (a < b)"));
+    }
+
+    @Test
+    public void interpreted() {
+        assertEquals(ids(1, 4, 7), select("a IS NULL OR s = 'x'"));
+    }
+
+    private List<List<?>> select(String condition) {
+        return sql("SELECT id FROM t WHERE " + condition + " ORDER BY id");
+    }
+
+    private static List<List<?>> ids(int... ids) {
+        List<List<?>> result = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            result.add(Collections.singletonList(id));
+        }
+        return result;
+    }
+}
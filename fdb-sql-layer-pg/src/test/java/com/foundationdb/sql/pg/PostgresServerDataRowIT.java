@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.sql.pg;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** DataRow messages reuse one buffer; make sure values do not bleed between rows. */
+public class PostgresServerDataRowIT extends PostgresServerITBase
+{
+    private static final int NROWS = 1000;
+    private static final int BIG_LENGTH = 2 * 1024 * 1024;
+
+    @Before
+    public void loadDatabase() throws Exception {
+        createTable(SCHEMA_NAME, "t", "id INT PRIMARY KEY NOT NULL, s VARCHAR(64), x DOUBLE");
+        for (int i = 0; i < NROWS; i++) {
+            if (i % 7 == 0)
+                sql(String.format("INSERT INTO t VALUES(%d, NULL, NULL)", i));
+            else
+                sql(String.format("INSERT INTO t VALUES(%d, 'row %d', %d.5)", i, i, i));
+        }
+    }
+
+    @Test
+    public void manyRows() throws Exception {
+        try (Statement s = getConnection().createStatement();
+             ResultSet rs = s.executeQuery("SELECT id, s, x FROM t ORDER BY id")) {
+            for (int i = 0; i < NROWS; i++) {
+                assertTrue(rs.next());
+                assertEquals(i, rs.getInt(1));
+                if (i % 7 == 0) {
+                    assertNull(rs.getString(2));
+                    assertNull(rs.getObject(3));
+                }
+                else {
+                    assertEquals("row " + i, rs.getString(2));
+                    assertEquals(i + 0.5, rs.getDouble(3), 0.0);
+                }
+            }
+            assertFalse(rs.next());
+        }
+    }
+
+    @Test
+    public void bigThenSmall() throws Exception {
+        try (Statement s = getConnection().createStatement()) {
+            try (ResultSet rs = s.executeQuery("SELECT REPEAT('x', " + BIG_LENGTH + ")")) {
+                assertTrue(rs.next());
+                String big = rs.getString(1);
+                assertEquals(BIG_LENGTH, big.length());
+                assertEquals('x', big.charAt(BIG_LENGTH - 1));
+            }
+            // The buffer that grew for the big value is given back.
+            try (ResultSet rs = s.executeQuery("SELECT s FROM t WHERE id = 1")) {
+                assertTrue(rs.next());
+                assertEquals("row 1", rs.getString(1));
+                assertFalse(rs.next());
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.sql.pg;
+
+import com.foundationdb.qp.row.Row;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class PostgresServerParameterizeIT extends PostgresServerFilesITBase
+{
+    public static final String QUERY = "SELECT id FROM t1 WHERE id = %d";
+    public static final int NROWS = 100;
+
+    private int hitsBase;
+
+    @Override
+    protected Map<String, String> startupConfigProperties() {
+        Map<String,String> properties = new HashMap<>();
+        properties.put("fdbsql.postgres.statementCacheCapacity", "10");
+        properties.put("fdbsql.postgres.parameterizeLiterals", "true");
+        return properties;
+    }
+
+    @Before
+    public void createData() throws Exception {
+        int tid = createTable(SCHEMA_NAME, "t1", "id int not null primary key");
+        Row[] rows = new Row[NROWS];
+        for (int i = 0; i < NROWS; i++) {
+            rows[i] = row(tid, i);
+        }
+        writeRows(rows);
+        hitsBase = server().getStatementCacheHits();
+    }
+
+    @Test
+    public void testSequential() throws Exception {
+        Statement stmt = getConnection().createStatement();
+        for (int i = 0; i < 1000; i++) {
+            int n = i % NROWS;
+            assertEquals("Query result matches",
+                         n, single(stmt, String.format(QUERY, n)));
+        }
+        stmt.close();
+        // Every query but the first shares its statement, unless
+        // statistics arriving in the meantime cause it to be replanned.
+        assertTrue("Cache hits at least", server().getStatementCacheHits() - hitsBase >= 990);
+    }
+
+    @Test
+    public void testInexactLiterals() throws Exception {
+        Statement stmt = getConnection().createStatement();
+        assertEquals(5, single(stmt, "SELECT id FROM t1 WHERE id = 5"));
+        assertEquals(7, single(stmt, "SELECT id FROM t1 WHERE id = '7'"));
+        // Does not round to a matching integer.
+        ResultSet rs = stmt.executeQuery("SELECT id FROM t1 WHERE id = 2.5");
+        assertFalse("No query results", rs.next());
+        rs.close();
+        stmt.close();
+    }
+
+    @Test
+    public void testRangeAndList() throws Exception {
+        Statement stmt = getConnection().createStatement();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(10, count(stmt, String.format("SELECT id FROM t1 WHERE id BETWEEN %d AND %d",
+                                                       i * 10, i * 10 + 9)));
+            assertEquals(3, count(stmt, String.format("SELECT id FROM t1 WHERE id IN (%d, %d, %d)",
+                                                      i, i + 1, i + 2)));
+        }
+        stmt.close();
+    }
+
+    protected int single(Statement stmt, String sql) throws Exception {
+        ResultSet rs = stmt.executeQuery(sql);
+        assertTrue("Has query results", rs.next());
+        int result = rs.getInt(1);
+        assertFalse("Single query result", rs.next());
+        rs.close();
+        return result;
+    }
+
+    protected int count(Statement stmt, String sql) throws Exception {
+        ResultSet rs = stmt.executeQuery(sql);
+        int count = 0;
+        while (rs.next()) {
+            count++;
+        }
+        rs.close();
+        return count;
+    }
+}
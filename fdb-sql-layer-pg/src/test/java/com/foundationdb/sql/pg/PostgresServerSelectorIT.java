@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.sql.pg;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PostgresServerSelectorIT extends PostgresServerITBase
+{
+    private static final String CONFIG_PREFIX = "fdbsql.postgres.";
+    private static final int NCONNECTIONS = 20;
+
+    @Override
+    protected Map<String, String> startupConfigProperties() {
+        Map<String,String> settings = new HashMap<>(super.startupConfigProperties());
+        settings.put(CONFIG_PREFIX + "connection_mode", "selector");
+        return settings;
+    }
+
+    @Before
+    public void createTable() throws Exception {
+        createTable(SCHEMA_NAME, "t", "id INT PRIMARY KEY NOT NULL, n INT");
+        for (int i = 0; i < NCONNECTIONS; i++) {
+            sql(String.format("INSERT INTO t VALUES(%d, %d)", i, i * 10));
+        }
+    }
+
+    @Test
+    public void manyConnections() throws Exception {
+        List<Connection> conns = new ArrayList<>();
+        try {
+            for (int i = 0; i < NCONNECTIONS; i++) {
+                conns.add(openConnection());
+            }
+            // Interleave requests so that each connection is parked and resumed several times.
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < NCONNECTIONS; i++) {
+                    try (PreparedStatement s = conns.get(i).prepareStatement("SELECT n FROM t WHERE id = ?")) {
+                        s.setInt(1, i);
+                        try (ResultSet rs = s.executeQuery()) {
+                            assertTrue(rs.next());
+                            assertEquals(i * 10, rs.getInt(1));
+                            assertFalse(rs.next());
+                        }
+                    }
+                }
+            }
+            waitForParked(NCONNECTIONS);
+        }
+        finally {
+            for (Connection conn : conns) {
+                closeConnection(conn);
+            }
+        }
+    }
+
+    @Test
+    public void notParkedInTransaction() throws Exception {
+        int before = server().getParkedConnectionCount();
+        Connection conn = openConnection();
+        try (Statement s = conn.createStatement()) {
+            s.execute("BEGIN");
+            s.executeUpdate("UPDATE t SET n = -1 WHERE id = 0");
+            // Idle inside the transaction: stays on its thread.
+            Thread.sleep(500);
+            assertEquals(before, server().getParkedConnectionCount());
+            try (ResultSet rs = s.executeQuery("SELECT n FROM t WHERE id = 0")) {
+                assertTrue(rs.next());
+                assertEquals(-1, rs.getInt(1));
+            }
+            s.execute("ROLLBACK");
+            // Parks once the transaction is over and resumes for the next one.
+            waitForParked(before + 1);
+            s.execute("BEGIN");
+            s.executeUpdate("UPDATE t SET n = -2 WHERE id = 0");
+            s.execute("COMMIT");
+            waitForParked(before + 1);
+        }
+        finally {
+            closeConnection(conn);
+        }
+        assertEquals("[[-2]]", sql("SELECT n FROM t WHERE id = 0").toString());
+    }
+
+    @Test
+    public void closedWhileParked() throws Exception {
+        int before = server().getConnections().size();
+        Connection conn = openConnection();
+        try (Statement s = conn.createStatement()) {
+            s.executeQuery("SELECT 1").close();
+        }
+        waitForParked(1);
+        conn.close();
+        for (int i = 0; i < 50; i++) {
+            if (server().getConnections().size() <= before)
+                break;
+            Thread.sleep(100);
+        }
+        assertEquals(before, server().getConnections().size());
+    }
+
+    protected void waitForParked(int expected) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            if (server().getParkedConnectionCount() >= expected)
+                break;
+            Thread.sleep(100);
+        }
+        assertTrue("parked connections", server().getParkedConnectionCount() >= expected);
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.rest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Writes to another stream in fixed size chunks from a separate
+ * thread, each followed by a flush, so that producing the next chunk
+ * overlaps sending the last one and a response goes out with chunked
+ * transfer encoding as it is generated.
+ * <br>
+ * There are only ever two chunks: the one being filled and the one
+ * being sent. A writer that gets ahead of the network waits for the
+ * other, so memory use does not depend on the size of the output.
+ * <br>
+ * {@link #close} must be called, or {@link #abandon} if writing fails,
+ * before the underlying stream is touched again.
+ * <br>
+ * The sending thread comes from an {@link Executor} owned by the caller,
+ * which can bound how many responses are pipelined at once.
+ */
+public class PipelinedOutputStream extends OutputStream
+{
+
+    static class Chunk {
+        final byte[] bytes;
+        int length;
+
+        Chunk(int size) {
+            bytes = new byte[size];
+        }
+    }
+
+    private static final Chunk END = new Chunk(0);
+
+    private final OutputStream out;
+    private final BlockingQueue<Chunk> full = new ArrayBlockingQueue<>(1);
+    private final BlockingQueue<Chunk> empty = new ArrayBlockingQueue<>(1);
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile IOException error;
+    private Chunk current;
+    private boolean closed;
+
+    /**
+     * @throws RejectedExecutionException if <code>senders</code> has no
+     * thread to spare, in which case nothing has been written and
+     * <code>out</code> can be used directly.
+     */
+    public PipelinedOutputStream(OutputStream out, int chunkSize, Executor senders) {
+        this.out = out;
+        this.current = new Chunk(chunkSize);
+        this.empty.add(new Chunk(chunkSize));
+        senders.execute(new Sender());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (current.length >= current.bytes.length) {
+            handOff();
+        }
+        current.bytes[current.length++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (current.length >= current.bytes.length) {
+                handOff();
+            }
+            int n = Math.min(len, current.bytes.length - current.length);
+            System.arraycopy(b, off, current.bytes, current.length, n);
+            current.length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Send what has been written so far, without waiting for it to go out. */
+    @Override
+    public void flush() throws IOException {
+        if (current.length > 0) {
+            handOff();
+        }
+    }
+
+    /** Send any remaining output and wait for all of it to go out. */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            flush();
+        }
+        finally {
+            finish();
+        }
+        out.close();
+    }
+
+    /** Stop sending, dropping anything not yet handed off. */
+    public void abandon() {
+        if (closed) return;
+        current.length = 0;
+        try {
+            finish();
+        }
+        catch (IOException ex) {
+            // Already failing for some other reason.
+        }
+    }
+
+    /* Internal */
+
+    private void handOff() throws IOException {
+        checkError();
+        try {
+            full.put(current);
+            current = empty.take();
+        }
+        catch (InterruptedException ex) {
+            throw interrupted(ex);
+        }
+        current.length = 0;
+    }
+
+    private void finish() throws IOException {
+        closed = true;
+        try {
+            full.put(END);
+            done.await();
+        }
+        catch (InterruptedException ex) {
+            throw interrupted(ex);
+        }
+        checkError();
+    }
+
+    private void checkError() throws IOException {
+        IOException ex = error;
+        if (ex != null) {
+            throw ex;
+        }
+    }
+
+    private static IOException interrupted(InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        IOException ioex = new InterruptedIOException();
+        ioex.initCause(ex);
+        return ioex;
+    }
+
+    class Sender implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Chunk chunk = full.take();
+                    if (chunk == END) break;
+                    // After a failure, keep taking chunks so that the
+                    // writer does not block before it notices.
+                    if (error == null) {
+                        try {
+                            out.write(chunk.bytes, 0, chunk.length);
+                            out.flush();
+                        }
+                        catch (IOException ex) {
+                            error = ex;
+                        }
+                        catch (RuntimeException ex) {
+                            error = new IOException(ex);
+                        }
+                    }
+                    empty.put(chunk);
+                }
+            }
+            catch (InterruptedException ex) {
+                error = new InterruptedIOException();
+            }
+            finally {
+                done.countDown();
+            }
+        }
+    }
+}
@@ -25,6 +25,8 @@ import com.foundationdb.server.service.session.SessionService;
 import com.foundationdb.server.service.transaction.TransactionService;
 import com.foundationdb.server.store.Store;
 
+import java.util.concurrent.Executor;
+
 public class ResourceRequirements {
     public final DXLService dxlService;
     public final RestDMLService restDMLService;
@@ -33,6 +35,7 @@ public class ResourceRequirements {
     public final TransactionService transactionService;
     public final Store store;
     public final ConfigurationService configService;
+    public final Executor outputSenders;
 
     public ResourceRequirements(DXLService dxlService,
                                 RestDMLService restDMLService,
@@ -40,7 +43,8 @@ public class ResourceRequirements {
                                 SessionService sessionService,
                                 TransactionService transactionService,
                                 Store store,
-                                ConfigurationService configService) {
+                                ConfigurationService configService,
+                                Executor outputSenders) {
         this.dxlService = dxlService;
         this.restDMLService = restDMLService;
         this.securityService = securityService;
@@ -48,5 +52,6 @@ public class ResourceRequirements {
         this.transactionService = transactionService;
         this.store = store;
         this.configService = configService;
+        this.outputSenders = outputSenders;
     }
 }
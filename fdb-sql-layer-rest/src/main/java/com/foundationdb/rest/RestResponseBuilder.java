@@ -42,6 +42,8 @@ import java.io.PrintWriter;
 import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 public class RestResponseBuilder {
     public interface BodyGenerator {
@@ -59,6 +61,8 @@ public class RestResponseBuilder {
     private String jsonp;
     private int status;
     private MediaType type;
+    private int chunkSize;
+    private Executor senders;
 
 
     public RestResponseBuilder(HttpServletRequest request, String jsonp) {
@@ -99,6 +103,19 @@ public class RestResponseBuilder {
         return this;
     }
 
+    /**
+     * Send a generated body in chunks of the given size as it is
+     * produced, overlapping generation with sending, rather than
+     * leaving it to the container's buffering. Zero for no change.
+     * Sending is done from a thread of <code>senders</code>; if none
+     * is free, the body is written directly.
+     */
+    public RestResponseBuilder streamed(int chunkSize, Executor senders) {
+        this.chunkSize = chunkSize;
+        this.senders = senders;
+        return this;
+    }
+
     public Response build() {
         if(outputBody == null && outputGenerator == null && jsonp == null) {
             status(Response.Status.NO_CONTENT);
@@ -177,7 +194,16 @@ public class RestResponseBuilder {
         return new StreamingOutput() {
             @Override
             public void write(OutputStream output)  {
+                PipelinedOutputStream pipeline = null;
                 try {
+                    if(outputGenerator != null && chunkSize > 0) {
+                        try {
+                            pipeline = new PipelinedOutputStream(output, chunkSize, senders);
+                            output = pipeline;
+                        } catch(RejectedExecutionException e) {
+                            LOG.debug("No thread to pipeline output, writing directly");
+                        }
+                    }
                     PrintWriter writer = new PrintWriter(new OutputStreamWriter(output, UTF8), false);
                     if(isJsonp) {
                         writer.write(jsonp);
@@ -196,6 +222,10 @@ public class RestResponseBuilder {
                     writer.close();
                 } catch(Throwable t) {
                     throw wrapException(t);
+                } finally {
+                    if(pipeline != null) {
+                        pipeline.abandon();
+                    }
                 }
             }
         };
@@ -34,16 +34,30 @@ import org.eclipse.jetty.servlet.ServletHolder;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class RestServiceImpl implements RestService, Service {
     private final ConfigurationService configService;
 	private final HttpConductor http;
-    // Used by various resources
-    private final ResourceRequirements reqs;
+    private final RestDMLService restDMLService;
+    private final SessionService sessionService;
+    private final TransactionService transactionService;
+    private final SecurityService securityService;
+    private final DXLService dxlService;
+    private final Store store;
 
 	private volatile ServletHolder servletHolder;
+    // Threads sending pipelined output, bounded and shut down with the service.
+    private volatile ExecutorService outputSenders;
 	
 	private static final String RESOURCE_LIST = "fdbsql.rest.resource";
+    private static final String OUTPUT_THREADS = "fdbsql.rest.output_threads";
+    private static final String OUTPUT_THREAD_NAME_PREFIX = "REST_OUTPUT-";
 	
 
 	@Inject
@@ -57,15 +71,12 @@ public class RestServiceImpl implements RestService, Service {
                            Store store) {
         this.configService = configService;
 		this.http = http;
-        this.reqs = new ResourceRequirements(
-            dxlService,
-            restDMLService,
-            securityService,
-            sessionService,
-            transactionService,
-            store,
-            configService
-        );
+        this.restDMLService = restDMLService;
+        this.sessionService = sessionService;
+        this.transactionService = transactionService;
+        this.securityService = securityService;
+        this.dxlService = dxlService;
+        this.store = store;
     }
 
     @Override
@@ -75,6 +86,7 @@ public class RestServiceImpl implements RestService, Service {
 
 	@Override
 	public void start() {
+        outputSenders = createOutputSenders();
 		registerConnector(http);
 	}
 
@@ -82,6 +94,9 @@ public class RestServiceImpl implements RestService, Service {
 	public void stop() {
         http.unregisterHandler(servletHolder);
         this.servletHolder = null;
+        // Senders still running finish with their responses.
+        outputSenders.shutdown();
+        this.outputSenders = null;
 	}
 
 	@Override
@@ -95,8 +110,35 @@ public class RestServiceImpl implements RestService, Service {
         http.registerHandler(servletHolder, path);
 	}
 
+    private ExecutorService createOutputSenders() {
+        int nthreads = Integer.parseInt(configService.getProperty(OUTPUT_THREADS));
+        final AtomicInteger threadNumber = new AtomicInteger();
+        // No queue: a response without a sender is written directly.
+        return new ThreadPoolExecutor(0, nthreads, 60, TimeUnit.SECONDS,
+                                      new SynchronousQueue<Runnable>(),
+                                      new ThreadFactory() {
+                                          @Override
+                                          public Thread newThread(Runnable r) {
+                                              Thread thread = new Thread(r, OUTPUT_THREAD_NAME_PREFIX + threadNumber.incrementAndGet());
+                                              thread.setDaemon(true);
+                                              return thread;
+                                          }
+                                      });
+    }
+
     private ResourceConfig createResourceConfigV1() {
         String resource_list = configService.getProperty(RESOURCE_LIST);
+        // Used by various resources
+        ResourceRequirements reqs = new ResourceRequirements(
+            dxlService,
+            restDMLService,
+            securityService,
+            sessionService,
+            transactionService,
+            store,
+            configService,
+            outputSenders
+        );
 
         
         Set<Object> resources = new HashSet<>();
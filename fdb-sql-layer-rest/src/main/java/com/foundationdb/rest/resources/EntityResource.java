@@ -42,6 +42,7 @@ import static com.foundationdb.rest.resources.ResourceHelper.IDENTIFIERS_MULTI;
 import static com.foundationdb.rest.resources.ResourceHelper.MEDIATYPE_JSON_JAVASCRIPT;
 import static com.foundationdb.rest.resources.ResourceHelper.checkTableAccessible;
 import static com.foundationdb.rest.resources.ResourceHelper.getPKString;
+import static com.foundationdb.rest.resources.ResourceHelper.outputChunkSize;
 import static com.foundationdb.rest.resources.ResourceHelper.parseTableName;
 import static com.foundationdb.util.JsonUtils.readTree;
 
@@ -71,6 +72,7 @@ public class EntityResource {
                         reqs.restDMLService.getAllEntities(writer, tableName, depth);
                     }
                 })
+                .streamed(outputChunkSize(reqs), reqs.outputSenders)
                 .build();
     }
 
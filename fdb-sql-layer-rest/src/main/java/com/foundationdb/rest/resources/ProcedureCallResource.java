@@ -35,6 +35,7 @@ import java.io.PrintWriter;
 
 import static com.foundationdb.rest.resources.ResourceHelper.JSONP_ARG_NAME;
 import static com.foundationdb.rest.resources.ResourceHelper.MEDIATYPE_JSON_JAVASCRIPT;
+import static com.foundationdb.rest.resources.ResourceHelper.outputChunkSize;
 
 /**
  * Allows calling stored procedures directly.
@@ -65,6 +66,7 @@ public class ProcedureCallResource {
                                                           procName, uri.getQueryParameters(), jsonParams);
                     }
                 })
+                .streamed(outputChunkSize(reqs), reqs.outputSenders)
                 .build();
     }
 }
@@ -18,6 +18,7 @@
 package com.foundationdb.rest.resources;
 
 import com.foundationdb.ais.model.TableName;
+import com.foundationdb.rest.ResourceRequirements;
 import com.foundationdb.server.service.security.SecurityService;
 
 import javax.servlet.http.HttpServletRequest;
@@ -41,6 +42,8 @@ public class ResourceHelper {
 
     public static final String IDENTIFIERS_MULTI = "{identifiers:.*}";
 
+    public static final String OUTPUT_CHUNK_SIZE_PROPERTY = "fdbsql.rest.output_chunk_size";
+
     public static String getSchema(HttpServletRequest request) {
         Principal user = request.getUserPrincipal();
         return (user == null) ? "" : user.getName();
@@ -61,6 +64,11 @@ public class ResourceHelper {
         }
     }
 
+    /** For {@link com.foundationdb.rest.RestResponseBuilder#streamed}. */
+    public static int outputChunkSize(ResourceRequirements reqs) {
+        return Integer.parseInt(reqs.configService.getProperty(OUTPUT_CHUNK_SIZE_PROPERTY));
+    }
+
     /** Expected to be used along with {@link #IDENTIFIERS_MULTI} */
     public static String getPKString(UriInfo uri) {
         String pks[] = uri.getPath(false).split("/");
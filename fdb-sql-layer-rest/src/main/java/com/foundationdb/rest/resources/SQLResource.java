@@ -38,6 +38,7 @@ import java.util.Arrays;
 import java.util.Map;
 
 import static com.foundationdb.rest.resources.ResourceHelper.MEDIATYPE_JSON_JAVASCRIPT;
+import static com.foundationdb.rest.resources.ResourceHelper.outputChunkSize;
 
 @Path("/sql")
 public class SQLResource {
@@ -67,6 +68,7 @@ public class SQLResource {
                         reqs.restDMLService.runSQL(writer, request, paramMap.get("q"), null);
                     }
                 })
+                .streamed(outputChunkSize(reqs), reqs.outputSenders)
                 .build();
     }
 
@@ -108,6 +110,7 @@ public class SQLResource {
                         reqs.restDMLService.runSQL(writer, request, Arrays.asList(statements));
                     }
                 })
+                .streamed(outputChunkSize(reqs), reqs.outputSenders)
                 .build();
     }
 }
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2009-2013 FoundationDB, LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.foundationdb.rest;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+public class PipelinedOutputStreamTest
+{
+    private static final ExecutorService senders = Executors.newCachedThreadPool();
+
+    @AfterClass
+    public static void shutdownSenders() {
+        senders.shutdown();
+    }
+
+    static class RecordingOutputStream extends ByteArrayOutputStream {
+        int maxWrite, flushes;
+        boolean closed;
+        Thread writer;
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            maxWrite = Math.max(maxWrite, len);
+            writer = Thread.currentThread();
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void sameBytesInChunks() throws IOException {
+        byte[] expected = new byte[10000];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte)(i * 31);
+        }
+        RecordingOutputStream out = new RecordingOutputStream();
+        OutputStream pipeline = new PipelinedOutputStream(out, 256, senders);
+        int pos = 0, n = 1;
+        while (pos < expected.length) {
+            int len = Math.min(n, expected.length - pos);
+            if (len == 1)
+                pipeline.write(expected[pos]);
+            else
+                pipeline.write(expected, pos, len);
+            pos += len;
+            n = (n * 7) % 1000 + 1;
+        }
+        pipeline.close();
+        assertArrayEquals(expected, out.toByteArray());
+        assertEquals(256, out.maxWrite);
+        assertEquals((expected.length + 255) / 256, out.flushes);
+        assertTrue(out.closed);
+        assertNotSame(Thread.currentThread(), out.writer);
+    }
+
+    @Test
+    public void flushSendsPartialChunk() throws IOException {
+        RecordingOutputStream out = new RecordingOutputStream();
+        OutputStream pipeline = new PipelinedOutputStream(out, 1024, senders);
+        pipeline.write(new byte[] { 1, 2, 3 });
+        pipeline.flush();
+        pipeline.write(4);
+        pipeline.close();
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, out.toByteArray());
+        assertEquals(2, out.flushes);
+    }
+
+    @Test
+    public void writeFailure() throws IOException {
+        OutputStream out = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    throw new IOException("Broken pipe");
+                }
+            };
+        PipelinedOutputStream pipeline = new PipelinedOutputStream(out, 16, senders);
+        byte[] bytes = new byte[16];
+        try {
+            // The first failure may not be noticed until the next hand off.
+            for (int i = 0; i < 4; i++) {
+                pipeline.write(bytes);
+            }
+            fail("write succeeded");
+        }
+        catch (IOException ex) {
+            assertEquals("Broken pipe", ex.getMessage());
+        }
+        pipeline.abandon();
+    }
+
+    @Test
+    public void abandonDropsUnsent() throws IOException {
+        RecordingOutputStream out = new RecordingOutputStream();
+        PipelinedOutputStream pipeline = new PipelinedOutputStream(out, 8, senders);
+        byte[] bytes = new byte[12];
+        Arrays.fill(bytes, (byte)9);
+        pipeline.write(bytes);
+        pipeline.abandon();
+        assertEquals(8, out.size());
+        assertFalse(out.closed);
+        // Already finished.
+        pipeline.close();
+        assertFalse(out.closed);
+    }
+
+    @Test
+    public void noSender() throws IOException {
+        ExecutorService none = Executors.newSingleThreadExecutor();
+        none.shutdown();
+        RecordingOutputStream out = new RecordingOutputStream();
+        try {
+            new PipelinedOutputStream(out, 8, none);
+            fail("sender started");
+        }
+        catch (RejectedExecutionException ex) {
+            // Caller writes directly instead.
+        }
+        assertEquals(0, out.size());
+        assertFalse(out.closed);
+    }
+}